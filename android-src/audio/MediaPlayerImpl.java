@@ -156,8 +156,12 @@ public class MediaPlayerImpl implements MediaPlayerIFace, OnCompletionListener,
 		stop();
 	}
 
-	@Override
-	public void playIndex(int theIndex) {
+	/**
+	 * everything playIndex does short of starting the playback
+	 * 
+	 * @return boolean - is the media prepared?
+	 */
+	protected boolean prepareIndex(int theIndex) {
 		vmp_PlayBackIndexInt = theIndex;
 		String theMediaStr = formatMediaUrl(vmp_MediaUrlStrList
 				.get(vmp_PlayBackIndexInt));
@@ -195,13 +199,13 @@ public class MediaPlayerImpl implements MediaPlayerIFace, OnCompletionListener,
 				vmp_MediaPlayer.setDataSource(theMediaStr);
 			} catch (IllegalArgumentException ex) {
 				handlePlayIndexEx(ex);
-				return;
+				return false;
 			} catch (IllegalStateException ex) {
 				handlePlayIndexEx(ex);
-				return;
+				return false;
 			} catch (IOException ex) {
 				handlePlayIndexEx(ex);
-				return;
+				return false;
 			}
 		} else if (vmp_MediaUrlStrList.get(vmp_PlayBackIndexInt).contains(
 				FileSystemType.smb.toString().concat(
@@ -229,7 +233,7 @@ public class MediaPlayerImpl implements MediaPlayerIFace, OnCompletionListener,
 						vmp_MediaUrlStrList.get(vmp_PlayBackIndexInt),
 						aPlayBackFileNameStr);
 				if (!isCopySuccess) {
-					return;
+					return false;
 				}
 			}
 
@@ -245,7 +249,7 @@ public class MediaPlayerImpl implements MediaPlayerIFace, OnCompletionListener,
 				}
 			} catch (FileNotFoundException ex) {
 				handlePlayIndexEx(ex);
-				return;
+				return false;
 			}
 
 			vmp_MediaPlayer.reset();
@@ -255,19 +259,19 @@ public class MediaPlayerImpl implements MediaPlayerIFace, OnCompletionListener,
 				vmp_MediaPlayer.setDataSource(aFileInputStream.getFD());
 			} catch (IllegalArgumentException ex) {
 				handlePlayIndexEx(ex);
-				return;
+				return false;
 			} catch (IllegalStateException ex) {
 				handlePlayIndexEx(ex);
-				return;
+				return false;
 			} catch (IOException ex) {
 				handlePlayIndexEx(ex);
-				return;
+				return false;
 			}
 			try {
 				aFileInputStream.close();
 			} catch (IOException ex) {
 				handlePlayIndexEx(ex);
-				return;
+				return false;
 			}
 		} else { // local file
 			FileInputStream aFileInputStream = null;
@@ -275,7 +279,7 @@ public class MediaPlayerImpl implements MediaPlayerIFace, OnCompletionListener,
 				aFileInputStream = new FileInputStream(new File(theMediaStr));
 			} catch (FileNotFoundException ex) {
 				handlePlayIndexEx(ex);
-				return;
+				return false;
 			}
 
 			vmp_MediaPlayer.reset();
@@ -285,19 +289,19 @@ public class MediaPlayerImpl implements MediaPlayerIFace, OnCompletionListener,
 				vmp_MediaPlayer.setDataSource(aFileInputStream.getFD());
 			} catch (IllegalArgumentException ex) {
 				handlePlayIndexEx(ex);
-				return;
+				return false;
 			} catch (IllegalStateException ex) {
 				handlePlayIndexEx(ex);
-				return;
+				return false;
 			} catch (IOException ex) {
 				handlePlayIndexEx(ex);
-				return;
+				return false;
 			}
 			try {
 				aFileInputStream.close();
 			} catch (IOException ex) {
 				handlePlayIndexEx(ex);
-				return;
+				return false;
 			}
 		}
 
@@ -306,11 +310,19 @@ public class MediaPlayerImpl implements MediaPlayerIFace, OnCompletionListener,
 			vmp_MediaPlayer.prepare();
 		} catch (IllegalStateException ex) {
 			handlePlayIndexEx(ex);
+			return false;
 		} catch (IOException ex) {
 			handlePlayIndexEx(ex);
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void playIndex(int theIndex) {
+		if (prepareIndex(theIndex)) {
+			vmp_MediaPlayer.start(); // start playback
 		}
-		// start playback
-		vmp_MediaPlayer.start();
 	}
 
 	protected boolean copySmbFileToLocalStorage(String theSmbFileStr,
@@ -427,6 +439,17 @@ public class MediaPlayerImpl implements MediaPlayerIFace, OnCompletionListener,
 		}
 	}
 
+	@Override
+	public void prepareMediaUrl(String theMediaUrlStr) {
+		addMediaUrl(theMediaUrlStr);
+		prepareIndex(vmp_MediaUrlStrList.size() - 1);
+	}
+
+	@Override
+	public void startPrepared() {
+		vmp_MediaPlayer.start();
+	}
+
 	@Override
 	public void next() {
 		if ((vmp_PlayBackIndexInt + 1) < vmp_MediaUrlStrList.size()) {
@@ -121,7 +121,14 @@ public class MusicZonesActivity extends Activity {
 				myZoneMulticastServer.startServer();
 			}
 
-			// start up the library indexing service
+			// start up the library indexing service, keeping its snapshot
+			// on external storage when available
+			if (MusicZones.getAppExternalStorageRoot() != null) {
+				ZoneLibraryIndex.setSnapshotPath(MusicZones
+						.getAppExternalStorageRoot()
+						+ File.separator
+						+ "library.idx");
+			}
 			ZoneLibraryIndex aZoneLibraryIndex = ZoneLibraryIndex
 					.getInstance(MusicZones.getIsDebugOn());
 			aZoneLibraryIndex.addIndexBuild();
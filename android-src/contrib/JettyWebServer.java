@@ -11,10 +11,16 @@ import org.mortbay.jetty.servlet.ServletHandler;
 import org.mortbay.jetty.servlet.ServletHolder;
 
 import servlets.StaticProxy;
+import servlets.ZoneApi;
+import servlets.ZoneCommand;
 import servlets.ZoneLibrary;
+import servlets.ZoneLibraryExport;
+import servlets.ZoneLibrarySuggest;
 import servlets.ZonePlaylist;
 import servlets.ZoneSelection_Page;
 import servlets.ZoneSearchMedia_DialogPage;
+import zonecontrol.ZoneCommandChannel;
+import zonecontrol.ZoneLibraryFederation;
 
 /**
  * @author Jason Zerbe
@@ -39,6 +45,14 @@ public class JettyWebServer {
 		aServletHandler.addServletWithMapping(new ServletHolder(
 				new ZoneSearchMedia_DialogPage()),
 				"/servlets/library-search-dialog");
+		aServletHandler.addServletWithMapping(new ServletHolder(
+				new ZoneLibrarySuggest()), "/servlets/library-suggest");
+		aServletHandler.addServletWithMapping(new ServletHolder(
+				new ZoneApi()), "/servlets/api/*");
+		aServletHandler.addServletWithMapping(new ServletHolder(
+				new ZoneCommand()), ZoneCommandChannel.kCommandPathStr);
+		aServletHandler.addServletWithMapping(new ServletHolder(
+				new ZoneLibraryExport()), ZoneLibraryFederation.kSnapshotPathStr);
 		aServletHandler.addServletWithMapping(new ServletHolder(
 				new StaticProxy()), "/*");
 		jws_serverInstance.addHandler(aServletHandler);
@@ -2,17 +2,22 @@
  * class for managing direct slave interface to MPlayer executable
  * slight modifications from original
  * for slave commands: http://www.mplayerhq.hu/DOCS/tech/slave.txt
+ *
+ * one MPlayer is kept running idle and every track is handed to it with
+ * loadfile, so changing tracks starts no process and no threads - a single
+ * thread reads what MPlayer prints, handing property answers to the caller
+ * waiting for them and telling the listener when a track played to its end
  */
 package audio;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import musiczones.MusicZones;
@@ -25,58 +30,87 @@ import zonecontrol.ZoneLibraryIndex;
 public class JMPlayer {
 
     private static final Logger logger = Logger.getLogger(JMPlayer.class.getName());
-    public static final int kPipeSizeBytes = 3145728; //3MB
+    private static final long kStartTimeoutMillis = 15000; // a stream may take a while to buffer
+    private static final long kAnswerTimeoutMillis = 2000;
+    private static final long kListEntryGapMillis = 1000; // between the entries of a playlist file
+    private static final String kStartedStr = "Starting playback...";
+    private static final String kEofStr = "EOF code:"; // printed at -msglevel global=6
+    private static final String kFailedStr = "Failed to open";
+    private static final String kAnswerErrorStr = "ANS_ERROR=";
+
+    /** Told when a track played to its end, on a thread of its own. */
+    public interface PlaybackListener {
+
+        void playbackFinished();
+    }
 
-    /** A thread that reads from an input stream and outputs to another line by line. */
-    private static class LineRedirecter extends Thread {
+    /** A thread that reads the combined standard output and error of one MPlayer process line by line. */
+    private class OutputReader extends Thread {
 
-        /** The input stream to read from. */
-        private InputStream in;
-        /** The output stream to write to. */
-        private OutputStream out;
-        /** The prefix used to prefix the lines when outputting to the logger. */
-        private String prefix;
+        /** The process read from. */
+        private final Process process;
+        /** The reader for its output. */
+        private final BufferedReader reader;
 
         /**
-         * @param in the input stream to read from.
-         * @param out the output stream to write to.
-         * @param prefix the prefix used to prefix the lines when outputting to the logger.
+         * @param process the MPlayer process to read from.
          */
-        LineRedirecter(InputStream in, OutputStream out, String prefix) {
-            this.in = in;
-            this.out = out;
-            this.prefix = prefix;
+        OutputReader(Process process) {
+            super("JMPlayer output");
+            setDaemon(true);
+            this.process = process;
+            this.reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
         }
 
         @Override
         public void run() {
-            // creates the decorating reader and writer
-            BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-            PrintStream printStream = new PrintStream(out);
             String line;
             try {
                 // read line by line
                 while ((line = reader.readLine()) != null) {
                     if (MusicZones.getIsDebugOn()) {
-                        logger.log(Level.INFO, "{0}{1}", new Object[]{prefix != null ? prefix : "", line});
+                        logger.log(Level.INFO, "MPlayer says: {0}", line);
                     }
-                    printStream.println(line);
+                    handleLine(process, line);
                 }
             } catch (IOException ex) {
                 System.err.println(ex);
             }
+            processExited(process);
         }
     }
     /** The path to the MPlayer executable. */
     private String mplayerPath = "mplayer";
     /** Options passed to MPlayer. */
-    private String mplayerOptions = "-slave";//"-slave -idle";
+    private final String[] mplayerOptions = {"-slave", "-idle", "-quiet", "-msglevel", "global=6"};
     /** The process corresponding to MPlayer. */
     private Process mplayerProcess;
     /** The standard input for MPlayer where you can send commands. */
     private PrintStream mplayerIn;
-    /** A combined reader for the the standard output and error of MPlayer. Used to read MPlayer responses. */
-    private BufferedReader mplayerOutErr;
+    /** Guards what MPlayer is doing, the output reader notifies on it. */
+    private final Object zjm_Lock = new Object();
+    private int zjm_LoadCount = 0; // loads, stops and closes, a load waiting gives up once it changes
+    private int zjm_StartCount = 0; // tracks MPlayer started playing
+    private long zjm_OutcomeCount = 0; // loads MPlayer started or could not open
+    private boolean zjm_isLastOutcomeStart = false;
+    private int zjm_PendingLoadCount = 0; // loads sent whose outcome is still to be printed
+    private boolean zjm_isStopQueued = false; // stop sent after the last pending load
+    private boolean zjm_isLoaded = false; // is a track playing or paused?
+    private boolean zjm_isList = false; // is the track a playlist file?
+    private int zjm_ReplacedCount = 0; // tracks replaced or stopped whose end is still to be printed
+    private String zjm_ExpectedStr = null; // start of the answer waited for
+    private String zjm_AnswerStr = null;
+    private boolean zjm_isAnswered = false;
+    private PlaybackListener zjm_Listener = null;
+    private final ExecutorService zjm_EventExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable theRunnable) {
+            Thread returnThread = new Thread(theRunnable, "JMPlayer events");
+            returnThread.setDaemon(true);
+            return returnThread;
+        }
+    });
 
     public JMPlayer() {
     }
@@ -94,49 +128,117 @@ public class JMPlayer {
         this.mplayerPath = mplayerPath;
     }
 
-    public Process open(String theMediaPath) throws IOException {
-        if (mplayerProcess != null) {
-            close(); //close up the old player if one is already open
-        }
-
-        // start MPlayer as an external process
-        if (ZoneLibraryIndex.getInstance().theContainerIsPlayList(theMediaPath)) {
-            mplayerProcess = new ProcessBuilder(mplayerPath, mplayerOptions, "-playlist", theMediaPath).start();
-        } else {
-            mplayerProcess = new ProcessBuilder(mplayerPath, mplayerOptions, theMediaPath).start();
+    /**
+     * @param theListener PlaybackListener - told when a track played to its
+     * end, not when it was replaced, stopped or closed
+     */
+    public void setPlaybackListener(PlaybackListener theListener) {
+        synchronized (zjm_Lock) {
+            zjm_Listener = theListener;
         }
+    }
 
-        // create the piped streams where to redirect the standard output and error of MPlayer
-        // specify a bigger pipesize
-        PipedInputStream readFrom = new PipedInputStream(kPipeSizeBytes);
-        PipedOutputStream writeTo = new PipedOutputStream(readFrom);
-        mplayerOutErr = new BufferedReader(new InputStreamReader(readFrom));
-
-        // create the threads to redirect the standard output and error of MPlayer
-        new LineRedirecter(mplayerProcess.getInputStream(), writeTo, "MPlayer says: ").start();
-        new LineRedirecter(mplayerProcess.getErrorStream(), writeTo, "MPlayer encountered an error: ").start();
-
-        // the standard input of MPlayer
-        mplayerIn = new PrintStream(mplayerProcess.getOutputStream());
+    /**
+     * play the media instead of what is playing, starting MPlayer if it is
+     * not running yet - waits for the playback to start without keeping
+     * stop, pause or another load from going ahead
+     * @param theMediaPath String - file, URL or playlist file
+     * @return boolean - did the playback start? false as well if another
+     * load, stop or close came first
+     * @throws IOException if MPlayer could not be started
+     */
+    public boolean load(String theMediaPath) throws IOException {
+        return load(theMediaPath, false);
+    }
 
-        // wait to start playing
-        waitForAnswer("Starting playback...");
+    /**
+     * load the media instead of what is playing, either playing or held
+     * paused at its start - a paused load is paused by MPlayer before any of
+     * it is heard, so togglePlay starts it without a gap
+     * @param theMediaPath String - file, URL or playlist file
+     * @param theIsPaused boolean - hold it paused at its start?
+     * @return boolean - did the media load? false as well if another load,
+     * stop or close came first
+     * @throws IOException if MPlayer could not be started
+     */
+    public boolean load(String theMediaPath, boolean theIsPaused) throws IOException {
+        synchronized (zjm_Lock) {
+            if (mplayerProcess == null) {
+                start();
+            }
+            Process aProcess = mplayerProcess;
+            int aLoadCount = ++zjm_LoadCount;
+            zjm_Lock.notifyAll(); // a load still waiting gives up
+            zjm_isList = ZoneLibraryIndex.getInstance().theContainerIsPlayList(theMediaPath);
+            if (zjm_isLoaded && (zjm_PendingLoadCount == 0)) {
+                zjm_ReplacedCount++; // else counted when the pending load starts
+            }
+            zjm_isStopQueued = false;
+            zjm_PendingLoadCount++;
+            long aOutcomeCount = zjm_OutcomeCount + zjm_PendingLoadCount; // once reached this load is done
+            execute((theIsPaused ? "pausing " : "") + (zjm_isList ? "loadlist " : "loadfile ")
+                    + quote(theMediaPath));
+
+            // wait to start playing
+            long aDeadlineMillis = System.currentTimeMillis() + kStartTimeoutMillis;
+            while ((zjm_OutcomeCount < aOutcomeCount) && (zjm_LoadCount == aLoadCount)
+                    && (mplayerProcess == aProcess)) {
+                long aWaitMillis = aDeadlineMillis - System.currentTimeMillis();
+                if (aWaitMillis <= 0) {
+                    break;
+                }
+                try {
+                    zjm_Lock.wait(aWaitMillis);
+                } catch (InterruptedException ex) {
+                    break;
+                }
+            }
+            if (zjm_LoadCount != aLoadCount) {
+                return false; // replaced before it started, not a failure
+            }
+            if ((zjm_OutcomeCount < aOutcomeCount) || (!zjm_isLastOutcomeStart)) {
+                System.err.println("JMPlayer unable to play " + theMediaPath);
+                return false;
+            }
+        }
         if (MusicZones.getIsDebugOn()) {
             logger.log(Level.INFO, "Started playing file {0}", theMediaPath);
         }
+        return true;
+    }
 
-        //for use in attaching an exit handler in the calling class
-        return mplayerProcess;
+    /** Stops what is playing, or is about to, MPlayer keeps running idle. */
+    public void stop() {
+        synchronized (zjm_Lock) {
+            zjm_LoadCount++; // a load waiting gives up, an end already on its way to the listener is dropped
+            zjm_Lock.notifyAll();
+            if (zjm_PendingLoadCount > 0) {
+                zjm_isStopQueued = true; // counted when the pending load starts
+                execute("stop");
+            } else if (zjm_isLoaded) {
+                zjm_ReplacedCount++;
+                execute("stop");
+            }
+        }
     }
 
+    /** Quits MPlayer, the next track starts it again. */
     public void close() {
-        if (mplayerProcess != null) {
-            execute("quit");
-            try {
-                mplayerProcess.waitFor();
-            } catch (InterruptedException e) {
+        Process aProcess;
+        synchronized (zjm_Lock) {
+            aProcess = mplayerProcess;
+            if (aProcess == null) {
+                return;
             }
-            mplayerProcess = null;
+            execute("quit");
+            mplayerProcess = null; // quitting is not the end of a track
+            zjm_LoadCount++;
+            resetTrackState();
+            zjm_Lock.notifyAll();
+        }
+        try {
+            aProcess.waitFor();
+        } catch (InterruptedException e) {
         }
     }
 
@@ -214,6 +316,139 @@ public class JMPlayer {
         execute("set_property " + name + " " + value);
     }
 
+    /** Starts MPlayer idle, with its standard error merged into its standard output. */
+    private void start() throws IOException {
+        ArrayList<String> aCommandList = new ArrayList<String>();
+        aCommandList.add(mplayerPath);
+        for (String aOption : mplayerOptions) {
+            aCommandList.add(aOption);
+        }
+        ProcessBuilder aProcessBuilder = new ProcessBuilder(aCommandList);
+        aProcessBuilder.redirectErrorStream(true);
+        mplayerProcess = aProcessBuilder.start();
+        mplayerIn = new PrintStream(mplayerProcess.getOutputStream());
+        resetTrackState();
+        new OutputReader(mplayerProcess).start();
+    }
+
+    /** Forget the tracks of a process that is gone. Called holding zjm_Lock. */
+    private void resetTrackState() {
+        zjm_isLoaded = false;
+        zjm_ReplacedCount = 0;
+        zjm_PendingLoadCount = 0;
+        zjm_isStopQueued = false;
+    }
+
+    /**
+     * @param theArgument String
+     * @return String - quoted for the slave command parser, which has no
+     * escapes, so a path holding both quote characters is passed bare
+     */
+    private static String quote(String theArgument) {
+        if (theArgument.indexOf('"') < 0) {
+            return "\"" + theArgument + "\"";
+        } else if (theArgument.indexOf('\'') < 0) {
+            return "'" + theArgument + "'";
+        }
+        return theArgument;
+    }
+
+    /** Keeps track of what MPlayer is doing from a line it printed, if it was not closed since. */
+    private void handleLine(Process process, String line) {
+        synchronized (zjm_Lock) {
+            if (mplayerProcess != process) {
+                return;
+            } else if ((zjm_ExpectedStr != null)
+                    && (line.startsWith(zjm_ExpectedStr) || line.startsWith(kAnswerErrorStr))) {
+                zjm_AnswerStr = line;
+                zjm_isAnswered = true;
+                zjm_Lock.notifyAll();
+            } else if (line.startsWith(kStartedStr)) {
+                zjm_StartCount++;
+                zjm_isLoaded = true;
+                if (zjm_PendingLoadCount > 0) { // else the next entry of a playlist file
+                    zjm_PendingLoadCount--;
+                    zjm_OutcomeCount++;
+                    zjm_isLastOutcomeStart = true;
+                    if ((zjm_PendingLoadCount > 0) || zjm_isStopQueued) { // a load or stop sent meanwhile ends it
+                        zjm_ReplacedCount++;
+                        if (zjm_PendingLoadCount == 0) {
+                            zjm_isStopQueued = false;
+                        }
+                    }
+                }
+                zjm_Lock.notifyAll();
+            } else if (line.startsWith(kFailedStr)) {
+                if (zjm_PendingLoadCount > 0) {
+                    zjm_PendingLoadCount--;
+                    zjm_OutcomeCount++;
+                    zjm_isLastOutcomeStart = false;
+                    if (zjm_PendingLoadCount == 0) {
+                        zjm_isStopQueued = false;
+                        if (!zjm_isLoaded) {
+                            zjm_ReplacedCount = 0; // the end of what was replaced came before the failure
+                        }
+                    }
+                }
+                zjm_Lock.notifyAll();
+            } else if (line.startsWith(kEofStr)) {
+                zjm_isLoaded = false;
+                if (zjm_ReplacedCount > 0) {
+                    zjm_ReplacedCount--;
+                } else {
+                    playbackFinished();
+                }
+            }
+        }
+    }
+
+    /** Tells the listener a track played to its end, unless another started meanwhile. Called holding zjm_Lock. */
+    private void playbackFinished() {
+        final int aLoadCount = zjm_LoadCount;
+        final int aStartCount = zjm_StartCount;
+        final boolean aIsList = zjm_isList;
+        zjm_EventExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (aIsList) { // the next entry of the playlist file starts by itself, if there is one
+                    try {
+                        Thread.sleep(kListEntryGapMillis);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                PlaybackListener aListener;
+                synchronized (zjm_Lock) {
+                    if ((aLoadCount != zjm_LoadCount) || (aStartCount != zjm_StartCount)) {
+                        return;
+                    }
+                    aListener = zjm_Listener;
+                }
+                if (aListener != null) {
+                    aListener.playbackFinished();
+                }
+            }
+        });
+    }
+
+    /** MPlayer went away, on purpose if it is not the current process any more. */
+    private void processExited(Process process) {
+        synchronized (zjm_Lock) {
+            if (mplayerProcess != process) {
+                return;
+            }
+            System.err.println("JMPlayer MPlayer exited unexpectedly");
+            mplayerProcess = null;
+            boolean wasLoaded = zjm_isLoaded;
+            resetTrackState();
+            zjm_Lock.notifyAll();
+            if (wasLoaded) { // what it was playing is over
+                playbackFinished();
+            }
+        }
+    }
+
     /** Sends a command to MPlayer..
      * @param command the command to be sent
      */
@@ -221,55 +456,55 @@ public class JMPlayer {
         execute(command, null);
     }
 
-    /** Sends a command to MPlayer and waits for an answer.
+    /** Sends a command to MPlayer and waits for an answer, read by the output reader.
      * @param command the command to be sent
      * @param expected the string with which has to start the line; if null don't wait for an answer
-     * @return the MPlayer answer
+     * @return the MPlayer answer, null if none came in time
      */
     private String execute(String command, String expected) {
-        if (mplayerProcess != null) {
+        synchronized (zjm_Lock) {
+            while ((expected != null) && (zjm_ExpectedStr != null) && (mplayerProcess != null)) {
+                try {
+                    zjm_Lock.wait(kAnswerTimeoutMillis); // one answer waited for at a time
+                } catch (InterruptedException ex) {
+                    return null;
+                }
+            }
+            if (mplayerProcess == null) {
+                return null;
+            }
             if (MusicZones.getIsDebugOn()) {
                 logger.log(Level.INFO, "Send to MPlayer the command \"{0}\" and expecting {1}", new Object[]{command, expected != null ? "\"" + expected + "\"" : "no answer"});
             }
             mplayerIn.print(command);
             mplayerIn.print("\n");
             mplayerIn.flush();
-            if (MusicZones.getIsDebugOn()) {
-                logger.info("Command sent");
-            }
-            if (expected != null) {
-                String response = waitForAnswer(expected);
-                if (MusicZones.getIsDebugOn()) {
-                    logger.log(Level.INFO, "MPlayer command response: {0}", response);
-                }
-                return response;
+            if (expected == null) {
+                return null;
             }
-        }
-        return null;
-    }
 
-    /** Read from the MPlayer standard output and error a line that starts with the given parameter and return it.
-     * @param expected the expected starting string for the line
-     * @return the entire line from the standard output or error of MPlayer
-     */
-    private String waitForAnswer(String expected) {
-        // todo add the possibility to specify more options to be specified
-        // todo use regexp matching instead of the beginning of a string
-        String line = null;
-        if (expected != null) {
-            try {
-                while ((line = mplayerOutErr.readLine()) != null) {
-                    if (MusicZones.getIsDebugOn()) {
-                        logger.log(Level.INFO, "Reading line: {0}", line);
-                    }
-                    if (line.startsWith(expected)) {
-                        return line;
-                    }
+            zjm_ExpectedStr = expected;
+            zjm_AnswerStr = null;
+            zjm_isAnswered = false;
+            long aDeadlineMillis = System.currentTimeMillis() + kAnswerTimeoutMillis;
+            while ((!zjm_isAnswered) && (mplayerProcess != null)) {
+                long aWaitMillis = aDeadlineMillis - System.currentTimeMillis();
+                if (aWaitMillis <= 0) {
+                    break;
                 }
-            } catch (IOException ex) {
-                System.err.println(ex);
+                try {
+                    zjm_Lock.wait(aWaitMillis);
+                } catch (InterruptedException ex) {
+                    break;
+                }
+            }
+            String response = zjm_AnswerStr;
+            zjm_ExpectedStr = null;
+            zjm_Lock.notifyAll(); // the next caller may wait for its answer
+            if (MusicZones.getIsDebugOn()) {
+                logger.log(Level.INFO, "MPlayer command response: {0}", response);
             }
+            return response;
         }
-        return line;
     }
 }
@@ -4,8 +4,6 @@
  */
 package audio;
 
-import ipc.ProcessExitDetector;
-import ipc.ProcessListener;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.LinkedList;
@@ -23,7 +21,6 @@ public class MediaPlayerImpl implements MediaPlayerIFace {
     private List<String> vmp_MediaUrlStrList = null;
     private int vmp_PlayBackIndexInt = -1;
     private boolean debugMessagesOn = false;
-    protected int lengthOfPauseBetweenMediaInSeconds = 2;
     private JMPlayer vmp_JMPlayer = null;
     public static final String prefMediaPlayerPathKeyStr = "media-player-bin-path";
     public static final String[] theSupportedContainers = {"mp3", "mp4", "ogg",
@@ -39,6 +36,15 @@ public class MediaPlayerImpl implements MediaPlayerIFace {
         }
         vmp_JMPlayer = new JMPlayer();
         vmp_JMPlayer.setMPlayerPath(aMPlayerBinPath);
+        vmp_JMPlayer.setPlaybackListener(new JMPlayer.PlaybackListener() {
+
+            @Override
+            public void playbackFinished() {
+                if (vmp_PlayBackIndexInt > -1) { //if not manually stopped ...
+                    next(); //auto-advance to the next playlist item
+                }
+            }
+        });
     }
 
     @Override
@@ -99,46 +105,30 @@ public class MediaPlayerImpl implements MediaPlayerIFace {
     @Override
     public void playIndex(int theIndex) {
         vmp_PlayBackIndexInt = theIndex;
-        try {
-            String theMediaStr = formatMediaUrl(vmp_MediaUrlStrList.get(vmp_PlayBackIndexInt));
+        //skip what cannot be played, going no further than the end of the playlist
+        for (int aSkipCount = 0; aSkipCount < vmp_MediaUrlStrList.size(); aSkipCount++) {
+            int aPlayBackIndexInt = vmp_PlayBackIndexInt;
+            String theMediaStr = formatMediaUrl(vmp_MediaUrlStrList.get(aPlayBackIndexInt));
             if (debugMessagesOn) {
                 System.out.println("will now play: " + theMediaStr);
             }
-            Process aMPlayerProcess = vmp_JMPlayer.open(theMediaStr);
-
-            if (aMPlayerProcess != null) { //attach a process exit handler, if process started correctly
-                final int earlierPlayBackIndexInt = vmp_PlayBackIndexInt;
-
-                ProcessExitDetector processExitDetector = new ProcessExitDetector(aMPlayerProcess);
-                processExitDetector.addProcessListener(new ProcessListener() {
-
-                    @Override
-                    public void processFinished(Process process) {
-                        if (vmp_PlayBackIndexInt > -1) { //if not manually stopped ...
-                            final int laterPlayBackIndexInt = vmp_PlayBackIndexInt;
-
-                            try {
-                                Thread.sleep(lengthOfPauseBetweenMediaInSeconds * 1000);
-                            } catch (InterruptedException ex) {
-                                System.err.println(ex);
-                            }
-
-                            if (debugMessagesOn) {
-                                System.out.println("earlier: " + earlierPlayBackIndexInt);
-                            }
-                            if (debugMessagesOn) {
-                                System.out.println("later: " + laterPlayBackIndexInt);
-                            }
-                            if (earlierPlayBackIndexInt == laterPlayBackIndexInt) {
-                                next(); //auto-advance to the next playlist item
-                            }
-                        }
-                    }
-                });
-                processExitDetector.start();
+            try {
+                if (vmp_JMPlayer.load(theMediaStr)) {
+                    return;
+                }
+            } catch (IOException ex) {
+                System.err.println(ex);
+                return;
             }
-        } catch (IOException ex) {
-            System.err.println(ex);
+            if (vmp_PlayBackIndexInt != aPlayBackIndexInt) {
+                return; //stopped or moved on meanwhile
+            }
+            System.err.println("skipping unplayable media: " + theMediaStr);
+            if ((aPlayBackIndexInt + 1) >= vmp_MediaUrlStrList.size()) {
+                stop(); //no more items in playlist
+                return;
+            }
+            vmp_PlayBackIndexInt = aPlayBackIndexInt + 1;
         }
     }
 
@@ -180,6 +170,25 @@ public class MediaPlayerImpl implements MediaPlayerIFace {
         vmp_JMPlayer.togglePlay();
     }
 
+    @Override
+    public void prepareMediaUrl(String theMediaUrlStr) {
+        addMediaUrl(theMediaUrlStr);
+        vmp_PlayBackIndexInt = vmp_MediaUrlStrList.size() - 1;
+        String theMediaStr = formatMediaUrl(theMediaUrlStr);
+        try {
+            if (!vmp_JMPlayer.load(theMediaStr, true)) { //paused from the start, nothing is heard before startPrepared
+                System.err.println("unable to prepare media: " + theMediaStr);
+            }
+        } catch (IOException ex) {
+            System.err.println(ex);
+        }
+    }
+
+    @Override
+    public void startPrepared() {
+        vmp_JMPlayer.togglePlay();
+    }
+
     @Override
     public void next() {
         if ((vmp_PlayBackIndexInt + 1) < vmp_MediaUrlStrList.size()) {
@@ -203,7 +212,7 @@ public class MediaPlayerImpl implements MediaPlayerIFace {
     @Override
     public void stop(int theIndex) {
         vmp_PlayBackIndexInt = theIndex;
-        vmp_JMPlayer.close();
+        vmp_JMPlayer.stop();
     }
 
     @Override
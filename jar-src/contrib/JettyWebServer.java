@@ -11,10 +11,16 @@ import org.mortbay.jetty.Server;
 import org.mortbay.jetty.servlet.ServletHolder;
 import org.mortbay.jetty.webapp.WebAppContext;
 import org.springframework.core.io.ClassPathResource;
+import servlets.ZoneApi;
+import servlets.ZoneCommand;
 import servlets.ZoneLibrary;
+import servlets.ZoneLibraryExport;
+import servlets.ZoneLibrarySuggest;
 import servlets.ZonePlaylist;
 import servlets.ZoneSelection_Page;
 import servlets.ZoneSearchMedia_DialogPage;
+import zonecontrol.ZoneCommandChannel;
+import zonecontrol.ZoneLibraryFederation;
 
 /**
  * @author Jason Zerbe
@@ -43,6 +49,10 @@ public class JettyWebServer {
         webAppContext.addServlet(new ServletHolder(new ZonePlaylist()), "/servlets/playlist");
         webAppContext.addServlet(new ServletHolder(new ZoneLibrary()), "/servlets/library");
         webAppContext.addServlet(new ServletHolder(new ZoneSearchMedia_DialogPage()), "/servlets/library-search-dialog");
+        webAppContext.addServlet(new ServletHolder(new ZoneLibrarySuggest()), "/servlets/library-suggest");
+        webAppContext.addServlet(new ServletHolder(new ZoneApi()), "/servlets/api/*");
+        webAppContext.addServlet(new ServletHolder(new ZoneCommand()), ZoneCommandChannel.kCommandPathStr);
+        webAppContext.addServlet(new ServletHolder(new ZoneLibraryExport()), ZoneLibraryFederation.kSnapshotPathStr);
         jws_serverInstance.addHandler(webAppContext);
     }
 
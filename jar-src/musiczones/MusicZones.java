@@ -9,6 +9,7 @@ import java.io.File;
 import netutil.HttpCmdClient;
 import netutil.IpAddressType;
 import netutil.Layer3Info;
+import netutil.SambaHostScanner;
 import zonecontrol.ZoneLibraryIndex;
 import zonecontrol.ZoneMulticastServer;
 import zonecontrol.ZoneServerLogic;
@@ -24,6 +25,8 @@ public class MusicZones {
     protected static String global_MPlayerBinPath = null;
     protected static int global_ScanMinInt = 1;
     protected static int global_ScanMaxInt = 10;
+    protected static String global_ScanCIDRStr = null;
+    protected static int global_ScanRateInt = SambaHostScanner.kDefaultProbesPerSecond;
     protected static boolean global_IsLowMem = false;
     protected static boolean global_IsDebugOn = false;
     protected static boolean global_IsOnline = true;
@@ -35,6 +38,9 @@ public class MusicZones {
             + "--mplayer-bin-path=[path to mplayer] "
             + "--set-scan-min=[last octet of IPv4 in int] "
             + "--set-scan-max=[last octent of IPv4 in int] "
+            + "--scan-cidr=[IPv4 range to scan for shares, e.g. 192.168.0.0/22, a /16 at most] "
+            + "--scan-rate=[max new share scan probes per second] "
+            + "--index-file=[path to library index snapshot] "
             + "--low-mem (do not build metadata indexes or other memory intensive tasks) "
             + "--debug-on (output debug information) "
             + "--offline (no LAN/WAN route) "
@@ -89,6 +95,21 @@ public class MusicZones {
                 if (!"".equals(currentArgArray[1])) {
                     global_ScanMaxInt = Integer.valueOf(currentArgArray[1]);
                 }
+            } else if (currentArg.contains("--scan-cidr=")) {
+                String currentArgArray[] = currentArg.split("=");
+                if (!"".equals(currentArgArray[1])) {
+                    global_ScanCIDRStr = currentArgArray[1];
+                }
+            } else if (currentArg.contains("--scan-rate=")) {
+                String currentArgArray[] = currentArg.split("=");
+                if (!"".equals(currentArgArray[1])) {
+                    global_ScanRateInt = Integer.valueOf(currentArgArray[1]);
+                }
+            } else if (currentArg.contains("--index-file=")) {
+                String currentArgArray[] = currentArg.split("=");
+                if (!"".equals(currentArgArray[1])) {
+                    ZoneLibraryIndex.setSnapshotPath(currentArgArray[1]);
+                }
             } else if (currentArg.contains("--low-mem")) {
                 global_IsLowMem = true;
             } else if (currentArg.contains("--debug-on")) {
@@ -189,6 +210,8 @@ public class MusicZones {
         ZoneLibraryIndex.getInstance(getIsDebugOn());
         ZoneLibraryIndex.getInstance().setScanMin(global_ScanMinInt);
         ZoneLibraryIndex.getInstance().setScanMax(global_ScanMaxInt);
+        ZoneLibraryIndex.getInstance().setScanCIDR(global_ScanCIDRStr);
+        ZoneLibraryIndex.getInstance().setScanRate(global_ScanRateInt);
 
         //start the master server notification point
         if (getIsOnline()) {
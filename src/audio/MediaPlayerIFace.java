@@ -22,6 +22,18 @@ public interface MediaPlayerIFace {
 
     void togglePlayPause();
 
+    /**
+     * load the media at the end of the playlist and hold it paused at its
+     * start, so startPrepared only has to unpause it
+     * @param theMediaUrlStr String
+     */
+    void prepareMediaUrl(String theMediaUrlStr);
+
+    /**
+     * start the media loaded by prepareMediaUrl
+     */
+    void startPrepared();
+
     void next();
 
     void previous();
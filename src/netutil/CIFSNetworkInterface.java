@@ -164,4 +164,22 @@ public class CIFSNetworkInterface {
 			return null;
 		}
 	}
+
+	/**
+	 * get the last modified time of the remote path
+	 * 
+	 * @param thePath
+	 *            String
+	 * @return long - milliseconds since epoch, 0 on error or if unknown
+	 */
+	public long getLastModified(String thePath) {
+		try {
+			return new SmbFile(thePath).lastModified();
+		} catch (MalformedURLException ex) {
+			System.err.println(ex);
+		} catch (SmbException ex) {
+			System.err.println(ex);
+		}
+		return 0;
+	}
 }
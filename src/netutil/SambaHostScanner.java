@@ -0,0 +1,319 @@
+/*
+ * non-blocking scanner that finds possible SMB hosts on an IPv4 range by
+ * probing the NetBIOS session (139) and direct SMB (445) ports of every
+ * address at the same time from a single selector thread
+ */
+package netutil;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * @author Jason Zerbe
+ */
+public class SambaHostScanner {
+
+	public static final int[] kSambaPortArray = { 445, 139 };
+	public static final int kDefaultProbesPerSecond = 2000;
+	public static final int kDefaultConnectTimeoutMillis = 250;
+	protected static final int kMaxOpenProbes = 256; // keep well below the file descriptor limit
+	public static final int kMinCIDRPrefixLength = 16; // a /16 takes about a minute at the default rate, a /8 hours
+	public static final long kMaxScanAddrCount = 1L << (32 - kMinCIDRPrefixLength);
+	private int shs_ProbesPerSecond = kDefaultProbesPerSecond;
+	private int shs_ConnectTimeoutMillis = kDefaultConnectTimeoutMillis;
+	private boolean shs_DebugOn = false;
+
+	/**
+	 * gets told about each host as soon as one of its ports answers
+	 */
+	public interface HostListener {
+
+		public void hostFound(String theIPv4Addr);
+	}
+
+	/**
+	 * @param theProbesPerSecond
+	 *            int - rate limit of new connection attempts
+	 * @param theConnectTimeoutMillis
+	 *            int - how long a single probe may wait for an answer
+	 * @param theDebugOn
+	 *            boolean
+	 */
+	public SambaHostScanner(int theProbesPerSecond,
+			int theConnectTimeoutMillis, boolean theDebugOn) {
+		shs_ProbesPerSecond = Math.max(theProbesPerSecond, 1);
+		shs_ConnectTimeoutMillis = Math.max(theConnectTimeoutMillis, 1);
+		shs_DebugOn = theDebugOn;
+	}
+
+	/**
+	 * parse a CIDR range such as 192.168.0.0/22, ranges wider than a /16 are
+	 * refused as they would keep the index build scanning for hours
+	 *
+	 * @param theCIDRStr
+	 *            String
+	 * @return long[] - first and last usable address, null if not valid or
+	 *         too wide
+	 */
+	public static long[] parseCIDR(String theCIDRStr) {
+		if (theCIDRStr == null) {
+			return null;
+		}
+		String[] aCIDRArray = theCIDRStr.trim().split("/", -1);
+		long aAddr = parseIPv4(aCIDRArray[0]);
+		if (aAddr < 0) {
+			return null;
+		}
+
+		int aPrefixLength = 32;
+		if (aCIDRArray.length == 2) {
+			try {
+				aPrefixLength = Integer.parseInt(aCIDRArray[1]);
+			} catch (NumberFormatException ex) {
+				return null;
+			}
+		} else if (aCIDRArray.length > 2) {
+			return null;
+		}
+		if ((aPrefixLength < kMinCIDRPrefixLength) || (aPrefixLength > 32)) {
+			return null;
+		}
+
+		long aMask = (0xFFFFFFFFL << (32 - aPrefixLength)) & 0xFFFFFFFFL;
+		long aFirstAddr = aAddr & aMask;
+		long aLastAddr = aFirstAddr | (~aMask & 0xFFFFFFFFL);
+		if (aPrefixLength < 31) { // skip network and broadcast address
+			aFirstAddr++;
+			aLastAddr--;
+		}
+		return new long[] { aFirstAddr, aLastAddr };
+	}
+
+	/**
+	 * @param theIPv4Addr
+	 *            String - dotted quad
+	 * @return long - address as an unsigned 32 bit value, -1 if not valid
+	 */
+	public static long parseIPv4(String theIPv4Addr) {
+		String[] aOctetArray = theIPv4Addr.trim().split("\\.", -1);
+		if (aOctetArray.length != 4) {
+			return -1;
+		}
+		long returnAddr = 0;
+		for (String aOctet : aOctetArray) {
+			if ((aOctet.length() == 0) || (aOctet.length() > 3)) {
+				return -1;
+			}
+			int aOctetInt = 0;
+			for (int i = 0; i < aOctet.length(); i++) { // digits only, no sign
+				int aDigit = Character.digit(aOctet.charAt(i), 10);
+				if (aDigit < 0) {
+					return -1;
+				}
+				aOctetInt = aOctetInt * 10 + aDigit;
+			}
+			if (aOctetInt > 255) {
+				return -1;
+			}
+			returnAddr = (returnAddr << 8) | aOctetInt;
+		}
+		return returnAddr;
+	}
+
+	/**
+	 * @param theAddr
+	 *            long - address as an unsigned 32 bit value
+	 * @return String - dotted quad
+	 */
+	public static String formatIPv4(long theAddr) {
+		return ((theAddr >> 24) & 0xFF) + "." + ((theAddr >> 16) & 0xFF) + "."
+				+ ((theAddr >> 8) & 0xFF) + "." + (theAddr & 0xFF);
+	}
+
+	/**
+	 * @param theFirstAddr
+	 *            long
+	 * @param theLastAddr
+	 *            long
+	 * @return long - the last address a scan starting at theFirstAddr goes
+	 *         to, no more than kMaxScanAddrCount addresses
+	 */
+	static long getLastScanAddr(long theFirstAddr, long theLastAddr) {
+		return Math.min(theLastAddr, theFirstAddr + kMaxScanAddrCount - 1);
+	}
+
+	/**
+	 * probe every address in the range, calling the listener from the
+	 * scanning thread for each host that accepts a connection on any of the
+	 * SMB ports - a range wider than kMaxScanAddrCount is cut short
+	 *
+	 * @param theFirstAddr
+	 *            long
+	 * @param theLastAddr
+	 *            long
+	 * @param theHostListener
+	 *            HostListener
+	 * @return int - number of hosts found, -1 if the scan could not run
+	 */
+	public int scan(long theFirstAddr, long theLastAddr,
+			HostListener theHostListener) {
+		Selector aSelector;
+		try {
+			aSelector = Selector.open();
+		} catch (IOException ex) {
+			System.err.println(ex);
+			return -1;
+		}
+
+		long aLastAddr = getLastScanAddr(theFirstAddr, theLastAddr);
+		if (aLastAddr < theLastAddr) {
+			System.err.println("SHS scan - only scanning up to "
+					+ formatIPv4(aLastAddr));
+		}
+		HashSet<Long> aFoundAddrSet = new HashSet<Long>();
+		long aNextAddr = theFirstAddr;
+		int aNextPortIndex = 0;
+		long aProbeCount = 0;
+		long aStartNanos = System.nanoTime();
+		long aProbeIntervalNanos = 1000000000L / shs_ProbesPerSecond;
+		long aTimeoutNanos = shs_ConnectTimeoutMillis * 1000000L;
+
+		try {
+			while ((aNextAddr <= aLastAddr) || (!aSelector.keys().isEmpty())) {
+				// start as many probes as the rate limit allows
+				long aNowNanos = System.nanoTime();
+				while ((aNextAddr <= aLastAddr)
+						&& (aSelector.keys().size() < kMaxOpenProbes)
+						&& ((aNowNanos - aStartNanos) >= (aProbeCount * aProbeIntervalNanos))) {
+					if (!aFoundAddrSet.contains(aNextAddr)) {
+						startProbe(aSelector, aNextAddr,
+								kSambaPortArray[aNextPortIndex], aNowNanos
+										+ aTimeoutNanos, aFoundAddrSet,
+								theHostListener);
+					}
+					aProbeCount++;
+					aNextPortIndex++;
+					if (aNextPortIndex >= kSambaPortArray.length) {
+						aNextPortIndex = 0;
+						aNextAddr++;
+					}
+				}
+
+				aSelector.select(1);
+				Iterator<SelectionKey> aSelectedKeyIter = aSelector
+						.selectedKeys().iterator();
+				while (aSelectedKeyIter.hasNext()) {
+					SelectionKey aSelectionKey = aSelectedKeyIter.next();
+					aSelectedKeyIter.remove();
+					SocketChannel aSocketChannel = (SocketChannel) aSelectionKey
+							.channel();
+					Probe aProbe = (Probe) aSelectionKey.attachment();
+					boolean aIsConnected = false;
+					try {
+						aIsConnected = aSocketChannel.finishConnect();
+					} catch (IOException ex) {
+						// refused or unreachable
+					}
+					if (aIsConnected) {
+						hostFound(aProbe.probeAddr, aFoundAddrSet,
+								theHostListener);
+					}
+					closeProbe(aSelectionKey);
+				}
+
+				// give up on probes that did not get an answer in time
+				aNowNanos = System.nanoTime();
+				for (SelectionKey aSelectionKey : aSelector.keys()) {
+					Probe aProbe = (Probe) aSelectionKey.attachment();
+					if ((aNowNanos - aProbe.deadlineNanos) >= 0) {
+						closeProbe(aSelectionKey);
+					}
+				}
+				aSelector.selectNow(); // flush cancelled keys
+			}
+		} catch (IOException ex) {
+			System.err.println(ex);
+		} finally {
+			for (SelectionKey aSelectionKey : aSelector.keys()) {
+				closeProbe(aSelectionKey);
+			}
+			try {
+				aSelector.close();
+			} catch (IOException ex) {
+				System.err.println(ex);
+			}
+		}
+
+		if (shs_DebugOn) {
+			System.out.println("SHS scan - probed " + aProbeCount
+					+ " ports in "
+					+ ((System.nanoTime() - aStartNanos) / 1000000)
+					+ " ms, found " + aFoundAddrSet.size() + " hosts");
+		}
+		return aFoundAddrSet.size();
+	}
+
+	private void startProbe(Selector theSelector, long theAddr, int thePort,
+			long theDeadlineNanos, HashSet<Long> theFoundAddrSet,
+			HostListener theHostListener) {
+		SocketChannel aSocketChannel = null;
+		try {
+			aSocketChannel = SocketChannel.open();
+			aSocketChannel.configureBlocking(false);
+			if (aSocketChannel.connect(new InetSocketAddress(
+					formatIPv4(theAddr), thePort))) {
+				hostFound(theAddr, theFoundAddrSet, theHostListener);
+				aSocketChannel.close();
+			} else {
+				aSocketChannel.register(theSelector, SelectionKey.OP_CONNECT,
+						new Probe(theAddr, theDeadlineNanos));
+			}
+		} catch (IOException ex) {
+			if (aSocketChannel != null) {
+				try {
+					aSocketChannel.close();
+				} catch (IOException ex2) {
+					System.err.println(ex2);
+				}
+			}
+		}
+	}
+
+	private void hostFound(long theAddr, HashSet<Long> theFoundAddrSet,
+			HostListener theHostListener) {
+		if (theFoundAddrSet.add(theAddr)) {
+			if (shs_DebugOn) {
+				System.out.println("SHS hostFound - " + formatIPv4(theAddr));
+			}
+			theHostListener.hostFound(formatIPv4(theAddr));
+		}
+	}
+
+	private void closeProbe(SelectionKey theSelectionKey) {
+		theSelectionKey.cancel();
+		try {
+			theSelectionKey.channel().close();
+		} catch (IOException ex) {
+			System.err.println(ex);
+		}
+	}
+
+	/**
+	 * a connection attempt waiting on the selector
+	 */
+	private static class Probe {
+
+		protected long probeAddr = 0;
+		protected long deadlineNanos = 0;
+
+		protected Probe(long theAddr, long theDeadlineNanos) {
+			probeAddr = theAddr;
+			deadlineNanos = theDeadlineNanos;
+		}
+	}
+}
@@ -0,0 +1,361 @@
+/*
+ * JSON interface to the library, the playlist and the zones, for clients
+ * that would otherwise have to scrape the jQuery Mobile pages
+ *
+ * GET /servlets/api/library/search - the search parameters of ZoneLibrary
+ * GET /servlets/api/library/facets - values of one facet with file counts
+ * GET /servlets/api/playlist - playlist and player state
+ * GET /servlets/api/zones - the zone controllers on the network
+ * GET /servlets/api/stats/cache - counters of the library fragment cache
+ *
+ * every response but the counters carries an entity tag, a poll with If-None-Match gets a
+ * bodiless 304 while nothing has changed
+ */
+package servlets;
+
+import audio.MediaPlayerImpl;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import zonecontrol.LibraryFacetType;
+import zonecontrol.ZoneLibraryBitmap;
+import zonecontrol.ZoneLibraryFileRecord;
+import zonecontrol.ZoneLibraryGeneration;
+import zonecontrol.ZoneLibraryIndex;
+import zonecontrol.ZoneLibraryQuery;
+import zonecontrol.ZoneLibrarySortedDictionary;
+import zonecontrol.ZoneRegistry;
+import zonecontrol.ZoneServerLogic;
+import zonecontrol.ZoneServerUtility;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneApi extends HttpServlet {
+
+    private static final long serialVersionUID = 42L;
+    private static final int kDefaultCount = 30;
+    private static final int kMaxCount = 1000;
+    private static final String kCursorParamStr = "after";
+    private static final String kCountParamStr = "count";
+    private static final String kJsonContentTypeStr = "application/json; charset=UTF-8";
+
+    public ZoneApi() {
+    }
+
+    /**
+     * GET request handler, dispatching on the path below the servlet
+     * @param req HttpServletRequest
+     * @param resp HttpServletResponse
+     * @throws ServletException
+     * @throws IOException
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        String aPathStr = req.getPathInfo();
+        if (aPathStr == null) {
+            aPathStr = "";
+        }
+        int aCountInt = kDefaultCount;
+        String aCountStr = req.getParameter(kCountParamStr);
+        if ((aCountStr != null) && (!aCountStr.equals(""))) {
+            try {
+                aCountInt = Math.max(1, Math.min(kMaxCount, Integer.parseInt(aCountStr)));
+            } catch (NumberFormatException ex) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "count is not a number");
+                return;
+            }
+        }
+
+        if (aPathStr.equals("/library/search")) {
+            doLibrarySearch(req, resp, aCountInt);
+        } else if (aPathStr.equals("/library/facets")) {
+            doLibraryFacets(req, resp, aCountInt);
+        } else if (aPathStr.equals("/playlist")) {
+            doPlaylist(req, resp);
+        } else if (aPathStr.equals("/zones")) {
+            doZones(req, resp);
+        } else if (aPathStr.equals("/stats/cache")) {
+            doCacheStats(resp);
+        } else {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND, "no such API: " + aPathStr);
+        }
+    }
+
+    /**
+     * files matching the keywords and facet filters, a page at a time - in
+     * file id order resuming after the "after" cursor, or in order of rank
+     * by "page" for the ranked search type
+     */
+    private void doLibrarySearch(HttpServletRequest req, HttpServletResponse resp, int theCount) throws IOException {
+        int aPageInt = 0;
+        String aPageStr = req.getParameter("page");
+        if ((aPageStr != null) && (!aPageStr.equals(""))) {
+            try {
+                aPageInt = Math.max(0, Integer.parseInt(aPageStr));
+            } catch (NumberFormatException ex) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "page is not a number");
+                return;
+            }
+        }
+        ZoneLibraryIndex aIndex = ZoneLibraryIndex.getInstance();
+        ZoneLibraryGeneration aGeneration = aIndex.getGeneration();
+        if (isNotModified(req, resp, aIndex.getGenerationTag(aGeneration))) {
+            return;
+        }
+
+        ZoneLibraryQuery aQuery = new ZoneLibraryQuery();
+        ZoneLibrary.getFacetQuery(req, aQuery);
+        String aKeywordsStr = req.getParameter("keywords");
+        if (aKeywordsStr == null) {
+            aKeywordsStr = "";
+        }
+        String[] aKeywordArray = aKeywordsStr.replace(",", " ").trim().toLowerCase(Locale.ENGLISH).split(" +");
+        String aTypeStr = req.getParameter("type");
+        aQuery.setKeywords(aKeywordArray, ZoneSearchMedia_SearchType.all.toString().equals(aTypeStr));
+
+        resp.setContentType(kJsonContentTypeStr);
+        ZoneJsonWriter aJsonWriter = new ZoneJsonWriter(resp.getWriter());
+        aJsonWriter.beginObject();
+        aJsonWriter.name("generation").value(aGeneration.getGenerationNumber());
+        aJsonWriter.name("files").beginArray();
+        if (ZoneSearchMedia_SearchType.ranked.toString().equals(aTypeStr) && (!aKeywordsStr.trim().equals(""))) {
+            int[] aFileIdArray = aGeneration.getRankedFileIds(aKeywordArray, aQuery,
+                    aPageInt * theCount, ((aPageInt + 1) * theCount) - 1);
+            for (int aFileId : aFileIdArray) {
+                writeFile(aJsonWriter, aGeneration, aGeneration.getFileRecord(aFileId));
+            }
+            aJsonWriter.endArray();
+            aJsonWriter.name("nextPage");
+            if (aFileIdArray.length == theCount) {
+                aJsonWriter.value(aPageInt + 1);
+            } else {
+                aJsonWriter.value((String) null);
+            }
+        } else {
+            ZoneLibraryBitmap aMatchBitmap = aGeneration.getFileIds(aQuery);
+            int aFileId = aMatchBitmap.nextId(aIndex.getFileIdFromCursor(req.getParameter(kCursorParamStr)) + 1);
+            int aLastFileId = -1;
+            for (int i = 0; (i < theCount) && (aFileId >= 0); i++) {
+                writeFile(aJsonWriter, aGeneration, aGeneration.getFileRecord(aFileId));
+                aLastFileId = aFileId;
+                aFileId = aMatchBitmap.nextId(aFileId + 1);
+            }
+            aJsonWriter.endArray();
+            aJsonWriter.name("next").value((aFileId >= 0) ? aIndex.getCursor(aLastFileId) : null);
+        }
+        aJsonWriter.endObject();
+        aJsonWriter.flush();
+    }
+
+    /**
+     * values of the "facet" parameter with their file counts, optionally
+     * only those starting with "prefix", resuming after the value "after"
+     */
+    private void doLibraryFacets(HttpServletRequest req, HttpServletResponse resp, int theCount) throws IOException {
+        LibraryFacetType aFacetType = null;
+        try {
+            aFacetType = LibraryFacetType.valueOf(String.valueOf(req.getParameter("facet")));
+        } catch (IllegalArgumentException ex) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "facet must be one of album, artist, genre or title");
+            return;
+        }
+        ZoneLibraryIndex aIndex = ZoneLibraryIndex.getInstance();
+        ZoneLibraryGeneration aGeneration = aIndex.getGeneration();
+        if (isNotModified(req, resp, aIndex.getGenerationTag(aGeneration))) {
+            return;
+        }
+
+        ZoneLibrarySortedDictionary<ZoneLibraryBitmap> aDictionary = aGeneration.getFacet(aFacetType).getDictionary();
+        String aPrefixStr = req.getParameter("prefix");
+        if (aPrefixStr == null) {
+            aPrefixStr = "";
+        }
+        int aStartIndex = aDictionary.lowerBound(aPrefixStr);
+        int aEndIndex = aDictionary.prefixEnd(aPrefixStr);
+        String aAfterStr = req.getParameter(kCursorParamStr);
+        if (aAfterStr != null) {
+            int aAfterIndex = aDictionary.lowerBound(aAfterStr);
+            if ((aAfterIndex < aDictionary.size()) && aDictionary.getKey(aAfterIndex).equals(aAfterStr)) {
+                aAfterIndex++;
+            }
+            aStartIndex = Math.max(aStartIndex, aAfterIndex);
+        }
+
+        resp.setContentType(kJsonContentTypeStr);
+        ZoneJsonWriter aJsonWriter = new ZoneJsonWriter(resp.getWriter());
+        aJsonWriter.beginObject();
+        aJsonWriter.name("generation").value(aGeneration.getGenerationNumber());
+        aJsonWriter.name("facet").value(aFacetType.toString());
+        aJsonWriter.name("values").beginArray();
+        int i = aStartIndex;
+        for (; (i < aEndIndex) && (i < aStartIndex + theCount); i++) {
+            aJsonWriter.beginObject();
+            aJsonWriter.name("value").value(aDictionary.getKey(i));
+            aJsonWriter.name("count").value(aDictionary.getList(i).size());
+            aJsonWriter.endObject();
+        }
+        aJsonWriter.endArray();
+        aJsonWriter.name("next").value((i < aEndIndex) ? aDictionary.getKey(i - 1) : null);
+        aJsonWriter.endObject();
+        aJsonWriter.flush();
+    }
+
+    /**
+     * the playlist is small, it is written to a buffer first so its tag can
+     * be taken from the content
+     */
+    private void doPlaylist(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        MediaPlayerImpl aMediaPlayer = MediaPlayerImpl.getInstance();
+        StringWriter aBodyWriter = new StringWriter();
+        ZoneJsonWriter aJsonWriter = new ZoneJsonWriter(aBodyWriter);
+        aJsonWriter.beginObject();
+        aJsonWriter.name("current").value(aMediaPlayer.getCurrentIndex());
+        aJsonWriter.name("stopped").value(aMediaPlayer.isStopped());
+        aJsonWriter.name("items").beginArray();
+        List<String> aPlayList = aMediaPlayer.getPlayList();
+        if (aPlayList != null) {
+            for (String aMediaUrlStr : aPlayList) {
+                aJsonWriter.beginObject();
+                aJsonWriter.name("url").value(aMediaUrlStr);
+                aJsonWriter.name("name").value(ZoneServerUtility.getInstance().getFileNameFromUrlStr(aMediaUrlStr));
+                aJsonWriter.endObject();
+            }
+        }
+        aJsonWriter.endArray();
+        aJsonWriter.endObject();
+        writeTaggedBody(req, resp, aBodyWriter.toString());
+    }
+
+    /**
+     * this zone and the others it has heard from, buffered like the playlist
+     */
+    private void doZones(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        ZoneServerLogic aServerLogic = ZoneServerLogic.getInstance();
+        StringWriter aBodyWriter = new StringWriter();
+        ZoneJsonWriter aJsonWriter = new ZoneJsonWriter(aBodyWriter);
+        aJsonWriter.beginObject();
+        aJsonWriter.name("self").value(aServerLogic.getUUID());
+        aJsonWriter.name("name").value(aServerLogic.getZoneName());
+        aJsonWriter.name("zones").beginArray();
+        for (ZoneRegistry.Record aNodeRecord : aServerLogic.getZoneRegistry().getRecords()) {
+            aJsonWriter.beginObject();
+            aJsonWriter.name("uuid").value(aNodeRecord.getZoneUUID());
+            aJsonWriter.name("name").value(aNodeRecord.getZoneName());
+            aJsonWriter.name("dashboard").value(aNodeRecord.getDashBoardUrlStr());
+            aJsonWriter.endObject();
+        }
+        aJsonWriter.endArray();
+        aJsonWriter.endObject();
+        writeTaggedBody(req, resp, aBodyWriter.toString());
+    }
+
+    /**
+     * hits, misses, evictions and invalidations of the fragment cache, for
+     * tuning its byte budget - counters change on every page, so no tag
+     */
+    private void doCacheStats(HttpServletResponse resp) throws IOException {
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.setContentType(kJsonContentTypeStr);
+        ZoneJsonWriter aJsonWriter = new ZoneJsonWriter(resp.getWriter());
+        aJsonWriter.beginObject();
+        aJsonWriter.name("fragments").beginObject();
+        for (Map.Entry<String, Long> aCounterEntry : ZoneFragmentCache.getInstance().getCounters().entrySet()) {
+            aJsonWriter.name(aCounterEntry.getKey()).value(aCounterEntry.getValue().longValue());
+        }
+        aJsonWriter.endObject();
+        aJsonWriter.endObject();
+        aJsonWriter.flush();
+    }
+
+    private static void writeFile(ZoneJsonWriter theJsonWriter, ZoneLibraryGeneration theGeneration,
+            ZoneLibraryFileRecord theFileRecord) throws IOException {
+        theJsonWriter.beginObject();
+        theJsonWriter.name("id").value(theFileRecord.getFileId());
+        theJsonWriter.name("name").value(theFileRecord.getFileName());
+        theJsonWriter.name("path").value(theGeneration.getFullPath(theFileRecord));
+        theJsonWriter.name("title").value(theFileRecord.getTitle());
+        theJsonWriter.name("album").value(theFileRecord.getAlbum());
+        theJsonWriter.name("artists").beginArray();
+        for (String aArtist : theFileRecord.getArtistList()) {
+            theJsonWriter.value(aArtist);
+        }
+        theJsonWriter.endArray();
+        theJsonWriter.name("genres").beginArray();
+        for (String aGenre : theFileRecord.getGenreList()) {
+            theJsonWriter.value(aGenre);
+        }
+        theJsonWriter.endArray();
+        theJsonWriter.endObject();
+    }
+
+    /**
+     * send a buffered body tagged with a digest of itself
+     */
+    private static void writeTaggedBody(HttpServletRequest req, HttpServletResponse resp, String theBodyStr)
+            throws IOException {
+        if (isNotModified(req, resp, getDigest(theBodyStr))) {
+            return;
+        }
+        resp.setContentType(kJsonContentTypeStr);
+        resp.getWriter().write(theBodyStr);
+    }
+
+    /**
+     * set the entity tag of the response and answer 304 when the client
+     * already has it
+     *
+     * @param req HttpServletRequest
+     * @param resp HttpServletResponse
+     * @param theTagStr String - opaque tag, without quotes
+     * @return boolean - was a 304 sent? the response is done then
+     */
+    static boolean isNotModified(HttpServletRequest req, HttpServletResponse resp, String theTagStr) {
+        String aETagStr = "\"" + theTagStr + "\"";
+        resp.setHeader("ETag", aETagStr);
+        resp.setHeader("Cache-Control", "no-cache"); // may be kept, but must be revalidated
+        String aIfNoneMatchStr = req.getHeader("If-None-Match");
+        if (aIfNoneMatchStr == null) {
+            return false;
+        }
+        for (String aClientTagStr : aIfNoneMatchStr.split(",")) {
+            aClientTagStr = aClientTagStr.trim();
+            if (aClientTagStr.startsWith("W/")) {
+                aClientTagStr = aClientTagStr.substring(2); // weak comparison is enough for a GET
+            }
+            if (aClientTagStr.equals(aETagStr) || aClientTagStr.equals("*")) {
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param theStr String
+     * @return String - hex SHA-1 of the UTF-8 bytes
+     */
+    private static String getDigest(String theStr) {
+        try {
+            byte[] aDigestArray = MessageDigest.getInstance("SHA-1").digest(theStr.getBytes("UTF-8"));
+            StringBuilder returnHexStr = new StringBuilder(aDigestArray.length * 2);
+            for (byte aByte : aDigestArray) {
+                returnHexStr.append(Character.forDigit((aByte >> 4) & 0xF, 16)).append(Character.forDigit(aByte & 0xF, 16));
+            }
+            return returnHexStr.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex.toString()); // every Java platform has SHA-1
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex.toString()); // and UTF-8
+        }
+    }
+}
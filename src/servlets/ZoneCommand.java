@@ -0,0 +1,90 @@
+/*
+ * servlet at the receiving end of ZoneCommandChannel, carries out the
+ * commands another zone posted for this one and acknowledges them with a
+ * bodiless 204 once they are
+ */
+package servlets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import zonecontrol.ZoneServerLogic;
+import zonecontrol.ZoneWireMessage;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneCommand extends HttpServlet {
+
+    private static final long serialVersionUID = 42L;
+    private static final int kMaxBodyBytes = 1024 * 1024; // thousands of commands
+
+    public ZoneCommand() {
+    }
+
+    /**
+     * POST request handler for ZoneWireMessages one after another
+     * @param req HttpServletRequest
+     * @param resp HttpServletResponse
+     * @throws ServletException
+     * @throws IOException
+     */
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        int aBodyLength = req.getContentLength();
+        if (aBodyLength < 0) {
+            resp.sendError(HttpServletResponse.SC_LENGTH_REQUIRED);
+            return;
+        }
+        if (aBodyLength > kMaxBodyBytes) {
+            resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
+        byte[] aBodyBytes = new byte[aBodyLength];
+        InputStream aInputStream = req.getInputStream();
+        int aReadCount = 0;
+        while (aReadCount < aBodyLength) {
+            int aCount = aInputStream.read(aBodyBytes, aReadCount, aBodyLength - aReadCount);
+            if (aCount == -1) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "body cut short");
+                return;
+            }
+            aReadCount += aCount;
+        }
+
+        // check every message before carrying out any, so a refused request did nothing
+        ByteBuffer aBodyBuffer = ByteBuffer.wrap(aBodyBytes);
+        ZoneWireMessage aMessage = new ZoneWireMessage();
+        ZoneServerLogic aServerLogic = ZoneServerLogic.getInstance();
+        int aOffset = 0;
+        while (aOffset < aBodyLength) {
+            aBodyBuffer.position(aOffset);
+            if (!aMessage.decode(aBodyBuffer)) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "malformed message");
+                return;
+            }
+            if (aMessage.getType() != ZoneWireMessage.kTypePlaylist) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "type " + aMessage.getType() + " is sent to the group");
+                return;
+            }
+            if (!aServerLogic.isZoneId(aMessage)) {
+                resp.sendError(HttpServletResponse.SC_NOT_FOUND, "message for zone " + aMessage.getIdStr());
+                return;
+            }
+            aOffset += aMessage.getLength();
+        }
+
+        aOffset = 0;
+        while (aOffset < aBodyLength) {
+            aBodyBuffer.position(aOffset);
+            aMessage.decode(aBodyBuffer);
+            aServerLogic.processNetworkMessage(aMessage);
+            aOffset += aMessage.getLength();
+        }
+        resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+}
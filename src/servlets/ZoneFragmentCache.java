@@ -0,0 +1,215 @@
+/*
+ * rendered HTML fragments of the library pages, kept deflated within a byte
+ * budget and dropped least recently used first
+ *
+ * every fragment records the versions of the facets it was rendered from,
+ * once a newer version of a facet is seen the fragments of that facet are
+ * dropped and the fragments of the other facets stay
+ */
+package servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import musiczones.MusicZones;
+import zonecontrol.LibraryFacetType;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneFragmentCache {
+
+    private static ZoneFragmentCache zfc_SingleInstance = null;
+    private static final long kMaxBytes = 2L * 1024 * 1024;
+    private static final int kEntryOverheadBytes = 64; // key, entry and map node, roughly
+    private final long zfc_MaxBytes;
+    private final LinkedHashMap<String, Fragment> zfc_FragmentMap; //<fragment key, fragment>, least recently used first
+    private final EnumMap<LibraryFacetType, Integer> zfc_VersionMap; //<facet, newest version seen>
+    private long zfc_Bytes = 0;
+    private long zfc_HitCount = 0;
+    private long zfc_MissCount = 0;
+    private long zfc_EvictionCount = 0;
+    private long zfc_InvalidationCount = 0;
+
+    protected ZoneFragmentCache(long theMaxBytes) {
+        zfc_MaxBytes = theMaxBytes;
+        zfc_FragmentMap = new LinkedHashMap<String, Fragment>(64, 0.75f, true);
+        zfc_VersionMap = new EnumMap<LibraryFacetType, Integer>(LibraryFacetType.class);
+    }
+
+    public static synchronized ZoneFragmentCache getInstance() {
+        if (zfc_SingleInstance == null) {
+            zfc_SingleInstance = new ZoneFragmentCache(MusicZones.getIsLowMem() ? (kMaxBytes / 8) : kMaxBytes);
+        }
+        return zfc_SingleInstance;
+    }
+
+    /**
+     * @param theKeyStr String - what the fragment shows, for example list and filter
+     * @param theVersionMap EnumMap<LibraryFacetType, Integer> - current
+     * versions of the facets the fragment is rendered from
+     * @return String - the fragment, null if it has to be rendered
+     */
+    public String get(String theKeyStr, EnumMap<LibraryFacetType, Integer> theVersionMap) {
+        Fragment aFragment = null;
+        synchronized (this) {
+            invalidate(theVersionMap);
+            aFragment = zfc_FragmentMap.get(theKeyStr);
+            if ((aFragment != null) && (!aFragment.zf_VersionMap.equals(theVersionMap))) {
+                aFragment = null; // rendered from facets older than the ones asked for
+            }
+            if (aFragment == null) {
+                zfc_MissCount++;
+                return null;
+            }
+            zfc_HitCount++;
+        }
+        return aFragment.inflate(); // outside the lock, a fragment never changes
+    }
+
+    /**
+     * @param theKeyStr String - what the fragment shows
+     * @param theVersionMap EnumMap<LibraryFacetType, Integer> - versions of
+     * the facets the fragment was rendered from
+     * @param theFragmentStr String
+     */
+    public void put(String theKeyStr, EnumMap<LibraryFacetType, Integer> theVersionMap, String theFragmentStr) {
+        Fragment aFragment = new Fragment(new EnumMap<LibraryFacetType, Integer>(theVersionMap), theFragmentStr);
+        int aFragmentBytes = aFragment.zf_DeflatedBytes.length + theKeyStr.length() * 2 + kEntryOverheadBytes;
+        if (aFragmentBytes > zfc_MaxBytes / 4) {
+            return; // would push out most of the cache on its own
+        }
+        synchronized (this) {
+            invalidate(theVersionMap);
+            if (!isCurrent(theVersionMap)) {
+                return; // a newer version was seen while this one was rendered
+            }
+            Fragment aReplacedFragment = zfc_FragmentMap.put(theKeyStr, aFragment);
+            if (aReplacedFragment != null) {
+                zfc_Bytes -= aReplacedFragment.zf_Bytes;
+            }
+            aFragment.zf_Bytes = aFragmentBytes;
+            zfc_Bytes += aFragmentBytes;
+            Iterator<Fragment> aFragmentIterator = zfc_FragmentMap.values().iterator();
+            while ((zfc_Bytes > zfc_MaxBytes) && aFragmentIterator.hasNext()) {
+                zfc_Bytes -= aFragmentIterator.next().zf_Bytes;
+                aFragmentIterator.remove();
+                zfc_EvictionCount++;
+            }
+        }
+    }
+
+    /**
+     * @return Map<String, Long> - hits, misses, evictions, invalidations,
+     * fragments, bytes and maxBytes for tuning the budget
+     */
+    public synchronized Map<String, Long> getCounters() {
+        LinkedHashMap<String, Long> returnCounterMap = new LinkedHashMap<String, Long>();
+        returnCounterMap.put("hits", zfc_HitCount);
+        returnCounterMap.put("misses", zfc_MissCount);
+        returnCounterMap.put("evictions", zfc_EvictionCount);
+        returnCounterMap.put("invalidations", zfc_InvalidationCount);
+        returnCounterMap.put("fragments", (long) zfc_FragmentMap.size());
+        returnCounterMap.put("bytes", zfc_Bytes);
+        returnCounterMap.put("maxBytes", zfc_MaxBytes);
+        return returnCounterMap;
+    }
+
+    /**
+     * drop the fragments of every facet that has a newer version now
+     */
+    private void invalidate(EnumMap<LibraryFacetType, Integer> theVersionMap) {
+        for (Map.Entry<LibraryFacetType, Integer> aVersionEntry : theVersionMap.entrySet()) {
+            Integer aSeenVersion = zfc_VersionMap.get(aVersionEntry.getKey());
+            if ((aSeenVersion != null) && (aSeenVersion.intValue() >= aVersionEntry.getValue().intValue())) {
+                continue;
+            }
+            zfc_VersionMap.put(aVersionEntry.getKey(), aVersionEntry.getValue());
+            if (aSeenVersion == null) {
+                continue; // first time this facet is seen, nothing older is cached
+            }
+            Iterator<Fragment> aFragmentIterator = zfc_FragmentMap.values().iterator();
+            while (aFragmentIterator.hasNext()) {
+                Fragment aFragment = aFragmentIterator.next();
+                if (aFragment.zf_VersionMap.containsKey(aVersionEntry.getKey())) {
+                    zfc_Bytes -= aFragment.zf_Bytes;
+                    aFragmentIterator.remove();
+                    zfc_InvalidationCount++;
+                }
+            }
+        }
+    }
+
+    private boolean isCurrent(EnumMap<LibraryFacetType, Integer> theVersionMap) {
+        for (Map.Entry<LibraryFacetType, Integer> aVersionEntry : theVersionMap.entrySet()) {
+            if (!aVersionEntry.getValue().equals(zfc_VersionMap.get(aVersionEntry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * a fragment as deflated UTF-8
+     */
+    private static class Fragment {
+
+        private final EnumMap<LibraryFacetType, Integer> zf_VersionMap;
+        private final byte[] zf_DeflatedBytes;
+        private final int zf_Length; // of the UTF-8 bytes
+        private int zf_Bytes = 0; // counted against the budget
+
+        private Fragment(EnumMap<LibraryFacetType, Integer> theVersionMap, String theFragmentStr) {
+            zf_VersionMap = theVersionMap;
+            byte[] aUtf8Bytes = getUtf8Bytes(theFragmentStr);
+            zf_Length = aUtf8Bytes.length;
+            ByteArrayOutputStream aByteStream = new ByteArrayOutputStream(zf_Length / 4 + 64);
+            Deflater aDeflater = new Deflater(Deflater.BEST_SPEED);
+            DeflaterOutputStream aDeflaterStream = new DeflaterOutputStream(aByteStream, aDeflater);
+            try {
+                aDeflaterStream.write(aUtf8Bytes);
+                aDeflaterStream.close();
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex.toString()); // not from a byte array stream
+            } finally {
+                aDeflater.end();
+            }
+            zf_DeflatedBytes = aByteStream.toByteArray();
+        }
+
+        private String inflate() {
+            Inflater aInflater = new Inflater();
+            try {
+                aInflater.setInput(zf_DeflatedBytes);
+                byte[] aUtf8Bytes = new byte[zf_Length];
+                int aOffset = 0;
+                while ((aOffset < zf_Length) && (!aInflater.finished())) {
+                    aOffset += aInflater.inflate(aUtf8Bytes, aOffset, zf_Length - aOffset);
+                }
+                return new String(aUtf8Bytes, 0, aOffset, "UTF-8");
+            } catch (DataFormatException ex) {
+                throw new IllegalStateException(ex.toString()); // deflated by us
+            } catch (UnsupportedEncodingException ex) {
+                throw new IllegalStateException(ex.toString()); // every Java platform has UTF-8
+            } finally {
+                aInflater.end();
+            }
+        }
+
+        private static byte[] getUtf8Bytes(String theStr) {
+            try {
+                return theStr.getBytes("UTF-8");
+            } catch (UnsupportedEncodingException ex) {
+                throw new IllegalStateException(ex.toString()); // every Java platform has UTF-8
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * streams JSON straight to a writer, so an API response never has to be
+ * collected in maps or lists before it is sent
+ */
+package servlets;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneJsonWriter {
+
+    private static final int kMaxDepth = 32;
+    private final Writer zjw_Writer;
+    private final boolean[] zjw_HasValueArray = new boolean[kMaxDepth]; // has the open object or array a member yet?
+    private int zjw_Depth = 0;
+    private boolean zjw_AfterName = false; // a name was written, its value comes next
+
+    public ZoneJsonWriter(Writer theWriter) {
+        zjw_Writer = theWriter;
+    }
+
+    public ZoneJsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public ZoneJsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public ZoneJsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public ZoneJsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    /**
+     * @param theName String - name of the next member of the open object
+     * @return ZoneJsonWriter
+     * @throws IOException
+     */
+    public ZoneJsonWriter name(String theName) throws IOException {
+        separate();
+        writeString(theName);
+        zjw_Writer.write(':');
+        zjw_AfterName = true;
+        return this;
+    }
+
+    /**
+     * @param theValue String - null is written as null
+     * @return ZoneJsonWriter
+     * @throws IOException
+     */
+    public ZoneJsonWriter value(String theValue) throws IOException {
+        separate();
+        if (theValue == null) {
+            zjw_Writer.write("null");
+        } else {
+            writeString(theValue);
+        }
+        return this;
+    }
+
+    public ZoneJsonWriter value(long theValue) throws IOException {
+        separate();
+        zjw_Writer.write(Long.toString(theValue));
+        return this;
+    }
+
+    public ZoneJsonWriter value(boolean theValue) throws IOException {
+        separate();
+        zjw_Writer.write(theValue ? "true" : "false");
+        return this;
+    }
+
+    public void flush() throws IOException {
+        zjw_Writer.flush();
+    }
+
+    private ZoneJsonWriter open(char theBracket) throws IOException {
+        separate();
+        if (zjw_Depth == kMaxDepth) {
+            throw new IllegalStateException("JSON nested deeper than " + kMaxDepth);
+        }
+        zjw_Writer.write(theBracket);
+        zjw_HasValueArray[zjw_Depth++] = false;
+        return this;
+    }
+
+    private ZoneJsonWriter close(char theBracket) throws IOException {
+        if (zjw_Depth == 0) {
+            throw new IllegalStateException("nothing open to close with " + theBracket);
+        }
+        zjw_Depth--;
+        zjw_Writer.write(theBracket);
+        return this;
+    }
+
+    /**
+     * write the comma between members, a value right after its name needs none
+     */
+    private void separate() throws IOException {
+        if (zjw_AfterName) {
+            zjw_AfterName = false;
+            return;
+        }
+        if (zjw_Depth > 0) {
+            if (zjw_HasValueArray[zjw_Depth - 1]) {
+                zjw_Writer.write(',');
+            }
+            zjw_HasValueArray[zjw_Depth - 1] = true;
+        }
+    }
+
+    private void writeString(String theString) throws IOException {
+        zjw_Writer.write('"');
+        int aRunStart = 0; // unescaped characters are written in runs
+        for (int i = 0; i < theString.length(); i++) {
+            char aChar = theString.charAt(i);
+            String aEscapeStr = null;
+            if (aChar == '"') {
+                aEscapeStr = "\\\"";
+            } else if (aChar == '\\') {
+                aEscapeStr = "\\\\";
+            } else if (aChar == '\n') {
+                aEscapeStr = "\\n";
+            } else if (aChar == '\r') {
+                aEscapeStr = "\\r";
+            } else if (aChar == '\t') {
+                aEscapeStr = "\\t";
+            } else if ((aChar < 0x20) || (aChar == '\u2028') || (aChar == '\u2029')) {
+                String aHexStr = Integer.toHexString(aChar);
+                aEscapeStr = "\\u" + "0000".substring(aHexStr.length()) + aHexStr;
+            }
+            if (aEscapeStr != null) {
+                zjw_Writer.write(theString, aRunStart, i - aRunStart);
+                zjw_Writer.write(aEscapeStr);
+                aRunStart = i + 1;
+            }
+        }
+        zjw_Writer.write(theString, aRunStart, theString.length() - aRunStart);
+        zjw_Writer.write('"');
+    }
+}
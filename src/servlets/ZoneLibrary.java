@@ -6,12 +6,14 @@ package servlets;
 import audio.MediaPlayerImpl;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -20,7 +22,11 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import musiczones.MusicZones;
+import zonecontrol.LibraryFacetType;
+import zonecontrol.ZoneLibraryFileRecord;
+import zonecontrol.ZoneLibraryGeneration;
 import zonecontrol.ZoneLibraryIndex;
+import zonecontrol.ZoneLibraryQuery;
 
 /**
  * @author Jason Zerbe
@@ -31,13 +37,21 @@ public class ZoneLibrary extends HttpServlet {
     private static final int mediaItemsPerPage = 30;
     private static final String kListParamStr = "list";
     private static final String kFilterParamStr = "filter";
+    private static final String kCursorParamStr = "after";
+    private static final String kExcludeParamPrefixStr = "not-";
+    private static final String kFacetPrefixSuffixStr = "*";
     public static final String kQuoteReplaceStr = "!!quote!!";
+    private static final long kResponseCacheBytes = 4L * 1024 * 1024;
+    private final ZoneResponseCache zl_ResponseCache = new ZoneResponseCache(
+            MusicZones.getIsLowMem() ? (kResponseCacheBytes / 8) : kResponseCacheBytes);
 
     public ZoneLibrary() {
     }
 
     /**
-     * GET request handler for the ZoneLibrary
+     * GET request handler for the ZoneLibrary - pages that only depend on
+     * the index are rendered once per generation and parameters, and sent
+     * from the cache after that
      * @param req HttpServletRequest
      * @param resp HttpServletResponse
      * @throws ServletException
@@ -45,8 +59,100 @@ public class ZoneLibrary extends HttpServlet {
      */
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        PrintWriter out = resp.getWriter(); //get the response writer for later
+        if (!isCacheable(req)) {
+            renderPage(req, resp.getWriter());
+            return;
+        }
+
+        ZoneLibraryIndex aIndex = ZoneLibraryIndex.getInstance();
+        ZoneLibraryGeneration aGeneration = aIndex.getGeneration();
+        String aGenerationTag = aIndex.getGenerationTag(aGeneration);
+        String aAcceptEncodingStr = req.getHeader("Accept-Encoding");
+        boolean useGzip = (aAcceptEncodingStr != null) && (aAcceptEncodingStr.indexOf("gzip") >= 0);
+        resp.setHeader("Vary", "Accept-Encoding");
+        resp.setDateHeader("Last-Modified", aGeneration.getPublishedMillis());
+        if (ZoneApi.isNotModified(req, resp, aGenerationTag + (useGzip ? "-gz" : ""))) {
+            return; // strong tags differ by encoding, the bodies do
+        }
+        if (req.getHeader("If-None-Match") == null) { // the entity tag wins when a client sends both
+            try {
+                if (req.getDateHeader("If-Modified-Since") >= (aGeneration.getPublishedMillis() / 1000) * 1000) {
+                    resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+            } catch (IllegalArgumentException ex) {
+                // not a date, send the page
+            }
+        }
+
+        String aKeyStr = getCacheKey(req);
+        ZoneResponseCache.Entry aEntry = zl_ResponseCache.get(aGenerationTag, aKeyStr);
+        if (aEntry == null) {
+            StringWriter aBodyWriter = new StringWriter();
+            PrintWriter aBodyPrintWriter = new PrintWriter(aBodyWriter);
+            renderPage(req, aBodyPrintWriter);
+            aBodyPrintWriter.flush();
+            aEntry = new ZoneResponseCache.Entry(aKeyStr, aBodyWriter.toString().getBytes("UTF-8"));
+            if (aIndex.getGeneration() == aGeneration) { // a page rendered across a publish may mix generations
+                zl_ResponseCache.put(aGenerationTag, aKeyStr, aEntry);
+            }
+        }
 
+        resp.setContentType("text/html; charset=UTF-8");
+        byte[] aBody = aEntry.getBody();
+        if (useGzip) {
+            resp.setHeader("Content-Encoding", "gzip");
+            aBody = aEntry.getGzipBody();
+        }
+        resp.setContentLength(aBody.length);
+        resp.getOutputStream().write(aBody);
+    }
+
+    /**
+     * @param req HttpServletRequest
+     * @return boolean - does the page only depend on the index and the
+     * parameters? the random files and the start page with its rebuild
+     * button do not
+     */
+    private static boolean isCacheable(HttpServletRequest req) {
+        String aTypeStr = req.getParameter("type");
+        if ((aTypeStr != null) && (!aTypeStr.equals(""))) {
+            return true;
+        }
+        for (LibraryFacetType aFacetType : LibraryFacetType.values()) {
+            if ((req.getParameter(aFacetType.toString()) != null)
+                    || (req.getParameter(kExcludeParamPrefixStr + aFacetType.toString()) != null)) {
+                return true;
+            }
+        }
+        String aListStr = req.getParameter(kListParamStr);
+        return (aListStr != null) && (!aListStr.equals("")) && (!aListStr.equals(ID3FieldList.Random.toString()));
+    }
+
+    /**
+     * @param req HttpServletRequest
+     * @return String - the request parameters sorted by name, so the same
+     * page asked for with the parameters in another order is found as well
+     */
+    @SuppressWarnings("unchecked")
+    private static String getCacheKey(HttpServletRequest req) {
+        TreeMap<String, String[]> aParamMap = new TreeMap<String, String[]>(req.getParameterMap());
+        StringBuilder returnKeyStr = new StringBuilder();
+        for (Map.Entry<String, String[]> aParamEntry : aParamMap.entrySet()) {
+            for (String aValue : aParamEntry.getValue()) {
+                returnKeyStr.append(aParamEntry.getKey()).append('=').append(aValue).append('\n');
+            }
+        }
+        return returnKeyStr.toString();
+    }
+
+    /**
+     * render a library page
+     * @param req HttpServletRequest
+     * @param out PrintWriter
+     * @throws IOException
+     */
+    private void renderPage(HttpServletRequest req, PrintWriter out) throws IOException {
         String aPageStr = req.getParameter("page");
         int aPageInt = 0;
         if ((aPageStr != null) && (!aPageStr.equals(""))) {
@@ -61,14 +167,18 @@ public class ZoneLibrary extends HttpServlet {
                 + "<a href='javascript:goBack();' data-role='button' data-icon='back'>Back</a>"
                 + "<h1>Library</h1>");
 
-        if ((req.getParameter("type") != null)
-                && (!req.getParameter("type").equals(""))) { //keywords search
+        ZoneLibraryQuery aFacetQuery = new ZoneLibraryQuery();
+        String aFacetQueryStr = getFacetQuery(req, aFacetQuery);
+        if (((req.getParameter("type") != null)
+                && (!req.getParameter("type").equals(""))) || aFacetQuery.hasFacetFilters()) { //keywords and facets search
             //get search parameters
             boolean searchMatchAllKeywords = false; //default to any keyword matching (OR)
             String searchTypeStr = ZoneSearchMedia_SearchType.any.toString(); //default to any keyword matching (OR)
             if (req.getParameter("type").equals(ZoneSearchMedia_SearchType.all.toString())) {
                 searchTypeStr = ZoneSearchMedia_SearchType.all.toString();
                 searchMatchAllKeywords = true;
+            } else if (req.getParameter("type").equals(ZoneSearchMedia_SearchType.ranked.toString())) {
+                searchTypeStr = ZoneSearchMedia_SearchType.ranked.toString();
             }
             String rawSearchKeywordsStr = req.getParameter("keywords");
             if (rawSearchKeywordsStr == null) {
@@ -82,19 +192,38 @@ public class ZoneLibrary extends HttpServlet {
             }
             rawSearchKeywordsStr = rawSearchKeywordsStr.toLowerCase(Locale.ENGLISH);
             String[] searchKeywordArray = rawSearchKeywordsStr.split(" ");
+            aFacetQuery.setKeywords(searchKeywordArray, searchMatchAllKeywords);
+
+            //get search results from library index
+            String aSearchQueryStr = "type=" + searchTypeStr + "&keywords="
+                    + URLEncoder.encode(rawSearchKeywordsStr, "UTF-8") + aFacetQueryStr;
+            String aNextQueryStr = null; //query of the next page, null on the last one
+            Map<String, String> outputFilesMap = null; //<filename, full file path>
+            if (searchTypeStr.equals(ZoneSearchMedia_SearchType.ranked.toString())
+                    && (!rawSearchKeywordsStr.trim().equals(""))) { //best matches first
+                outputFilesMap = ZoneLibraryIndex.getInstance().getRankedFiles(
+                        searchKeywordArray, aFacetQuery, startIndexInt, endIndexInt);
+                if (outputFilesMap.size() == mediaItemsPerPage) {
+                    aNextQueryStr = aSearchQueryStr + "&page=" + aNextPageInt;
+                }
+            } else {
+                outputFilesMap = new LinkedHashMap<String, String>();
+                String aNextCursorStr = getFilePage(req, aFacetQuery, outputFilesMap);
+                if (aNextCursorStr != null) {
+                    aNextQueryStr = aSearchQueryStr + "&" + kCursorParamStr + "=" + aNextCursorStr;
+                }
+            }
 
             //output end of header and start of content
-            out.println("<a href='javascript:librarySearchPage_SearchMore(&quot;"
-                    + searchTypeStr + "&quot;, &quot;" + rawSearchKeywordsStr
-                    + "&quot;, " + aNextPageInt + ");' data-role='button' data-icon='plus'>More</a>");
+            if (aNextQueryStr != null) {
+                out.println("<a href='javascript:librarySearchPage_SearchMore(&quot;"
+                        + aNextQueryStr.replace("&", "&amp;") + "&quot;);' data-role='button' data-icon='plus'>More</a>");
+            }
 
             out.println("</div>" //end header
                     + "<div data-role='content'>"); //and start content
 
-            //get search results from library index
             out.println("<ul id='zoneLibraryList' data-role='listview' data-theme='d'>");
-            TreeMap<String, String> outputFilesMap = ZoneLibraryIndex.getInstance().getFiles(
-                    searchKeywordArray, searchMatchAllKeywords, startIndexInt, endIndexInt); //<filename, full file path>
             if (outputFilesMap.size() > 0) {
                 int i = 0;
                 for (String aTempFileName : outputFilesMap.keySet()) {
@@ -109,183 +238,28 @@ public class ZoneLibrary extends HttpServlet {
             out.println("</ul>");
         } else if ((req.getParameter(kListParamStr) != null)
                 && (!req.getParameter(kListParamStr).equals(""))) { //sort on ID3 param
-            if (req.getParameter(kListParamStr).equals(ID3FieldList.Album.toString())) {
-                out.println("</div>" //end header
-                        + "<div data-role='content'>"); //and start content
-
-                if ((req.getParameter(kFilterParamStr) != null) && (!req.getParameter(kFilterParamStr).equals(""))) {
-                    out.println("<ul id='zoneLibraryList' data-role='listview' data-inset='true' data-filter='true' data-theme='d'>");
-
-                    if (req.getParameter(kFilterParamStr).replace(kQuoteReplaceStr, "'").length() == 1) { //get first char match
-                        TreeMap<String, LinkedList<String>> outputAlbumMap = ZoneLibraryIndex.getInstance().getAlbumMap();
-                        if (outputAlbumMap.size() > 0) {
-                            String aFirstCharStr = req.getParameter(kFilterParamStr).replace(kQuoteReplaceStr, "'").substring(0, 1);
-                            int aFirstChar = aFirstCharStr.charAt(0);
-                            String aNextChar = String.valueOf((char) (aFirstChar + 1));
-                            SortedMap<String, LinkedList<String>> aSubMap = outputAlbumMap.subMap(
-                                    aFirstCharStr, aNextChar);
-                            if (aSubMap.size() > 0) {
-                                int i = 0;
-                                for (String aTempAlbumName : aSubMap.keySet()) {
-                                    out.println("<li data-icon='arrow-r' id='zoneLibraryListItem_" + i + "'>");
-                                    out.println("<a href='javascript:mediaLibrary_SubList(&quot;"
-                                            + ID3FieldList.Album.toString() + "&quot;, "
-                                            + "&quot;" + aTempAlbumName.replace("'", kQuoteReplaceStr) + "&quot;);'>"
-                                            + aTempAlbumName + "</a>");
-                                    out.println("</li>");
-                                    i++;
-                                }
-                            }
-                        }
-                    } else { //get complete album match
-                        TreeMap<String, String> outputAlbumMap = ZoneLibraryIndex.getInstance().getTitlesFromAlbum(req.getParameter(kFilterParamStr).replace(kQuoteReplaceStr, "'"));
-                        if (outputAlbumMap.size() > 0) {
-                            int i = 0;
-                            for (String aTempAlbum : outputAlbumMap.keySet()) {
-                                out.println("<li data-icon=plus' id='zoneLibraryListItem_" + i + "'>");
-                                out.println("<a href='javascript:playList_addMediaPath_NoRedir(&quot;"
-                                        + outputAlbumMap.get(aTempAlbum) + "&quot;);'>"
-                                        + aTempAlbum + "</a>");
-                                out.println("</li>");
-                                i++;
-                            }
-                        }
-                    }
-                } else { //dump out first chars
-                    out.println("<ul id='zoneLibraryList' data-role='listview' data-theme='d'>");
-
-                    TreeMap<String, LinkedList<String>> outputAlbumMap = ZoneLibraryIndex.getInstance().getAlbumMap();
-
-                    String aFirstCharStr = "";
-                    int i = 0;
-                    for (String aTempAlbum : outputAlbumMap.keySet()) {
-                        String aNewFirstCharStr = aTempAlbum.substring(0, 1);
-                        if (aFirstCharStr.equals(aNewFirstCharStr)) {
-                            continue;
-                        } else {
-                            aFirstCharStr = aNewFirstCharStr;
-                            out.println("<li data-icon='arrow-r' id='zoneLibraryListItem_" + i + "'>");
-                            out.println("<a href='javascript:mediaLibrary_SubList(&quot;"
-                                    + ID3FieldList.Album.toString() + "&quot;, "
-                                    + "&quot;" + aFirstCharStr.replace("'", kQuoteReplaceStr) + "&quot;);'>"
-                                    + aFirstCharStr + "</a>");
-                            out.println("</li>");
-                            i++;
-                        }
-                    }
-                }
-            } else if (req.getParameter(kListParamStr).equals(ID3FieldList.Artist.toString())) {
-                out.println("</div>" //end header
-                        + "<div data-role='content'>"); //and start content
-
-                if ((req.getParameter(kFilterParamStr) != null) && (!req.getParameter(kFilterParamStr).equals(""))) {
-                    out.println("<ul id='zoneLibraryList' data-role='listview' data-inset='true' data-filter='true' data-theme='d'>");
-
-                    if (req.getParameter(kFilterParamStr).replace(kQuoteReplaceStr, "'").length() == 1) { //get first char match
-                        TreeMap<String, LinkedList<String>> outputArtistMap = ZoneLibraryIndex.getInstance().getArtistMap();
-                        if (outputArtistMap.size() > 0) {
-                            String aFirstCharStr = req.getParameter(kFilterParamStr).replace(kQuoteReplaceStr, "'").substring(0, 1);
-                            int aFirstChar = aFirstCharStr.charAt(0);
-                            String aNextChar = String.valueOf((char) (aFirstChar + 1));
-                            SortedMap<String, LinkedList<String>> aSubMap = outputArtistMap.subMap(
-                                    aFirstCharStr, aNextChar);
-                            if (aSubMap.size() > 0) {
-                                int i = 0;
-                                for (String aTempArtistName : aSubMap.keySet()) {
-                                    out.println("<li data-icon='arrow-r' id='zoneLibraryListItem_" + i + "'>");
-                                    out.println("<a href='javascript:mediaLibrary_SubList(&quot;"
-                                            + ID3FieldList.Artist.toString() + "&quot;, "
-                                            + "&quot;" + aTempArtistName.replace("'", kQuoteReplaceStr) + "&quot;);'>"
-                                            + aTempArtistName + "</a>");
-                                    out.println("</li>");
-                                    i++;
-                                }
-                            }
-                        }
-                    } else { //get complete artist match
-                        TreeMap<String, String> outputTitlesMap = ZoneLibraryIndex.getInstance().getTitlesFromArtist(req.getParameter(kFilterParamStr).replace(kQuoteReplaceStr, "'"));
-                        if (outputTitlesMap.size() > 0) {
-                            int i = 0;
-                            for (String aTempTitle : outputTitlesMap.keySet()) {
-                                out.println("<li data-icon=plus' id='zoneLibraryListItem_" + i + "'>");
-                                out.println("<a href='javascript:playList_addMediaPath_NoRedir(&quot;"
-                                        + outputTitlesMap.get(aTempTitle) + "&quot;);'>"
-                                        + aTempTitle + "</a>");
-                                out.println("</li>");
-                                i++;
-                            }
-                        }
-                    }
-                } else { //dump out first chars
-                    out.println("<ul id='zoneLibraryList' data-role='listview' data-theme='d'>");
-
-                    TreeMap<String, LinkedList<String>> outputArtistMap = ZoneLibraryIndex.getInstance().getArtistMap();
-
-                    String aFirstCharStr = "";
-                    int i = 0;
-                    for (String aTempArtist : outputArtistMap.keySet()) {
-                        String aNewFirstCharStr = aTempArtist.substring(0, 1);
-                        if (aFirstCharStr.equals(aNewFirstCharStr)) {
-                            continue;
-                        } else {
-                            aFirstCharStr = aNewFirstCharStr;
-                            out.println("<li data-icon='arrow-r' id='zoneLibraryListItem_" + i + "'>");
-                            out.println("<a href='javascript:mediaLibrary_SubList(&quot;"
-                                    + ID3FieldList.Artist.toString() + "&quot;, "
-                                    + "&quot;" + aFirstCharStr.replace("'", kQuoteReplaceStr) + "&quot;);'>"
-                                    + aFirstCharStr + "</a>");
-                            out.println("</li>");
-                            i++;
-                        }
-                    }
-                }
-            } else if (req.getParameter(kListParamStr).equals(ID3FieldList.Genre.toString())) {
+            if (isFragmentList(req.getParameter(kListParamStr))) { //lists that only depend on their facets
                 out.println("</div>" //end header
                         + "<div data-role='content'>"); //and start content
-                out.println("<ul id='zoneLibraryList' data-role='listview' data-inset='true' data-filter='true' data-theme='d'>");
-
-                if ((req.getParameter(kFilterParamStr) != null) && (!req.getParameter(kFilterParamStr).equals(""))) {
-                    TreeMap<String, String> outputTitlesMap = ZoneLibraryIndex.getInstance().getTitlesFromGenre(req.getParameter(kFilterParamStr).replace(kQuoteReplaceStr, "'"));
-                    if (outputTitlesMap.size() > 0) {
-                        int i = 0;
-                        for (String aTempTitle : outputTitlesMap.keySet()) {
-                            out.println("<li data-icon=plus' id='zoneLibraryListItem_" + i + "'>");
-                            out.println("<a href='javascript:playList_addMediaPath_NoRedir(&quot;"
-                                    + outputTitlesMap.get(aTempTitle) + "&quot;);'>"
-                                    + aTempTitle + "</a>");
-                            out.println("</li>");
-                            i++;
-                        }
-                    }
-                } else {
-                    TreeMap<String, LinkedList<String>> outputGenreMap = ZoneLibraryIndex.getInstance().getGenreMap();
-                    if (outputGenreMap.size() > 0) {
-                        int i = 0;
-                        for (String aTempGenre : outputGenreMap.keySet()) {
-                            out.println("<li data-icon='arrow-r' id='zoneLibraryListItem_" + i + "'>");
-                            out.println("<a href='javascript:mediaLibrary_SubList(&quot;"
-                                    + ID3FieldList.Genre.toString() + "&quot;, "
-                                    + "&quot;" + aTempGenre.replace("'", kQuoteReplaceStr) + "&quot;);'>"
-                                    + aTempGenre + "</a>");
-                            out.println("</li>");
-                            i++;
-                        }
-                    }
-                }
+                out.print(getListFragment(req.getParameter(kListParamStr), req.getParameter(kFilterParamStr)));
             } else if (req.getParameter(kListParamStr).equals(ID3FieldList.Random.toString())) { //get a list of 20 random files not in current Now Playing
                 out.println("</div>" //end header
                         + "<div data-role='content'>"); //and start content
                 out.println("<ul id='zoneLibraryList' data-role='listview' data-theme='d'>");
 
-                HashMap<String, String> outputFilesMap = ZoneLibraryIndex.getInstance().getAllFiles(); //<filename, full file path>
-                if (outputFilesMap.size() > 0) {
+                ZoneLibraryGeneration aGeneration = ZoneLibraryIndex.getInstance().getGeneration();
+                if (aGeneration.getFileCount() > 0) {
                     Random aRandom = new Random();
-                    List<String> aFileNameArray = Arrays.asList(outputFilesMap.keySet().toArray(new String[0]));
                     ArrayList<String> aPreviousPathList = new ArrayList<String>(); //for tracking already output files
                     int i = 0;
                     while (i < 20) {
-                        String aRandomFileName = aFileNameArray.get(aRandom.nextInt(aFileNameArray.size()));
-                        String aFullPathFromRandomFileName = ZoneLibraryIndex.getInstance().getFullPathFromFileName(aRandomFileName);
+                        ZoneLibraryFileRecord aRandomFileRecord = aGeneration.getFileRecord(
+                                aRandom.nextInt(aGeneration.getFileIdLimit()));
+                        if (aRandomFileRecord == null) {
+                            continue; // removed file
+                        }
+                        String aRandomFileName = aRandomFileRecord.getFileName();
+                        String aFullPathFromRandomFileName = aGeneration.getFullPath(aRandomFileRecord);
                         if (MediaPlayerImpl.getInstance().getPlayList().contains(aFullPathFromRandomFileName)
                                 || aPreviousPathList.contains(aFullPathFromRandomFileName)) {
                             continue;
@@ -300,79 +274,28 @@ public class ZoneLibrary extends HttpServlet {
                         }
                     }
                 }
-            } else if (req.getParameter(kListParamStr).equals(ID3FieldList.Title.toString())) {
-                out.println("</div>" //end header
-                        + "<div data-role='content'>"); //and start content
-
-                TreeMap<String, LinkedList<String>> outputAllTitles = ZoneLibraryIndex.getInstance().getAllTitles();
-
-                if ((req.getParameter(kFilterParamStr) != null)
-                        && (!req.getParameter(kFilterParamStr).equals(""))) { //dump all titles in single letter range
-                    out.println("<ul id='zoneLibraryList' data-role='listview' data-inset='true' data-filter='true' data-theme='d'>");
-
-                    String aFirstCharStr = req.getParameter(kFilterParamStr).replace(kQuoteReplaceStr, "'").substring(0, 1);
-                    int aFirstChar = aFirstCharStr.charAt(0);
-                    String aNextChar = String.valueOf((char) (aFirstChar + 1));
-                    if (outputAllTitles.size() > 0) {
-                        SortedMap<String, LinkedList<String>> aSubMap = outputAllTitles.subMap(
-                                aFirstCharStr, aNextChar);
-                        if (aSubMap.size() > 0) {
-                            int i = 0;
-                            for (String aTempTitle : aSubMap.keySet()) {
-                                for (String aTempFileName : aSubMap.get(aTempTitle)) {
-                                    out.println("<li data-icon=plus' id='zoneLibraryListItem_" + i + "'>");
-                                    out.println("<a href='javascript:playList_addMediaPath_NoRedir(&quot;"
-                                            + ZoneLibraryIndex.getInstance().getFullPathFromFileName(aTempFileName)
-                                            + "&quot;);'>" + aTempTitle + "</a>");
-                                    out.println("</li>");
-                                    i++;
-                                }
-                            }
-                        }
-                    }
-                } else { //dump all set alphabet chars
-                    out.println("<ul id='zoneLibraryList' data-role='listview' data-theme='d'>");
-                    String aFirstCharStr = "";
-                    int i = 0;
-                    for (String aTempTitle : outputAllTitles.keySet()) {
-                        String aNewFirstCharStr = aTempTitle.substring(0, 1);
-                        if (aFirstCharStr.equals(aNewFirstCharStr)) {
-                            continue;
-                        } else {
-                            aFirstCharStr = aNewFirstCharStr;
-                            out.println("<li data-icon='arrow-r' id='zoneLibraryListItem_" + i + "'>");
-                            out.println("<a href='javascript:mediaLibrary_SubList(&quot;"
-                                    + ID3FieldList.Title.toString() + "&quot;, "
-                                    + "&quot;" + aFirstCharStr.replace("'", kQuoteReplaceStr) + "&quot;);'>"
-                                    + aFirstCharStr + "</a>");
-                            out.println("</li>");
-                            i++;
-                        }
-                    }
-                }
             } else { //ALL
-                out.println("<a href='javascript:mediaLibrary_ListMore(&quot;"
-                        + ID3FieldList.All.toString() + "&quot;, "
-                        + aNextPageInt + ");' data-role='button' "
-                        + "data-icon='plus'>More</a>");
+                LinkedHashMap<String, String> outputFilesMap = new LinkedHashMap<String, String>(); //<filename, full file path>
+                String aNextCursorStr = getFilePage(req, new ZoneLibraryQuery(), outputFilesMap);
+                if (aNextCursorStr != null) {
+                    out.println("<a href='javascript:mediaLibrary_ListMore(&quot;"
+                            + ID3FieldList.All.toString() + "&quot;, "
+                            + "&quot;" + aNextCursorStr + "&quot;);' data-role='button' "
+                            + "data-icon='plus'>More</a>");
+                }
 
                 out.println("</div>" //end header
                         + "<div data-role='content'>"); //and start content
                 out.println("<ul id='zoneLibraryList' data-role='listview' data-theme='d'>");
 
-                HashMap<String, String> outputFilesMap = ZoneLibraryIndex.getInstance().getAllFiles(); //<filename, full file path>
-                if (outputFilesMap.size() > 0) {
-                    int i = 0;
-                    for (String aTempFileName : outputFilesMap.keySet()) {
-                        if ((i >= startIndexInt) && (i <= endIndexInt)) {
-                            out.println("<li data-icon=plus' id='zoneLibraryListItem_" + i + "'>");
-                            out.println("<a href='javascript:playList_addMediaPath_NoRedir(&quot;"
-                                    + outputFilesMap.get(aTempFileName) + "&quot;);'>"
-                                    + aTempFileName + "</a>");
-                            out.println("</li>");
-                        }
-                        i++;
-                    }
+                int i = 0;
+                for (String aTempFileName : outputFilesMap.keySet()) {
+                    out.println("<li data-icon=plus' id='zoneLibraryListItem_" + i + "'>");
+                    out.println("<a href='javascript:playList_addMediaPath_NoRedir(&quot;"
+                            + outputFilesMap.get(aTempFileName) + "&quot;);'>"
+                            + aTempFileName + "</a>");
+                    out.println("</li>");
+                    i++;
                 }
             }
             out.println("</ul>");
@@ -411,4 +334,337 @@ public class ZoneLibrary extends HttpServlet {
                 + "</div>"
                 + "</div>");
     }
+
+    /**
+     * @param theListStr String - ID3FieldList name
+     * @return boolean - is it a list rendered by renderListFragment()?
+     */
+    private static boolean isFragmentList(String theListStr) {
+        return theListStr.equals(ID3FieldList.Album.toString()) || theListStr.equals(ID3FieldList.Artist.toString())
+                || theListStr.equals(ID3FieldList.Genre.toString()) || theListStr.equals(ID3FieldList.Title.toString());
+    }
+
+    /**
+     * the list of an album, artist, genre or title page, from the fragment
+     * cache while the facets it was rendered from stay unchanged - a list of
+     * values only depends on its own facet, the files of one value also
+     * depend on the titles
+     * @param theListStr String - ID3FieldList name
+     * @param theFilterStr String - null or empty for the first chars
+     * @return String
+     */
+    private String getListFragment(String theListStr, String theFilterStr) {
+        ZoneLibraryIndex aIndex = ZoneLibraryIndex.getInstance();
+        ZoneLibraryGeneration aGeneration = aIndex.getGeneration();
+        LibraryFacetType aFacetType = LibraryFacetType.valueOf(theListStr.toLowerCase(Locale.ENGLISH));
+        EnumMap<LibraryFacetType, Integer> aVersionMap = new EnumMap<LibraryFacetType, Integer>(LibraryFacetType.class);
+        aVersionMap.put(aFacetType, aGeneration.getFacet(aFacetType).getVersion());
+        if ((theFilterStr != null) && ((theFilterStr.replace(kQuoteReplaceStr, "'").length() > 1)
+                || (aFacetType == LibraryFacetType.genre))) { //files of one value
+            aVersionMap.put(LibraryFacetType.title, aGeneration.getFacet(LibraryFacetType.title).getVersion());
+        }
+
+        String aKeyStr = theListStr + "\n" + ((theFilterStr == null) ? "" : theFilterStr);
+        String returnFragmentStr = ZoneFragmentCache.getInstance().get(aKeyStr, aVersionMap);
+        if (returnFragmentStr == null) {
+            StringWriter aFragmentWriter = new StringWriter();
+            PrintWriter aFragmentPrintWriter = new PrintWriter(aFragmentWriter);
+            renderListFragment(theListStr, theFilterStr, aFragmentPrintWriter);
+            aFragmentPrintWriter.flush();
+            returnFragmentStr = aFragmentWriter.toString();
+            boolean isUnchanged = true; // versions only grow, so unchanged now means unchanged throughout
+            ZoneLibraryGeneration aRenderedGeneration = aIndex.getGeneration();
+            for (LibraryFacetType aVersionFacetType : aVersionMap.keySet()) {
+                isUnchanged &= (aRenderedGeneration.getFacet(aVersionFacetType).getVersion()
+                        == aVersionMap.get(aVersionFacetType).intValue());
+            }
+            if (isUnchanged) {
+                ZoneFragmentCache.getInstance().put(aKeyStr, aVersionMap, returnFragmentStr);
+            }
+        }
+        return returnFragmentStr;
+    }
+
+    /**
+     * render the list of an album, artist, genre or title page
+     * @param theListStr String - ID3FieldList name
+     * @param theFilterStr String - null or empty for the first chars
+     * @param out PrintWriter
+     */
+    private void renderListFragment(String theListStr, String theFilterStr, PrintWriter out) {
+        if (theListStr.equals(ID3FieldList.Album.toString())) {
+            if ((theFilterStr != null) && (!theFilterStr.equals(""))) {
+                out.println("<ul id='zoneLibraryList' data-role='listview' data-inset='true' data-filter='true' data-theme='d'>");
+
+                if (theFilterStr.replace(kQuoteReplaceStr, "'").length() == 1) { //get first char match
+                    SortedMap<String, Integer> outputAlbumMap = ZoneLibraryIndex.getInstance().getAlbumMap();
+                    if (outputAlbumMap.size() > 0) {
+                        String aFirstCharStr = theFilterStr.replace(kQuoteReplaceStr, "'").substring(0, 1);
+                        int aFirstChar = aFirstCharStr.charAt(0);
+                        String aNextChar = String.valueOf((char) (aFirstChar + 1));
+                        SortedMap<String, Integer> aSubMap = outputAlbumMap.subMap(
+                                aFirstCharStr, aNextChar);
+                        if (aSubMap.size() > 0) {
+                            int i = 0;
+                            for (String aTempAlbumName : aSubMap.keySet()) {
+                                out.println("<li data-icon='arrow-r' id='zoneLibraryListItem_" + i + "'>");
+                                out.println("<a href='javascript:mediaLibrary_SubList(&quot;"
+                                        + ID3FieldList.Album.toString() + "&quot;, "
+                                        + "&quot;" + aTempAlbumName.replace("'", kQuoteReplaceStr) + "&quot;);'>"
+                                        + aTempAlbumName + "<span class='ui-li-count'>"
+                                        + aSubMap.get(aTempAlbumName) + "</span></a>");
+                                out.println("</li>");
+                                i++;
+                            }
+                        }
+                    }
+                } else { //get complete album match
+                    TreeMap<String, String> outputAlbumMap = ZoneLibraryIndex.getInstance().getTitlesFromAlbum(theFilterStr.replace(kQuoteReplaceStr, "'"));
+                    if (outputAlbumMap.size() > 0) {
+                        int i = 0;
+                        for (String aTempAlbum : outputAlbumMap.keySet()) {
+                            out.println("<li data-icon=plus' id='zoneLibraryListItem_" + i + "'>");
+                            out.println("<a href='javascript:playList_addMediaPath_NoRedir(&quot;"
+                                    + outputAlbumMap.get(aTempAlbum) + "&quot;);'>"
+                                    + aTempAlbum + "</a>");
+                            out.println("</li>");
+                            i++;
+                        }
+                    }
+                }
+            } else { //dump out first chars
+                out.println("<ul id='zoneLibraryList' data-role='listview' data-theme='d'>");
+
+                SortedMap<String, Integer> outputAlbumMap = ZoneLibraryIndex.getInstance().getAlbumMap();
+
+                String aFirstCharStr = "";
+                int i = 0;
+                for (String aTempAlbum : outputAlbumMap.keySet()) {
+                    String aNewFirstCharStr = aTempAlbum.substring(0, 1);
+                    if (aFirstCharStr.equals(aNewFirstCharStr)) {
+                        continue;
+                    } else {
+                        aFirstCharStr = aNewFirstCharStr;
+                        out.println("<li data-icon='arrow-r' id='zoneLibraryListItem_" + i + "'>");
+                        out.println("<a href='javascript:mediaLibrary_SubList(&quot;"
+                                + ID3FieldList.Album.toString() + "&quot;, "
+                                + "&quot;" + aFirstCharStr.replace("'", kQuoteReplaceStr) + "&quot;);'>"
+                                + aFirstCharStr + "</a>");
+                        out.println("</li>");
+                        i++;
+                    }
+                }
+            }
+        } else if (theListStr.equals(ID3FieldList.Artist.toString())) {
+            if ((theFilterStr != null) && (!theFilterStr.equals(""))) {
+                out.println("<ul id='zoneLibraryList' data-role='listview' data-inset='true' data-filter='true' data-theme='d'>");
+
+                if (theFilterStr.replace(kQuoteReplaceStr, "'").length() == 1) { //get first char match
+                    SortedMap<String, Integer> outputArtistMap = ZoneLibraryIndex.getInstance().getArtistMap();
+                    if (outputArtistMap.size() > 0) {
+                        String aFirstCharStr = theFilterStr.replace(kQuoteReplaceStr, "'").substring(0, 1);
+                        int aFirstChar = aFirstCharStr.charAt(0);
+                        String aNextChar = String.valueOf((char) (aFirstChar + 1));
+                        SortedMap<String, Integer> aSubMap = outputArtistMap.subMap(
+                                aFirstCharStr, aNextChar);
+                        if (aSubMap.size() > 0) {
+                            int i = 0;
+                            for (String aTempArtistName : aSubMap.keySet()) {
+                                out.println("<li data-icon='arrow-r' id='zoneLibraryListItem_" + i + "'>");
+                                out.println("<a href='javascript:mediaLibrary_SubList(&quot;"
+                                        + ID3FieldList.Artist.toString() + "&quot;, "
+                                        + "&quot;" + aTempArtistName.replace("'", kQuoteReplaceStr) + "&quot;);'>"
+                                        + aTempArtistName + "<span class='ui-li-count'>"
+                                        + aSubMap.get(aTempArtistName) + "</span></a>");
+                                out.println("</li>");
+                                i++;
+                            }
+                        }
+                    }
+                } else { //get complete artist match
+                    TreeMap<String, String> outputTitlesMap = ZoneLibraryIndex.getInstance().getTitlesFromArtist(theFilterStr.replace(kQuoteReplaceStr, "'"));
+                    if (outputTitlesMap.size() > 0) {
+                        int i = 0;
+                        for (String aTempTitle : outputTitlesMap.keySet()) {
+                            out.println("<li data-icon=plus' id='zoneLibraryListItem_" + i + "'>");
+                            out.println("<a href='javascript:playList_addMediaPath_NoRedir(&quot;"
+                                    + outputTitlesMap.get(aTempTitle) + "&quot;);'>"
+                                    + aTempTitle + "</a>");
+                            out.println("</li>");
+                            i++;
+                        }
+                    }
+                }
+            } else { //dump out first chars
+                out.println("<ul id='zoneLibraryList' data-role='listview' data-theme='d'>");
+
+                SortedMap<String, Integer> outputArtistMap = ZoneLibraryIndex.getInstance().getArtistMap();
+
+                String aFirstCharStr = "";
+                int i = 0;
+                for (String aTempArtist : outputArtistMap.keySet()) {
+                    String aNewFirstCharStr = aTempArtist.substring(0, 1);
+                    if (aFirstCharStr.equals(aNewFirstCharStr)) {
+                        continue;
+                    } else {
+                        aFirstCharStr = aNewFirstCharStr;
+                        out.println("<li data-icon='arrow-r' id='zoneLibraryListItem_" + i + "'>");
+                        out.println("<a href='javascript:mediaLibrary_SubList(&quot;"
+                                + ID3FieldList.Artist.toString() + "&quot;, "
+                                + "&quot;" + aFirstCharStr.replace("'", kQuoteReplaceStr) + "&quot;);'>"
+                                + aFirstCharStr + "</a>");
+                        out.println("</li>");
+                        i++;
+                    }
+                }
+            }
+        } else if (theListStr.equals(ID3FieldList.Genre.toString())) {
+            out.println("<ul id='zoneLibraryList' data-role='listview' data-inset='true' data-filter='true' data-theme='d'>");
+
+            if ((theFilterStr != null) && (!theFilterStr.equals(""))) {
+                TreeMap<String, String> outputTitlesMap = ZoneLibraryIndex.getInstance().getTitlesFromGenre(theFilterStr.replace(kQuoteReplaceStr, "'"));
+                if (outputTitlesMap.size() > 0) {
+                    int i = 0;
+                    for (String aTempTitle : outputTitlesMap.keySet()) {
+                        out.println("<li data-icon=plus' id='zoneLibraryListItem_" + i + "'>");
+                        out.println("<a href='javascript:playList_addMediaPath_NoRedir(&quot;"
+                                + outputTitlesMap.get(aTempTitle) + "&quot;);'>"
+                                + aTempTitle + "</a>");
+                        out.println("</li>");
+                        i++;
+                    }
+                }
+            } else {
+                SortedMap<String, Integer> outputGenreMap = ZoneLibraryIndex.getInstance().getGenreMap();
+                if (outputGenreMap.size() > 0) {
+                    int i = 0;
+                    for (String aTempGenre : outputGenreMap.keySet()) {
+                        out.println("<li data-icon='arrow-r' id='zoneLibraryListItem_" + i + "'>");
+                        out.println("<a href='javascript:mediaLibrary_SubList(&quot;"
+                                + ID3FieldList.Genre.toString() + "&quot;, "
+                                + "&quot;" + aTempGenre.replace("'", kQuoteReplaceStr) + "&quot;);'>"
+                                + aTempGenre + "<span class='ui-li-count'>"
+                                + outputGenreMap.get(aTempGenre) + "</span></a>");
+                        out.println("</li>");
+                        i++;
+                    }
+                }
+            }
+        } else if (theListStr.equals(ID3FieldList.Title.toString())) {
+            SortedMap<String, Integer> outputAllTitles = ZoneLibraryIndex.getInstance().getAllTitles();
+
+            if ((theFilterStr != null)
+                    && (!theFilterStr.equals(""))) { //dump all titles in single letter range
+                out.println("<ul id='zoneLibraryList' data-role='listview' data-inset='true' data-filter='true' data-theme='d'>");
+
+                String aFirstCharStr = theFilterStr.replace(kQuoteReplaceStr, "'").substring(0, 1);
+                int aFirstChar = aFirstCharStr.charAt(0);
+                String aNextChar = String.valueOf((char) (aFirstChar + 1));
+                if (outputAllTitles.size() > 0) {
+                    SortedMap<String, Integer> aSubMap = outputAllTitles.subMap(
+                            aFirstCharStr, aNextChar);
+                    if (aSubMap.size() > 0) {
+                        int i = 0;
+                        for (String aTempTitle : aSubMap.keySet()) {
+                            for (String aTempFileName : ZoneLibraryIndex.getInstance().getFileNamesFromTitle(aTempTitle)) {
+                                out.println("<li data-icon=plus' id='zoneLibraryListItem_" + i + "'>");
+                                out.println("<a href='javascript:playList_addMediaPath_NoRedir(&quot;"
+                                        + ZoneLibraryIndex.getInstance().getFullPathFromFileName(aTempFileName)
+                                        + "&quot;);'>" + aTempTitle + "</a>");
+                                out.println("</li>");
+                                i++;
+                            }
+                        }
+                    }
+                }
+            } else { //dump all set alphabet chars
+                out.println("<ul id='zoneLibraryList' data-role='listview' data-theme='d'>");
+                String aFirstCharStr = "";
+                int i = 0;
+                for (String aTempTitle : outputAllTitles.keySet()) {
+                    String aNewFirstCharStr = aTempTitle.substring(0, 1);
+                    if (aFirstCharStr.equals(aNewFirstCharStr)) {
+                        continue;
+                    } else {
+                        aFirstCharStr = aNewFirstCharStr;
+                        out.println("<li data-icon='arrow-r' id='zoneLibraryListItem_" + i + "'>");
+                        out.println("<a href='javascript:mediaLibrary_SubList(&quot;"
+                                + ID3FieldList.Title.toString() + "&quot;, "
+                                + "&quot;" + aFirstCharStr.replace("'", kQuoteReplaceStr) + "&quot;);'>"
+                                + aFirstCharStr + "</a>");
+                        out.println("</li>");
+                        i++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * fill the map with the page of files after the cursor of the request,
+     * in file id order so a page stays put while the index is refreshed
+     *
+     * @param req HttpServletRequest
+     * @param theQuery ZoneLibraryQuery
+     * @param theFileMap Map<String, String> - gets <filename, full file path>
+     * @return String - cursor of the next page, null on the last page
+     */
+    private static String getFilePage(HttpServletRequest req, ZoneLibraryQuery theQuery, Map<String, String> theFileMap) {
+        ZoneLibraryIndex aIndex = ZoneLibraryIndex.getInstance();
+        ZoneLibraryGeneration aGeneration = aIndex.getGeneration();
+        int[] aFileIdArray = aGeneration.getFileIdsAfter(theQuery,
+                aIndex.getFileIdFromCursor(req.getParameter(kCursorParamStr)), mediaItemsPerPage);
+        for (int aFileId : aFileIdArray) {
+            ZoneLibraryFileRecord aFileRecord = aGeneration.getFileRecord(aFileId);
+            theFileMap.put(aFileRecord.getFileName(), aGeneration.getFullPath(aFileRecord));
+        }
+        if (aFileIdArray.length < mediaItemsPerPage) {
+            return null;
+        }
+        return aIndex.getCursor(aFileIdArray[aFileIdArray.length - 1]);
+    }
+
+    /**
+     * read the facet filters of a search request - a facet parameter (album,
+     * artist, genre or title) matches files with that value, or with a value
+     * starting with it when it ends in *, and the "not-" parameter of a facet
+     * leaves out files with that value, every parameter may be repeated
+     *
+     * @param req HttpServletRequest
+     * @param theQuery ZoneLibraryQuery - gets the facet filters
+     * @return String - the facet filters as URL parameters, each starting with &amp;
+     * @throws UnsupportedEncodingException
+     */
+    static String getFacetQuery(HttpServletRequest req, ZoneLibraryQuery theQuery)
+            throws UnsupportedEncodingException {
+        StringBuilder returnQueryStrBuilder = new StringBuilder();
+        for (LibraryFacetType aFacetType : LibraryFacetType.values()) {
+            String[] aValueArray = req.getParameterValues(aFacetType.toString());
+            if (aValueArray != null) {
+                for (String aValue : aValueArray) {
+                    if (aValue.endsWith(kFacetPrefixSuffixStr)) {
+                        theQuery.addPrefix(aFacetType, aValue.substring(0, aValue.length() - 1));
+                    } else {
+                        theQuery.addValue(aFacetType, aValue);
+                    }
+                    if (!aValue.equals("")) {
+                        returnQueryStrBuilder.append("&").append(aFacetType.toString()).append("=")
+                                .append(URLEncoder.encode(aValue, "UTF-8"));
+                    }
+                }
+            }
+
+            String[] aExcludeArray = req.getParameterValues(kExcludeParamPrefixStr + aFacetType.toString());
+            if (aExcludeArray != null) {
+                for (String aExclude : aExcludeArray) {
+                    theQuery.addExclude(aFacetType, aExclude);
+                    if (!aExclude.equals("")) {
+                        returnQueryStrBuilder.append("&").append(kExcludeParamPrefixStr).append(aFacetType.toString())
+                                .append("=").append(URLEncoder.encode(aExclude, "UTF-8"));
+                    }
+                }
+            }
+        }
+        return returnQueryStrBuilder.toString();
+    }
 }
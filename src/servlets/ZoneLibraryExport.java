@@ -0,0 +1,70 @@
+/*
+ * servlet handing the on-disk library snapshot of this zone to the zones that
+ * take their index from it instead of crawling, see ZoneLibraryFederation
+ */
+package servlets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import zonecontrol.ZoneLibraryFederation;
+import zonecontrol.ZoneLibraryIndex;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryExport extends HttpServlet {
+
+    private static final long serialVersionUID = 42L;
+    private static final int kRetryAfterSeconds = 60;
+
+    public ZoneLibraryExport() {
+    }
+
+    /**
+     * GET request handler for the snapshot, 304 if the zone asking has it
+     * already and 503 if no build has finished yet
+     * @param req HttpServletRequest
+     * @param resp HttpServletResponse
+     * @throws ServletException
+     * @throws IOException
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        File aSnapshotFile = ZoneLibraryIndex.getInstance().getSnapshotFile();
+        String aETagStr = ZoneLibraryFederation.getETag(aSnapshotFile); // before opening, a newer file is only sent once more
+        FileInputStream aFileInputStream;
+        try {
+            aFileInputStream = new FileInputStream(aSnapshotFile); // stays readable if a build replaces the file
+        } catch (FileNotFoundException ex) {
+            resp.setHeader("Retry-After", String.valueOf(kRetryAfterSeconds));
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "no library snapshot yet");
+            return;
+        }
+
+        try {
+            resp.setHeader("ETag", aETagStr);
+            if (aETagStr.equals(req.getHeader("If-None-Match"))) {
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            resp.setContentType("application/octet-stream");
+            long aLength = aFileInputStream.getChannel().size();
+            resp.setContentLength((int) aLength);
+            OutputStream aOutputStream = resp.getOutputStream();
+            byte[] aCopyBytes = new byte[65536];
+            int aCount;
+            while ((aCount = aFileInputStream.read(aCopyBytes)) != -1) {
+                aOutputStream.write(aCopyBytes, 0, aCount);
+            }
+        } finally {
+            aFileInputStream.close();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * servlet for suggesting titles, artists and albums while a search is typed,
+ * answers with the list items of the suggestion list in the search dialog
+ */
+package servlets;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import zonecontrol.LibraryFacetType;
+import zonecontrol.ZoneLibraryIndex;
+import zonecontrol.ZoneLibrarySuggestIndex;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibrarySuggest extends HttpServlet {
+
+    private static final long serialVersionUID = 42L;
+    private static final int kDefaultSuggestionCount = 8;
+    private static final int kMaxSuggestionCount = 30;
+    private static final String kPrefixParamStr = "prefix";
+    private static final String kCountParamStr = "count";
+
+    public ZoneLibrarySuggest() {
+    }
+
+    /**
+     * GET request handler for the suggestions of a prefix
+     * @param req HttpServletRequest
+     * @param resp HttpServletResponse
+     * @throws ServletException
+     * @throws IOException
+     */
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType("text/html; charset=UTF-8");
+        resp.setHeader("Cache-Control", "no-cache"); // the library can change between keystrokes
+        PrintWriter out = resp.getWriter(); //get the response writer for later
+
+        String aPrefixStr = req.getParameter(kPrefixParamStr);
+        if ((aPrefixStr == null) || aPrefixStr.trim().equals("")) {
+            return; // nothing typed, nothing to suggest
+        }
+        int aCountInt = kDefaultSuggestionCount;
+        String aCountStr = req.getParameter(kCountParamStr);
+        if ((aCountStr != null) && (!aCountStr.equals(""))) {
+            try {
+                aCountInt = Math.max(1, Math.min(kMaxSuggestionCount, Integer.parseInt(aCountStr)));
+            } catch (NumberFormatException ex) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "count is not a number");
+                return;
+            }
+        }
+
+        List<ZoneLibrarySuggestIndex.Suggestion> aSuggestionList = ZoneLibraryIndex.getInstance().getSuggestions(
+                aPrefixStr.trim(), aCountInt);
+        StringBuilder aListItemsStr = new StringBuilder();
+        for (ZoneLibrarySuggestIndex.Suggestion aSuggestion : aSuggestionList) {
+            LibraryFacetType aFacetType = aSuggestion.getFacetType();
+            String aValue = aSuggestion.getValue();
+            aListItemsStr.append("<li data-icon='false'><a href='#' data-suggest-facet='")
+                    .append(aFacetType.toString()).append("' data-suggest-value='")
+                    .append(escapeHtml(aValue)).append("'>")
+                    .append(escapeHtml(aValue))
+                    .append("<span class='ui-li-count'>").append(aFacetType.toString()).append("</span>")
+                    .append("</a></li>\n");
+        }
+        out.print(aListItemsStr.toString());
+    }
+
+    /**
+     * @param theString String
+     * @return String - safe to use as element text or a quoted attribute value
+     */
+    private static String escapeHtml(String theString) {
+        StringBuilder returnString = new StringBuilder(theString.length() + 16);
+        for (int i = 0; i < theString.length(); i++) {
+            char aChar = theString.charAt(i);
+            switch (aChar) {
+                case '&':
+                    returnString.append("&amp;");
+                    break;
+                case '<':
+                    returnString.append("&lt;");
+                    break;
+                case '>':
+                    returnString.append("&gt;");
+                    break;
+                case '\'':
+                    returnString.append("&#39;");
+                    break;
+                case '"':
+                    returnString.append("&quot;");
+                    break;
+                default:
+                    returnString.append(aChar);
+            }
+        }
+        return returnString.toString();
+    }
+}
@@ -7,10 +7,14 @@ import audio.MediaPlayerImpl;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import zonecontrol.ZoneParty;
+import zonecontrol.ZonePlaylistBatch;
+import zonecontrol.ZoneServerLogic;
 import zonecontrol.ZoneServerUtility;
 
 /**
@@ -94,6 +98,16 @@ public class ZonePlaylist extends HttpServlet {
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         String opt = req.getParameter("opt"); //what are we doing?
+        String zone = req.getParameter("zone"); //playlist of another zone?
+        if ((opt != null) && opt.equals("party")) { //this zone and every zone given start the path together
+            doParty(req, resp);
+            return;
+        }
+        if ((opt != null) && (!opt.equals("")) && (zone != null) && (!zone.equals(""))
+                && (!zone.equals(ZoneServerLogic.getInstance().getUUID()))) {
+            doRemotePost(req, resp, opt, zone);
+            return;
+        }
         if ((opt != null) && (!opt.equals(""))) { //non-empty
             if (opt.equals("add")) {
                 String path = req.getParameter("path");
@@ -121,6 +135,12 @@ public class ZonePlaylist extends HttpServlet {
             } else if (opt.equals("shuffle")) { //shuffle the playlist
                 MediaPlayerImpl.getInstance().shufflePlayList();
                 resp.getOutputStream().println("shuffled playlist");
+            } else if (opt.equals("next")) { //skip to the next item
+                MediaPlayerImpl.getInstance().next();
+                resp.getOutputStream().println("playing next item");
+            } else if (opt.equals("previous")) { //back to the previous item
+                MediaPlayerImpl.getInstance().previous();
+                resp.getOutputStream().println("playing previous item");
             } else if (opt.equals("stop")) { //stop now playing
                 MediaPlayerImpl.getInstance().stop();
                 resp.getOutputStream().println("playback stopped");
@@ -130,4 +150,82 @@ public class ZonePlaylist extends HttpServlet {
             }
         }
     }
+
+    /**
+     * lead a party, every zone given plays the path in step with this one
+     * @param req HttpServletRequest
+     * @param resp HttpServletResponse
+     * @throws IOException
+     */
+    private void doParty(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        String path = req.getParameter("path");
+        String[] zoneArray = req.getParameterValues("zone");
+        if ((path == null) || path.equals("") || (zoneArray == null)) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "a party needs a path and zones");
+            return;
+        }
+        ArrayList<String> aMemberUUIDList = new ArrayList<String>();
+        for (String zone : zoneArray) {
+            if (!zone.equals("") && !zone.equals(ZoneServerLogic.getInstance().getUUID())) {
+                aMemberUUIDList.add(zone);
+            }
+        }
+        ZoneParty.getInstance().startParty(aMemberUUIDList, URLDecoder.decode(path, "UTF-8"));
+        resp.getOutputStream().println("party of " + (aMemberUUIDList.size() + 1) + " zones starting " + path);
+    }
+
+    /**
+     * send the playlist update to another zone over the command channel, every
+     * path of an add goes in the same batch
+     * @param req HttpServletRequest
+     * @param resp HttpServletResponse
+     * @param opt String
+     * @param zone String - UUID of the other zone
+     * @throws IOException
+     */
+    private void doRemotePost(HttpServletRequest req, HttpServletResponse resp, String opt, String zone) throws IOException {
+        ZonePlaylistBatch aBatch = new ZonePlaylistBatch();
+        if (opt.equals("add")) {
+            String[] pathArray = req.getParameterValues("path");
+            if (pathArray != null) {
+                for (String path : pathArray) {
+                    if (!path.equals("")) {
+                        aBatch.addMediaUrl(URLDecoder.decode(path, "UTF-8"));
+                    }
+                }
+            }
+        } else if (opt.equals("toggle")) {
+            String indexStr = req.getParameter("index");
+            if ((indexStr == null) || indexStr.equals("")) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "toggle needs an index");
+                return;
+            }
+            try {
+                aBatch.playIndex(Integer.parseInt(indexStr));
+            } catch (NumberFormatException ex) {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "index is not a number");
+                return;
+            }
+        } else if (opt.equals("shuffle")) {
+            aBatch.shufflePlayList();
+        } else if (opt.equals("next")) {
+            aBatch.next();
+        } else if (opt.equals("previous")) {
+            aBatch.previous();
+        } else if (opt.equals("clear")) {
+            aBatch.clearPlaylist();
+        } else {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, opt + " is not sent to other zones");
+            return;
+        }
+        if (aBatch.isEmpty()) { //an add without paths
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "nothing to send to zone " + zone);
+            return;
+        }
+        if (!ZoneServerLogic.getInstance().sendPlaylistBatch(zone, aBatch)) {
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "could not send to zone " + zone);
+            return;
+        }
+        resp.getOutputStream().println("sent " + opt + " to zone " + zone);
+    }
 }
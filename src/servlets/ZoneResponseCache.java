@@ -0,0 +1,142 @@
+/*
+ * rendered responses of one generation of the library index, so a page that
+ * was already rendered for the same parameters is sent again as it is, and
+ * gzipped at most once
+ *
+ * the cache only ever holds responses of a single generation, the first
+ * response of a newer generation empties it
+ */
+package servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneResponseCache {
+
+    private final long zrc_MaxBytes; // bodies plus their gzipped copies
+    private final LinkedHashMap<String, Entry> zrc_EntryMap; //<request parameters, response>, least recently used first
+    private String zrc_GenerationTag = null; // generation of every cached response
+    private long zrc_Bytes = 0;
+
+    /**
+     * @param theMaxBytes long - the least recently used responses are
+     * dropped once the cached bodies take up more
+     */
+    public ZoneResponseCache(long theMaxBytes) {
+        zrc_MaxBytes = theMaxBytes;
+        zrc_EntryMap = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    }
+
+    /**
+     * @param theGenerationTag String
+     * @param theKeyStr String - request parameters in a canonical order
+     * @return Entry - null if not cached for this generation
+     */
+    public synchronized Entry get(String theGenerationTag, String theKeyStr) {
+        if (!theGenerationTag.equals(zrc_GenerationTag)) {
+            return null;
+        }
+        return zrc_EntryMap.get(theKeyStr);
+    }
+
+    /**
+     * @param theGenerationTag String - generation the response was rendered from
+     * @param theKeyStr String - request parameters in a canonical order
+     * @param theEntry Entry
+     */
+    public synchronized void put(String theGenerationTag, String theKeyStr, Entry theEntry) {
+        if (!theGenerationTag.equals(zrc_GenerationTag)) {
+            zrc_EntryMap.clear(); // responses of an older generation are never asked for again
+            zrc_Bytes = 0;
+            zrc_GenerationTag = theGenerationTag;
+        }
+        if (theEntry.getBody().length > zrc_MaxBytes / 4) {
+            return; // would push out most of the cache on its own
+        }
+        Entry aReplacedEntry = zrc_EntryMap.put(theKeyStr, theEntry);
+        if (aReplacedEntry != null) {
+            zrc_Bytes -= aReplacedEntry.zrce_Bytes;
+        }
+        theEntry.zrce_Cache = this;
+        zrc_Bytes += theEntry.zrce_Bytes;
+        trim();
+    }
+
+    public synchronized int size() {
+        return zrc_EntryMap.size();
+    }
+
+    /**
+     * account for a gzipped copy made after the entry was cached
+     */
+    private synchronized void addBytes(Entry theEntry, long theBytes) {
+        if (zrc_EntryMap.get(theEntry.zrce_KeyStr) == theEntry) {
+            zrc_Bytes += theBytes;
+            trim();
+        }
+    }
+
+    private void trim() {
+        Iterator<Entry> aEntryIterator = zrc_EntryMap.values().iterator();
+        while ((zrc_Bytes > zrc_MaxBytes) && aEntryIterator.hasNext()) {
+            zrc_Bytes -= aEntryIterator.next().zrce_Bytes;
+            aEntryIterator.remove();
+        }
+    }
+
+    /**
+     * a rendered response body, with its gzipped copy made on first request
+     */
+    public static class Entry {
+
+        private final String zrce_KeyStr;
+        private final byte[] zrce_Body;
+        private volatile byte[] zrce_GzipBody = null;
+        private long zrce_Bytes;
+        private ZoneResponseCache zrce_Cache = null;
+
+        /**
+         * @param theKeyStr String - request parameters in a canonical order
+         * @param theBody byte[] - must not be changed afterwards
+         */
+        public Entry(String theKeyStr, byte[] theBody) {
+            zrce_KeyStr = theKeyStr;
+            zrce_Body = theBody;
+            zrce_Bytes = theBody.length;
+        }
+
+        public byte[] getBody() {
+            return zrce_Body;
+        }
+
+        /**
+         * @return byte[] - the body gzipped, compressed on the first call only
+         * @throws IOException
+         */
+        public byte[] getGzipBody() throws IOException {
+            byte[] returnGzipBody = zrce_GzipBody;
+            if (returnGzipBody == null) { // racing requests compress equal copies, either one will do
+                ByteArrayOutputStream aByteStream = new ByteArrayOutputStream(zrce_Body.length / 4 + 64);
+                GZIPOutputStream aGzipStream = new GZIPOutputStream(aByteStream);
+                aGzipStream.write(zrce_Body);
+                aGzipStream.close();
+                returnGzipBody = aByteStream.toByteArray();
+                zrce_GzipBody = returnGzipBody;
+                ZoneResponseCache aCache = zrce_Cache;
+                if (aCache != null) {
+                    synchronized (aCache) {
+                        zrce_Bytes += returnGzipBody.length;
+                        aCache.addBytes(this, returnGzipBody.length);
+                    }
+                }
+            }
+            return returnGzipBody;
+        }
+    }
+}
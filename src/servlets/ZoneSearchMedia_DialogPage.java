@@ -38,13 +38,28 @@ public class ZoneSearchMedia_DialogPage extends HttpServlet {
                 + "<label for='searchKeywords'>Keywords:</label>"
                 + "<input type='text' name='searchKeywords' id='searchKeywords' placeholder='Filename Keyword' /></div>");
 
+        out.println("<ul data-role='listview' data-inset='true' id='searchSuggestList'></ul>"); //filled while typing
+
         out.println("<div data-role='fieldcontain' id='searchTypeContain'>"
                 + "<label for='searchType'>Match:</label>"
                 + "<select name='searchType' id='searchType' data-native-menu='false'>"
+                + "<option value='" + ZoneSearchMedia_SearchType.ranked.toString() + "'>Best Matches</option>"
                 + "<option value='" + ZoneSearchMedia_SearchType.all.toString() + "'>All Keywords</option>"
                 + "<option value='" + ZoneSearchMedia_SearchType.any.toString() + "'>Any Keywords</option>"
                 + "</select></div>");
 
+        out.println("<div data-role='fieldcontain' id='searchGenreContain'>"
+                + "<label for='searchGenre'>Genre:</label>"
+                + "<input type='text' name='searchGenre' id='searchGenre' placeholder='Jazz, or Ja* for any starting with Ja' /></div>");
+
+        out.println("<div data-role='fieldcontain' id='searchArtistContain'>"
+                + "<label for='searchArtist'>Artist:</label>"
+                + "<input type='text' name='searchArtist' id='searchArtist' placeholder='Artist, or M* for any starting with M' /></div>");
+
+        out.println("<div data-role='fieldcontain' id='searchAlbumContain'>"
+                + "<label for='searchAlbum'>Album:</label>"
+                + "<input type='text' name='searchAlbum' id='searchAlbum' placeholder='Album, or A* for any starting with A' /></div>");
+
         out.println("</div>"); //end page content
 
         out.println("</div>"); //end page
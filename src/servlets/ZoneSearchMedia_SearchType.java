@@ -8,5 +8,5 @@ package servlets;
  */
 public enum ZoneSearchMedia_SearchType {
 
-    all, any
+    all, any, ranked
 }
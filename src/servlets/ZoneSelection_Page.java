@@ -5,11 +5,11 @@ package servlets;
 
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.HashMap;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import zonecontrol.ZoneRegistry;
 import zonecontrol.ZoneServerLogic;
 
 /**
@@ -25,8 +25,7 @@ public class ZoneSelection_Page extends HttpServlet {
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         //get the data necessary
-        HashMap<String, String> zcld_ZoneInfoMap = ZoneServerLogic.getInstance().getNodeInfoMap();
-        HashMap<String, String> zcld_ZoneDashBoardMap = ZoneServerLogic.getInstance().getNodeDashBoardMap();
+        ZoneRegistry zcld_ZoneRegistry = ZoneServerLogic.getInstance().getZoneRegistry();
 
         //setup the response writer
         PrintWriter out = resp.getWriter();
@@ -41,9 +40,9 @@ public class ZoneSelection_Page extends HttpServlet {
                 + "<ul data-role='listview' data-inset='true' data-filter='true'>");
 
         String aPageContentPartListStr = "";
-        for (String aNodeUUIDStr : zcld_ZoneInfoMap.keySet()) {
-            String aNodeDashBoardUrlStr = zcld_ZoneDashBoardMap.get(aNodeUUIDStr);
-            String aNodeName = zcld_ZoneInfoMap.get(aNodeUUIDStr);
+        for (ZoneRegistry.Record aNodeRecord : zcld_ZoneRegistry.getRecords()) {
+            String aNodeDashBoardUrlStr = aNodeRecord.getDashBoardUrlStr();
+            String aNodeName = aNodeRecord.getZoneName();
             aPageContentPartListStr += "<li data-icon='arrow-r'><a href='" + aNodeDashBoardUrlStr + "'>" + aNodeName + "</a></li>\n";
         }
         out.print(aPageContentPartListStr);
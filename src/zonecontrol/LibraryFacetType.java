@@ -0,0 +1,12 @@
+/*
+ * which ID3 derived facet of the library index are we using?
+ */
+package zonecontrol;
+
+/**
+ * @author Jason Zerbe
+ */
+public enum LibraryFacetType {
+
+    album, artist, genre, title
+}
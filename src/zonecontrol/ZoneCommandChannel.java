@@ -0,0 +1,208 @@
+/*
+ * reliable channel for commands meant for one zone, posted to the dashboard
+ * the zone advertises on the multicast group - the group itself is left for
+ * finding the zones
+ *
+ * every zone gets a queue of its own, worked off by one thread at a time so
+ * its commands arrive in order, and all that queued up while a request was on
+ * its way go together in the next one - the connections are kept alive
+ * between requests by HttpURLConnection
+ *
+ * a request that fails is sent again as it is, its messages carry sequence
+ * numbers so the zone carries them out only once - if it keeps failing, or
+ * the zone has no command servlet, the messages go over the multicast group
+ * as a last resort
+ */
+package zonecontrol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneCommandChannel {
+
+    private static ZoneCommandChannel zcc_SingleInstance = null;
+    public static final String kCommandPathStr = "/servlets/zone-command";
+    public static final String kContentTypeStr = "application/octet-stream";
+    private static final int kConnectTimeoutMillis = 500; // zones are on the same LAN
+    private static final int kReadTimeoutMillis = 2000;
+    private static final int kMaxAttemptCount = 3;
+    private static final int kRetryPauseMillis = 100; // doubled on every attempt
+    private final ExecutorService zcc_ExecutorService;
+    private final HashMap<String, PeerQueue> zcc_PeerQueueMap = new HashMap<String, PeerQueue>(); //<dashboard url, queue>
+
+    protected ZoneCommandChannel() {
+        zcc_ExecutorService = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable theRunnable) {
+                Thread returnThread = new Thread(theRunnable, "ZCC peer");
+                returnThread.setDaemon(true); // never keeps the zone from shutting down
+                return returnThread;
+            }
+        });
+    }
+
+    public static synchronized ZoneCommandChannel getInstance() {
+        if (zcc_SingleInstance == null) {
+            zcc_SingleInstance = new ZoneCommandChannel();
+        }
+        return zcc_SingleInstance;
+    }
+
+    /**
+     * queue messages for a zone, they are sent in the order they were queued
+     * @param theDashBoardUrlStr String - as advertised by the zone
+     * @param theMessageBytes byte[] - ZoneWireMessages one after another
+     */
+    public void send(String theDashBoardUrlStr, byte[] theMessageBytes) {
+        PeerQueue aPeerQueue;
+        synchronized (zcc_PeerQueueMap) {
+            aPeerQueue = zcc_PeerQueueMap.get(theDashBoardUrlStr);
+            if (aPeerQueue == null) {
+                aPeerQueue = new PeerQueue(theDashBoardUrlStr);
+                zcc_PeerQueueMap.put(theDashBoardUrlStr, aPeerQueue);
+            }
+        }
+
+        synchronized (aPeerQueue) {
+            aPeerQueue.pq_WaitingList.add(theMessageBytes);
+            if (aPeerQueue.pq_IsRunning) {
+                return; // taken along by the request after the running one
+            }
+            aPeerQueue.pq_IsRunning = true;
+        }
+        zcc_ExecutorService.execute(aPeerQueue);
+    }
+
+    /**
+     * post the messages to a zone
+     * @param theCommandUrl URL
+     * @param theMessageBytes byte[]
+     * @return int - HTTP status, -1 if the zone could not be reached
+     */
+    private static int post(URL theCommandUrl, byte[] theMessageBytes) {
+        HttpURLConnection aConnection = null;
+        try {
+            aConnection = (HttpURLConnection) theCommandUrl.openConnection();
+            aConnection.setConnectTimeout(kConnectTimeoutMillis);
+            aConnection.setReadTimeout(kReadTimeoutMillis);
+            aConnection.setDoOutput(true);
+            aConnection.setRequestMethod("POST");
+            aConnection.setRequestProperty("Content-Type", kContentTypeStr);
+            aConnection.setFixedLengthStreamingMode(theMessageBytes.length);
+            OutputStream aOutputStream = aConnection.getOutputStream();
+            aOutputStream.write(theMessageBytes);
+            aOutputStream.close();
+            int returnStatus = aConnection.getResponseCode();
+            InputStream aInputStream = (returnStatus < 400) ? aConnection.getInputStream() : aConnection.getErrorStream();
+            if (aInputStream != null) { // read to the end, else the connection is not kept alive
+                byte[] aSkipBytes = new byte[256];
+                while (aInputStream.read(aSkipBytes) != -1) {
+                }
+                aInputStream.close();
+            }
+            return returnStatus;
+        } catch (IOException ex) {
+            System.err.println("ZCC " + theCommandUrl + " - " + ex);
+            if (aConnection != null) {
+                aConnection.disconnect(); // do not reuse a connection in an unknown state
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * the messages waiting for one zone
+     */
+    private class PeerQueue implements Runnable {
+
+        private final String pq_DashBoardUrlStr;
+        private final ArrayList<byte[]> pq_WaitingList = new ArrayList<byte[]>();
+        private boolean pq_IsRunning = false;
+
+        protected PeerQueue(String theDashBoardUrlStr) {
+            pq_DashBoardUrlStr = theDashBoardUrlStr;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                byte[] aMessageBytes;
+                synchronized (this) {
+                    if (pq_WaitingList.isEmpty()) {
+                        pq_IsRunning = false;
+                        return;
+                    }
+                    aMessageBytes = takeWaiting();
+                }
+                try {
+                    deliver(aMessageBytes);
+                } catch (RuntimeException ex) { // keep the queue going
+                    System.err.println("ZCC PeerQueue - " + ex);
+                }
+            }
+        }
+
+        /**
+         * @return byte[] - every waiting message, in order
+         */
+        private byte[] takeWaiting() {
+            if (pq_WaitingList.size() == 1) {
+                return pq_WaitingList.remove(0);
+            }
+            ByteArrayOutputStream aMessageStream = new ByteArrayOutputStream();
+            for (byte[] aMessageBytes : pq_WaitingList) {
+                aMessageStream.write(aMessageBytes, 0, aMessageBytes.length);
+            }
+            pq_WaitingList.clear();
+            return aMessageStream.toByteArray();
+        }
+
+        private void deliver(byte[] theMessageBytes) {
+            URL aCommandUrl;
+            try {
+                aCommandUrl = new URL(pq_DashBoardUrlStr + kCommandPathStr);
+            } catch (IOException ex) {
+                System.err.println("ZCC " + pq_DashBoardUrlStr + " - " + ex);
+                ZoneServerLogic.getInstance().sendMessages(theMessageBytes);
+                return;
+            }
+            int aPauseMillis = kRetryPauseMillis;
+            for (int aAttemptCount = 1; aAttemptCount <= kMaxAttemptCount; aAttemptCount++) {
+                int aStatus = post(aCommandUrl, theMessageBytes);
+                if ((aStatus >= 200) && (aStatus < 300)) {
+                    return; // the zone has them
+                }
+                if (aStatus == HttpURLConnection.HTTP_BAD_REQUEST) {
+                    System.err.println("ZCC " + aCommandUrl + " refused the messages");
+                    return; // the group would hear the same malformed messages
+                }
+                if ((aStatus > 400) && (aStatus < 500)) { // a zone without the servlet, 404 or 405
+                    System.err.println("ZCC " + aCommandUrl + " refused with " + aStatus);
+                    break; // sending again would be refused again
+                }
+                if (aAttemptCount < kMaxAttemptCount) {
+                    try {
+                        Thread.sleep(aPauseMillis);
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                    aPauseMillis *= 2;
+                }
+            }
+            ZoneServerLogic.getInstance().sendMessages(theMessageBytes); // the zone may still hear the group
+        }
+    }
+}
@@ -0,0 +1,721 @@
+/*
+ * compressed bitmap of library file ids in the style of a roaring bitmap -
+ * ids are split on their high 16 bits into containers holding the low 16
+ * bits, either as a sorted char array while the container is sparse or as a
+ * 65536 bit long array once it is dense, so a facet value with one file and
+ * a genre covering half of the library are both cheap to keep and to combine
+ */
+package zonecontrol;
+
+import java.util.List;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryBitmap implements ZoneLibraryFileIdSet {
+
+    private static final int kMaxArrayCardinality = 4096; // past this an array container is larger than a bitmap one
+    private static final int kBitmapWordCount = 1024; // 65536 bits
+    private int zlb_Cardinality = 0;
+    private int zlb_ContainerCount = 0;
+    private char zlb_FirstKey = 0; // a single container is kept inline, most facet values only have one
+    private Object zlb_FirstContainer = null;
+    private int zlb_FirstCardinality = 0;
+    private char[] zlb_KeyArray = null; //<container index, high 16 bits> - null while there is at most one container
+    private Object[] zlb_ContainerArray = null; //<container index, char[] array or long[] bitmap>
+    private int[] zlb_CardinalityArray = null; //<container index, ids in the container>
+
+    public ZoneLibraryBitmap() {
+    }
+
+    /**
+     * @param theFileIdList ZoneLibraryPostingList - sorted file ids
+     * @return ZoneLibraryBitmap - bitmap of the same file ids
+     */
+    public static ZoneLibraryBitmap fromPostingList(ZoneLibraryPostingList theFileIdList) {
+        ZoneLibraryBitmap returnBitmap = new ZoneLibraryBitmap();
+        for (int i = 0; i < theFileIdList.size(); i++) {
+            returnBitmap.add(theFileIdList.get(i));
+        }
+        return returnBitmap;
+    }
+
+    @Override
+    public int size() {
+        return zlb_Cardinality;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return (zlb_Cardinality == 0);
+    }
+
+    /**
+     * @param theId int - file id, not negative
+     * @return boolean - was the id added?
+     */
+    public boolean add(int theId) {
+        char aKey = (char) (theId >>> 16);
+        char aLow = (char) theId;
+        int aIndex = containerIndex(aKey);
+        if (aIndex < 0) {
+            insertContainer(-(aIndex + 1), aKey, new char[]{aLow}, 1);
+            zlb_Cardinality++;
+            return true;
+        }
+
+        Object aContainer = getContainer(aIndex);
+        int aCardinality = getContainerCardinality(aIndex);
+        if (aContainer instanceof long[]) {
+            long[] aWordArray = (long[]) aContainer;
+            if ((aWordArray[aLow >>> 6] & (1L << aLow)) != 0) {
+                return false;
+            }
+            aWordArray[aLow >>> 6] |= (1L << aLow);
+            setContainer(aIndex, aWordArray, aCardinality + 1);
+        } else {
+            char[] aValueArray = (char[]) aContainer;
+            int aInsertIndex = indexOf(aValueArray, aCardinality, aLow);
+            if (aInsertIndex >= 0) {
+                return false;
+            }
+            aInsertIndex = -(aInsertIndex + 1);
+            if (aCardinality == kMaxArrayCardinality) {
+                long[] aWordArray = toWordArray(aValueArray, aCardinality);
+                aWordArray[aLow >>> 6] |= (1L << aLow);
+                setContainer(aIndex, aWordArray, aCardinality + 1);
+            } else {
+                if (aCardinality == aValueArray.length) {
+                    char[] aNewValueArray = new char[Math.min(kMaxArrayCardinality,
+                            Math.max(aCardinality + 1, aCardinality + (aCardinality >> 1)))];
+                    System.arraycopy(aValueArray, 0, aNewValueArray, 0, aCardinality);
+                    aValueArray = aNewValueArray;
+                }
+                System.arraycopy(aValueArray, aInsertIndex, aValueArray, aInsertIndex + 1, aCardinality - aInsertIndex);
+                aValueArray[aInsertIndex] = aLow;
+                setContainer(aIndex, aValueArray, aCardinality + 1);
+            }
+        }
+        zlb_Cardinality++;
+        return true;
+    }
+
+    /**
+     * @param theId int - file id
+     * @return boolean - was the id removed?
+     */
+    public boolean remove(int theId) {
+        if (theId < 0) {
+            return false;
+        }
+        char aLow = (char) theId;
+        int aIndex = containerIndex((char) (theId >>> 16));
+        if (aIndex < 0) {
+            return false;
+        }
+
+        Object aContainer = getContainer(aIndex);
+        int aCardinality = getContainerCardinality(aIndex) - 1;
+        if (aContainer instanceof long[]) {
+            long[] aWordArray = (long[]) aContainer;
+            if ((aWordArray[aLow >>> 6] & (1L << aLow)) == 0) {
+                return false;
+            }
+            aWordArray[aLow >>> 6] &= ~(1L << aLow);
+            if (aCardinality <= kMaxArrayCardinality) {
+                setContainer(aIndex, toValueArray(aWordArray, aCardinality), aCardinality);
+            } else {
+                setContainer(aIndex, aWordArray, aCardinality);
+            }
+        } else {
+            char[] aValueArray = (char[]) aContainer;
+            int aRemoveIndex = indexOf(aValueArray, aCardinality + 1, aLow);
+            if (aRemoveIndex < 0) {
+                return false;
+            }
+            System.arraycopy(aValueArray, aRemoveIndex + 1, aValueArray, aRemoveIndex, aCardinality - aRemoveIndex);
+            if (aCardinality == 0) {
+                removeContainer(aIndex);
+            } else {
+                setContainer(aIndex, aValueArray, aCardinality);
+            }
+        }
+        zlb_Cardinality--;
+        return true;
+    }
+
+    @Override
+    public boolean contains(int theId) {
+        if (theId < 0) {
+            return false;
+        }
+        char aLow = (char) theId;
+        int aIndex = containerIndex((char) (theId >>> 16));
+        if (aIndex < 0) {
+            return false;
+        }
+        Object aContainer = getContainer(aIndex);
+        if (aContainer instanceof long[]) {
+            return ((((long[]) aContainer)[aLow >>> 6] & (1L << aLow)) != 0);
+        }
+        return (indexOf((char[]) aContainer, getContainerCardinality(aIndex), aLow) >= 0);
+    }
+
+    /**
+     * @param theId int - file id, not negative
+     * @return boolean - is the container the id falls in a bitmap rather than
+     * an array? false if there is no such container
+     */
+    boolean isBitmapContainer(int theId) {
+        int aIndex = containerIndex((char) (theId >>> 16));
+        return (aIndex >= 0) && (getContainer(aIndex) instanceof long[]);
+    }
+
+    /**
+     * walk the bitmap in ascending order:
+     * for (int aId = b.nextId(0); aId >= 0; aId = b.nextId(aId + 1))
+     *
+     * @param theFromId int
+     * @return int - smallest id in the bitmap not less than the given one, -1 if there is none
+     */
+    public int nextId(int theFromId) {
+        if (theFromId < 0) {
+            theFromId = 0;
+        }
+        int aIndex = containerIndex((char) (theFromId >>> 16));
+        int aFromValue = theFromId & 0xFFFF;
+        if (aIndex < 0) {
+            aIndex = -(aIndex + 1);
+            aFromValue = 0;
+        }
+        for (; aIndex < zlb_ContainerCount; aIndex++) {
+            int aValue = nextValue(getContainer(aIndex), getContainerCardinality(aIndex), aFromValue);
+            if (aValue >= 0) {
+                return ((getKey(aIndex) << 16) | aValue);
+            }
+            aFromValue = 0;
+        }
+        return -1;
+    }
+
+    /**
+     * @return int[] - every id of the bitmap in ascending order, quicker than
+     * walking a large bitmap with nextId()
+     */
+    public int[] toIdArray() {
+        int[] returnIdArray = new int[zlb_Cardinality];
+        int aCount = 0;
+        for (int i = 0; i < zlb_ContainerCount; i++) {
+            int aHighBits = getKey(i) << 16;
+            Object aContainer = getContainer(i);
+            if (aContainer instanceof long[]) {
+                long[] aWordArray = (long[]) aContainer;
+                for (int w = 0; w < kBitmapWordCount; w++) {
+                    long aWord = aWordArray[w];
+                    while (aWord != 0) {
+                        returnIdArray[aCount++] = aHighBits | ((w << 6) + Long.numberOfTrailingZeros(aWord));
+                        aWord &= (aWord - 1);
+                    }
+                }
+            } else {
+                char[] aValueArray = (char[]) aContainer;
+                int aCardinality = getContainerCardinality(i);
+                for (int v = 0; v < aCardinality; v++) {
+                    returnIdArray[aCount++] = aHighBits | aValueArray[v];
+                }
+            }
+        }
+        return returnIdArray;
+    }
+
+    /**
+     * @return ZoneLibraryBitmap - independent copy with array containers trimmed to size
+     */
+    public ZoneLibraryBitmap copy() {
+        ZoneLibraryBitmap returnBitmap = new ZoneLibraryBitmap();
+        for (int i = 0; i < zlb_ContainerCount; i++) {
+            returnBitmap.appendCopy(getKey(i), getContainer(i), getContainerCardinality(i));
+        }
+        return returnBitmap;
+    }
+
+    /**
+     * @param theFirstBitmap ZoneLibraryBitmap
+     * @param theSecondBitmap ZoneLibraryBitmap
+     * @return ZoneLibraryBitmap - ids found in both
+     */
+    public static ZoneLibraryBitmap and(ZoneLibraryBitmap theFirstBitmap, ZoneLibraryBitmap theSecondBitmap) {
+        ZoneLibraryBitmap returnBitmap = new ZoneLibraryBitmap();
+        int i = 0;
+        int j = 0;
+        while ((i < theFirstBitmap.zlb_ContainerCount) && (j < theSecondBitmap.zlb_ContainerCount)) {
+            char aFirstKey = theFirstBitmap.getKey(i);
+            char aSecondKey = theSecondBitmap.getKey(j);
+            if (aFirstKey < aSecondKey) {
+                i++;
+            } else if (aFirstKey > aSecondKey) {
+                j++;
+            } else {
+                returnBitmap.appendAnd(aFirstKey,
+                        theFirstBitmap.getContainer(i), theFirstBitmap.getContainerCardinality(i),
+                        theSecondBitmap.getContainer(j), theSecondBitmap.getContainerCardinality(j));
+                i++;
+                j++;
+            }
+        }
+        return returnBitmap;
+    }
+
+    /**
+     * @param theFirstBitmap ZoneLibraryBitmap
+     * @param theSecondBitmap ZoneLibraryBitmap
+     * @return ZoneLibraryBitmap - ids found in either
+     */
+    public static ZoneLibraryBitmap or(ZoneLibraryBitmap theFirstBitmap, ZoneLibraryBitmap theSecondBitmap) {
+        ZoneLibraryBitmap returnBitmap = new ZoneLibraryBitmap();
+        int i = 0;
+        int j = 0;
+        while ((i < theFirstBitmap.zlb_ContainerCount) || (j < theSecondBitmap.zlb_ContainerCount)) {
+            if ((j >= theSecondBitmap.zlb_ContainerCount)
+                    || ((i < theFirstBitmap.zlb_ContainerCount) && (theFirstBitmap.getKey(i) < theSecondBitmap.getKey(j)))) {
+                returnBitmap.appendCopy(theFirstBitmap.getKey(i),
+                        theFirstBitmap.getContainer(i), theFirstBitmap.getContainerCardinality(i));
+                i++;
+            } else if ((i >= theFirstBitmap.zlb_ContainerCount) || (theFirstBitmap.getKey(i) > theSecondBitmap.getKey(j))) {
+                returnBitmap.appendCopy(theSecondBitmap.getKey(j),
+                        theSecondBitmap.getContainer(j), theSecondBitmap.getContainerCardinality(j));
+                j++;
+            } else {
+                returnBitmap.appendOr(theFirstBitmap.getKey(i),
+                        theFirstBitmap.getContainer(i), theFirstBitmap.getContainerCardinality(i),
+                        theSecondBitmap.getContainer(j), theSecondBitmap.getContainerCardinality(j));
+                i++;
+                j++;
+            }
+        }
+        return returnBitmap;
+    }
+
+    /**
+     * union of any number of bitmaps, every container key is OR-ed into one
+     * scratch bitmap container rather than merging the bitmaps pair by pair
+     *
+     * @param theBitmapList List<ZoneLibraryBitmap>
+     * @return ZoneLibraryBitmap - ids found in any of the bitmaps
+     */
+    public static ZoneLibraryBitmap orAll(List<ZoneLibraryBitmap> theBitmapList) {
+        if (theBitmapList.size() == 1) {
+            return theBitmapList.get(0).copy();
+        }
+
+        int aKeyLimit = 0;
+        for (ZoneLibraryBitmap aBitmap : theBitmapList) {
+            if (aBitmap.zlb_ContainerCount > 0) {
+                aKeyLimit = Math.max(aKeyLimit, aBitmap.getKey(aBitmap.zlb_ContainerCount - 1) + 1);
+            }
+        }
+
+        long[][] aWordArrays = new long[aKeyLimit][]; //<container key, bitmap container>
+        for (ZoneLibraryBitmap aBitmap : theBitmapList) {
+            for (int i = 0; i < aBitmap.zlb_ContainerCount; i++) {
+                char aKey = aBitmap.getKey(i);
+                if (aWordArrays[aKey] == null) {
+                    aWordArrays[aKey] = new long[kBitmapWordCount];
+                }
+                Object aContainer = aBitmap.getContainer(i);
+                if (aContainer instanceof long[]) {
+                    long[] aWordArray = (long[]) aContainer;
+                    for (int w = 0; w < kBitmapWordCount; w++) {
+                        aWordArrays[aKey][w] |= aWordArray[w];
+                    }
+                } else {
+                    char[] aValueArray = (char[]) aContainer;
+                    for (int v = 0; v < aBitmap.getContainerCardinality(i); v++) {
+                        aWordArrays[aKey][aValueArray[v] >>> 6] |= (1L << aValueArray[v]);
+                    }
+                }
+            }
+        }
+
+        ZoneLibraryBitmap returnBitmap = new ZoneLibraryBitmap();
+        for (int aKey = 0; aKey < aKeyLimit; aKey++) {
+            if (aWordArrays[aKey] != null) {
+                returnBitmap.appendWords((char) aKey, aWordArrays[aKey]);
+            }
+        }
+        return returnBitmap;
+    }
+
+    /**
+     * @param theFirstBitmap ZoneLibraryBitmap
+     * @param theSecondBitmap ZoneLibraryBitmap
+     * @return ZoneLibraryBitmap - ids of the first bitmap not found in the second
+     */
+    public static ZoneLibraryBitmap andNot(ZoneLibraryBitmap theFirstBitmap, ZoneLibraryBitmap theSecondBitmap) {
+        ZoneLibraryBitmap returnBitmap = new ZoneLibraryBitmap();
+        int j = 0;
+        for (int i = 0; i < theFirstBitmap.zlb_ContainerCount; i++) {
+            char aKey = theFirstBitmap.getKey(i);
+            while ((j < theSecondBitmap.zlb_ContainerCount) && (theSecondBitmap.getKey(j) < aKey)) {
+                j++;
+            }
+            if ((j < theSecondBitmap.zlb_ContainerCount) && (theSecondBitmap.getKey(j) == aKey)) {
+                returnBitmap.appendAndNot(aKey,
+                        theFirstBitmap.getContainer(i), theFirstBitmap.getContainerCardinality(i),
+                        theSecondBitmap.getContainer(j), theSecondBitmap.getContainerCardinality(j));
+            } else {
+                returnBitmap.appendCopy(aKey, theFirstBitmap.getContainer(i), theFirstBitmap.getContainerCardinality(i));
+            }
+        }
+        return returnBitmap;
+    }
+
+    private void appendAnd(char theKey, Object theFirstContainer, int theFirstCardinality,
+            Object theSecondContainer, int theSecondCardinality) {
+        if ((theFirstContainer instanceof char[]) && (theSecondContainer instanceof char[])) {
+            char[] aFirstArray = (char[]) theFirstContainer;
+            char[] aSecondArray = (char[]) theSecondContainer;
+            char[] aValueArray = new char[Math.min(theFirstCardinality, theSecondCardinality)];
+            int aCardinality = 0;
+            int i = 0;
+            int j = 0;
+            while ((i < theFirstCardinality) && (j < theSecondCardinality)) {
+                if (aFirstArray[i] < aSecondArray[j]) {
+                    i++;
+                } else if (aFirstArray[i] > aSecondArray[j]) {
+                    j++;
+                } else {
+                    aValueArray[aCardinality++] = aFirstArray[i];
+                    i++;
+                    j++;
+                }
+            }
+            appendValues(theKey, aValueArray, aCardinality);
+        } else if (theFirstContainer instanceof char[]) {
+            appendFiltered(theKey, (char[]) theFirstContainer, theFirstCardinality, (long[]) theSecondContainer, true);
+        } else if (theSecondContainer instanceof char[]) {
+            appendFiltered(theKey, (char[]) theSecondContainer, theSecondCardinality, (long[]) theFirstContainer, true);
+        } else {
+            long[] aFirstWordArray = (long[]) theFirstContainer;
+            long[] aSecondWordArray = (long[]) theSecondContainer;
+            long[] aWordArray = new long[kBitmapWordCount];
+            for (int w = 0; w < kBitmapWordCount; w++) {
+                aWordArray[w] = aFirstWordArray[w] & aSecondWordArray[w];
+            }
+            appendWords(theKey, aWordArray);
+        }
+    }
+
+    private void appendOr(char theKey, Object theFirstContainer, int theFirstCardinality,
+            Object theSecondContainer, int theSecondCardinality) {
+        if ((theFirstContainer instanceof char[]) && (theSecondContainer instanceof char[])) {
+            char[] aFirstArray = (char[]) theFirstContainer;
+            char[] aSecondArray = (char[]) theSecondContainer;
+            char[] aValueArray = new char[theFirstCardinality + theSecondCardinality];
+            int aCardinality = 0;
+            int i = 0;
+            int j = 0;
+            while ((i < theFirstCardinality) || (j < theSecondCardinality)) {
+                if ((j >= theSecondCardinality) || ((i < theFirstCardinality) && (aFirstArray[i] < aSecondArray[j]))) {
+                    aValueArray[aCardinality++] = aFirstArray[i++];
+                } else if ((i >= theFirstCardinality) || (aFirstArray[i] > aSecondArray[j])) {
+                    aValueArray[aCardinality++] = aSecondArray[j++];
+                } else {
+                    aValueArray[aCardinality++] = aFirstArray[i++];
+                    j++;
+                }
+            }
+            if (aCardinality > kMaxArrayCardinality) {
+                appendWords(theKey, toWordArray(aValueArray, aCardinality));
+            } else {
+                appendValues(theKey, aValueArray, aCardinality);
+            }
+        } else {
+            long[] aWordArray = new long[kBitmapWordCount];
+            orInto(aWordArray, theFirstContainer, theFirstCardinality);
+            orInto(aWordArray, theSecondContainer, theSecondCardinality);
+            appendWords(theKey, aWordArray);
+        }
+    }
+
+    private void appendAndNot(char theKey, Object theFirstContainer, int theFirstCardinality,
+            Object theSecondContainer, int theSecondCardinality) {
+        if ((theFirstContainer instanceof char[]) && (theSecondContainer instanceof char[])) {
+            char[] aFirstArray = (char[]) theFirstContainer;
+            char[] aSecondArray = (char[]) theSecondContainer;
+            char[] aValueArray = new char[theFirstCardinality];
+            int aCardinality = 0;
+            int j = 0;
+            for (int i = 0; i < theFirstCardinality; i++) {
+                while ((j < theSecondCardinality) && (aSecondArray[j] < aFirstArray[i])) {
+                    j++;
+                }
+                if ((j >= theSecondCardinality) || (aSecondArray[j] != aFirstArray[i])) {
+                    aValueArray[aCardinality++] = aFirstArray[i];
+                }
+            }
+            appendValues(theKey, aValueArray, aCardinality);
+        } else if (theFirstContainer instanceof char[]) {
+            appendFiltered(theKey, (char[]) theFirstContainer, theFirstCardinality, (long[]) theSecondContainer, false);
+        } else {
+            long[] aWordArray = new long[kBitmapWordCount];
+            System.arraycopy((long[]) theFirstContainer, 0, aWordArray, 0, kBitmapWordCount);
+            if (theSecondContainer instanceof char[]) {
+                char[] aSecondArray = (char[]) theSecondContainer;
+                for (int j = 0; j < theSecondCardinality; j++) {
+                    aWordArray[aSecondArray[j] >>> 6] &= ~(1L << aSecondArray[j]);
+                }
+            } else {
+                long[] aSecondWordArray = (long[]) theSecondContainer;
+                for (int w = 0; w < kBitmapWordCount; w++) {
+                    aWordArray[w] &= ~aSecondWordArray[w];
+                }
+            }
+            appendWords(theKey, aWordArray);
+        }
+    }
+
+    /**
+     * append the values of an array container that are (or are not) set in a
+     * bitmap container
+     */
+    private void appendFiltered(char theKey, char[] theValueArray, int theCardinality,
+            long[] theWordArray, boolean keepSetValues) {
+        char[] aValueArray = new char[theCardinality];
+        int aCardinality = 0;
+        for (int i = 0; i < theCardinality; i++) {
+            char aValue = theValueArray[i];
+            if (((theWordArray[aValue >>> 6] & (1L << aValue)) != 0) == keepSetValues) {
+                aValueArray[aCardinality++] = aValue;
+            }
+        }
+        appendValues(theKey, aValueArray, aCardinality);
+    }
+
+    private void appendCopy(char theKey, Object theContainer, int theCardinality) {
+        if (theContainer instanceof long[]) {
+            long[] aWordArray = new long[kBitmapWordCount];
+            System.arraycopy((long[]) theContainer, 0, aWordArray, 0, kBitmapWordCount);
+            insertContainer(zlb_ContainerCount, theKey, aWordArray, theCardinality);
+            zlb_Cardinality += theCardinality;
+        } else {
+            char[] aValueArray = new char[theCardinality];
+            System.arraycopy((char[]) theContainer, 0, aValueArray, 0, theCardinality);
+            appendValues(theKey, aValueArray, theCardinality);
+        }
+    }
+
+    /**
+     * append an array container after every other container, trimming it to size
+     */
+    private void appendValues(char theKey, char[] theValueArray, int theCardinality) {
+        if (theCardinality == 0) {
+            return;
+        }
+        char[] aValueArray = theValueArray;
+        if (aValueArray.length != theCardinality) {
+            aValueArray = new char[theCardinality];
+            System.arraycopy(theValueArray, 0, aValueArray, 0, theCardinality);
+        }
+        insertContainer(zlb_ContainerCount, theKey, aValueArray, theCardinality);
+        zlb_Cardinality += theCardinality;
+    }
+
+    /**
+     * append a bitmap container after every other container, turning it into
+     * an array container if it is sparse
+     */
+    private void appendWords(char theKey, long[] theWordArray) {
+        int aCardinality = 0;
+        for (int w = 0; w < kBitmapWordCount; w++) {
+            aCardinality += Long.bitCount(theWordArray[w]);
+        }
+        if (aCardinality == 0) {
+            return;
+        }
+        if (aCardinality <= kMaxArrayCardinality) {
+            insertContainer(zlb_ContainerCount, theKey, toValueArray(theWordArray, aCardinality), aCardinality);
+        } else {
+            insertContainer(zlb_ContainerCount, theKey, theWordArray, aCardinality);
+        }
+        zlb_Cardinality += aCardinality;
+    }
+
+    private static void orInto(long[] theWordArray, Object theContainer, int theCardinality) {
+        if (theContainer instanceof long[]) {
+            long[] aWordArray = (long[]) theContainer;
+            for (int w = 0; w < kBitmapWordCount; w++) {
+                theWordArray[w] |= aWordArray[w];
+            }
+        } else {
+            char[] aValueArray = (char[]) theContainer;
+            for (int i = 0; i < theCardinality; i++) {
+                theWordArray[aValueArray[i] >>> 6] |= (1L << aValueArray[i]);
+            }
+        }
+    }
+
+    private static long[] toWordArray(char[] theValueArray, int theCardinality) {
+        long[] returnWordArray = new long[kBitmapWordCount];
+        for (int i = 0; i < theCardinality; i++) {
+            returnWordArray[theValueArray[i] >>> 6] |= (1L << theValueArray[i]);
+        }
+        return returnWordArray;
+    }
+
+    private static char[] toValueArray(long[] theWordArray, int theCardinality) {
+        char[] returnValueArray = new char[theCardinality];
+        int aCount = 0;
+        for (int w = 0; w < kBitmapWordCount; w++) {
+            long aWord = theWordArray[w];
+            while (aWord != 0) {
+                returnValueArray[aCount++] = (char) ((w << 6) + Long.numberOfTrailingZeros(aWord));
+                aWord &= (aWord - 1);
+            }
+        }
+        return returnValueArray;
+    }
+
+    private static int nextValue(Object theContainer, int theCardinality, int theFromValue) {
+        if (theContainer instanceof long[]) {
+            long[] aWordArray = (long[]) theContainer;
+            int aWordIndex = theFromValue >>> 6;
+            long aWord = aWordArray[aWordIndex] & (-1L << theFromValue);
+            while (aWord == 0) {
+                aWordIndex++;
+                if (aWordIndex == kBitmapWordCount) {
+                    return -1;
+                }
+                aWord = aWordArray[aWordIndex];
+            }
+            return ((aWordIndex << 6) + Long.numberOfTrailingZeros(aWord));
+        }
+        char[] aValueArray = (char[]) theContainer;
+        int aIndex = indexOf(aValueArray, theCardinality, (char) theFromValue);
+        if (aIndex < 0) {
+            aIndex = -(aIndex + 1);
+        }
+        return ((aIndex < theCardinality) ? aValueArray[aIndex] : -1);
+    }
+
+    /**
+     * binary search of an array container
+     *
+     * @return int - index of value, or (-(insertion point) - 1) if not found
+     */
+    private static int indexOf(char[] theValueArray, int theCardinality, char theValue) {
+        int aLow = 0;
+        int aHigh = theCardinality - 1;
+        while (aLow <= aHigh) {
+            int aMid = (aLow + aHigh) >>> 1;
+            char aMidValue = theValueArray[aMid];
+            if (aMidValue < theValue) {
+                aLow = aMid + 1;
+            } else if (aMidValue > theValue) {
+                aHigh = aMid - 1;
+            } else {
+                return aMid;
+            }
+        }
+        return -(aLow + 1);
+    }
+
+    /**
+     * binary search of the container keys
+     *
+     * @return int - index of container, or (-(insertion point) - 1) if not found
+     */
+    private int containerIndex(char theKey) {
+        int aLow = 0;
+        int aHigh = zlb_ContainerCount - 1;
+        while (aLow <= aHigh) {
+            int aMid = (aLow + aHigh) >>> 1;
+            char aMidKey = getKey(aMid);
+            if (aMidKey < theKey) {
+                aLow = aMid + 1;
+            } else if (aMidKey > theKey) {
+                aHigh = aMid - 1;
+            } else {
+                return aMid;
+            }
+        }
+        return -(aLow + 1);
+    }
+
+    private char getKey(int theIndex) {
+        return ((zlb_KeyArray == null) ? zlb_FirstKey : zlb_KeyArray[theIndex]);
+    }
+
+    private Object getContainer(int theIndex) {
+        return ((zlb_KeyArray == null) ? zlb_FirstContainer : zlb_ContainerArray[theIndex]);
+    }
+
+    private int getContainerCardinality(int theIndex) {
+        return ((zlb_KeyArray == null) ? zlb_FirstCardinality : zlb_CardinalityArray[theIndex]);
+    }
+
+    private void setContainer(int theIndex, Object theContainer, int theCardinality) {
+        if (zlb_KeyArray == null) {
+            zlb_FirstContainer = theContainer;
+            zlb_FirstCardinality = theCardinality;
+        } else {
+            zlb_ContainerArray[theIndex] = theContainer;
+            zlb_CardinalityArray[theIndex] = theCardinality;
+        }
+    }
+
+    private void insertContainer(int theIndex, char theKey, Object theContainer, int theCardinality) {
+        if ((zlb_KeyArray == null) && (zlb_ContainerCount == 0)) {
+            zlb_FirstKey = theKey;
+            zlb_FirstContainer = theContainer;
+            zlb_FirstCardinality = theCardinality;
+            zlb_ContainerCount = 1;
+            return;
+        }
+
+        if (zlb_KeyArray == null) { // second container, move the inline one into the arrays
+            zlb_KeyArray = new char[4];
+            zlb_ContainerArray = new Object[4];
+            zlb_CardinalityArray = new int[4];
+            zlb_KeyArray[0] = zlb_FirstKey;
+            zlb_ContainerArray[0] = zlb_FirstContainer;
+            zlb_CardinalityArray[0] = zlb_FirstCardinality;
+            zlb_FirstContainer = null;
+        } else if (zlb_ContainerCount == zlb_KeyArray.length) {
+            char[] aKeyArray = new char[zlb_ContainerCount * 2];
+            System.arraycopy(zlb_KeyArray, 0, aKeyArray, 0, zlb_ContainerCount);
+            zlb_KeyArray = aKeyArray;
+            Object[] aContainerArray = new Object[zlb_ContainerCount * 2];
+            System.arraycopy(zlb_ContainerArray, 0, aContainerArray, 0, zlb_ContainerCount);
+            zlb_ContainerArray = aContainerArray;
+            int[] aCardinalityArray = new int[zlb_ContainerCount * 2];
+            System.arraycopy(zlb_CardinalityArray, 0, aCardinalityArray, 0, zlb_ContainerCount);
+            zlb_CardinalityArray = aCardinalityArray;
+        }
+
+        int aMoveCount = zlb_ContainerCount - theIndex;
+        System.arraycopy(zlb_KeyArray, theIndex, zlb_KeyArray, theIndex + 1, aMoveCount);
+        System.arraycopy(zlb_ContainerArray, theIndex, zlb_ContainerArray, theIndex + 1, aMoveCount);
+        System.arraycopy(zlb_CardinalityArray, theIndex, zlb_CardinalityArray, theIndex + 1, aMoveCount);
+        zlb_KeyArray[theIndex] = theKey;
+        zlb_ContainerArray[theIndex] = theContainer;
+        zlb_CardinalityArray[theIndex] = theCardinality;
+        zlb_ContainerCount++;
+    }
+
+    private void removeContainer(int theIndex) {
+        if (zlb_KeyArray == null) {
+            zlb_FirstContainer = null;
+            zlb_FirstCardinality = 0;
+            zlb_ContainerCount = 0;
+            return;
+        }
+
+        int aMoveCount = zlb_ContainerCount - theIndex - 1;
+        System.arraycopy(zlb_KeyArray, theIndex + 1, zlb_KeyArray, theIndex, aMoveCount);
+        System.arraycopy(zlb_ContainerArray, theIndex + 1, zlb_ContainerArray, theIndex, aMoveCount);
+        System.arraycopy(zlb_CardinalityArray, theIndex + 1, zlb_CardinalityArray, theIndex, aMoveCount);
+        zlb_ContainerCount--;
+        zlb_ContainerArray[zlb_ContainerCount] = null;
+    }
+}
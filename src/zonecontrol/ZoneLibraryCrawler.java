@@ -0,0 +1,594 @@
+/*
+ * parallel crawler that feeds the library index from CIFS shares and local paths
+ *
+ * work is split into three stages run on a fixed size thread pool: listing a
+ * directory, filtering the files of a listing against the index, and reading
+ * the ID3 metadata of new or changed files - stages that touch a host are
+ * queued per host so no single server gets more than a few requests at once
+ */
+package zonecontrol;
+
+import contrib.ID3MetaData;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import jcifs.smb.SmbException;
+import jcifs.smb.SmbFile;
+import netutil.CIFSNetworkInterface;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryCrawler {
+
+    public static final int kMaxRequestsPerHost = 2;
+    protected static final String kLocalHostKey = "file";
+    protected static final int kShareListRetryCount = 3;
+    private ZoneLibraryIndex zlc_Index = null;
+    private ExecutorService zlc_ExecutorService = null;
+    private HashMap<String, HostQueue> zlc_HostQueueMap = null; //<host key, queued host work>
+    private ArrayList<CrawlRoot> zlc_RootList = null;
+    private int zlc_PendingCount = 0;
+    private boolean debugEventsOn = false;
+
+    public ZoneLibraryCrawler(ZoneLibraryIndex theIndex, int theThreadCount, boolean theDebugIsOn) {
+        zlc_Index = theIndex;
+        zlc_ExecutorService = Executors.newFixedThreadPool(Math.max(theThreadCount, 1));
+        zlc_HostQueueMap = new HashMap<String, HostQueue>();
+        zlc_RootList = new ArrayList<CrawlRoot>();
+        debugEventsOn = theDebugIsOn;
+    }
+
+    /**
+     * list the shares of a CIFS server and crawl each one that is not black
+     * listed
+     *
+     * @param theServerSmbFile SmbFile
+     */
+    public void addHost(SmbFile theServerSmbFile) {
+        submitHostWork(getHostKey(theServerSmbFile.toString()), new ShareListTask(theServerSmbFile));
+    }
+
+    /**
+     * crawl a CIFS share or local directory
+     *
+     * @param thePathStr String
+     */
+    public void addPath(String thePathStr) {
+        if (debugEventsOn) {
+            System.out.println("ZLC addPath - will now index " + thePathStr);
+        }
+
+        CrawlRoot aCrawlRoot = new CrawlRoot(thePathStr);
+        synchronized (zlc_RootList) {
+            zlc_RootList.add(aCrawlRoot);
+        }
+        submitHostWork(getHostKey(thePathStr), new DirectoryTask(aCrawlRoot, thePathStr, 0));
+    }
+
+    /**
+     * block until every queued stage has run, then shut down the thread pool
+     *
+     * @return List<String> - the paths that were completely listed
+     */
+    public List<String> awaitCompletion() {
+        synchronized (this) {
+            while (zlc_PendingCount > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    System.err.println(ex);
+                    break;
+                }
+            }
+        }
+        zlc_ExecutorService.shutdown();
+
+        ArrayList<String> returnPathList = new ArrayList<String>();
+        synchronized (zlc_RootList) {
+            for (CrawlRoot aCrawlRoot : zlc_RootList) {
+                if (aCrawlRoot.isComplete) {
+                    returnPathList.add(aCrawlRoot.rootPath);
+
+                    if (debugEventsOn) {
+                        System.out.println("ZLC awaitCompletion - done indexing " + aCrawlRoot.rootPath);
+                    }
+                }
+            }
+        }
+        return returnPathList;
+    }
+
+    /**
+     * @param thePathStr String
+     * @return String - the server part of a CIFS path, or the local host key
+     */
+    protected static String getHostKey(String thePathStr) {
+        String aSmbPrefix = FileSystemType.smb.toString().concat(ZoneServerUtility.prefixUriStr);
+        if (!thePathStr.startsWith(aSmbPrefix)) {
+            return kLocalHostKey;
+        }
+        int aHostEnd = thePathStr.indexOf('/', aSmbPrefix.length());
+        if (aHostEnd < 0) {
+            aHostEnd = thePathStr.length();
+        }
+        return thePathStr.substring(aSmbPrefix.length(), aHostEnd).toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * run work that needs a host right away if the host has a free request
+     * slot, otherwise queue it behind the work already running on that host
+     *
+     * @param theHostKey String
+     * @param theRunnable Runnable
+     */
+    protected void submitHostWork(String theHostKey, Runnable theRunnable) {
+        taskQueued();
+        HostQueue aHostQueue;
+        synchronized (zlc_HostQueueMap) {
+            aHostQueue = zlc_HostQueueMap.get(theHostKey);
+            if (aHostQueue == null) {
+                aHostQueue = new HostQueue();
+                zlc_HostQueueMap.put(theHostKey, aHostQueue);
+            }
+        }
+
+        synchronized (aHostQueue) {
+            if (aHostQueue.runningCount >= kMaxRequestsPerHost) {
+                aHostQueue.waitingList.add(theRunnable);
+                return;
+            }
+            aHostQueue.runningCount++;
+        }
+        zlc_ExecutorService.execute(new HostWork(aHostQueue, theRunnable));
+    }
+
+    /**
+     * run work that only touches the index
+     *
+     * @param theRunnable Runnable
+     */
+    protected void submitWork(final Runnable theRunnable) {
+        taskQueued();
+        zlc_ExecutorService.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    theRunnable.run();
+                } finally {
+                    taskDone();
+                }
+            }
+        });
+    }
+
+    private synchronized void taskQueued() {
+        zlc_PendingCount++;
+    }
+
+    private synchronized void taskDone() {
+        zlc_PendingCount--;
+        if (zlc_PendingCount == 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * list a CIFS directory
+     *
+     * @param theDirPath String
+     * @param theLastModified long
+     * @param theFileEntryList List<FileEntry> - gets the files of the directory
+     * @param theDirModifiedMap HashMap<String, Long> - gets the modification time of each sub-directory
+     * @return ZoneLibraryDirectoryRecord - null if the directory could not be listed
+     */
+    private ZoneLibraryDirectoryRecord listCIFSDirectory(String theDirPath, long theLastModified,
+            List<FileEntry> theFileEntryList, HashMap<String, Long> theDirModifiedMap) {
+        ArrayList<SmbFile> aCIFSDirList = CIFSNetworkInterface.getInstance().getDirectoryList(theDirPath);
+        if (aCIFSDirList == null) {
+            return null;
+        }
+
+        ZoneLibraryDirectoryRecord aDirRecord = new ZoneLibraryDirectoryRecord(theDirPath, theLastModified);
+        for (SmbFile tempSmbFile : aCIFSDirList) {
+            // attributes come back with the listing, reading them is free here
+            long tempLastModified = 0;
+            long tempSize = 0;
+            try {
+                tempLastModified = tempSmbFile.lastModified();
+                tempSize = tempSmbFile.length();
+            } catch (SmbException ex) {
+                if (debugEventsOn) {
+                    System.err.println(ex);
+                }
+            }
+
+            if (tempSmbFile.getPath().endsWith("/")) { // recurse into directory during search
+                if (zlc_Index.willPathRecurseToInf(tempSmbFile.getParent(), tempSmbFile.getPath())) {
+                    if (debugEventsOn) {
+                        System.err.println("ZLC listCIFSDirectory - " + tempSmbFile.toString() + " will go to INF");
+                    }
+                } else {
+                    aDirRecord.addChildDirPath(tempSmbFile.getPath());
+                    theDirModifiedMap.put(tempSmbFile.getPath(), tempLastModified);
+                }
+            } else {
+                aDirRecord.addChildFileName(tempSmbFile.getName());
+                theFileEntryList.add(new FileEntry(tempSmbFile.getPath(), tempSmbFile.getName(),
+                        tempLastModified, tempSize));
+            }
+        }
+        return aDirRecord;
+    }
+
+    /**
+     * list a local directory
+     *
+     * @param theDirPath String
+     * @param theLastModified long
+     * @param theFileEntryList List<FileEntry> - gets the files of the directory
+     * @param theDirModifiedMap HashMap<String, Long> - gets the modification time of each sub-directory
+     * @return ZoneLibraryDirectoryRecord - null if the directory could not be listed
+     */
+    private ZoneLibraryDirectoryRecord listLocalDirectory(String theDirPath, long theLastModified,
+            List<FileEntry> theFileEntryList, HashMap<String, Long> theDirModifiedMap) {
+        File[] files = new File(theDirPath).listFiles();
+        if (files == null) {
+            return null;
+        }
+
+        ZoneLibraryDirectoryRecord aDirRecord = new ZoneLibraryDirectoryRecord(theDirPath, theLastModified);
+        for (File tempFile : files) {
+            if (tempFile.isDirectory()) { // recurse into directory during search
+                if (zlc_Index.willPathRecurseToInf(theDirPath, tempFile.getPath())) {
+                    if (debugEventsOn) {
+                        System.err.println("ZLC listLocalDirectory - " + tempFile.getPath() + " will go to INF");
+                    }
+                } else {
+                    aDirRecord.addChildDirPath(tempFile.getPath());
+                    theDirModifiedMap.put(tempFile.getPath(), tempFile.lastModified());
+                }
+            } else {
+                aDirRecord.addChildFileName(tempFile.getName());
+                theFileEntryList.add(new FileEntry(getChildFilePath(theDirPath, tempFile.getName(), false),
+                        tempFile.getName(), tempFile.lastModified(), tempFile.length()));
+            }
+        }
+        return aDirRecord;
+    }
+
+    /**
+     * get the modification time and size of the files of a reused CIFS
+     * listing - retagging a file changes its own time but not that of its
+     * directory - from one listing of the directory, rather than a request
+     * per file
+     *
+     * @param theDirPath String
+     * @param theDirRecord ZoneLibraryDirectoryRecord - the cached listing
+     * @param theFileEntryList List<FileEntry> - gets the files of the directory
+     */
+    private void statCIFSFiles(String theDirPath, ZoneLibraryDirectoryRecord theDirRecord,
+            List<FileEntry> theFileEntryList) {
+        HashMap<String, SmbFile> aSmbFileMap = new HashMap<String, SmbFile>();
+        ArrayList<SmbFile> aCIFSDirList = CIFSNetworkInterface.getInstance().getDirectoryList(theDirPath);
+        if (aCIFSDirList != null) {
+            for (SmbFile tempSmbFile : aCIFSDirList) {
+                aSmbFileMap.put(tempSmbFile.getName(), tempSmbFile);
+            }
+        }
+
+        for (String aChildFileName : theDirRecord.getChildFileNameList()) {
+            long tempLastModified = 0; // unknown, the file is taken as unchanged
+            long tempSize = 0;
+            SmbFile tempSmbFile = aSmbFileMap.get(aChildFileName);
+            if (tempSmbFile != null) {
+                try {
+                    tempLastModified = tempSmbFile.lastModified();
+                    tempSize = tempSmbFile.length();
+                } catch (SmbException ex) {
+                    if (debugEventsOn) {
+                        System.err.println(ex);
+                    }
+                    tempLastModified = 0;
+                }
+            }
+            theFileEntryList.add(new FileEntry(getChildFilePath(theDirPath, aChildFileName, true),
+                    aChildFileName, tempLastModified, tempSize));
+        }
+    }
+
+    /**
+     * get the modification time and size of the files of a reused local
+     * listing, retagging a file changes its own time but not that of its
+     * directory
+     *
+     * @param theDirPath String
+     * @param theDirRecord ZoneLibraryDirectoryRecord - the cached listing
+     * @param theFileEntryList List<FileEntry> - gets the files of the directory
+     */
+    private void statLocalFiles(String theDirPath, ZoneLibraryDirectoryRecord theDirRecord,
+            List<FileEntry> theFileEntryList) {
+        for (String aChildFileName : theDirRecord.getChildFileNameList()) {
+            File tempFile = new File(theDirPath, aChildFileName);
+            theFileEntryList.add(new FileEntry(getChildFilePath(theDirPath, aChildFileName, false),
+                    aChildFileName, tempFile.lastModified(), tempFile.length()));
+        }
+    }
+
+    /**
+     * @param theDirPath String
+     * @param theFileName String
+     * @param thePathIsCIFS boolean
+     * @return String - raw full path of the file in the directory
+     */
+    private String getChildFilePath(String theDirPath, String theFileName, boolean thePathIsCIFS) {
+        if (thePathIsCIFS) {
+            return theDirPath + theFileName;
+        }
+
+        String tempFilePathStr = new File(theDirPath, theFileName).getAbsolutePath();
+        if (tempFilePathStr.contains("\\")) {
+            tempFilePathStr = tempFilePathStr.replaceAll("\\\\+", "/");
+        }
+        return tempFilePathStr;
+    }
+
+    /**
+     * a path handed to the crawler, only complete if every directory below
+     * it could be listed
+     */
+    private static class CrawlRoot {
+
+        protected String rootPath = null;
+        protected volatile boolean isComplete = true;
+
+        protected CrawlRoot(String theRootPath) {
+            rootPath = theRootPath;
+        }
+    }
+
+    /**
+     * a file found in a directory listing
+     */
+    private static class FileEntry {
+
+        protected String filePath = null;
+        protected String fileName = null;
+        protected long lastModified = 0;
+        protected long size = 0;
+
+        protected FileEntry(String theFilePath, String theFileName, long theLastModified, long theSize) {
+            filePath = theFilePath;
+            fileName = theFileName;
+            lastModified = theLastModified;
+            size = theSize;
+        }
+    }
+
+    /**
+     * work queued for one host
+     */
+    private static class HostQueue {
+
+        protected LinkedList<Runnable> waitingList = new LinkedList<Runnable>();
+        protected int runningCount = 0;
+    }
+
+    /**
+     * runs one piece of host work, then hands its request slot to the next
+     * piece of work waiting on the same host
+     */
+    private class HostWork implements Runnable {
+
+        private HostQueue hw_HostQueue = null;
+        private Runnable hw_Runnable = null;
+
+        protected HostWork(HostQueue theHostQueue, Runnable theRunnable) {
+            hw_HostQueue = theHostQueue;
+            hw_Runnable = theRunnable;
+        }
+
+        @Override
+        public void run() {
+            try {
+                hw_Runnable.run();
+            } catch (RuntimeException ex) {
+                System.err.println("ZLC HostWork - " + ex);
+            } finally {
+                Runnable aNextRunnable;
+                synchronized (hw_HostQueue) {
+                    aNextRunnable = hw_HostQueue.waitingList.poll();
+                    if (aNextRunnable == null) {
+                        hw_HostQueue.runningCount--;
+                    }
+                }
+                if (aNextRunnable != null) {
+                    zlc_ExecutorService.execute(new HostWork(hw_HostQueue, aNextRunnable));
+                }
+                taskDone();
+            }
+        }
+    }
+
+    /**
+     * list the shares of a server, retrying since malformed fast scanning of
+     * TCP 139 earlier can cause a RST on the first connect
+     */
+    private class ShareListTask implements Runnable {
+
+        private SmbFile slt_ServerSmbFile = null;
+
+        protected ShareListTask(SmbFile theServerSmbFile) {
+            slt_ServerSmbFile = theServerSmbFile;
+        }
+
+        @Override
+        public void run() {
+            String[] aSharePathArray = null;
+            int aRetryCnt = 0;
+            while ((aRetryCnt < kShareListRetryCount) && (aSharePathArray == null)
+                    && zlc_Index.getIndexIsScheduled()) {
+                if (debugEventsOn) {
+                    System.out.println("ZLC ShareListTask - will now connect to "
+                            + slt_ServerSmbFile.toString() + " try #" + (aRetryCnt + 1));
+                }
+                try {
+                    aSharePathArray = slt_ServerSmbFile.list();
+                } catch (SmbException ex) {
+                    System.err.println(ex);
+                }
+                aRetryCnt++;
+            }
+
+            if (aSharePathArray != null) {
+                for (String aSharePath : aSharePathArray) {
+                    aSharePath = aSharePath.toLowerCase(Locale.ENGLISH);
+                    if (!zlc_Index.thePathIsBlackListed(aSharePath)) {
+                        if (!aSharePath.endsWith("/")) {
+                            aSharePath = aSharePath + "/";
+                        }
+                        addPath(slt_ServerSmbFile.toString() + aSharePath);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * listing stage - reuse the cached listing of an unchanged directory or
+     * list it again, then queue its sub-directories and files
+     */
+    private class DirectoryTask implements Runnable {
+
+        private CrawlRoot dt_CrawlRoot = null;
+        private String dt_DirPath = null;
+        private long dt_LastModified = 0;
+
+        /**
+         * @param theCrawlRoot CrawlRoot
+         * @param theDirPath String
+         * @param theLastModified long - seen while listing the parent, 0 if unknown
+         */
+        protected DirectoryTask(CrawlRoot theCrawlRoot, String theDirPath, long theLastModified) {
+            dt_CrawlRoot = theCrawlRoot;
+            dt_DirPath = theDirPath;
+            dt_LastModified = theLastModified;
+        }
+
+        @Override
+        public void run() {
+            if (!zlc_Index.getIndexIsScheduled()) {
+                dt_CrawlRoot.isComplete = false;
+                return;
+            }
+
+            boolean aPathIsCIFS = !kLocalHostKey.equals(getHostKey(dt_DirPath));
+            long aLastModified = dt_LastModified;
+            if (aLastModified == 0) {
+                if (aPathIsCIFS) {
+                    aLastModified = CIFSNetworkInterface.getInstance().getLastModified(dt_DirPath);
+                } else {
+                    aLastModified = new File(dt_DirPath).lastModified();
+                }
+            }
+
+            ArrayList<FileEntry> aFileEntryList = new ArrayList<FileEntry>();
+            HashMap<String, Long> aDirModifiedMap = new HashMap<String, Long>();
+            ZoneLibraryDirectoryRecord aDirRecord = zlc_Index.getDirectoryRecord(dt_DirPath);
+            if ((aDirRecord != null) && (aLastModified != 0)
+                    && (aDirRecord.getLastModified() == aLastModified)) { // unchanged, reuse listing
+                if (aPathIsCIFS) {
+                    statCIFSFiles(dt_DirPath, aDirRecord, aFileEntryList);
+                } else {
+                    statLocalFiles(dt_DirPath, aDirRecord, aFileEntryList);
+                }
+                zlc_Index.markDirectorySeen(aDirRecord);
+            } else {
+                if (aPathIsCIFS) {
+                    aDirRecord = listCIFSDirectory(dt_DirPath, aLastModified, aFileEntryList, aDirModifiedMap);
+                } else {
+                    aDirRecord = listLocalDirectory(dt_DirPath, aLastModified, aFileEntryList, aDirModifiedMap);
+                }
+                if (aDirRecord == null) {
+                    dt_CrawlRoot.isComplete = false;
+                    return;
+                }
+                zlc_Index.putDirectoryRecord(aDirRecord);
+            }
+
+            for (String aChildDirPath : aDirRecord.getChildDirPathList()) {
+                Long aChildModified = aDirModifiedMap.get(aChildDirPath);
+                submitHostWork(getHostKey(aChildDirPath), new DirectoryTask(dt_CrawlRoot, aChildDirPath,
+                        (aChildModified == null) ? 0 : aChildModified.longValue()));
+
+                if (debugEventsOn) {
+                    System.out.println("ZLC DirectoryTask - will follow " + aChildDirPath);
+                }
+            }
+            if (!aFileEntryList.isEmpty()) {
+                submitWork(new FilterTask(aFileEntryList));
+            }
+        }
+    }
+
+    /**
+     * filtering stage - mark known files as seen, add new and changed files to
+     * the index and queue the ones that need their metadata read
+     */
+    private class FilterTask implements Runnable {
+
+        private List<FileEntry> ft_FileEntryList = null;
+
+        protected FilterTask(List<FileEntry> theFileEntryList) {
+            ft_FileEntryList = theFileEntryList;
+        }
+
+        @Override
+        public void run() {
+            for (FileEntry aFileEntry : ft_FileEntryList) {
+                if ((aFileEntry.lastModified == 0)
+                        && zlc_Index.markFileSeen(aFileEntry.filePath, aFileEntry.fileName)) {
+                    continue; // could not be looked at, kept as indexed
+                }
+                if (zlc_Index.registerFile(aFileEntry.filePath, aFileEntry.fileName,
+                        aFileEntry.lastModified, aFileEntry.size)) {
+                    submitHostWork(getHostKey(aFileEntry.filePath),
+                            new TagTask(aFileEntry.filePath, aFileEntry.fileName));
+                }
+            }
+            zlc_Index.publishGenerationIfDue();
+        }
+    }
+
+    /**
+     * metadata stage - read the ID3 tag of a file and add it to the facets
+     */
+    private class TagTask implements Runnable {
+
+        private String tt_FilePath = null;
+        private String tt_FileName = null;
+
+        protected TagTask(String theFilePath, String theFileName) {
+            tt_FilePath = theFilePath;
+            tt_FileName = theFileName;
+        }
+
+        @Override
+        public void run() {
+            if (!zlc_Index.getIndexIsScheduled()) {
+                return;
+            }
+            ID3MetaData aID3MetaData = zlc_Index.readFileTags(tt_FilePath);
+            if (aID3MetaData != null) {
+                zlc_Index.addFileTags(tt_FilePath, tt_FileName, aID3MetaData);
+            }
+            zlc_Index.publishGenerationIfDue();
+        }
+    }
+}
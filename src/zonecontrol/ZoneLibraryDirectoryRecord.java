@@ -0,0 +1,71 @@
+/*
+ * cached listing of one indexed directory so unchanged directories do not
+ * have to be listed again on the next index build
+ */
+package zonecontrol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryDirectoryRecord {
+
+    private String zldr_Path = null;
+    private long zldr_LastModified = 0;
+    private List<String> zldr_ChildDirPathList = null;
+    private List<String> zldr_ChildFileNameList = null;
+    private int zldr_LastSeenBuild = 0;
+
+    public ZoneLibraryDirectoryRecord(String thePath, long theLastModified) {
+        zldr_Path = thePath;
+        zldr_LastModified = theLastModified;
+        zldr_ChildDirPathList = new ArrayList<String>();
+        zldr_ChildFileNameList = new ArrayList<String>();
+    }
+
+    /**
+     * @return String - raw (not URL encoded) path of the directory
+     */
+    public String getPath() {
+        return zldr_Path;
+    }
+
+    public long getLastModified() {
+        return zldr_LastModified;
+    }
+
+    /**
+     * @return List<String> - raw paths of the sub-directories worth following
+     */
+    public List<String> getChildDirPathList() {
+        return zldr_ChildDirPathList;
+    }
+
+    public void addChildDirPath(String theChildDirPath) {
+        zldr_ChildDirPathList.add(theChildDirPath);
+    }
+
+    /**
+     * @return List<String> - names of the files directly in the directory
+     */
+    public List<String> getChildFileNameList() {
+        return zldr_ChildFileNameList;
+    }
+
+    public void addChildFileName(String theChildFileName) {
+        zldr_ChildFileNameList.add(theChildFileName);
+    }
+
+    /**
+     * @return int - number of the last index build that visited the directory
+     */
+    public int getLastSeenBuild() {
+        return zldr_LastSeenBuild;
+    }
+
+    public void setLastSeenBuild(int theBuild) {
+        zldr_LastSeenBuild = theBuild;
+    }
+}
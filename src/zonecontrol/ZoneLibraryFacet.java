@@ -0,0 +1,214 @@
+/*
+ * a facet of the library index (album, artist, genre or title) that is kept
+ * up to date as files are added to and removed from the index, the files of
+ * every value are held as a compressed bitmap so values can be combined
+ */
+package zonecontrol;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryFacet {
+
+    private LibraryFacetType zlf_FacetType = null;
+    private TreeMap<String, ZoneLibraryBitmap> zlf_MemberMap = null; //<facet value, file id bitmap> - null once published
+    private ZoneLibrarySortedDictionary<ZoneLibraryBitmap> zlf_Dictionary = null; // published values, null while building
+    private HashSet<String> zlf_OwnedValueSet = null; // values whose member list is not shared with a published copy
+    private ZoneLibraryFacet zlf_Published = null;
+    private boolean zlf_IsChanged = false; // since the last publish
+    private int zlf_Version = 0; // of the last published copy, that copy keeps its own
+    private volatile ZoneLibrarySortedDictionary<ZoneLibraryPostingList> zlf_ValueTokenDictionary = null; // built on first use once published
+
+    public ZoneLibraryFacet(LibraryFacetType theFacetType) {
+        zlf_FacetType = theFacetType;
+        zlf_MemberMap = new TreeMap<String, ZoneLibraryBitmap>();
+        zlf_OwnedValueSet = new HashSet<String>();
+    }
+
+    private ZoneLibraryFacet(LibraryFacetType theFacetType, ZoneLibrarySortedDictionary<ZoneLibraryBitmap> theDictionary,
+            int theVersion) {
+        zlf_FacetType = theFacetType;
+        zlf_Dictionary = theDictionary;
+        zlf_Version = theVersion;
+    }
+
+    public LibraryFacetType getFacetType() {
+        return zlf_FacetType;
+    }
+
+    /**
+     * @return int - increases every time the facet is published with changes,
+     * so anything derived from a published facet stays good while it does not
+     */
+    public int getVersion() {
+        return zlf_Version;
+    }
+
+    /**
+     * add a file to the facet value, creating the value if it does not exist
+     *
+     * @param theFacetValue String
+     * @param theFileId int
+     * @return String - the instance of the value already held by the facet,
+     * so files sharing a value also share the string
+     */
+    public String add(String theFacetValue, int theFileId) {
+        ZoneLibraryBitmap aMemberBitmap = getWritableMembers(theFacetValue);
+        if (aMemberBitmap == null) {
+            aMemberBitmap = new ZoneLibraryBitmap();
+            zlf_MemberMap.put(theFacetValue, aMemberBitmap);
+            zlf_OwnedValueSet.add(theFacetValue);
+        } else {
+            theFacetValue = zlf_MemberMap.tailMap(theFacetValue).firstKey();
+        }
+        aMemberBitmap.add(theFileId);
+        zlf_IsChanged = true;
+        return theFacetValue;
+    }
+
+    /**
+     * remove a file from the facet value, dropping the value once it is empty
+     *
+     * @param theFacetValue String
+     * @param theFileId int
+     */
+    public void remove(String theFacetValue, int theFileId) {
+        ZoneLibraryBitmap aMemberBitmap = zlf_MemberMap.get(theFacetValue);
+        if ((aMemberBitmap == null) || (!aMemberBitmap.contains(theFileId))) {
+            return;
+        }
+        aMemberBitmap = getWritableMembers(theFacetValue);
+        aMemberBitmap.remove(theFileId);
+        zlf_IsChanged = true;
+        if (aMemberBitmap.isEmpty()) {
+            zlf_MemberMap.remove(theFacetValue);
+            zlf_OwnedValueSet.remove(theFacetValue);
+        }
+    }
+
+    /**
+     * member bitmaps handed to a published copy are never changed again, so
+     * they are copied the first time the value changes afterwards
+     */
+    private ZoneLibraryBitmap getWritableMembers(String theFacetValue) {
+        ZoneLibraryBitmap aMemberBitmap = zlf_MemberMap.get(theFacetValue);
+        if ((aMemberBitmap != null) && (!zlf_OwnedValueSet.contains(theFacetValue))) {
+            aMemberBitmap = aMemberBitmap.copy();
+            zlf_MemberMap.put(theFacetValue, aMemberBitmap);
+            zlf_OwnedValueSet.add(theFacetValue);
+        }
+        return aMemberBitmap;
+    }
+
+    /**
+     * read-only view of the facet values and how many files each holds, a
+     * facet that is still being built returns a copy
+     *
+     * @return SortedMap<String - facet value, Integer - file count>
+     */
+    public SortedMap<String, Integer> getCountMap() {
+        if (zlf_Dictionary != null) {
+            return zlf_Dictionary.getCountMap();
+        }
+        TreeMap<String, Integer> returnCountMap = new TreeMap<String, Integer>();
+        for (String aFacetValue : zlf_MemberMap.keySet()) {
+            returnCountMap.put(aFacetValue, zlf_MemberMap.get(aFacetValue).size());
+        }
+        return returnCountMap;
+    }
+
+    /**
+     * @param theFacetValue String
+     * @return ZoneLibraryBitmap - file ids of the value, null if value is not indexed
+     */
+    public ZoneLibraryBitmap getMembers(String theFacetValue) {
+        if (zlf_Dictionary != null) {
+            return zlf_Dictionary.get(theFacetValue);
+        }
+        return zlf_MemberMap.get(theFacetValue);
+    }
+
+    /**
+     * union of the files of every value starting with the given prefix, the
+     * values are compared as they are tagged (case sensitive)
+     *
+     * @param thePrefix String
+     * @return ZoneLibraryBitmap - file ids, empty if no value has the prefix
+     */
+    public ZoneLibraryBitmap getMembersWithPrefix(String thePrefix) {
+        ArrayList<ZoneLibraryBitmap> aMemberBitmapList = new ArrayList<ZoneLibraryBitmap>();
+        if (zlf_Dictionary != null) {
+            int aPrefixEnd = zlf_Dictionary.prefixEnd(thePrefix);
+            for (int i = zlf_Dictionary.lowerBound(thePrefix); i < aPrefixEnd; i++) {
+                aMemberBitmapList.add(zlf_Dictionary.getList(i));
+            }
+        } else {
+            aMemberBitmapList.addAll(zlf_MemberMap.subMap(thePrefix, thePrefix + Character.MAX_VALUE).values());
+        }
+
+        if (aMemberBitmapList.isEmpty()) {
+            return new ZoneLibraryBitmap();
+        }
+        return ZoneLibraryBitmap.orAll(aMemberBitmapList);
+    }
+
+    /**
+     * @return ZoneLibrarySortedDictionary<ZoneLibraryBitmap> - values of a published facet, null while building
+     */
+    public ZoneLibrarySortedDictionary<ZoneLibraryBitmap> getDictionary() {
+        return zlf_Dictionary;
+    }
+
+    /**
+     * the tokens of the values of a published facet, built on first use and
+     * kept for as long as the published facet stays unchanged
+     *
+     * @return ZoneLibrarySortedDictionary<ZoneLibraryPostingList> - <value
+     * token, sorted indexes of the values in getDictionary()>, null while building
+     */
+    public ZoneLibrarySortedDictionary<ZoneLibraryPostingList> getValueTokenDictionary() {
+        if (zlf_Dictionary == null) {
+            return null;
+        }
+        ZoneLibrarySortedDictionary<ZoneLibraryPostingList> returnDictionary = zlf_ValueTokenDictionary;
+        if (returnDictionary == null) { // racing readers build equal dictionaries, either one will do
+            TreeMap<String, ZoneLibraryPostingList> aValueTokenMap = new TreeMap<String, ZoneLibraryPostingList>();
+            for (int i = 0; i < zlf_Dictionary.size(); i++) {
+                for (String aToken : ZoneLibraryIndex.tokenizeString(zlf_Dictionary.getKey(i))) {
+                    ZoneLibraryPostingList aValueIndexList = aValueTokenMap.get(aToken);
+                    if (aValueIndexList == null) {
+                        aValueIndexList = new ZoneLibraryPostingList(1);
+                        aValueTokenMap.put(aToken, aValueIndexList);
+                    }
+                    aValueIndexList.add(i);
+                }
+            }
+            returnDictionary = new ZoneLibrarySortedDictionary<ZoneLibraryPostingList>(aValueTokenMap);
+            zlf_ValueTokenDictionary = returnDictionary;
+        }
+        return returnDictionary;
+    }
+
+    /**
+     * make a copy of the facet that is never changed again, sharing the
+     * member bitmaps with the facet being built
+     *
+     * @return ZoneLibraryFacet
+     */
+    public ZoneLibraryFacet publish() {
+        if ((zlf_Published != null) && (!zlf_IsChanged)) {
+            return zlf_Published;
+        }
+        zlf_OwnedValueSet.clear();
+        zlf_IsChanged = false;
+        zlf_Version++;
+        zlf_Published = new ZoneLibraryFacet(zlf_FacetType, new ZoneLibrarySortedDictionary<ZoneLibraryBitmap>(zlf_MemberMap),
+                zlf_Version);
+        return zlf_Published;
+    }
+}
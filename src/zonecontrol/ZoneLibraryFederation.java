@@ -0,0 +1,345 @@
+/*
+ * one library index for every zone on the LAN - one zone is the indexer and
+ * the only one crawling the shares, the others fetch the snapshot it writes
+ * after every build instead of spidering the same shares themselves
+ *
+ * the indexer holds a lease it renews over the multicast group, every other
+ * zone sending the same message as a standby - while a holder is heard it
+ * keeps the role, so a zone joining does not take it over with an empty
+ * index, and once its lease runs out the standby with the lowest UUID takes
+ * over with the index it fetched last, recrawling only what changed - if two
+ * zones hold it, after the group was split, the higher UUID steps down
+ *
+ * the snapshot is fetched with a conditional GET, so polling an indexer
+ * whose library did not change costs one small request - a zone that cannot
+ * reach the indexer, or whose indexer predates this, crawls on its own
+ */
+package zonecontrol;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryFederation {
+
+    private static ZoneLibraryFederation zlf_SingleInstance = null;
+    public static final String kSnapshotPathStr = "/servlets/library-snapshot";
+    private static final int kDiscoveryMillis = 1500; // for the holder to answer on startup
+    private static final int kLeaseRenewSeconds = 10;
+    private static final String kHolderStr = "holder";
+    private static final String kStandbyStr = "standby";
+    private static final String kWithdrawnStr = "withdrawn"; // stopped indexing, not a standby any more
+    private static final int kConnectTimeoutMillis = 500; // zones are on the same LAN
+    private static final int kReadTimeoutMillis = 10000; // a large library is a few MB
+    private final HashMap<String, Lease> zlf_LeaseMap = new HashMap<String, Lease>(); //<UUID, last lease message>
+    private boolean zlf_isHolder = false;
+    private volatile Lease zlf_Indexer = null; // null while this zone is the indexer
+    private CountDownLatch zlf_ElectedLatch = new CountDownLatch(1); // opened by the first election
+    private Timer zlf_Timer = null;
+    private ZoneLibraryIndex zlf_Index = null; // told when the indexer changes
+    private String zlf_ETagZoneUUID = null; // indexer the entity tag is of
+    private String zlf_ETagStr = null; // of the snapshot imported last
+
+    protected ZoneLibraryFederation() {
+    }
+
+    public static synchronized ZoneLibraryFederation getInstance() {
+        if (zlf_SingleInstance == null) {
+            zlf_SingleInstance = new ZoneLibraryFederation();
+        }
+        return zlf_SingleInstance;
+    }
+
+    /**
+     * take part in the election of the indexer, renewing the lease or the
+     * standby of this zone from now on
+     *
+     * @param theIndex ZoneLibraryIndex - told when the indexer changes
+     */
+    public synchronized void start(ZoneLibraryIndex theIndex) {
+        if (zlf_Timer != null) {
+            return;
+        }
+        zlf_Index = theIndex;
+        zlf_Timer = new Timer("ZLF lease", true); // never behind a crawl, or the lease would run out
+        sendLease(kStandbyStr); // the holder answers right away
+        zlf_Timer.schedule(new RenewLeaseTask(), kDiscoveryMillis, kLeaseRenewSeconds * 1000);
+    }
+
+    /**
+     * stop taking part, a lease held is handed on right away
+     */
+    public synchronized void stop() {
+        if (zlf_Timer == null) {
+            return;
+        }
+        zlf_Timer.cancel();
+        zlf_Timer = null;
+        zlf_isHolder = false;
+        sendLease(kWithdrawnStr);
+    }
+
+    /**
+     * the zone the library index is fetched from, waits for the first
+     * election so a zone just started does not crawl because it has not
+     * heard of the holder yet
+     *
+     * @return Lease - null if this zone is the indexer
+     */
+    public Lease getIndexer() {
+        try {
+            zlf_ElectedLatch.await(2 * kDiscoveryMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            System.err.println(ex);
+        }
+        return zlf_Indexer;
+    }
+
+    /**
+     * @return boolean - does this zone hold the lease?
+     */
+    public synchronized boolean isHolder() {
+        return zlf_isHolder;
+    }
+
+    /**
+     * a lease message of another zone, called by ZoneServerLogic
+     *
+     * @param theZoneUUID String
+     * @param theZoneName String
+     * @param theDashBoardUrlStr String
+     * @param theStateStr String - holder, standby or withdrawn
+     */
+    void processLease(String theZoneUUID, String theZoneName, String theDashBoardUrlStr, String theStateStr) {
+        boolean aIsNewZone;
+        synchronized (this) {
+            if (zlf_Timer == null) {
+                return; // not indexing, so not taking part
+            }
+            if (kWithdrawnStr.equals(theStateStr)) {
+                aIsNewZone = false;
+                zlf_LeaseMap.remove(theZoneUUID);
+            } else {
+                aIsNewZone = (zlf_LeaseMap.put(theZoneUUID, new Lease(theZoneUUID, theZoneName, theDashBoardUrlStr,
+                        kHolderStr.equals(theStateStr), System.nanoTime())) == null);
+            }
+            if (!(aIsNewZone && zlf_isHolder)) {
+                return;
+            }
+        }
+        sendLease(kHolderStr); // a zone starting up waits for this
+    }
+
+    /**
+     * elect the indexer from the leases not yet run out - a holder keeps the
+     * role, the lowest UUID of the holders if there are several, and with no
+     * holder the lowest UUID of all, this zone included
+     *
+     * @return boolean - did the indexer change?
+     */
+    private synchronized boolean elect() {
+        long aNowNanos = System.nanoTime();
+        // elect only runs every renewal, so a lease runs out one renewal
+        // early to have the zone gone by the hard expiry at the latest
+        long aLeaseNanos = (ZoneServerLogic.getInstance().allNodesHardExpire - kLeaseRenewSeconds) * 1000L * 1000 * 1000;
+        String aSelfUUID = ZoneServerLogic.getInstance().getUUID();
+        Lease aHolder = null;
+        Lease aLowest = null;
+        Iterator<Lease> aLeaseIter = zlf_LeaseMap.values().iterator();
+        while (aLeaseIter.hasNext()) {
+            Lease aLease = aLeaseIter.next();
+            if (aNowNanos - aLease.zlfl_StampNanos > aLeaseNanos) {
+                aLeaseIter.remove(); // not renewed, the zone is gone
+                continue;
+            }
+            if (aLease.zlfl_isHolder && ((aHolder == null) || (aLease.zlfl_ZoneUUID.compareTo(aHolder.zlfl_ZoneUUID) < 0))) {
+                aHolder = aLease;
+            }
+            if ((aLowest == null) || (aLease.zlfl_ZoneUUID.compareTo(aLowest.zlfl_ZoneUUID) < 0)) {
+                aLowest = aLease;
+            }
+        }
+
+        Lease aIndexer;
+        if (aHolder != null) {
+            aIndexer = (zlf_isHolder && (aSelfUUID.compareTo(aHolder.zlfl_ZoneUUID) < 0)) ? null : aHolder;
+        } else if (zlf_isHolder) {
+            aIndexer = null;
+        } else {
+            aIndexer = ((aLowest != null) && (aLowest.zlfl_ZoneUUID.compareTo(aSelfUUID) < 0)) ? aLowest : null;
+        }
+        zlf_isHolder = (aIndexer == null);
+
+        Lease aLastIndexer = zlf_Indexer;
+        zlf_Indexer = aIndexer;
+        if (aIndexer == null) {
+            return (aLastIndexer != null);
+        }
+        return ((aLastIndexer == null) || (!aLastIndexer.zlfl_ZoneUUID.equals(aIndexer.zlfl_ZoneUUID)));
+    }
+
+    private void sendLease(String theStateStr) {
+        ZoneServerLogic aServerLogic = ZoneServerLogic.getInstance();
+        aServerLogic.sendOwnMessage(ZoneWireMessage.kTypeIndexerLease, aServerLogic.getZoneName(),
+                aServerLogic.getDashBoardUrlStr(), theStateStr);
+    }
+
+    /**
+     * download the snapshot of the indexer unless it is the one imported last
+     *
+     * @param theIndexer Lease
+     * @param theSnapshotFile File - written only if the snapshot changed, by
+     * renaming a whole download over it so a reader never sees part of one
+     * @return int - HTTP status, 200 if the file was written, 304 if it did
+     * not change, 503 while the indexer has none yet, -1 if it could not be
+     * reached
+     */
+    public int fetchSnapshot(Lease theIndexer, File theSnapshotFile) {
+        HttpURLConnection aConnection = null;
+        File aTempFile = new File(theSnapshotFile.getPath() + ".tmp");
+        OutputStream aFileOutputStream = null;
+        try {
+            aConnection = (HttpURLConnection) new URL(theIndexer.getDashBoardUrlStr() + kSnapshotPathStr).openConnection();
+            aConnection.setConnectTimeout(kConnectTimeoutMillis);
+            aConnection.setReadTimeout(kReadTimeoutMillis);
+            synchronized (this) {
+                if (theIndexer.getZoneUUID().equals(zlf_ETagZoneUUID) && (zlf_ETagStr != null)) {
+                    aConnection.setRequestProperty("If-None-Match", zlf_ETagStr);
+                }
+            }
+            int returnStatus = aConnection.getResponseCode();
+            if (returnStatus != HttpURLConnection.HTTP_OK) {
+                InputStream aErrorStream = aConnection.getErrorStream();
+                if (aErrorStream != null) {
+                    aErrorStream.close();
+                }
+                return returnStatus;
+            }
+
+            InputStream aInputStream = aConnection.getInputStream();
+            aFileOutputStream = new BufferedOutputStream(new FileOutputStream(aTempFile), 65536);
+            byte[] aCopyBytes = new byte[65536];
+            int aCount;
+            while ((aCount = aInputStream.read(aCopyBytes)) != -1) {
+                aFileOutputStream.write(aCopyBytes, 0, aCount);
+            }
+            aInputStream.close();
+            aFileOutputStream.close();
+            aFileOutputStream = null;
+            if (!aTempFile.renameTo(theSnapshotFile)) { // Windows does not rename over an existing file
+                theSnapshotFile.delete();
+                if (!aTempFile.renameTo(theSnapshotFile)) {
+                    System.err.println("ZLF fetchSnapshot - unable to rename " + aTempFile);
+                    aTempFile.delete();
+                    return -1;
+                }
+            }
+            synchronized (this) {
+                zlf_ETagZoneUUID = theIndexer.getZoneUUID();
+                zlf_ETagStr = aConnection.getHeaderField("ETag");
+            }
+            return returnStatus;
+        } catch (IOException ex) {
+            System.err.println("ZLF " + theIndexer.getDashBoardUrlStr() + " - " + ex);
+            if (aConnection != null) {
+                aConnection.disconnect(); // do not reuse a connection in an unknown state
+            }
+            return -1;
+        } finally {
+            if (aFileOutputStream != null) { // cut short, never imported
+                try {
+                    aFileOutputStream.close();
+                } catch (IOException ex) {
+                    System.err.println(ex);
+                }
+                aTempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * forget the snapshot imported last, the next fetch downloads it again
+     */
+    public synchronized void forgetSnapshot() {
+        zlf_ETagZoneUUID = null;
+        zlf_ETagStr = null;
+    }
+
+    /**
+     * @param theSnapshotFile File
+     * @return String - entity tag of the snapshot file, changes whenever it is
+     * written again
+     */
+    public static String getETag(File theSnapshotFile) {
+        return "\"" + Long.toString(theSnapshotFile.lastModified(), 36) + "-"
+                + Long.toString(theSnapshotFile.length(), 36) + "\"";
+    }
+
+    /**
+     * the last lease message of a zone, never changed once stored
+     */
+    public static class Lease {
+
+        private final String zlfl_ZoneUUID;
+        private final String zlfl_ZoneName;
+        private final String zlfl_DashBoardUrlStr;
+        private final boolean zlfl_isHolder;
+        private final long zlfl_StampNanos;
+
+        private Lease(String theZoneUUID, String theZoneName, String theDashBoardUrlStr, boolean theIsHolder,
+                long theStampNanos) {
+            zlfl_ZoneUUID = theZoneUUID;
+            zlfl_ZoneName = theZoneName;
+            zlfl_DashBoardUrlStr = theDashBoardUrlStr;
+            zlfl_isHolder = theIsHolder;
+            zlfl_StampNanos = theStampNanos;
+        }
+
+        public String getZoneUUID() {
+            return zlfl_ZoneUUID;
+        }
+
+        public String getZoneName() {
+            return zlfl_ZoneName;
+        }
+
+        public String getDashBoardUrlStr() {
+            return zlfl_DashBoardUrlStr;
+        }
+    }
+
+    /**
+     * renew the lease or standby of this zone and tell the index when the
+     * indexer changed, the standby taking over once the holder is not heard
+     * from for a lease
+     */
+    private class RenewLeaseTask extends TimerTask {
+
+        @Override
+        public void run() {
+            boolean aIsChanged = elect();
+            boolean aIsFirst = (zlf_ElectedLatch.getCount() > 0);
+            zlf_ElectedLatch.countDown();
+            sendLease(isHolder() ? kHolderStr : kStandbyStr);
+            if (aIsChanged && (!aIsFirst)) { // the first election is waited for by the index
+                Lease aIndexer = zlf_Indexer;
+                System.out.println("ZLF indexer is now " + ((aIndexer == null) ? "this zone" : aIndexer.getZoneName()));
+                zlf_Index.indexerChanged();
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+/*
+ * a set of library file ids, either a posting list of the token index or a
+ * bitmap of a facet value
+ */
+package zonecontrol;
+
+/**
+ * @author Jason Zerbe
+ */
+public interface ZoneLibraryFileIdSet {
+
+    public int size();
+
+    public boolean isEmpty();
+
+    public boolean contains(int theId);
+}
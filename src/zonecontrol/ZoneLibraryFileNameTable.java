@@ -0,0 +1,142 @@
+/*
+ * filename to file id lookup of the library index kept as an open addressing
+ * int table - the filenames themselves are only held by the file records, so
+ * a file costs a couple of ints here instead of a map entry and an Integer
+ */
+package zonecontrol;
+
+import java.util.List;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryFileNameTable {
+
+    private static final int kEmptySlot = 0;
+    private static final int kRemovedSlot = -1;
+    private int[] zlfnt_SlotArray = null; // file id + 1, or one of the slot markers
+    private int zlfnt_Count = 0;
+    private int zlfnt_UsedSlotCount = 0; // files plus removed markers
+
+    public ZoneLibraryFileNameTable() {
+        zlfnt_SlotArray = new int[16];
+    }
+
+    private ZoneLibraryFileNameTable(int[] theSlotArray, int theCount, int theUsedSlotCount) {
+        zlfnt_SlotArray = theSlotArray;
+        zlfnt_Count = theCount;
+        zlfnt_UsedSlotCount = theUsedSlotCount;
+    }
+
+    public int size() {
+        return zlfnt_Count;
+    }
+
+    /**
+     * @param theFileName String
+     * @param theFileRecordList List<ZoneLibraryFileRecord> - records by file id
+     * @return int - file id, -1 if the filename is not in the table
+     */
+    public int get(String theFileName, List<ZoneLibraryFileRecord> theFileRecordList) {
+        int aSlot = findSlot(theFileName, theFileRecordList);
+        if (aSlot < 0) {
+            return -1;
+        }
+        return (zlfnt_SlotArray[aSlot] - 1);
+    }
+
+    /**
+     * add a filename that is not yet in the table
+     *
+     * @param theFileName String
+     * @param theFileId int
+     * @param theFileRecordList List<ZoneLibraryFileRecord> - records by file id
+     */
+    public void put(String theFileName, int theFileId, List<ZoneLibraryFileRecord> theFileRecordList) {
+        if (((zlfnt_UsedSlotCount + 1) * 4) > (zlfnt_SlotArray.length * 3)) {
+            resize(theFileRecordList);
+        }
+        int aSlot = getHomeSlot(theFileName, zlfnt_SlotArray.length);
+        while (zlfnt_SlotArray[aSlot] > kEmptySlot) {
+            aSlot = (aSlot + 1) & (zlfnt_SlotArray.length - 1);
+        }
+        if (zlfnt_SlotArray[aSlot] == kEmptySlot) {
+            zlfnt_UsedSlotCount++;
+        }
+        zlfnt_SlotArray[aSlot] = theFileId + 1;
+        zlfnt_Count++;
+    }
+
+    /**
+     * remove a filename, must be called while its record is still in the list
+     *
+     * @param theFileName String
+     * @param theFileRecordList List<ZoneLibraryFileRecord> - records by file id
+     * @return int - file id of the removed filename, -1 if it was not in the table
+     */
+    public int remove(String theFileName, List<ZoneLibraryFileRecord> theFileRecordList) {
+        int aSlot = findSlot(theFileName, theFileRecordList);
+        if (aSlot < 0) {
+            return -1;
+        }
+        int returnFileId = zlfnt_SlotArray[aSlot] - 1;
+        zlfnt_SlotArray[aSlot] = kRemovedSlot;
+        zlfnt_Count--;
+        return returnFileId;
+    }
+
+    /**
+     * @return ZoneLibraryFileNameTable - independent copy for a published generation
+     */
+    public ZoneLibraryFileNameTable copy() {
+        int[] aSlotArray = new int[zlfnt_SlotArray.length];
+        System.arraycopy(zlfnt_SlotArray, 0, aSlotArray, 0, zlfnt_SlotArray.length);
+        return new ZoneLibraryFileNameTable(aSlotArray, zlfnt_Count, zlfnt_UsedSlotCount);
+    }
+
+    private int findSlot(String theFileName, List<ZoneLibraryFileRecord> theFileRecordList) {
+        if (theFileName == null) {
+            return -1;
+        }
+        int aSlot = getHomeSlot(theFileName, zlfnt_SlotArray.length);
+        while (zlfnt_SlotArray[aSlot] != kEmptySlot) {
+            if (zlfnt_SlotArray[aSlot] != kRemovedSlot) {
+                ZoneLibraryFileRecord aFileRecord = theFileRecordList.get(zlfnt_SlotArray[aSlot] - 1);
+                if ((aFileRecord != null) && aFileRecord.getFileName().equals(theFileName)) {
+                    return aSlot;
+                }
+            }
+            aSlot = (aSlot + 1) & (zlfnt_SlotArray.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * grow the table, or just clear out removed markers if it holds few files
+     */
+    private void resize(List<ZoneLibraryFileRecord> theFileRecordList) {
+        int aTableSize = 16;
+        while (aTableSize < ((zlfnt_Count + 1) * 2)) {
+            aTableSize <<= 1;
+        }
+        int[] aSlotArray = new int[aTableSize];
+        for (int aSlotValue : zlfnt_SlotArray) {
+            if (aSlotValue > kEmptySlot) {
+                String aFileName = theFileRecordList.get(aSlotValue - 1).getFileName();
+                int aSlot = getHomeSlot(aFileName, aTableSize);
+                while (aSlotArray[aSlot] != kEmptySlot) {
+                    aSlot = (aSlot + 1) & (aTableSize - 1);
+                }
+                aSlotArray[aSlot] = aSlotValue;
+            }
+        }
+        zlfnt_SlotArray = aSlotArray;
+        zlfnt_UsedSlotCount = zlfnt_Count;
+    }
+
+    private static int getHomeSlot(String theFileName, int theTableSize) {
+        int aHash = theFileName.hashCode();
+        aHash ^= (aHash >>> 16);
+        return (aHash & (theTableSize - 1));
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * per-file metadata record kept by the library index for each file id
+ */
+package zonecontrol;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryFileRecord {
+
+    private int zlfr_FileId = -1;
+    private int zlfr_DirId = ZoneLibraryPathTrie.kNoDirId;
+    private String zlfr_FileName = null;
+    private String zlfr_Title = null;
+    private String zlfr_Album = null;
+    private Object zlfr_Artists = null; // null, a String, or a String[] for several
+    private Object zlfr_Genres = null;
+    private long zlfr_LastModified = 0;
+    private long zlfr_Size = 0;
+
+    public ZoneLibraryFileRecord(int theFileId, String theFileName) {
+        zlfr_FileId = theFileId;
+        zlfr_FileName = theFileName;
+    }
+
+    /**
+     * @return ZoneLibraryFileRecord - independent copy that can be changed
+     * without touching a published generation
+     */
+    public ZoneLibraryFileRecord copy() {
+        ZoneLibraryFileRecord returnRecord = new ZoneLibraryFileRecord(zlfr_FileId, zlfr_FileName);
+        returnRecord.zlfr_DirId = zlfr_DirId;
+        returnRecord.zlfr_Title = zlfr_Title;
+        returnRecord.zlfr_Album = zlfr_Album;
+        returnRecord.zlfr_Artists = zlfr_Artists; // never changed in place
+        returnRecord.zlfr_Genres = zlfr_Genres;
+        returnRecord.zlfr_LastModified = zlfr_LastModified;
+        returnRecord.zlfr_Size = zlfr_Size;
+        return returnRecord;
+    }
+
+    public int getFileId() {
+        return zlfr_FileId;
+    }
+
+    public String getFileName() {
+        return zlfr_FileName;
+    }
+
+    /**
+     * @return int - id of the directory holding the file in the path dictionary
+     */
+    public int getDirId() {
+        return zlfr_DirId;
+    }
+
+    public void setDirId(int theDirId) {
+        zlfr_DirId = theDirId;
+    }
+
+    /**
+     * @return String - ID3 title, null if file has none
+     */
+    public String getTitle() {
+        return zlfr_Title;
+    }
+
+    /**
+     * @return String - ID3 title, or the filename if file has none
+     */
+    public String getDisplayTitle() {
+        if (zlfr_Title == null) {
+            return zlfr_FileName;
+        }
+        return zlfr_Title;
+    }
+
+    public void setTitle(String theTitle) {
+        zlfr_Title = theTitle;
+    }
+
+    public String getAlbum() {
+        return zlfr_Album;
+    }
+
+    public void setAlbum(String theAlbum) {
+        zlfr_Album = theAlbum;
+    }
+
+    /**
+     * @return List<String> - fixed size view, use addArtist to change it
+     */
+    public List<String> getArtistList() {
+        return getValueList(zlfr_Artists);
+    }
+
+    public void addArtist(String theArtist) {
+        zlfr_Artists = addValue(zlfr_Artists, theArtist);
+    }
+
+    /**
+     * @return List<String> - fixed size view, use addGenre to change it
+     */
+    public List<String> getGenreList() {
+        return getValueList(zlfr_Genres);
+    }
+
+    public void addGenre(String theGenre) {
+        zlfr_Genres = addValue(zlfr_Genres, theGenre);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> getValueList(Object theValues) {
+        if (theValues == null) {
+            return Collections.EMPTY_LIST;
+        } else if (theValues instanceof String) {
+            return Collections.singletonList((String) theValues);
+        }
+        return Arrays.asList((String[]) theValues);
+    }
+
+    /**
+     * most files have a single artist and genre, so a single value is kept
+     * as is and several values in an exactly sized array that gets replaced
+     * rather than grown
+     */
+    private static Object addValue(Object theValues, String theValue) {
+        if (theValues == null) {
+            return theValue;
+        }
+        String[] aValueArray;
+        if (theValues instanceof String) {
+            aValueArray = new String[]{(String) theValues};
+        } else {
+            aValueArray = (String[]) theValues;
+        }
+        for (String aValue : aValueArray) {
+            if (aValue.equals(theValue)) {
+                return theValues;
+            }
+        }
+        String[] returnValueArray = new String[aValueArray.length + 1];
+        System.arraycopy(aValueArray, 0, returnValueArray, 0, aValueArray.length);
+        returnValueArray[aValueArray.length] = theValue;
+        return returnValueArray;
+    }
+
+    /**
+     * @return long - modification time of the file when it was indexed, 0 if unknown
+     */
+    public long getLastModified() {
+        return zlfr_LastModified;
+    }
+
+    public void setLastModified(long theLastModified) {
+        zlfr_LastModified = theLastModified;
+    }
+
+    /**
+     * @return long - size of the file in bytes when it was indexed, 0 if unknown
+     */
+    public long getSize() {
+        return zlfr_Size;
+    }
+
+    public void setSize(long theSize) {
+        zlfr_Size = theSize;
+    }
+}
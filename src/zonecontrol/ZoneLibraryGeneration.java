@@ -0,0 +1,528 @@
+/*
+ * immutable published copy of the library index - readers query the current
+ * generation without locking while the next one is built off to the side
+ */
+package zonecontrol;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryGeneration {
+
+    private final int zlg_GenerationNumber;
+    private final long zlg_PublishedMillis;
+    private final ZoneLibraryPathTrie zlg_PathTrie; // directories of the files
+    private final ZoneLibraryFileRecord[] zlg_FileRecordArray; //<file id, metadata record> - null once removed
+    private final List<ZoneLibraryFileRecord> zlg_FileRecordList; // list view of the record array
+    private final ZoneLibraryFileNameTable zlg_FileNameTable; //<filename, file id>
+    private final ZoneLibrarySortedDictionary<ZoneLibraryPostingList> zlg_TokenDictionary; //<filename token, sorted file ids>
+    private final ZoneLibraryFacet zlg_TitleFacet;
+    private final ZoneLibraryFacet zlg_GenreFacet;
+    private final ZoneLibraryFacet zlg_AlbumFacet;
+    private final ZoneLibraryFacet zlg_ArtistFacet;
+    private volatile ZoneLibraryBitmap zlg_AllFileIds = null; // built on first use
+    private volatile ZoneLibrarySearch zlg_Search = null; // built on first ranked search
+    private final ZoneLibrarySuggestIndex zlg_SuggestIndex; // built with the generation, off the request path
+
+    /**
+     * the generation only takes ownership of the passed structures, they must
+     * not be changed afterwards
+     */
+    protected ZoneLibraryGeneration(int theGenerationNumber, ZoneLibraryPathTrie thePathTrie,
+            ZoneLibraryFileRecord[] theFileRecordArray, ZoneLibraryFileNameTable theFileNameTable,
+            ZoneLibrarySortedDictionary<ZoneLibraryPostingList> theTokenDictionary, ZoneLibraryFacet theTitleFacet,
+            ZoneLibraryFacet theGenreFacet, ZoneLibraryFacet theAlbumFacet, ZoneLibraryFacet theArtistFacet) {
+        zlg_GenerationNumber = theGenerationNumber;
+        zlg_PublishedMillis = System.currentTimeMillis();
+        zlg_PathTrie = thePathTrie;
+        zlg_FileRecordArray = theFileRecordArray;
+
+        zlg_FileRecordList = Arrays.asList(theFileRecordArray);
+        zlg_FileNameTable = theFileNameTable;
+
+        zlg_TokenDictionary = theTokenDictionary;
+        zlg_TitleFacet = theTitleFacet;
+        zlg_GenreFacet = theGenreFacet;
+        zlg_AlbumFacet = theAlbumFacet;
+        zlg_ArtistFacet = theArtistFacet;
+        zlg_SuggestIndex = new ZoneLibrarySuggestIndex(theTitleFacet, theArtistFacet, theAlbumFacet);
+    }
+
+    /**
+     * @return int - increases every time the index publishes changes
+     */
+    public int getGenerationNumber() {
+        return zlg_GenerationNumber;
+    }
+
+    /**
+     * @return long - when the generation was published, in milliseconds since the epoch
+     */
+    public long getPublishedMillis() {
+        return zlg_PublishedMillis;
+    }
+
+    /**
+     * @param theFileName String
+     * @return String - URL encoded full path, null if the file is not indexed
+     */
+    public String getFullPathFromFileName(String theFileName) {
+        ZoneLibraryFileRecord aFileRecord = getFileRecord(theFileName);
+        if (aFileRecord == null) {
+            return null;
+        }
+        return getFullPath(aFileRecord);
+    }
+
+    /**
+     * the full path is not stored per file but rebuilt from the path
+     * dictionary and encoded when asked for
+     *
+     * @param theFileRecord ZoneLibraryFileRecord
+     * @return String - URL encoded full path
+     */
+    public String getFullPath(ZoneLibraryFileRecord theFileRecord) {
+        String aRawFullPath = getRawFullPath(theFileRecord);
+        try {
+            return URLEncoder.encode(aRawFullPath, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            System.err.println(ex);
+            return aRawFullPath;
+        }
+    }
+
+    /**
+     * @param theFileRecord ZoneLibraryFileRecord
+     * @return String - raw (not URL encoded) full path
+     */
+    public String getRawFullPath(ZoneLibraryFileRecord theFileRecord) {
+        return zlg_PathTrie.getFilePath(theFileRecord.getDirId(), theFileRecord.getFileName());
+    }
+
+    public int getFileCount() {
+        return zlg_FileNameTable.size();
+    }
+
+    /**
+     * @param theFileId int
+     * @return ZoneLibraryFileRecord - null if no file has the id
+     */
+    public ZoneLibraryFileRecord getFileRecord(int theFileId) {
+        if ((theFileId < 0) || (theFileId >= zlg_FileRecordArray.length)) {
+            return null;
+        }
+        return zlg_FileRecordArray[theFileId];
+    }
+
+    /**
+     * @param theFileName String
+     * @return ZoneLibraryFileRecord - null if the file is not indexed
+     */
+    public ZoneLibraryFileRecord getFileRecord(String theFileName) {
+        int aFileId = zlg_FileNameTable.get(theFileName, zlg_FileRecordList);
+        if (aFileId < 0) {
+            return null;
+        }
+        return zlg_FileRecordArray[aFileId];
+    }
+
+    /**
+     * @return int - one past the highest file id handed out
+     */
+    public int getFileIdLimit() {
+        return zlg_FileRecordArray.length;
+    }
+
+    public ZoneLibraryFacet getFacet(LibraryFacetType theFacetType) {
+        switch (theFacetType) {
+            case album:
+                return zlg_AlbumFacet;
+            case artist:
+                return zlg_ArtistFacet;
+            case genre:
+                return zlg_GenreFacet;
+            default:
+                return zlg_TitleFacet;
+        }
+    }
+
+    public ZoneLibrarySortedDictionary<ZoneLibraryPostingList> getTokenDictionary() {
+        return zlg_TokenDictionary;
+    }
+
+    /**
+     * build a TreeMap of song title (or filename) to complete path for the
+     * given facet members, one record lookup per file
+     *
+     * @param theFileIdBitmap ZoneLibraryBitmap
+     * @return TreeMap<String - title, String - file path>
+     */
+    public TreeMap<String, String> getTitlesFromFileIds(ZoneLibraryBitmap theFileIdBitmap) {
+        TreeMap<String, String> returnFileMap = new TreeMap<String, String>();
+        if (theFileIdBitmap == null) {
+            return returnFileMap;
+        }
+        for (int aFileId = theFileIdBitmap.nextId(0); aFileId >= 0; aFileId = theFileIdBitmap.nextId(aFileId + 1)) {
+            ZoneLibraryFileRecord aFileRecord = getFileRecord(aFileId);
+            if (aFileRecord != null) {
+                String aTempTitle = aFileRecord.getDisplayTitle();
+                if (!returnFileMap.containsKey(aTempTitle)) {
+                    returnFileMap.put(aTempTitle, getFullPath(aFileRecord));
+                }
+            }
+        }
+        return returnFileMap;
+    }
+
+    /**
+     * get the filenames of every file tagged with the given song title
+     *
+     * @param theSongTitle String
+     * @return ArrayList<String>
+     */
+    public ArrayList<String> getFileNamesFromTitle(String theSongTitle) {
+        ArrayList<String> returnFileNameList = new ArrayList<String>();
+        ZoneLibraryBitmap aFileIdBitmap = zlg_TitleFacet.getMembers(theSongTitle);
+        if (aFileIdBitmap != null) {
+            for (int aFileId = aFileIdBitmap.nextId(0); aFileId >= 0; aFileId = aFileIdBitmap.nextId(aFileId + 1)) {
+                ZoneLibraryFileRecord aFileRecord = getFileRecord(aFileId);
+                if (aFileRecord != null) {
+                    returnFileNameList.add(aFileRecord.getFileName());
+                }
+            }
+        }
+        return returnFileNameList;
+    }
+
+    /**
+     * return a TreeMap<String - filename, String - full file path> of filenames
+     * that match the given keywords, by merging posting lists of the token index
+     *
+     * @param theKeywordStrArray String[]
+     * @param matchAllKeywords boolean
+     * @param theStartIndexInt Integer
+     * @param theEndIndexInt Integer
+     * @return TreeMap<String, String>
+     */
+    public TreeMap<String, String> getFiles(String[] theKeywordStrArray,
+            boolean matchAllKeywords, int theStartIndexInt, int theEndIndexInt) {
+        TreeMap<String, String> returnFileMap = new TreeMap<String, String>();
+        if (zlg_FileNameTable.size() > 0) {
+            ZoneLibraryPostingList aMatchList = getFileIdsFromKeywords(theKeywordStrArray, matchAllKeywords);
+            int aOutputCount = 0;
+            if (aMatchList == null) { // no usable keywords, every file matches
+                for (int i = 0; (i < zlg_FileRecordArray.length) && (aOutputCount <= theEndIndexInt); i++) {
+                    ZoneLibraryFileRecord aFileRecord = zlg_FileRecordArray[i];
+                    if (aFileRecord != null) {
+                        if (aOutputCount >= theStartIndexInt) {
+                            returnFileMap.put(aFileRecord.getFileName(), getFullPath(aFileRecord));
+                        }
+                        aOutputCount++;
+                    }
+                }
+            } else {
+                int aEndIndexInt = Math.min(theEndIndexInt, aMatchList.size() - 1);
+                for (int i = Math.max(theStartIndexInt, 0); i <= aEndIndexInt; i++) {
+                    ZoneLibraryFileRecord aFileRecord = zlg_FileRecordArray[aMatchList.get(i)];
+                    returnFileMap.put(aFileRecord.getFileName(), getFullPath(aFileRecord));
+                }
+            }
+        }
+        return returnFileMap;
+    }
+
+    /**
+     * return a TreeMap<String - filename, String - full file path> of the
+     * files matching a combined facet and keyword query
+     *
+     * @param theQuery ZoneLibraryQuery
+     * @param theStartIndexInt Integer
+     * @param theEndIndexInt Integer
+     * @return TreeMap<String, String>
+     */
+    public TreeMap<String, String> getFiles(ZoneLibraryQuery theQuery, int theStartIndexInt, int theEndIndexInt) {
+        TreeMap<String, String> returnFileMap = new TreeMap<String, String>();
+        ZoneLibraryBitmap aMatchBitmap = getFileIds(theQuery);
+        int aOutputCount = 0;
+        for (int aFileId = aMatchBitmap.nextId(0); (aFileId >= 0) && (aOutputCount <= theEndIndexInt);
+                aFileId = aMatchBitmap.nextId(aFileId + 1)) {
+            ZoneLibraryFileRecord aFileRecord = zlg_FileRecordArray[aFileId];
+            if (aOutputCount >= theStartIndexInt) {
+                returnFileMap.put(aFileRecord.getFileName(), getFullPath(aFileRecord));
+            }
+            aOutputCount++;
+        }
+        return returnFileMap;
+    }
+
+    /**
+     * the next page of the files matching a combined query, in file id order
+     * - file ids only grow and are never handed out twice, so resuming after
+     * the last id of the previous page neither repeats nor skips a file when
+     * generations have been published in between, and costs a bitmap seek
+     * instead of counting off every earlier page
+     *
+     * @param theQuery ZoneLibraryQuery
+     * @param theAfterFileId int - last file id of the previous page, -1 for the first page
+     * @param theCount int - maximum number of file ids
+     * @return int[] - ascending file ids of the page
+     */
+    public int[] getFileIdsAfter(ZoneLibraryQuery theQuery, int theAfterFileId, int theCount) {
+        ZoneLibraryBitmap aMatchBitmap = getFileIds(theQuery);
+        int[] aFileIdArray = new int[theCount];
+        int aOutputCount = 0;
+        for (int aFileId = aMatchBitmap.nextId(theAfterFileId + 1); (aFileId >= 0) && (aOutputCount < theCount);
+                aFileId = aMatchBitmap.nextId(aFileId + 1)) {
+            aFileIdArray[aOutputCount++] = aFileId;
+        }
+        if (aOutputCount == theCount) {
+            return aFileIdArray;
+        }
+        int[] returnFileIdArray = new int[aOutputCount];
+        System.arraycopy(aFileIdArray, 0, returnFileIdArray, 0, aOutputCount);
+        return returnFileIdArray;
+    }
+
+    /**
+     * evaluate a combined query with bitmap operations - the values and
+     * prefixes of a facet are OR-ed, facets and keywords are AND-ed and the
+     * excluded values are removed with an AND-NOT
+     *
+     * @param theQuery ZoneLibraryQuery
+     * @return ZoneLibraryBitmap - matching file ids, must not be changed
+     */
+    public ZoneLibraryBitmap getFileIds(ZoneLibraryQuery theQuery) {
+        return getFileIds(theQuery, true);
+    }
+
+    /**
+     * @param theQuery ZoneLibraryQuery
+     * @param useKeywords boolean - false to only apply the facet filters
+     * @return ZoneLibraryBitmap - matching file ids, must not be changed
+     */
+    private ZoneLibraryBitmap getFileIds(ZoneLibraryQuery theQuery, boolean useKeywords) {
+        ZoneLibraryBitmap returnBitmap = null; // null while every file matches
+        if (useKeywords) {
+            ZoneLibraryPostingList aKeywordList = getFileIdsFromKeywords(theQuery.getKeywords(),
+                    theQuery.getMatchAllKeywords());
+            if (aKeywordList != null) {
+                returnBitmap = ZoneLibraryBitmap.fromPostingList(aKeywordList);
+            }
+        }
+
+        for (LibraryFacetType aFacetType : LibraryFacetType.values()) {
+            if ((returnBitmap != null) && returnBitmap.isEmpty()) {
+                return returnBitmap; // nothing left to intersect
+            }
+            ZoneLibraryBitmap aFacetBitmap = getFacetFileIds(aFacetType, theQuery);
+            if (aFacetBitmap != null) {
+                returnBitmap = (returnBitmap == null) ? aFacetBitmap : ZoneLibraryBitmap.and(returnBitmap, aFacetBitmap);
+            }
+        }
+        if (returnBitmap == null) {
+            returnBitmap = getAllFileIds();
+        }
+
+        ArrayList<ZoneLibraryBitmap> aExcludeBitmapList = new ArrayList<ZoneLibraryBitmap>();
+        for (LibraryFacetType aFacetType : LibraryFacetType.values()) {
+            for (String aFacetValue : theQuery.getExcludes(aFacetType)) {
+                ZoneLibraryBitmap aMemberBitmap = getFacet(aFacetType).getMembers(aFacetValue);
+                if (aMemberBitmap != null) {
+                    aExcludeBitmapList.add(aMemberBitmap);
+                }
+            }
+        }
+        if ((!aExcludeBitmapList.isEmpty()) && (!returnBitmap.isEmpty())) {
+            returnBitmap = ZoneLibraryBitmap.andNot(returnBitmap, ZoneLibraryBitmap.orAll(aExcludeBitmapList));
+        }
+        return returnBitmap;
+    }
+
+    /**
+     * @return ZoneLibraryBitmap - null if the query does not filter on the facet
+     */
+    private ZoneLibraryBitmap getFacetFileIds(LibraryFacetType theFacetType, ZoneLibraryQuery theQuery) {
+        List<String> aValueList = theQuery.getValues(theFacetType);
+        List<String> aPrefixList = theQuery.getPrefixes(theFacetType);
+        if (aValueList.isEmpty() && aPrefixList.isEmpty()) {
+            return null;
+        }
+
+        ZoneLibraryFacet aFacet = getFacet(theFacetType);
+        ArrayList<ZoneLibraryBitmap> aMemberBitmapList = new ArrayList<ZoneLibraryBitmap>();
+        for (String aFacetValue : aValueList) {
+            ZoneLibraryBitmap aMemberBitmap = aFacet.getMembers(aFacetValue);
+            if (aMemberBitmap != null) {
+                aMemberBitmapList.add(aMemberBitmap);
+            }
+        }
+        for (String aPrefix : aPrefixList) {
+            aMemberBitmapList.add(aFacet.getMembersWithPrefix(aPrefix));
+        }
+
+        if (aMemberBitmapList.isEmpty()) {
+            return new ZoneLibraryBitmap();
+        }
+        return ZoneLibraryBitmap.orAll(aMemberBitmapList);
+    }
+
+    /**
+     * @return ZoneLibraryBitmap - ids of every file in the generation, must not be changed
+     */
+    public ZoneLibraryBitmap getAllFileIds() {
+        ZoneLibraryBitmap returnBitmap = zlg_AllFileIds;
+        if (returnBitmap == null) { // racing readers build equal bitmaps, either one will do
+            returnBitmap = new ZoneLibraryBitmap();
+            for (int i = 0; i < zlg_FileRecordArray.length; i++) {
+                if (zlg_FileRecordArray[i] != null) {
+                    returnBitmap.add(i);
+                }
+            }
+            zlg_AllFileIds = returnBitmap;
+        }
+        return returnBitmap;
+    }
+
+    /**
+     * return a LinkedHashMap<String - filename, String - full file path> of
+     * the files best matching the keywords, in order of rank
+     *
+     * @param theKeywordStrArray String[]
+     * @param theQuery ZoneLibraryQuery - facet filters the files must match, null for none
+     * @param theStartIndexInt Integer
+     * @param theEndIndexInt Integer
+     * @return LinkedHashMap<String, String>
+     */
+    public LinkedHashMap<String, String> getRankedFiles(String[] theKeywordStrArray, ZoneLibraryQuery theQuery,
+            int theStartIndexInt, int theEndIndexInt) {
+        LinkedHashMap<String, String> returnFileMap = new LinkedHashMap<String, String>();
+        for (int aFileId : getRankedFileIds(theKeywordStrArray, theQuery, theStartIndexInt, theEndIndexInt)) {
+            ZoneLibraryFileRecord aFileRecord = zlg_FileRecordArray[aFileId];
+            returnFileMap.put(aFileRecord.getFileName(), getFullPath(aFileRecord));
+        }
+        return returnFileMap;
+    }
+
+    /**
+     * @param theKeywordStrArray String[]
+     * @param theQuery ZoneLibraryQuery - facet filters the files must match,
+     * its keywords are left to the ranking, null for none
+     * @param theStartIndexInt Integer
+     * @param theEndIndexInt Integer
+     * @return int[] - file ids of the best matches, in order of rank
+     */
+    public int[] getRankedFileIds(String[] theKeywordStrArray, ZoneLibraryQuery theQuery,
+            int theStartIndexInt, int theEndIndexInt) {
+        ZoneLibraryBitmap aFilterBitmap = null;
+        if ((theQuery != null) && theQuery.hasFacetFilters()) {
+            aFilterBitmap = getFileIds(theQuery, false); // exact keyword matches would undo the typo tolerance
+        }
+        return getSearch().search(theKeywordStrArray, aFilterBitmap, theStartIndexInt, theEndIndexInt);
+    }
+
+    /**
+     * @return ZoneLibrarySearch - ranked search of this generation
+     */
+    public ZoneLibrarySearch getSearch() {
+        ZoneLibrarySearch returnSearch = zlg_Search;
+        if (returnSearch == null) { // racing readers build equal indexes, either one will do
+            returnSearch = new ZoneLibrarySearch(zlg_TokenDictionary, zlg_TitleFacet, zlg_ArtistFacet,
+                    zlg_AlbumFacet, zlg_GenreFacet, zlg_FileRecordArray.length);
+            zlg_Search = returnSearch;
+        }
+        return returnSearch;
+    }
+
+    /**
+     * @return ZoneLibrarySuggestIndex - title, artist and album completions of this generation
+     */
+    public ZoneLibrarySuggestIndex getSuggestIndex() {
+        return zlg_SuggestIndex;
+    }
+
+    /**
+     * merge the token index posting lists for the given keywords, AND-ing
+     * them when all keywords must match and OR-ing them otherwise
+     *
+     * @param theKeywordStrArray String[]
+     * @param matchAllKeywords boolean
+     * @return ZoneLibraryPostingList - sorted file ids, null if every file matches
+     */
+    public ZoneLibraryPostingList getFileIdsFromKeywords(String[] theKeywordStrArray, boolean matchAllKeywords) {
+        if (theKeywordStrArray == null) {
+            return null;
+        }
+
+        ZoneLibraryPostingList returnList = null;
+        boolean aHasMatchedAll = false;
+        for (String aKeyword : theKeywordStrArray) {
+            ZoneLibraryPostingList aKeywordList = getFileIdsFromKeyword(aKeyword);
+            if (aKeywordList == null) { // keyword without tokens matches every file
+                if (!matchAllKeywords) {
+                    return null;
+                }
+                aHasMatchedAll = true;
+                continue;
+            }
+
+            if (returnList == null) {
+                returnList = aKeywordList;
+            } else if (matchAllKeywords) {
+                returnList = ZoneLibraryPostingList.intersect(returnList, aKeywordList);
+            } else {
+                returnList = ZoneLibraryPostingList.union(returnList, aKeywordList);
+            }
+
+            if (matchAllKeywords && returnList.isEmpty()) {
+                break; // nothing left to intersect
+            }
+        }
+
+        if ((returnList == null) && (!aHasMatchedAll)) {
+            return new ZoneLibraryPostingList();
+        }
+        return returnList;
+    }
+
+    /**
+     * union of the posting lists of every indexed token containing each of
+     * the keyword tokens, intersected across keyword tokens - the tokens
+     * starting with it are found in the dictionary, the ones it is found
+     * further inside of by a scan of the distinct tokens, so "beat" finds
+     * both "beat" and "thebeatles"
+     *
+     * @param theKeyword String
+     * @return ZoneLibraryPostingList - sorted file ids, null if keyword has no tokens
+     */
+    public ZoneLibraryPostingList getFileIdsFromKeyword(String theKeyword) {
+        ZoneLibraryPostingList returnList = null;
+        for (String aKeywordToken : ZoneLibraryIndex.tokenizeString(theKeyword)) {
+            ArrayList<ZoneLibraryPostingList> aMatchList = new ArrayList<ZoneLibraryPostingList>();
+            int aPrefixEnd = zlg_TokenDictionary.prefixEnd(aKeywordToken);
+            for (int i = zlg_TokenDictionary.lowerBound(aKeywordToken); i < aPrefixEnd; i++) {
+                aMatchList.add(zlg_TokenDictionary.getList(i));
+            }
+            for (int i = 0; i < zlg_TokenDictionary.size(); i++) { // a scan of the distinct tokens, not of every filename
+                if (zlg_TokenDictionary.getKey(i).indexOf(aKeywordToken) > 0) {
+                    aMatchList.add(zlg_TokenDictionary.getList(i));
+                }
+            }
+            ZoneLibraryPostingList aTokenList = ZoneLibraryPostingList.unionAll(aMatchList);
+
+            if (returnList == null) {
+                returnList = aTokenList;
+            } else {
+                returnList = ZoneLibraryPostingList.intersect(returnList, aTokenList);
+            }
+        }
+        return returnList;
+    }
+}
@@ -9,28 +9,29 @@ package zonecontrol;
 import audio.MediaPlayerImpl;
 import contrib.ID3MetaData;
 import java.io.File;
-import java.io.UnsupportedEncodingException;
-import java.net.InetSocketAddress;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
-import java.net.Socket;
-import java.net.URLEncoder;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map.Entry;
+import java.util.SortedMap;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import jcifs.smb.SmbException;
 import jcifs.smb.SmbFile;
 import musiczones.MusicZones;
-import netutil.CIFSNetworkInterface;
 import netutil.IpAddressType;
 import netutil.Layer3Info;
+import netutil.SambaHostScanner;
 import org.blinkenlights.jid3.ID3Exception;
 
 /**
@@ -39,31 +40,74 @@ import org.blinkenlights.jid3.ID3Exception;
 public class ZoneLibraryIndex {
 
     private static ZoneLibraryIndex zli_SingleInstance = null;
-    protected HashMap<String, String> zli_FileMap = null; //<filename, full file path>
-    protected TreeMap<String, LinkedList<String>> zli_TitleMap = null; //<title, LinkedList<filenames>>
-    protected TreeMap<String, LinkedList<String>> zli_GenreMap = null; //<genre, LinkedList<filenames>>
-    protected TreeMap<String, LinkedList<String>> zli_AlbumMap = null; //<album, LinkedList<filenames>>
-    protected TreeMap<String, LinkedList<String>> zli_ArtistMap = null; //<artist, LinkedList<filenames>>
+    protected ZoneLibraryPathTrie zli_PathTrie = null; // directories of the indexed files
+    protected ZoneLibraryFacet zli_TitleFacet = null; //<title, file ids>
+    protected ZoneLibraryFacet zli_GenreFacet = null; //<genre, file ids>
+    protected ZoneLibraryFacet zli_AlbumFacet = null; //<album, file ids>
+    protected ZoneLibraryFacet zli_ArtistFacet = null; //<artist, file ids>
+    protected ArrayList<ZoneLibraryFileRecord> zli_FileRecordList = null; //<file id, metadata record> - null once removed
+    protected ZoneLibraryFileNameTable zli_FileNameTable = null; //<filename, file id>
+    protected TreeMap<String, ZoneLibraryPostingList> zli_TokenMap = null; //<filename token, sorted file ids>
     protected Timer zli_Timer = null;
     protected boolean debugEventsOn = false;
     private RefreshCIFSMediaTask zli_RCMT = null;
-    private boolean zli_isIndexScheduled = false;
+    private SyncFromIndexerTask zli_SFIT = null;
+    private volatile boolean zli_isIndexScheduled = false;
     protected int zli_RefreshCIFSMediaSeconds = (3600 * 2); // 2 hours
+    protected int zli_SyncFromIndexerSeconds = 300; // 5 minutes, unchanged snapshots are not downloaded
     protected String[] zli_CIFSPathBlackListArray = {"$"};
     protected int zli_IPv4ScanMin = 1;
     protected int zli_IPv4ScanMax = 10;
-    private boolean zli_isBuilding = false;
+    protected String zli_ScanCIDRStr = null; // overrides scan min/max when set
+    protected int zli_ScanProbesPerSecond = SambaHostScanner.kDefaultProbesPerSecond;
+    private final AtomicBoolean zli_isBuilding = new AtomicBoolean(false); // one crawl or sync at a time
+    protected static String zli_SnapshotPathStr = System.getProperty("user.home")
+            + File.separator + ".musiczones" + File.separator + "library.idx";
+    protected ZoneLibrarySnapshot zli_Snapshot = null;
+    private boolean zli_isSnapshotLoaded = false;
+    protected BitSet zli_SeenFileIdSet = null; // file ids found on the network during the current build
+    protected HashMap<String, ZoneLibraryDirectoryRecord> zli_DirectoryMap = null; // raw path -> cached listing
+    protected int zli_BuildCount = 0;
+    protected int zli_CrawlThreadCount = 4;
+    protected volatile ZoneLibraryGeneration zli_Generation = null; // what readers see
+    protected BitSet zli_DirtyFileIdSet = null; // file ids whose record is not shared with a generation
+    protected HashSet<String> zli_DirtyTokenSet = null; // tokens changed since the last publish, their lists are not shared
+    protected long zli_LastPublishMillis = 0;
+    protected static final long kPublishIntervalMillis = 5000;
+    protected static final long kIndexerChangedRetryMillis = 5000;
+    protected final String zli_EpochStr = Long.toString(System.currentTimeMillis(), 36); // file ids and generation numbers restart with the process
 
     protected ZoneLibraryIndex(boolean theDebugIsOn) {
+        this(theDebugIsOn, new File(zli_SnapshotPathStr));
+        addIndexBuild();
+    }
+
+    /**
+     * an index that only changes when told to, no builds are scheduled - for
+     * the tests
+     *
+     * @param theDebugIsOn boolean
+     * @param theSnapshotFile File
+     */
+    ZoneLibraryIndex(boolean theDebugIsOn, File theSnapshotFile) {
         debugEventsOn = theDebugIsOn;
-        zli_FileMap = new HashMap<String, String>();
-        zli_TitleMap = new TreeMap<String, LinkedList<String>>();
-        zli_GenreMap = new TreeMap<String, LinkedList<String>>();
-        zli_AlbumMap = new TreeMap<String, LinkedList<String>>();
-        zli_ArtistMap = new TreeMap<String, LinkedList<String>>();
+        zli_PathTrie = new ZoneLibraryPathTrie();
+        zli_TitleFacet = new ZoneLibraryFacet(LibraryFacetType.title);
+        zli_GenreFacet = new ZoneLibraryFacet(LibraryFacetType.genre);
+        zli_AlbumFacet = new ZoneLibraryFacet(LibraryFacetType.album);
+        zli_ArtistFacet = new ZoneLibraryFacet(LibraryFacetType.artist);
+        zli_FileRecordList = new ArrayList<ZoneLibraryFileRecord>();
+        zli_FileNameTable = new ZoneLibraryFileNameTable();
+        zli_TokenMap = new TreeMap<String, ZoneLibraryPostingList>();
+        zli_SeenFileIdSet = new BitSet();
+        zli_DirectoryMap = new HashMap<String, ZoneLibraryDirectoryRecord>();
+        zli_DirtyFileIdSet = new BitSet();
+        zli_DirtyTokenSet = new HashSet<String>();
+        publishGeneration();
+        zli_Snapshot = new ZoneLibrarySnapshot(theSnapshotFile, debugEventsOn);
         zli_Timer = new Timer();
         zli_RCMT = new RefreshCIFSMediaTask();
-        addIndexBuild();
+        zli_SFIT = new SyncFromIndexerTask();
     }
 
     public static ZoneLibraryIndex getInstance() {
@@ -80,6 +124,16 @@ public class ZoneLibraryIndex {
         return zli_SingleInstance;
     }
 
+    /**
+     * set where the on-disk index snapshot lives, must be called before the
+     * first getInstance() to take effect
+     *
+     * @param theSnapshotPathStr String
+     */
+    public static void setSnapshotPath(String theSnapshotPathStr) {
+        zli_SnapshotPathStr = theSnapshotPathStr;
+    }
+
     public void setScanMin(int theScanMin) {
         zli_IPv4ScanMin = theScanMin;
     }
@@ -88,59 +142,126 @@ public class ZoneLibraryIndex {
         zli_IPv4ScanMax = theScanMax;
     }
 
+    /**
+     * scan a CIDR range such as 192.168.0.0/22 instead of the last octet range
+     *
+     * @param theScanCIDRStr String
+     */
+    public void setScanCIDR(String theScanCIDRStr) {
+        zli_ScanCIDRStr = theScanCIDRStr;
+    }
+
+    /**
+     * @param theProbesPerSecond int - rate limit of the subnet scan
+     */
+    public void setScanRate(int theProbesPerSecond) {
+        zli_ScanProbesPerSecond = theProbesPerSecond;
+    }
+
     public void addIndexBuild() {
         if (!zli_isIndexScheduled) {
             zli_Timer.schedule(zli_RCMT, 0, zli_RefreshCIFSMediaSeconds * 1000);
+            zli_Timer.schedule(zli_SFIT, zli_SyncFromIndexerSeconds * 1000, zli_SyncFromIndexerSeconds * 1000);
+            ZoneLibraryFederation.getInstance().start(this);
             zli_isIndexScheduled = true;
             System.out.println("ZLI RefreshCIFSMediaTask added");
         }
     }
 
     public void removeIndexBuild() {
+        ZoneLibraryFederation.getInstance().stop();
         zli_Timer.cancel();
         zli_isIndexScheduled = false;
     }
 
+    /**
+     * rebuild the index on the timer thread, the caller does not wait for
+     * the crawl
+     */
     public void manualRebuildIndex() {
-        zli_RCMT.run();
+        if (!zli_isIndexScheduled) {
+            return;
+        }
+        try {
+            zli_Timer.schedule(new TimerTask() {
+
+                @Override
+                public void run() {
+                    zli_RCMT.build();
+                }
+            }, 0);
+        } catch (IllegalStateException ex) { // the build was removed meanwhile
+            System.err.println("ZLI manualRebuildIndex - " + ex);
+        }
+    }
+
+    /**
+     * another zone took over as indexer, or this one did - crawl or fetch
+     * from the new one right away instead of at the next refresh, as soon as
+     * a build still running is done
+     */
+    protected void indexerChanged() {
+        if (!zli_isIndexScheduled) {
+            return;
+        }
+        zli_Timer.schedule(new TimerTask() {
+
+            @Override
+            public void run() {
+                if (!zli_RCMT.build()) {
+                    indexerChanged(); // try again later
+                }
+            }
+        }, (getIndexIsBuilding() ? kIndexerChangedRetryMillis : 0));
+    }
+
+    /**
+     * @return boolean - is the index build still wanted? crawling stops once false
+     */
+    public boolean getIndexIsScheduled() {
+        return zli_isIndexScheduled;
+    }
+
+    /**
+     * @return File - the on-disk snapshot, written after every build and
+     * served to the other zones if this zone is their indexer
+     */
+    public File getSnapshotFile() {
+        return zli_Snapshot.getSnapshotFile();
     }
 
     public boolean getIndexIsBuilding() {
-        return zli_isBuilding;
+        return zli_isBuilding.get();
     }
 
-    protected void setIndexIsBuilding(boolean theIndexIsBuilding) {
-        zli_isBuilding = theIndexIsBuilding;
+    /**
+     * get the currently published generation of the index, querying it
+     * directly keeps several lookups consistent with each other
+     *
+     * @return ZoneLibraryGeneration
+     */
+    public ZoneLibraryGeneration getGeneration() {
+        return zli_Generation;
     }
 
     /**
-     * build a TreeMap (ordered according to the natural ordering of its keys)
-     * of all genres with available files
-     *
-     * @return TreeMap<String - genre, LinkedList<String - filename>>
-     */
-    public TreeMap<String, LinkedList<String>> getGenreMap() {
-        TreeMap<String, LinkedList<String>> returnFileMap = new TreeMap<String, LinkedList<String>>();
-        for (Entry<String, LinkedList<String>> aTempEntry : zli_GenreMap.entrySet()) {
-            for (String aTempFileName : aTempEntry.getValue()) {
-                if (zli_FileMap.containsKey(aTempFileName)) {
-                    if (returnFileMap.containsKey(aTempEntry.getKey())) {
-                        if (returnFileMap.get(aTempEntry.getKey()) == null) {
-                            LinkedList<String> aFileNameLL = new LinkedList<String>();
-                            aFileNameLL.add(aTempFileName);
-                            returnFileMap.put(aTempEntry.getKey(), aFileNameLL);
-                        } else {
-                            returnFileMap.get(aTempEntry.getKey()).add(aTempFileName);
-                        }
-                    } else {
-                        LinkedList<String> aFileNameLL = new LinkedList<String>();
-                        aFileNameLL.add(aTempFileName);
-                        returnFileMap.put(aTempEntry.getKey(), aFileNameLL);
-                    }
-                }
-            }
-        }
-        return returnFileMap;
+     * get the published facet of the library index for the given ID3 field
+     *
+     * @param theFacetType LibraryFacetType
+     * @return ZoneLibraryFacet
+     */
+    public ZoneLibraryFacet getFacet(LibraryFacetType theFacetType) {
+        return zli_Generation.getFacet(theFacetType);
+    }
+
+    /**
+     * read-only view (ordered according to the natural ordering of its keys)
+     * of all genres with available files in the published generation
+     *
+     * @return SortedMap<String - genre, Integer - file count>
+     */
+    public SortedMap<String, Integer> getGenreMap() {
+        return getFacet(LibraryFacetType.genre).getCountMap();
     }
 
     /**
@@ -152,50 +273,18 @@ public class ZoneLibraryIndex {
      * @return TreeMap<String - title, String - file path>
      */
     public TreeMap<String, String> getTitlesFromGenre(String theGenre) {
-        TreeMap<String, String> returnFileMap = new TreeMap<String, String>();
-        LinkedList<String> aTempFileNameList = zli_GenreMap.get(theGenre);
-        for (String aTempFileName : aTempFileNameList) {
-            if (zli_FileMap.containsKey(aTempFileName)) {
-                String aTempTitle = getTitleFromFileName(aTempFileName);
-                if (aTempTitle == null) {
-                    aTempTitle = aTempFileName;
-                }
-                if (!returnFileMap.containsKey(aTempTitle)) {
-                    returnFileMap.put(aTempTitle, zli_FileMap.get(aTempFileName));
-                }
-            }
-        }
-        return returnFileMap;
+        ZoneLibraryGeneration aGeneration = zli_Generation;
+        return aGeneration.getTitlesFromFileIds(aGeneration.getFacet(LibraryFacetType.genre).getMembers(theGenre));
     }
 
     /**
-     * build a TreeMap (ordered according to the natural ordering of its keys)
-     * of all albums with available files
-     *
-     * @return TreeMap<String - album, LinkedList<String - filename>>
-     */
-    public TreeMap<String, LinkedList<String>> getAlbumMap() {
-        TreeMap<String, LinkedList<String>> returnFileMap = new TreeMap<String, LinkedList<String>>();
-        for (Entry<String, LinkedList<String>> aTempEntry : zli_AlbumMap.entrySet()) {
-            for (String aTempFileName : aTempEntry.getValue()) {
-                if (zli_FileMap.containsKey(aTempFileName)) {
-                    if (returnFileMap.containsKey(aTempEntry.getKey())) {
-                        if (returnFileMap.get(aTempEntry.getKey()) == null) {
-                            LinkedList<String> aFileNameLL = new LinkedList<String>();
-                            aFileNameLL.add(aTempFileName);
-                            returnFileMap.put(aTempEntry.getKey(), aFileNameLL);
-                        } else {
-                            returnFileMap.get(aTempEntry.getKey()).add(aTempFileName);
-                        }
-                    } else {
-                        LinkedList<String> aFileNameLL = new LinkedList<String>();
-                        aFileNameLL.add(aTempFileName);
-                        returnFileMap.put(aTempEntry.getKey(), aFileNameLL);
-                    }
-                }
-            }
-        }
-        return returnFileMap;
+     * read-only view (ordered according to the natural ordering of its keys)
+     * of all albums with available files in the published generation
+     *
+     * @return SortedMap<String - album, Integer - file count>
+     */
+    public SortedMap<String, Integer> getAlbumMap() {
+        return getFacet(LibraryFacetType.album).getCountMap();
     }
 
     /**
@@ -207,50 +296,18 @@ public class ZoneLibraryIndex {
      * @return TreeMap<String - title, String - file path>
      */
     public TreeMap<String, String> getTitlesFromAlbum(String theAlbumName) {
-        TreeMap<String, String> returnFileMap = new TreeMap<String, String>();
-        LinkedList<String> aTempFileNameList = zli_AlbumMap.get(theAlbumName);
-        for (String aTempFileName : aTempFileNameList) {
-            if (zli_FileMap.containsKey(aTempFileName)) {
-                String aTempTitle = getTitleFromFileName(aTempFileName);
-                if (aTempTitle == null) {
-                    aTempTitle = aTempFileName;
-                }
-                if (!returnFileMap.containsKey(aTempTitle)) {
-                    returnFileMap.put(aTempTitle, zli_FileMap.get(aTempFileName));
-                }
-            }
-        }
-        return returnFileMap;
+        ZoneLibraryGeneration aGeneration = zli_Generation;
+        return aGeneration.getTitlesFromFileIds(aGeneration.getFacet(LibraryFacetType.album).getMembers(theAlbumName));
     }
 
     /**
-     * build a TreeMap (ordered according to the natural ordering of its keys)
-     * of all artists with available files
-     *
-     * @return TreeMap<String - artist, LinkedList<String - filename>>
-     */
-    public TreeMap<String, LinkedList<String>> getArtistMap() {
-        TreeMap<String, LinkedList<String>> returnFileMap = new TreeMap<String, LinkedList<String>>();
-        for (Entry<String, LinkedList<String>> aTempEntry : zli_ArtistMap.entrySet()) {
-            for (String aTempFileName : aTempEntry.getValue()) {
-                if (zli_FileMap.containsKey(aTempFileName)) {
-                    if (returnFileMap.containsKey(aTempEntry.getKey())) {
-                        if (returnFileMap.get(aTempEntry.getKey()) == null) {
-                            LinkedList<String> aFileNameLL = new LinkedList<String>();
-                            aFileNameLL.add(aTempFileName);
-                            returnFileMap.put(aTempEntry.getKey(), aFileNameLL);
-                        } else {
-                            returnFileMap.get(aTempEntry.getKey()).add(aTempFileName);
-                        }
-                    } else {
-                        LinkedList<String> aFileNameLL = new LinkedList<String>();
-                        aFileNameLL.add(aTempFileName);
-                        returnFileMap.put(aTempEntry.getKey(), aFileNameLL);
-                    }
-                }
-            }
-        }
-        return returnFileMap;
+     * read-only view (ordered according to the natural ordering of its keys)
+     * of all artists with available files in the published generation
+     *
+     * @return SortedMap<String - artist, Integer - file count>
+     */
+    public SortedMap<String, Integer> getArtistMap() {
+        return getFacet(LibraryFacetType.artist).getCountMap();
     }
 
     /**
@@ -262,20 +319,8 @@ public class ZoneLibraryIndex {
      * @return TreeMap<String - title, String - file path>
      */
     public TreeMap<String, String> getTitlesFromArtist(String theArtistName) {
-        TreeMap<String, String> returnFileMap = new TreeMap<String, String>();
-        LinkedList<String> aTempFileNameList = zli_ArtistMap.get(theArtistName);
-        for (String aTempFileName : aTempFileNameList) {
-            if (zli_FileMap.containsKey(aTempFileName)) {
-                String aTempTitle = getTitleFromFileName(aTempFileName);
-                if (aTempTitle == null) {
-                    aTempTitle = aTempFileName;
-                }
-                if (!returnFileMap.containsKey(aTempTitle)) {
-                    returnFileMap.put(aTempTitle, zli_FileMap.get(aTempFileName));
-                }
-            }
-        }
-        return returnFileMap;
+        ZoneLibraryGeneration aGeneration = zli_Generation;
+        return aGeneration.getTitlesFromFileIds(aGeneration.getFacet(LibraryFacetType.artist).getMembers(theArtistName));
     }
 
     /**
@@ -285,33 +330,54 @@ public class ZoneLibraryIndex {
      * @return String
      */
     protected String getTitleFromFileName(String theFileName) {
-        for (Entry<String, LinkedList<String>> aTempEntry : zli_TitleMap.entrySet()) {
-            for (String aTempFileName : aTempEntry.getValue()) {
-                if (aTempFileName.equals(theFileName)) {
-                    return aTempEntry.getKey();
-                }
-            }
+        ZoneLibraryFileRecord aFileRecord = getFileRecord(theFileName);
+        if (aFileRecord == null) {
+            return null;
         }
-        return null;
+        return aFileRecord.getTitle();
+    }
+
+    /**
+     * look up the published metadata record of an indexed file
+     *
+     * @param theFileName String
+     * @return ZoneLibraryFileRecord - null if the file is not indexed
+     */
+    public ZoneLibraryFileRecord getFileRecord(String theFileName) {
+        return zli_Generation.getFileRecord(theFileName);
     }
 
     /**
-     * dump the title TreeMap
+     * read-only view of all song titles in the published generation
      *
-     * @return <String - title, LinkedList<String - filenames>>
+     * @return SortedMap<String - title, Integer - file count>
      */
-    public TreeMap<String, LinkedList<String>> getAllTitles() {
-        return zli_TitleMap;
+    public SortedMap<String, Integer> getAllTitles() {
+        return getFacet(LibraryFacetType.title).getCountMap();
+    }
+
+    /**
+     * get the filenames of every file tagged with the given song title
+     *
+     * @param theSongTitle String
+     * @return ArrayList<String>
+     */
+    public ArrayList<String> getFileNamesFromTitle(String theSongTitle) {
+        return zli_Generation.getFileNamesFromTitle(theSongTitle);
     }
 
     public String getFullPathFromFileName(String theFileName) {
-        return (zli_FileMap.get(theFileName));
+        return zli_Generation.getFullPathFromFileName(theFileName);
     }
 
     /**
      * return a TreeMap<String - filename, String - full file path> of filenames
      * that match the given search parameters in the library index
      *
+     * each keyword is matched against the filename tokens by prefix, or
+     * inside of them if no token starts with it, so the result is a merge of
+     * posting lists from the token index rather than a scan of every filename
+     *
      * @param theKeywordStrArray String[]
      * @param matchAllKeywords boolean
      * @param theStartIndexInt Integer
@@ -320,30 +386,177 @@ public class ZoneLibraryIndex {
      */
     public TreeMap<String, String> getFiles(String[] theKeywordStrArray,
             boolean matchAllKeywords, int theStartIndexInt, int theEndIndexInt) {
-        TreeMap<String, String> returnFileMap = new TreeMap<String, String>();
-        if (zli_FileMap.size() > 0) {
-            int i = 0;
-            int aOutputCount = 0;
-            List<String> aFullFilePathArray = Arrays.asList(zli_FileMap.values().toArray(new String[0]));
-            for (String aTempFileName : zli_FileMap.keySet()) {
-                if (stringMatchesKeywords(aTempFileName, theKeywordStrArray, matchAllKeywords)) {
-                    if ((aOutputCount >= theStartIndexInt) && (aOutputCount <= theEndIndexInt)) {
-                        returnFileMap.put(aTempFileName, aFullFilePathArray.get(i));
-                    }
-                    aOutputCount++;
-                }
-                i++;
+        TreeMap<String, String> returnFileMap = zli_Generation.getFiles(theKeywordStrArray,
+                matchAllKeywords, theStartIndexInt, theEndIndexInt);
+
+        if (debugEventsOn) {
+            System.out.println("ZLI getFiles - output " + String.valueOf(returnFileMap.size()) + " files");
+        }
+        return returnFileMap;
+    }
+
+    /**
+     * return a TreeMap<String - filename, String - full file path> of files
+     * that match any combination of facet filters and keywords, evaluated
+     * on the facet bitmaps of the published generation
+     *
+     * @param theQuery ZoneLibraryQuery
+     * @param theStartIndexInt Integer
+     * @param theEndIndexInt Integer
+     * @return TreeMap<String, String>
+     */
+    public TreeMap<String, String> getFiles(ZoneLibraryQuery theQuery, int theStartIndexInt, int theEndIndexInt) {
+        TreeMap<String, String> returnFileMap = zli_Generation.getFiles(theQuery, theStartIndexInt, theEndIndexInt);
+
+        if (debugEventsOn) {
+            System.out.println("ZLI getFiles - query output " + String.valueOf(returnFileMap.size()) + " files");
+        }
+        return returnFileMap;
+    }
+
+    /**
+     * return a LinkedHashMap<String - filename, String - full file path> of
+     * files ranked by how well they match the keywords - keywords are matched
+     * against filename tokens and the title, artist, album and genre tags,
+     * and may be a prefix of a word or have a typo
+     *
+     * @param theKeywordStrArray String[]
+     * @param theQuery ZoneLibraryQuery - facet filters the files must match, null for none
+     * @param theStartIndexInt Integer
+     * @param theEndIndexInt Integer
+     * @return LinkedHashMap<String, String> - best match first
+     */
+    public LinkedHashMap<String, String> getRankedFiles(String[] theKeywordStrArray, ZoneLibraryQuery theQuery,
+            int theStartIndexInt, int theEndIndexInt) {
+        long aStartMillis = System.currentTimeMillis();
+        LinkedHashMap<String, String> returnFileMap = zli_Generation.getRankedFiles(theKeywordStrArray,
+                theQuery, theStartIndexInt, theEndIndexInt);
+
+        if (debugEventsOn) {
+            System.out.println("ZLI getRankedFiles - output " + String.valueOf(returnFileMap.size())
+                    + " files in " + (System.currentTimeMillis() - aStartMillis) + " ms");
+        }
+        return returnFileMap;
+    }
+
+    /**
+     * @param theGeneration ZoneLibraryGeneration
+     * @return String - tells the generation apart from any other one, even
+     * from before a restart, for use as an entity tag
+     */
+    public String getGenerationTag(ZoneLibraryGeneration theGeneration) {
+        return zli_EpochStr + "-" + Integer.toString(theGeneration.getGenerationNumber(), 36);
+    }
+
+    /**
+     * @param theLastFileId int - last file id of the page shown
+     * @return String - cursor for resuming after the file with
+     * getFileIdFromCursor(), valid for as long as this process runs
+     */
+    public String getCursor(int theLastFileId) {
+        return zli_EpochStr + "." + Integer.toString(theLastFileId, 36);
+    }
+
+    /**
+     * @param theCursorStr String - from getCursor(), null for the first page
+     * @return int - file id to resume after, -1 to start over when the cursor
+     * is missing, garbled or from before a restart (the file ids differ then)
+     */
+    public int getFileIdFromCursor(String theCursorStr) {
+        if (theCursorStr == null) {
+            return -1;
+        }
+        int aDotIndex = theCursorStr.indexOf('.');
+        if ((aDotIndex < 0) || (!theCursorStr.substring(0, aDotIndex).equals(zli_EpochStr))) {
+            return -1;
+        }
+        try {
+            int returnFileId = Integer.parseInt(theCursorStr.substring(aDotIndex + 1), 36);
+            if ((returnFileId < -1) || (returnFileId == Integer.MAX_VALUE)) {
+                return -1;
             }
+            return returnFileId;
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
 
-            if (debugEventsOn) {
-                System.out.println("ZLI getFiles - output " + String.valueOf(i) + " files");
+    /**
+     * titles, artists and albums starting with what the user has typed so far
+     *
+     * @param thePrefix String - matched ignoring case
+     * @param theCount int - maximum number of suggestions
+     * @return List<ZoneLibrarySuggestIndex.Suggestion> - most files first
+     */
+    public List<ZoneLibrarySuggestIndex.Suggestion> getSuggestions(String thePrefix, int theCount) {
+        return zli_Generation.getSuggestIndex().getSuggestions(thePrefix, theCount);
+    }
+
+    /**
+     * split a string into lower case runs of letters and digits
+     *
+     * @param theString String
+     * @return ArrayList<String>
+     */
+    protected static ArrayList<String> tokenizeString(String theString) {
+        ArrayList<String> returnTokenList = new ArrayList<String>();
+        if (theString == null) {
+            return returnTokenList;
+        }
+
+        String aLowerString = theString.toLowerCase(Locale.ENGLISH);
+        int aTokenStart = -1;
+        for (int i = 0; i <= aLowerString.length(); i++) {
+            if ((i < aLowerString.length()) && Character.isLetterOrDigit(aLowerString.charAt(i))) {
+                if (aTokenStart < 0) {
+                    aTokenStart = i;
+                }
+            } else if (aTokenStart >= 0) {
+                returnTokenList.add(aLowerString.substring(aTokenStart, i));
+                aTokenStart = -1;
             }
         }
-        return returnFileMap;
+        return returnTokenList;
     }
 
-    public HashMap<String, String> getAllFiles() {
-        return zli_FileMap;
+    /**
+     * hand the index being built over to a new immutable generation and swap
+     * it in for readers - file records and posting lists are shared with the
+     * generation rather than copied, the build copies one the next time it
+     * has to change it
+     */
+    protected synchronized void publishGeneration() {
+        ZoneLibraryGeneration aLastGeneration = zli_Generation;
+
+        ZoneLibraryFileRecord[] aFileRecordArray = zli_FileRecordList.toArray(
+                new ZoneLibraryFileRecord[zli_FileRecordList.size()]);
+        ZoneLibrarySortedDictionary<ZoneLibraryPostingList> aTokenDictionary =
+                new ZoneLibrarySortedDictionary<ZoneLibraryPostingList>(zli_TokenMap);
+        zli_DirtyFileIdSet.clear();
+        zli_DirtyTokenSet.clear();
+
+        zli_Generation = new ZoneLibraryGeneration(
+                (aLastGeneration == null) ? 0 : (aLastGeneration.getGenerationNumber() + 1),
+                zli_PathTrie.publish(), aFileRecordArray, zli_FileNameTable.copy(), aTokenDictionary, zli_TitleFacet.publish(),
+                zli_GenreFacet.publish(), zli_AlbumFacet.publish(), zli_ArtistFacet.publish());
+        zli_LastPublishMillis = System.currentTimeMillis();
+
+        if (debugEventsOn) {
+            System.out.println("ZLI publishGeneration - published generation "
+                    + zli_Generation.getGenerationNumber() + " with " + zli_FileNameTable.size() + " files");
+        }
+    }
+
+    /**
+     * publish pending changes if the last publish is long enough ago, lets a
+     * running build show up in the library as it goes
+     */
+    protected synchronized void publishGenerationIfDue() {
+        if ((zli_DirtyFileIdSet.isEmpty() && zli_DirtyTokenSet.isEmpty())
+                || ((System.currentTimeMillis() - zli_LastPublishMillis) < kPublishIntervalMillis)) {
+            return;
+        }
+        publishGeneration();
     }
 
     /**
@@ -369,153 +582,399 @@ public class ZoneLibraryIndex {
     }
 
     /**
-     * iteratively index the raw paths of the file system currently supports:
-     * CIFS and local files
+     * index the raw paths of the file system currently supports: CIFS and
+     * local files - directories whose modification time has not changed since
+     * the last build reuse their cached listing, and files whose modification
+     * time and size have not changed keep their metadata
      *
      * @param thePathStr String
+     * @return boolean - was the whole path listed without being interrupted?
      */
-    protected void indexPath(String thePathStr) {
-        if (debugEventsOn) {
-            System.out.println("ZLI indexPath - will now index " + thePathStr);
+    protected boolean indexPath(String thePathStr) {
+        ZoneLibraryCrawler aCrawler = new ZoneLibraryCrawler(this, zli_CrawlThreadCount, debugEventsOn);
+        aCrawler.addPath(thePathStr);
+        return (!aCrawler.awaitCompletion().isEmpty());
+    }
+
+    /**
+     * @param theDirPath String - raw path
+     * @return ZoneLibraryDirectoryRecord - cached listing, null if there is none
+     */
+    protected synchronized ZoneLibraryDirectoryRecord getDirectoryRecord(String theDirPath) {
+        return zli_DirectoryMap.get(theDirPath);
+    }
+
+    /**
+     * cache a fresh directory listing found during the current build
+     *
+     * @param theDirRecord ZoneLibraryDirectoryRecord
+     */
+    protected synchronized void putDirectoryRecord(ZoneLibraryDirectoryRecord theDirRecord) {
+        theDirRecord.setLastSeenBuild(zli_BuildCount);
+        zli_DirectoryMap.put(theDirRecord.getPath(), theDirRecord);
+    }
+
+    /**
+     * @param theDirRecord ZoneLibraryDirectoryRecord - found again during the current build
+     */
+    protected synchronized void markDirectorySeen(ZoneLibraryDirectoryRecord theDirRecord) {
+        theDirRecord.setLastSeenBuild(zli_BuildCount);
+    }
+
+    /**
+     * mark an already indexed file as found during the current build
+     *
+     * @param theRawFullFilePath String
+     * @param theRawFileName String
+     * @return boolean - was the file already indexed at the same path?
+     */
+    protected synchronized boolean markFileSeen(String theRawFullFilePath, String theRawFileName) {
+        ZoneLibraryFileRecord aFileRecord = getBuildFileRecord(theRawFileName);
+        if ((aFileRecord == null) || (!getRawFullPath(aFileRecord).equals(theRawFullFilePath))) {
+            return false;
         }
+        zli_SeenFileIdSet.set(aFileRecord.getFileId());
+        return true;
+    }
 
-        if (thePathStr.contains(FileSystemType.smb.toString().concat(ZoneServerUtility.prefixUriStr))) { // CIFS share
-            ArrayList<SmbFile> aCIFSDirList = CIFSNetworkInterface.getInstance().getDirectoryList(thePathStr);
-            LinkedList<SmbFile> aSmbFileLinkedList = new LinkedList<SmbFile>(aCIFSDirList);
+    /**
+     * @param theFileRecord ZoneLibraryFileRecord - of the index being built
+     * @return String - raw (not URL encoded) full path of the file
+     */
+    protected synchronized String getRawFullPath(ZoneLibraryFileRecord theFileRecord) {
+        return zli_PathTrie.getFilePath(theFileRecord.getDirId(), theFileRecord.getFileName());
+    }
 
-            while (zli_isIndexScheduled && (aSmbFileLinkedList.peek() != null)) {
-                SmbFile iSmbFile = aSmbFileLinkedList.removeFirst();
+    /**
+     * actually add the file and its information to the various TreeMaps
+     *
+     * @param theRawFullFilePath String
+     * @param theRawFileName String
+     */
+    protected void addFileToMaps(String theRawFullFilePath, String theRawFileName) {
+        addFileToMaps(theRawFullFilePath, theRawFileName, 0, 0);
+    }
 
-                if (iSmbFile.getPath().endsWith("/")) { // recurse into directory during search
-                    ArrayList<SmbFile> tempSmbFiles = CIFSNetworkInterface.getInstance().getDirectoryList(iSmbFile.getPath());
-                    if ((tempSmbFiles != null) && (tempSmbFiles.size() > 0)) {
-                        for (SmbFile tempSmbFile : tempSmbFiles) {
-                            if (willPathRecurseToInf(tempSmbFile.getParent(), tempSmbFile.getPath())) {
-                                if (debugEventsOn) {
-                                    System.err.println("ZLI indexPath - " + tempSmbFile.toString() + " will go to INF");
-                                }
-                            } else {
-                                aSmbFileLinkedList.addFirst(tempSmbFile);
+    /**
+     * actually add the file and its information to the various TreeMaps, an
+     * already indexed file is only read again if its modification time or
+     * size have changed
+     *
+     * @param theRawFullFilePath String
+     * @param theRawFileName String
+     * @param theLastModified long - 0 if unknown
+     * @param theSize long
+     */
+    protected void addFileToMaps(String theRawFullFilePath, String theRawFileName,
+            long theLastModified, long theSize) {
+        if (registerFile(theRawFullFilePath, theRawFileName, theLastModified, theSize)) {
+            ID3MetaData aID3MetaData = readFileTags(theRawFullFilePath);
+            if (aID3MetaData != null) {
+                addFileTags(theRawFullFilePath, theRawFileName, aID3MetaData);
+            }
+        }
+    }
 
-                                if (debugEventsOn) {
-                                    System.out.println("ZLI indexPath - will follow " + tempSmbFile.toString());
-                                }
-                            }
-                        }
-                    }
-                } else { // have a file, add it to the various index TreeMaps
-                    addFileToMaps(iSmbFile.getPath(), iSmbFile.getName());
-                }
+    /**
+     * add a supported file to the file map and token index, an already
+     * indexed file at the same path is only replaced if its modification time
+     * or size have changed
+     *
+     * @param theRawFullFilePath String
+     * @param theRawFileName String
+     * @param theLastModified long - 0 if unknown
+     * @param theSize long
+     * @return boolean - does the newly added file need its ID3 metadata read?
+     */
+    protected synchronized boolean registerFile(String theRawFullFilePath, String theRawFileName,
+            long theLastModified, long theSize) {
+        if (!theContainerIsSupported(theRawFileName)) {
+            return false;
+        }
+
+        ZoneLibraryFileRecord aIndexedFileRecord = getBuildFileRecord(theRawFileName);
+        if (aIndexedFileRecord != null) {
+            if (!getRawFullPath(aIndexedFileRecord).equals(theRawFullFilePath)) {
+                return false; // same filename already indexed from elsewhere
             }
+            if ((theLastModified == 0) || ((aIndexedFileRecord.getLastModified() == theLastModified)
+                    && (aIndexedFileRecord.getSize() == theSize))) {
+                zli_SeenFileIdSet.set(aIndexedFileRecord.getFileId());
+                return false;
+            }
+            removeFileFromMaps(theRawFileName); // changed, so read it again
+        }
 
-            if (debugEventsOn) {
-                System.out.println("ZLI indexPath - done indexing " + thePathStr);
-            }
-        } else { // local filesytem
-            File dir = new File(thePathStr);
-            File[] files = dir.listFiles();
-            LinkedList<File> aFileLinkedList = new LinkedList<File>();
-            aFileLinkedList.addAll(Arrays.asList(files));
-
-            while (zli_isIndexScheduled && (aFileLinkedList.peek() != null)) {
-                File iFile = aFileLinkedList.removeFirst();
-
-                if (iFile.isDirectory()) { // recurse into directory during search
-                    File[] tempFileArray = iFile.listFiles();
-                    if (tempFileArray != null) {
-                        for (File tempFile : tempFileArray) {
-                            if (willPathRecurseToInf(iFile.getPath(), tempFile.getPath())) {
-                                if (debugEventsOn) {
-                                    System.err.println("ZLI indexPath - " + tempFile.getPath() + " will go to INF");
-                                }
-                            } else {
-                                aFileLinkedList.addFirst(tempFile);
+        ZoneLibraryFileRecord aFileRecord = addToTokens(theRawFileName);
+        aFileRecord.setDirId(zli_PathTrie.addFilePath(theRawFullFilePath, theRawFileName));
+        aFileRecord.setLastModified(theLastModified);
+        aFileRecord.setSize(theSize);
+        if (debugEventsOn) {
+            System.out.println("ZLI registerFile - added " + theRawFullFilePath);
+        }
 
-                                if (debugEventsOn) {
-                                    System.out.println("ZLI indexPath - will follow " + tempFile.getPath().toString());
-                                }
-                            }
-                        }
-                    }
-                } else { // have a file, add it to the file index map
-                    String tempFilePathStr = iFile.getAbsolutePath();
-                    if (tempFilePathStr.contains("\\")) {
-                        tempFilePathStr = tempFilePathStr.replaceAll("\\\\+", "/");
-                    }
+        return ((!MusicZones.getIsLowMem()) && (theContainerIsMp3(theRawFullFilePath)));
+    }
 
-                    addFileToMaps(tempFilePathStr, iFile.getName());
-                }
+    /**
+     * read the ID3 metadata of a file, done without holding the index lock
+     *
+     * @param theRawFullFilePath String
+     * @return ID3MetaData - null if the file has no readable tag
+     */
+    protected ID3MetaData readFileTags(String theRawFullFilePath) {
+        try {
+            return new ID3MetaData(theRawFullFilePath);
+        } catch (MalformedURLException ex) {
+            if (debugEventsOn) {
+                System.err.println(ex);
             }
-
+        } catch (ID3Exception ex) {
             if (debugEventsOn) {
-                System.out.println("ZLI indexPath - done indexing " + thePathStr);
+                System.err.println(ex);
             }
         }
+        return null;
     }
 
     /**
-     * actually add the file and its information to the various TreeMaps
+     * add the ID3 metadata of a registered file to the facets, ignored if the
+     * file has since been removed or replaced
      *
      * @param theRawFullFilePath String
      * @param theRawFileName String
+     * @param theID3MetaData ID3MetaData
      */
-    protected void addFileToMaps(String theRawFullFilePath, String theRawFileName) {
-        String aFullFilePathStr = null;
-        try {
-            aFullFilePathStr = URLEncoder.encode(theRawFullFilePath, "UTF-8");
-        } catch (UnsupportedEncodingException ex) {
-            System.err.println(ex);
-        }
-        if (aFullFilePathStr != null) {
-            if (theContainerIsSupported(aFullFilePathStr)) {
-                if (!zli_FileMap.containsKey(theRawFileName)) {
-                    zli_FileMap.put(theRawFileName, aFullFilePathStr);
-                    if (debugEventsOn) {
-                        System.out.println("ZLI addFileToMaps - added " + aFullFilePathStr);
-                    }
+    protected synchronized void addFileTags(String theRawFullFilePath, String theRawFileName,
+            ID3MetaData theID3MetaData) {
+        ZoneLibraryFileRecord aFileRecord = getBuildFileRecord(theRawFileName);
+        if ((aFileRecord == null) || (!getRawFullPath(aFileRecord).equals(theRawFullFilePath))) {
+            return;
+        }
 
-                    if ((!MusicZones.getIsLowMem()) && (theContainerIsMp3(theRawFullFilePath))) {
-                        ID3MetaData aID3MetaData = null;
-                        try {
-                            aID3MetaData = new ID3MetaData(theRawFullFilePath);
-                        } catch (MalformedURLException ex) {
-                            if (debugEventsOn) {
-                                System.err.println(ex);
-                            }
-                        } catch (ID3Exception ex) {
-                            if (debugEventsOn) {
-                                System.err.println(ex);
-                            }
-                        }
+        String aFieldAlbum = theID3MetaData.getAlbum();
+        if (aFieldAlbum != null) {
+            if (debugEventsOn) {
+                System.out.println("ZLI addFileTags - album = '" + aFieldAlbum + "'");
+            }
+            addToAlbum(theRawFileName, aFieldAlbum);
+        }
 
-                        if (aID3MetaData != null) {
-                            String aFieldAlbum = aID3MetaData.getAlbum();
-                            if (aFieldAlbum != null) {
-                                if (debugEventsOn) {
-                                    System.out.println("ZLI addFileToMaps - album = '" + aFieldAlbum + "'");
-                                }
-                                addToAlbum(theRawFileName, aFieldAlbum);
-                            }
+        List<String> aFieldArtistList = theID3MetaData.getArtistsAsList();
+        if (aFieldArtistList != null) {
+            addToArtist(theRawFileName, aFieldArtistList);
+        }
 
-                            List<String> aFieldArtistList = aID3MetaData.getArtistsAsList();
-                            if (aFieldArtistList != null) {
-                                addToArtist(theRawFileName, aFieldArtistList);
-                            }
+        String aFieldTitle = theID3MetaData.getTitle();
+        if (aFieldTitle != null) {
+            if (debugEventsOn) {
+                System.out.println("ZLI addFileTags - title = '" + aFieldTitle + "'");
+            }
+            addToTitle(theRawFileName, aFieldTitle);
+        }
 
-                            String aFieldTitle = aID3MetaData.getTitle();
-                            if (aFieldTitle != null) {
-                                if (debugEventsOn) {
-                                    System.out.println("ZLI addFileToMaps - title = '" + aFieldTitle + "'");
-                                }
-                                addToTitle(theRawFileName, aFieldTitle);
-                            }
+        ArrayList<String> aFieldGenresList = theID3MetaData.getGenresAsList();
+        if (aFieldGenresList != null) {
+            addToGenre(theRawFileName, aFieldGenresList);
+        }
+    }
 
-                            ArrayList<String> aFieldGenresList = aID3MetaData.getGenresAsList();
-                            if (aFieldGenresList != null) {
-                                addToGenre(theRawFileName, aFieldGenresList);
-                            }
-                        }
-                    }
+    /**
+     * add a file and its already known metadata to the maps without touching
+     * the file itself, used when replaying the on-disk snapshot
+     *
+     * @param theFileName String
+     * @param theDirId int - directory of the file in the path dictionary
+     * @param theTitle String
+     * @param theAlbum String
+     * @param theArtistList List<String>
+     * @param theGenreList List<String>
+     * @param theLastModified long
+     * @param theSize long
+     */
+    protected synchronized void loadFileRecord(String theFileName, int theDirId, String theTitle,
+            String theAlbum, List<String> theArtistList, List<String> theGenreList,
+            long theLastModified, long theSize) {
+        if (zli_FileNameTable.get(theFileName, zli_FileRecordList) >= 0) {
+            return;
+        }
+        ZoneLibraryFileRecord aFileRecord = addToTokens(theFileName);
+        aFileRecord.setDirId(theDirId);
+        aFileRecord.setLastModified(theLastModified);
+        aFileRecord.setSize(theSize);
+        zli_SeenFileIdSet.clear(aFileRecord.getFileId()); // not yet confirmed on the network
+
+        addToTitle(theFileName, theTitle);
+        addToAlbum(theFileName, theAlbum);
+        addToArtist(theFileName, theArtistList);
+        addToGenre(theFileName, new ArrayList<String>(theGenreList));
+    }
+
+    /**
+     * add a file of a snapshot fetched from the indexer zone, a file that is
+     * already indexed in the same directory with the same modification time
+     * and size keeps its record and file id, as it would in a crawl
+     *
+     * @param theFileName String
+     * @param theDirId int - directory of the file in the path dictionary
+     * @param theTitle String
+     * @param theAlbum String
+     * @param theArtistList List<String>
+     * @param theGenreList List<String>
+     * @param theLastModified long
+     * @param theSize long
+     */
+    protected synchronized void importFileRecord(String theFileName, int theDirId, String theTitle,
+            String theAlbum, List<String> theArtistList, List<String> theGenreList,
+            long theLastModified, long theSize) {
+        ZoneLibraryFileRecord aFileRecord = getBuildFileRecord(theFileName);
+        if (aFileRecord != null) {
+            if ((aFileRecord.getDirId() == theDirId) && (aFileRecord.getLastModified() == theLastModified)
+                    && (aFileRecord.getSize() == theSize)) {
+                zli_SeenFileIdSet.set(aFileRecord.getFileId());
+                return;
+            }
+            removeFileFromMaps(theFileName);
+        }
+        loadFileRecord(theFileName, theDirId, theTitle, theAlbum, theArtistList, theGenreList,
+                theLastModified, theSize);
+        zli_SeenFileIdSet.set(getBuildFileRecord(theFileName).getFileId());
+    }
+
+    /**
+     * add a cached directory listing replayed from the on-disk snapshot
+     *
+     * @param theDirRecord ZoneLibraryDirectoryRecord
+     */
+    protected synchronized void loadDirectoryRecord(ZoneLibraryDirectoryRecord theDirRecord) {
+        if (!zli_DirectoryMap.containsKey(theDirRecord.getPath())) {
+            zli_DirectoryMap.put(theDirRecord.getPath(), theDirRecord);
+        }
+    }
+
+    /**
+     * add a directory replayed from the on-disk snapshot to the path dictionary
+     *
+     * @param theParentId int
+     * @param theSegment String
+     * @return int - dir id in this index
+     */
+    protected synchronized int loadDirSegment(int theParentId, String theSegment) {
+        return zli_PathTrie.addChild(theParentId, theSegment);
+    }
+
+    /**
+     * look up the metadata record of a file in the index being built, the
+     * record may be shared with the published generation and must not be
+     * changed
+     *
+     * @param theFileName String
+     * @return ZoneLibraryFileRecord - null if the file is not indexed
+     */
+    protected synchronized ZoneLibraryFileRecord getBuildFileRecord(String theFileName) {
+        int aFileId = zli_FileNameTable.get(theFileName, zli_FileRecordList);
+        if (aFileId < 0) {
+            return null;
+        }
+        return zli_FileRecordList.get(aFileId);
+    }
+
+    /**
+     * look up the metadata record of a file in the index being built so it
+     * can be changed, copying it first if it is shared with the published
+     * generation
+     *
+     * @param theFileName String
+     * @return ZoneLibraryFileRecord - null if the file is not indexed
+     */
+    protected synchronized ZoneLibraryFileRecord getWritableFileRecord(String theFileName) {
+        int aFileId = zli_FileNameTable.get(theFileName, zli_FileRecordList);
+        if (aFileId < 0) {
+            return null;
+        }
+        ZoneLibraryFileRecord aFileRecord = zli_FileRecordList.get(aFileId);
+        if (!zli_DirtyFileIdSet.get(aFileId)) {
+            aFileRecord = aFileRecord.copy();
+            zli_FileRecordList.set(aFileId, aFileRecord);
+            zli_DirtyFileIdSet.set(aFileId);
+        }
+        return aFileRecord;
+    }
+
+    /**
+     * hand out the next file id and metadata record to the filename and add it
+     * to the posting list of every token in the filename
+     *
+     * @param theFileName String
+     * @return ZoneLibraryFileRecord - the new record
+     */
+    protected synchronized ZoneLibraryFileRecord addToTokens(String theFileName) {
+        int aFileId = zli_FileRecordList.size();
+        ZoneLibraryFileRecord returnFileRecord = new ZoneLibraryFileRecord(aFileId, theFileName);
+        zli_FileRecordList.add(returnFileRecord);
+        zli_FileNameTable.put(theFileName, aFileId, zli_FileRecordList);
+        zli_SeenFileIdSet.set(aFileId);
+        zli_DirtyFileIdSet.set(aFileId);
+
+        for (String aToken : tokenizeString(theFileName)) {
+            ZoneLibraryPostingList aPostingList = getWritablePostingList(aToken);
+            if (aPostingList == null) {
+                aPostingList = new ZoneLibraryPostingList(1);
+                zli_TokenMap.put(aToken, aPostingList);
+            }
+            aPostingList.add(aFileId);
+        }
+        return returnFileRecord;
+    }
+
+    /**
+     * posting lists handed to a generation are never changed again, so they
+     * are copied the first time their token changes afterwards
+     *
+     * @param theToken String
+     * @return ZoneLibraryPostingList - null if the token is not indexed
+     */
+    private ZoneLibraryPostingList getWritablePostingList(String theToken) {
+        ZoneLibraryPostingList aPostingList = zli_TokenMap.get(theToken);
+        if (zli_DirtyTokenSet.add(theToken) && (aPostingList != null)) {
+            aPostingList = aPostingList.copy();
+            zli_TokenMap.put(theToken, aPostingList);
+        }
+        return aPostingList;
+    }
+
+    /**
+     * remove the filename from the file map, the token index and the facets
+     *
+     * @param theFileName String
+     */
+    protected synchronized void removeFileFromMaps(String theFileName) {
+        int aFileId = zli_FileNameTable.remove(theFileName, zli_FileRecordList);
+        if (aFileId < 0) {
+            return;
+        }
+        ZoneLibraryFileRecord aFileRecord = zli_FileRecordList.set(aFileId, null);
+        zli_DirtyFileIdSet.set(aFileId);
+        if (aFileRecord != null) {
+            if (aFileRecord.getTitle() != null) {
+                zli_TitleFacet.remove(aFileRecord.getTitle(), aFileId);
+            }
+            if (aFileRecord.getAlbum() != null) {
+                zli_AlbumFacet.remove(aFileRecord.getAlbum(), aFileId);
+            }
+            for (String aArtist : aFileRecord.getArtistList()) {
+                zli_ArtistFacet.remove(aArtist, aFileId);
+            }
+            for (String aGenre : aFileRecord.getGenreList()) {
+                zli_GenreFacet.remove(aGenre, aFileId);
+            }
+        }
+        for (String aToken : tokenizeString(theFileName)) {
+            if (zli_TokenMap.containsKey(aToken)) {
+                ZoneLibraryPostingList aPostingList = getWritablePostingList(aToken);
+                aPostingList.remove(aFileId);
+                if (aPostingList.isEmpty()) {
+                    zli_TokenMap.remove(aToken);
                 }
             }
         }
@@ -527,27 +986,19 @@ public class ZoneLibraryIndex {
      * @param theFileName String
      * @param theAlbumTitle String
      */
-    protected void addToAlbum(String theFileName, String theAlbumTitle) {
-        if ((theFileName == null) || (theAlbumTitle == null)) {
+    protected synchronized void addToAlbum(String theFileName, String theAlbumTitle) {
+        if (theAlbumTitle == null) {
+            return;
+        }
+        ZoneLibraryFileRecord aFileRecord = getWritableFileRecord(theFileName);
+        if (aFileRecord == null) {
             return;
         }
 
         if (theAlbumTitle.equals("")) {
             theAlbumTitle = "Unknown";
         }
-        if (zli_AlbumMap.containsKey(theAlbumTitle)) {
-            if (zli_AlbumMap.get(theAlbumTitle) == null) {
-                LinkedList<String> aFileNameLL = new LinkedList<String>();
-                aFileNameLL.add(theFileName);
-                zli_AlbumMap.put(theAlbumTitle, aFileNameLL);
-            } else {
-                zli_AlbumMap.get(theAlbumTitle).add(theFileName);
-            }
-        } else {
-            LinkedList<String> aFileNameLL = new LinkedList<String>();
-            aFileNameLL.add(theFileName);
-            zli_AlbumMap.put(theAlbumTitle, aFileNameLL);
-        }
+        aFileRecord.setAlbum(zli_AlbumFacet.add(theAlbumTitle, aFileRecord.getFileId()));
     }
 
     /**
@@ -556,25 +1007,17 @@ public class ZoneLibraryIndex {
      * @param theFileName String
      * @param theArtistNameList List<String>
      */
-    protected void addToArtist(String theFileName, List<String> theArtistNameList) {
-        if ((theFileName == null) || (theArtistNameList == null)) {
+    protected synchronized void addToArtist(String theFileName, List<String> theArtistNameList) {
+        if (theArtistNameList == null) {
+            return;
+        }
+        ZoneLibraryFileRecord aFileRecord = getWritableFileRecord(theFileName);
+        if (aFileRecord == null) {
             return;
         }
 
         for (String theArtistName : theArtistNameList) {
-            if (zli_ArtistMap.containsKey(theArtistName)) {
-                if (zli_ArtistMap.get(theArtistName) == null) {
-                    LinkedList<String> aFileNameLL = new LinkedList<String>();
-                    aFileNameLL.add(theFileName);
-                    zli_ArtistMap.put(theArtistName, aFileNameLL);
-                } else {
-                    zli_ArtistMap.get(theArtistName).add(theFileName);
-                }
-            } else {
-                LinkedList<String> aFileNameLL = new LinkedList<String>();
-                aFileNameLL.add(theFileName);
-                zli_ArtistMap.put(theArtistName, aFileNameLL);
-            }
+            aFileRecord.addArtist(zli_ArtistFacet.add(theArtistName, aFileRecord.getFileId()));
         }
     }
 
@@ -584,8 +1027,12 @@ public class ZoneLibraryIndex {
      * @param theFileName String
      * @param theGenreList ArrayList<String>
      */
-    protected void addToGenre(String theFileName, ArrayList<String> theGenreList) {
-        if ((theFileName == null) || (theGenreList == null)) {
+    protected synchronized void addToGenre(String theFileName, ArrayList<String> theGenreList) {
+        if (theGenreList == null) {
+            return;
+        }
+        ZoneLibraryFileRecord aFileRecord = getWritableFileRecord(theFileName);
+        if (aFileRecord == null) {
             return;
         }
 
@@ -596,19 +1043,7 @@ public class ZoneLibraryIndex {
             if (aGenre.equals("")) {
                 aGenre = "Unknown";
             }
-            if (zli_GenreMap.containsKey(aGenre)) {
-                if (zli_GenreMap.get(aGenre) == null) {
-                    LinkedList<String> aFileNameLL = new LinkedList<String>();
-                    aFileNameLL.add(theFileName);
-                    zli_GenreMap.put(aGenre, aFileNameLL);
-                } else {
-                    zli_GenreMap.get(aGenre).add(theFileName);
-                }
-            } else {
-                LinkedList<String> aFileNameLL = new LinkedList<String>();
-                aFileNameLL.add(theFileName);
-                zli_GenreMap.put(aGenre, aFileNameLL);
-            }
+            aFileRecord.addGenre(zli_GenreFacet.add(aGenre, aFileRecord.getFileId()));
         }
     }
 
@@ -618,24 +1053,16 @@ public class ZoneLibraryIndex {
      * @param theFileName String
      * @param theSongTitle String
      */
-    protected void addToTitle(String theFileName, String theSongTitle) {
-        if ((theFileName == null) || (theSongTitle == null)) {
+    protected synchronized void addToTitle(String theFileName, String theSongTitle) {
+        if (theSongTitle == null) {
             return;
         }
-
-        if (zli_TitleMap.containsKey(theSongTitle)) {
-            if (zli_TitleMap.get(theSongTitle) == null) {
-                LinkedList<String> aFileNameLL = new LinkedList<String>();
-                aFileNameLL.add(theFileName);
-                zli_TitleMap.put(theSongTitle, aFileNameLL);
-            } else {
-                zli_TitleMap.get(theSongTitle).add(theFileName);
-            }
-        } else {
-            LinkedList<String> aFileNameLL = new LinkedList<String>();
-            aFileNameLL.add(theFileName);
-            zli_TitleMap.put(theSongTitle, aFileNameLL);
+        ZoneLibraryFileRecord aFileRecord = getWritableFileRecord(theFileName);
+        if (aFileRecord == null) {
+            return;
         }
+
+        aFileRecord.setTitle(zli_TitleFacet.add(theSongTitle, aFileRecord.getFileId()));
     }
 
     /**
@@ -643,98 +1070,207 @@ public class ZoneLibraryIndex {
      *
      * @param thePathStr String
      */
-    protected void removePath(String thePathStr) {
+    protected synchronized void removePath(String thePathStr) {
         thePathStr = thePathStr.toLowerCase(Locale.ENGLISH);
-        try {
-            thePathStr = URLEncoder.encode(thePathStr, "UTF-8");
-        } catch (UnsupportedEncodingException ex) {
-            if (debugEventsOn) {
-                System.err.println(ex);
-                return;
-            }
-        }
 
-        for (Entry<String, String> aTempEntry : zli_FileMap.entrySet()) {
-            String aTempFullFilePath = aTempEntry.getValue();
+        ArrayList<String> aRemoveFileNameList = new ArrayList<String>();
+        for (ZoneLibraryFileRecord aFileRecord : zli_FileRecordList) {
+            if (aFileRecord == null) {
+                continue;
+            }
+            String aTempFullFilePath = getRawFullPath(aFileRecord);
             if (aTempFullFilePath.contains(thePathStr)) {
-                zli_FileMap.remove(aTempEntry.getKey());
+                aRemoveFileNameList.add(aFileRecord.getFileName());
 
                 if (debugEventsOn) {
                     System.out.println("ZLI removePath - removed " + aTempFullFilePath);
                 }
             }
         }
+        for (String aRemoveFileName : aRemoveFileNameList) {
+            removeFileFromMaps(aRemoveFileName);
+        }
+        publishGeneration();
     }
 
     /**
-     * remove all indexed media that does not have an online host
+     * remove all indexed CIFS media that does not have an online host
      *
      * @param theHostList LinkedList<SmbFile>
      */
-    protected void removeOffline(LinkedList<SmbFile> theHostList) {
-        if ((theHostList == null) || (zli_FileMap == null)) {
+    protected synchronized void removeOffline(LinkedList<SmbFile> theHostList) {
+        if (theHostList == null) {
             return;
         }
+        String aSmbPrefix = FileSystemType.smb.toString().concat(ZoneServerUtility.prefixUriStr);
+
+        // decide once per directory rather than once per file
+        BitSet aCheckedDirIdSet = new BitSet();
+        BitSet aOfflineDirIdSet = new BitSet();
+        ArrayList<String> aRemoveFileNameList = new ArrayList<String>();
+        for (ZoneLibraryFileRecord aFileRecord : zli_FileRecordList) {
+            if ((aFileRecord == null) || (aFileRecord.getDirId() == ZoneLibraryPathTrie.kNoDirId)) {
+                continue;
+            }
+            int aDirId = aFileRecord.getDirId();
+            if (!aCheckedDirIdSet.get(aDirId)) {
+                aCheckedDirIdSet.set(aDirId);
+                String aDirPath = zli_PathTrie.getDirPath(aDirId);
+                if (aDirPath.startsWith(aSmbPrefix)) { // only CIFS files can go offline
+                    boolean aKeepDir = false;
+                    for (SmbFile aServerSmbFile : theHostList) {
+                        if (aDirPath.startsWith(aServerSmbFile.toString())) {
+                            aKeepDir = true;
+                            break;
+                        }
+                    }
+                    if (!aKeepDir) {
+                        aOfflineDirIdSet.set(aDirId);
+                    }
+                }
+            }
+
+            if (aOfflineDirIdSet.get(aDirId)) {
+                aRemoveFileNameList.add(aFileRecord.getFileName());
 
-        Iterator<SmbFile> aServerSmbFileIter = theHostList.iterator();
-        while (aServerSmbFileIter.hasNext()) {
-            SmbFile aServerSmbFile = aServerSmbFileIter.next();
-            String aServerStrEncoded;
-            try {
-                aServerStrEncoded = URLEncoder.encode(aServerSmbFile.toString(), "UTF-8");
-            } catch (UnsupportedEncodingException ex) {
                 if (debugEventsOn) {
-                    System.err.println(ex);
+                    System.out.println("ZLI removeOffline - removed " + getRawFullPath(aFileRecord));
                 }
-                continue;
             }
+        }
+        for (String aRemoveFileName : aRemoveFileNameList) {
+            removeFileFromMaps(aRemoveFileName);
+        }
 
-            boolean aKeepFile = false;
+        // cached listings of offline hosts are stale as well
+        Iterator<String> aDirPathIter = zli_DirectoryMap.keySet().iterator();
+        while (aDirPathIter.hasNext()) {
+            String aDirPath = aDirPathIter.next();
+            if (!aDirPath.startsWith(aSmbPrefix)) {
+                continue;
+            }
 
-            for (Entry<String, String> aTempEntry : zli_FileMap.entrySet()) {
-                String aTempFullFilePath = aTempEntry.getValue();
-                if (aTempFullFilePath.contains(aServerStrEncoded)) {
-                    aKeepFile = true;
+            boolean aKeepDir = false;
+            for (SmbFile aServerSmbFile : theHostList) {
+                if (aDirPath.startsWith(aServerSmbFile.toString())) {
+                    aKeepDir = true;
+                    break;
                 }
-                if (!aKeepFile) {
-                    zli_FileMap.remove(aTempEntry.getKey());
+            }
+            if (!aKeepDir) {
+                aDirPathIter.remove();
+            }
+        }
+        publishGeneration();
+    }
+
+    /**
+     * remove every file and cached directory listing under the given
+     * completely indexed paths that was not found again during the current
+     * build, reconciling a loaded snapshot against what is actually on the
+     * network
+     *
+     * @param theIndexedPathList List<String> - raw paths that were fully listed
+     */
+    protected synchronized void removeUnseen(List<String> theIndexedPathList) {
+        ArrayList<String> aRemoveFileNameList = new ArrayList<String>();
+        for (ZoneLibraryFileRecord aFileRecord : zli_FileRecordList) {
+            if ((aFileRecord == null) || zli_SeenFileIdSet.get(aFileRecord.getFileId())) {
+                continue;
+            }
+            String aTempFullFilePath = getRawFullPath(aFileRecord);
+            for (String aIndexedPath : theIndexedPathList) {
+                if (aTempFullFilePath.startsWith(aIndexedPath)) {
+                    aRemoveFileNameList.add(aFileRecord.getFileName());
 
                     if (debugEventsOn) {
-                        System.out.println("ZLI removeOffline - removed " + aTempFullFilePath);
+                        System.out.println("ZLI removeUnseen - removed " + aTempFullFilePath);
                     }
+                    break;
+                }
+            }
+        }
+        for (String aRemoveFileName : aRemoveFileNameList) {
+            removeFileFromMaps(aRemoveFileName);
+        }
+
+        // as well as the cached listings of directories that have gone away
+        Iterator<ZoneLibraryDirectoryRecord> aDirRecordIter = zli_DirectoryMap.values().iterator();
+        while (aDirRecordIter.hasNext()) {
+            ZoneLibraryDirectoryRecord aDirRecord = aDirRecordIter.next();
+            if (aDirRecord.getLastSeenBuild() == zli_BuildCount) {
+                continue;
+            }
+            for (String aIndexedPath : theIndexedPathList) {
+                if (aDirRecord.getPath().startsWith(aIndexedPath)) {
+                    aDirRecordIter.remove();
+                    break;
                 }
             }
         }
+        publishGeneration();
     }
 
     /**
-     * function to see if the given string matches (all or any) of the keyword
-     * array strings returns true if no keywords are given
+     * replay the on-disk snapshot into the index and publish it, only done
+     * once per run
+     */
+    protected void loadSnapshot() {
+        if (zli_isSnapshotLoaded) {
+            return;
+        }
+        zli_isSnapshotLoaded = true;
+
+        long aStartMillis = System.currentTimeMillis();
+        int aLoadedCount = zli_Snapshot.load(this);
+        if (aLoadedCount >= 0) {
+            publishGeneration();
+            System.out.println("ZLI loadSnapshot - " + aLoadedCount + " files loaded in "
+                    + (System.currentTimeMillis() - aStartMillis) + " ms");
+        }
+    }
+
+    /**
+     * make the index a copy of the one of the indexer zone, if another zone
+     * is the indexer
      *
-     * @param theString String
-     * @param theKeywords String[]
-     * @param matchAllKeywords boolean
-     * @return boolean - did theString match the keywords appropriately?
+     * @return boolean - is another zone the indexer and reachable? if not
+     * this zone has to crawl on its own
      */
-    public boolean stringMatchesKeywords(String theString, String[] theKeywords, boolean matchAllKeywords) {
-        if ((theString == null) || (theKeywords == null)) {
-            return true;
-        } else {
-            theString = theString.toLowerCase(Locale.ENGLISH);
-            boolean matchOneKeywordBoolean = false;
-            for (String aKeyword : theKeywords) {
-                aKeyword = aKeyword.toLowerCase(Locale.ENGLISH);
-                if ((matchAllKeywords) && (!theString.contains(aKeyword))) {
-                    return false;
-                } else if (theString.contains(aKeyword)) {
-                    matchOneKeywordBoolean = true;
-                }
-            }
-            if ((!matchAllKeywords) && (!matchOneKeywordBoolean)) {
-                return false;
-            }
+    protected boolean syncFromIndexer() {
+        ZoneLibraryFederation.Lease aIndexer = ZoneLibraryFederation.getInstance().getIndexer();
+        if (aIndexer == null) {
+            return false; // this zone is the indexer
+        }
+
+        File aFetchedFile = new File(zli_Snapshot.getSnapshotFile().getPath() + ".fetched");
+        int aStatus = ZoneLibraryFederation.getInstance().fetchSnapshot(aIndexer, aFetchedFile);
+        if (aStatus == HttpURLConnection.HTTP_NOT_MODIFIED) {
             return true;
+        } else if (aStatus == HttpURLConnection.HTTP_UNAVAILABLE) {
+            System.out.println("ZLI syncFromIndexer - " + aIndexer.getZoneName() + " has not built its index yet");
+            return true; // the indexer is crawling, fetched once it is done
+        } else if (aStatus != HttpURLConnection.HTTP_OK) {
+            System.err.println("ZLI syncFromIndexer - " + aIndexer.getZoneName() + " answered " + aStatus);
+            return false;
+        }
+
+        long aStartMillis = System.currentTimeMillis();
+        zli_SeenFileIdSet.clear();
+        zli_BuildCount++;
+        int aLoadedCount = new ZoneLibrarySnapshot(aFetchedFile, debugEventsOn).load(this, true);
+        aFetchedFile.delete();
+        if (aLoadedCount < 0) {
+            ZoneLibraryFederation.getInstance().forgetSnapshot(); // fetch it whole again next time, the index is as it was
+            return false;
+        }
+        removeUnseen(Collections.singletonList("")); // whatever the indexer does not have any more
+        synchronized (this) {
+            zli_Snapshot.write(this);
         }
+        System.out.println("ZLI syncFromIndexer - " + aLoadedCount + " files from " + aIndexer.getZoneName()
+                + " in " + (System.currentTimeMillis() - aStartMillis) + " ms");
+        return true;
     }
 
     /**
@@ -798,20 +1334,56 @@ public class ZoneLibraryIndex {
     }
 
     /**
-     * check if netbios-ssn (TCP 139) is open on machine
+     * get the IPv4 range to scan for SMB hosts, the configured CIDR range or
+     * else the scan min/max last octets on the subnet of the zone
      *
-     * @param theValidIPv4Addr String
-     * @return boolean - does host possibly have Samba shares?
+     * @return long[] - first and last address, null if no range can be built
      */
-    protected boolean isPossibleSambaHost(String theValidIPv4Addr) {
-        InetSocketAddress aTestInetSocketAddress = new InetSocketAddress(theValidIPv4Addr, 139);
-        Socket aTestSocket = new Socket();
-        try {
-            aTestSocket.connect(aTestInetSocketAddress, 100); // milliseconds
-            aTestSocket.close();
-            return true;
-        } catch (Exception ex) {
-            return false; // socket not open
+    protected long[] getScanRange() {
+        if (zli_ScanCIDRStr != null) {
+            long[] aScanRange = SambaHostScanner.parseCIDR(zli_ScanCIDRStr);
+            if (aScanRange == null) {
+                System.err.println("ZLI getScanRange - " + zli_ScanCIDRStr + " is not a range of a /"
+                        + SambaHostScanner.kMinCIDRPrefixLength + " or narrower");
+            }
+            return aScanRange;
+        }
+
+        String zoneIPv4Addr = Layer3Info.getInstance().getValidIPAddress(IpAddressType.IPv4).trim();
+        String[] zoneIPv4AddrOctets = zoneIPv4Addr.split("\\.");
+        if (zoneIPv4AddrOctets.length != 4) {
+            System.err.println("ZLI getScanRange - unable to build subnet "
+                    + "prefix for scanning - got "
+                    + zoneIPv4AddrOctets.length + " octets");
+            return null;
+        }
+        String aValidIPv4Prefix = zoneIPv4AddrOctets[0] + "."
+                + zoneIPv4AddrOctets[1] + "."
+                + zoneIPv4AddrOctets[2] + ".";
+        long aFirstAddr = SambaHostScanner.parseIPv4(aValidIPv4Prefix + zli_IPv4ScanMin);
+        long aLastAddr = SambaHostScanner.parseIPv4(aValidIPv4Prefix + zli_IPv4ScanMax);
+        if ((aFirstAddr < 0) || (aLastAddr < 0)) {
+            return null;
+        }
+        return new long[]{aFirstAddr, aLastAddr};
+    }
+
+    /**
+     * private timed task that keeps the index of a zone that is not the
+     * indexer up to date between builds
+     */
+    private class SyncFromIndexerTask extends TimerTask {
+
+        @Override
+        public void run() {
+            if (!zli_isBuilding.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                syncFromIndexer();
+            } finally {
+                zli_isBuilding.set(false);
+            }
         }
     }
 
@@ -824,16 +1396,41 @@ public class ZoneLibraryIndex {
 
         private String kSmbPrefix = "smb://";
 
-        @SuppressWarnings("unused") // "aWorkGroupSmbFile == null" is not dead code
         @Override
         public void run() {
-            if (getIndexIsBuilding()) {
-                return; // stop if index is already building
-            } else {
-                setIndexIsBuilding(true);
+            build();
+        }
+
+        /**
+         * @return boolean - did the build run? false if another one was
+         * already building
+         */
+        protected boolean build() {
+            if (!zli_isBuilding.compareAndSet(false, true)) {
+                return false; // stop if index is already building
+            }
+            try {
+                refresh();
+            } finally { // a failed build must not block every later one
+                zli_isBuilding.set(false);
+            }
+            return true;
+        }
+
+        @SuppressWarnings("unused") // "aWorkGroupSmbFile == null" is not dead code
+        private void refresh() {
+            // make the last known library searchable before touching the network
+            loadSnapshot();
+            if (syncFromIndexer()) {
+                return; // another zone crawls for the whole LAN
             }
+            zli_SeenFileIdSet.clear();
+            zli_BuildCount++;
 
-            LinkedList<SmbFile> aHostList = new LinkedList<SmbFile>();
+            // hosts are crawled as soon as they are found
+            final LinkedList<SmbFile> aHostList = new LinkedList<SmbFile>();
+            final ZoneLibraryCrawler aCrawler = new ZoneLibraryCrawler(ZoneLibraryIndex.this,
+                    zli_CrawlThreadCount, debugEventsOn);
 
             // query CIFS master browser for any workgroups
             String[] aWorkGroupArray = null;
@@ -861,12 +1458,8 @@ public class ZoneLibraryIndex {
                     } catch (MalformedURLException ex) {
                         System.err.println(ex);
                     }
-                    if ((aServerSmbFile != null) && (!aHostList.contains(aServerSmbFile))) {
-                        aHostList.add(aServerSmbFile);
-
-                        if (debugEventsOn) {
-                            System.out.println("ZLI RefreshSearchIndexTask - added " + aServerSmbFile.toString() + " to host cache");
-                        }
+                    if (aServerSmbFile != null) {
+                        addHost(aServerSmbFile, aHostList, aCrawler);
                     }
                 }
             }
@@ -919,100 +1512,71 @@ public class ZoneLibraryIndex {
                                 }
                             }
 
-                            if (!aHostList.contains(aServerSmbFile)) {
-                                aHostList.add(aServerSmbFile);
-
-                                if (debugEventsOn) {
-                                    System.out.println("ZLI RefreshSearchIndexTask - added " + aServerSmbFile.toString() + " to host cache");
-                                }
-                            }
+                            addHost(aServerSmbFile, aHostList, aCrawler);
                         }
                     }
                 }
             }
 
-            // scrape subnet for servers if none found with master browser
-            if (MusicZones.getIsOnline() && (aHostList.isEmpty())) {
-                System.err.println("ZLI RefreshSearchIndexTask - no workgroups found");
-                String zoneIPv4Addr = Layer3Info.getInstance().getValidIPAddress(IpAddressType.IPv4).trim();
-                System.out.println("ZLI RefreshSearchIndexTask - " + zoneIPv4Addr + " will now scrape subnet ...");
-                String[] zoneIPv4AddrOctets = zoneIPv4Addr.split("\\.");
-                if (zoneIPv4AddrOctets.length == 4) {
-                    String aValidIPv4Prefix = zoneIPv4AddrOctets[0] + "."
-                            + zoneIPv4AddrOctets[1] + "."
-                            + zoneIPv4AddrOctets[2] + ".";
-                    for (int i = zli_IPv4ScanMin; i <= zli_IPv4ScanMax; i++) {
-                        String aNewValidIPv4Addr = aValidIPv4Prefix + String.valueOf(i);
-
-                        if (isPossibleSambaHost(aNewValidIPv4Addr)) {
-                            // if TCP 139 is active then add to host list
-                            SmbFile aServerSmbFile = null;
+            // scan for servers if none found with master browser, or if a range was given
+            if (MusicZones.getIsOnline() && (aHostList.isEmpty() || (zli_ScanCIDRStr != null))) {
+                if (aHostList.isEmpty()) {
+                    System.err.println("ZLI RefreshSearchIndexTask - no workgroups found");
+                }
+                long[] aScanRange = getScanRange();
+                if (aScanRange != null) {
+                    System.out.println("ZLI RefreshSearchIndexTask - will now scan "
+                            + SambaHostScanner.formatIPv4(aScanRange[0]) + " - "
+                            + SambaHostScanner.formatIPv4(aScanRange[1]) + " ...");
+                    SambaHostScanner aScanner = new SambaHostScanner(zli_ScanProbesPerSecond,
+                            SambaHostScanner.kDefaultConnectTimeoutMillis, debugEventsOn);
+                    aScanner.scan(aScanRange[0], aScanRange[1], new SambaHostScanner.HostListener() {
+
+                        @Override
+                        public void hostFound(String theIPv4Addr) {
+                            // if TCP 139 or 445 is active then add to host list
                             try {
-                                aServerSmbFile = new SmbFile(kSmbPrefix + aNewValidIPv4Addr + "/");
+                                addHost(new SmbFile(kSmbPrefix + theIPv4Addr + "/"), aHostList, aCrawler);
                             } catch (MalformedURLException ex) {
                                 System.err.println(ex);
                             }
-                            if ((aServerSmbFile != null) && (!aHostList.contains(aServerSmbFile))) {
-                                aHostList.add(aServerSmbFile);
-
-                                if (debugEventsOn) {
-                                    System.out.println("ZLI RefreshSearchIndexTask - added " + aServerSmbFile.toString() + " to host cache");
-                                }
-                            }
                         }
-                    }
-                    System.out.println("ZLI RefreshSearchIndexTask - subnet scraping done");
-                } else {
-                    System.err.println("ZLI RefreshSearchIndexTask - unable to build subnet "
-                            + "prefix for scraping - got "
-                            + zoneIPv4AddrOctets.length + " octets");
+                    });
+                    System.out.println("ZLI RefreshSearchIndexTask - subnet scanning done");
                 }
             }
 
             // remove all indexed media that does not have an online host
             removeOffline(aHostList);
 
-            // spider all open shares on indexed servers for media
-            Iterator<SmbFile> aServerSmbFileIter = aHostList.iterator();
-            while (aServerSmbFileIter.hasNext()) {
-                SmbFile aServerSmbFile = aServerSmbFileIter.next();
-
-                // malformed fast scanning of TCP 139 earlier causes RST here,
-                // needed retry after timeout
-                String[] aSharePathArray = null;
-                int aRetryCnt = 0;
-                int aMaxRetryCnt = 3;
-                while ((aRetryCnt < aMaxRetryCnt) && (aSharePathArray == null)) {
-                    if (debugEventsOn) {
-                        System.out.println("ZLI RefreshSearchIndexTask - will "
-                                + "now connect to " + aServerSmbFile.toString()
-                                + " try #" + (aRetryCnt + 1));
-                    }
-                    try {
-                        aSharePathArray = aServerSmbFile.list();
-                    } catch (SmbException ex) {
-                        System.err.println(ex);
-                    }
-                    aRetryCnt++;
-                }
+            // wait for the crawl of every open share on the found servers
+            List<String> aIndexedSharePathList = aCrawler.awaitCompletion();
 
-                if (aSharePathArray == null) {
-                    continue;
-                } else {
-                    for (String aSharePath : aSharePathArray) {
-                        aSharePath = aSharePath.toLowerCase(Locale.ENGLISH);
-                        if (!thePathIsBlackListed(aSharePath)) {
-                            if (!aSharePath.endsWith("/")) {
-                                aSharePath = aSharePath + "/";
-                            }
-                            indexPath(aServerSmbFile.toString() + aSharePath);
-                        }
-                    }
-                }
+            // drop files that have gone away from shares that were fully listed
+            removeUnseen(aIndexedSharePathList);
+            getGeneration().getSearch(); // build the ranked search index before the first search needs it
+            synchronized (ZoneLibraryIndex.this) {
+                zli_Snapshot.write(ZoneLibraryIndex.this);
             }
+        }
+
+        /**
+         * add a server to the host list and start crawling its shares
+         *
+         * @param theServerSmbFile SmbFile
+         * @param theHostList LinkedList<SmbFile>
+         * @param theCrawler ZoneLibraryCrawler
+         */
+        private void addHost(SmbFile theServerSmbFile, LinkedList<SmbFile> theHostList,
+                ZoneLibraryCrawler theCrawler) {
+            if (!theHostList.contains(theServerSmbFile)) {
+                theHostList.add(theServerSmbFile);
+                theCrawler.addHost(theServerSmbFile);
 
-            // done building index
-            setIndexIsBuilding(false);
+                if (debugEventsOn) {
+                    System.out.println("ZLI RefreshSearchIndexTask - added " + theServerSmbFile.toString() + " to host cache");
+                }
+            }
         }
     }
 }
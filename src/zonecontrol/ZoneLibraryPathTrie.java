@@ -0,0 +1,175 @@
+/*
+ * shared prefix dictionary of the directories holding indexed files - every
+ * directory is one node that only stores its own path segment and the id of
+ * its parent, so a share or directory name is kept once no matter how many
+ * files sit below it (share -> dir -> file)
+ */
+package zonecontrol;
+
+import java.util.HashMap;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryPathTrie {
+
+    public static final int kNoDirId = -1;
+    private int[] zlpt_ParentIdArray = null; //<dir id, parent dir id>
+    private String[] zlpt_SegmentArray = null; //<dir id, path segment including its trailing separator>
+    private int zlpt_DirCount = 0;
+    private HashMap<String, Integer> zlpt_ChildIdMap = null; //<parent dir id + "/" + segment, dir id> - null once published
+    private ZoneLibraryPathTrie zlpt_Published = null;
+
+    public ZoneLibraryPathTrie() {
+        zlpt_ParentIdArray = new int[64];
+        zlpt_SegmentArray = new String[64];
+        zlpt_ChildIdMap = new HashMap<String, Integer>();
+    }
+
+    private ZoneLibraryPathTrie(int[] theParentIdArray, String[] theSegmentArray, int theDirCount) {
+        zlpt_ParentIdArray = theParentIdArray;
+        zlpt_SegmentArray = theSegmentArray;
+        zlpt_DirCount = theDirCount;
+    }
+
+    /**
+     * @return int - number of directories in the dictionary
+     */
+    public int getDirCount() {
+        return zlpt_DirCount;
+    }
+
+    /**
+     * @param theDirId int
+     * @return int - parent directory id, kNoDirId for a root
+     */
+    public int getParentId(int theDirId) {
+        return zlpt_ParentIdArray[theDirId];
+    }
+
+    /**
+     * @param theDirId int
+     * @return String - last path segment of the directory, including its separator
+     */
+    public String getSegment(int theDirId) {
+        return zlpt_SegmentArray[theDirId];
+    }
+
+    /**
+     * get the id of a directory, adding it and any missing parent directories
+     * to the dictionary
+     *
+     * @param theDirPath String - raw directory path, ending with its separator
+     * @return int - dir id
+     */
+    public int addDirPath(String theDirPath) {
+        int aDirId = kNoDirId;
+        int aSegmentStart = 0;
+        for (int i = 0; i < theDirPath.length(); i++) {
+            char aChar = theDirPath.charAt(i);
+            if ((aChar == '/') || (aChar == '\\') || (i == (theDirPath.length() - 1))) {
+                aDirId = addChild(aDirId, theDirPath.substring(aSegmentStart, i + 1));
+                aSegmentStart = i + 1;
+            }
+        }
+        return aDirId;
+    }
+
+    /**
+     * get the id of the directory holding a file, adding it to the dictionary
+     *
+     * @param theFullFilePath String - raw full path of the file
+     * @param theFileName String - name of the file, the last part of the path
+     * @return int - dir id, kNoDirId if the path has no directory part
+     */
+    public int addFilePath(String theFullFilePath, String theFileName) {
+        if ((!theFullFilePath.endsWith(theFileName)) || (theFullFilePath.length() == theFileName.length())) {
+            return kNoDirId;
+        }
+        return addDirPath(theFullFilePath.substring(0, theFullFilePath.length() - theFileName.length()));
+    }
+
+    /**
+     * get the id of a child directory, adding it to the dictionary
+     *
+     * @param theParentId int - kNoDirId for a root
+     * @param theSegment String - path segment including its trailing separator
+     * @return int - dir id
+     */
+    public int addChild(int theParentId, String theSegment) {
+        String aChildKey = theParentId + "/" + theSegment;
+        Integer aDirId = zlpt_ChildIdMap.get(aChildKey);
+        if (aDirId != null) {
+            return aDirId;
+        }
+
+        if (zlpt_DirCount == zlpt_ParentIdArray.length) {
+            int[] aParentIdArray = new int[zlpt_DirCount * 2];
+            System.arraycopy(zlpt_ParentIdArray, 0, aParentIdArray, 0, zlpt_DirCount);
+            zlpt_ParentIdArray = aParentIdArray;
+            String[] aSegmentArray = new String[zlpt_DirCount * 2];
+            System.arraycopy(zlpt_SegmentArray, 0, aSegmentArray, 0, zlpt_DirCount);
+            zlpt_SegmentArray = aSegmentArray;
+        }
+        zlpt_ParentIdArray[zlpt_DirCount] = theParentId;
+        zlpt_SegmentArray[zlpt_DirCount] = new String(theSegment); // do not hold on to the whole path
+        zlpt_ChildIdMap.put(aChildKey, zlpt_DirCount);
+        zlpt_DirCount++;
+        return (zlpt_DirCount - 1);
+    }
+
+    /**
+     * rebuild the raw path of a directory from its segments
+     *
+     * @param theDirId int
+     * @return String - raw directory path, "" for kNoDirId
+     */
+    public String getDirPath(int theDirId) {
+        if (theDirId == kNoDirId) {
+            return "";
+        }
+        StringBuilder aPathBuilder = new StringBuilder();
+        appendDirPath(theDirId, aPathBuilder);
+        return aPathBuilder.toString();
+    }
+
+    /**
+     * @param theDirId int
+     * @param theFileName String
+     * @return String - raw full path of a file in the directory
+     */
+    public String getFilePath(int theDirId, String theFileName) {
+        StringBuilder aPathBuilder = new StringBuilder();
+        if (theDirId != kNoDirId) {
+            appendDirPath(theDirId, aPathBuilder);
+        }
+        return aPathBuilder.append(theFileName).toString();
+    }
+
+    private void appendDirPath(int theDirId, StringBuilder thePathBuilder) {
+        int aParentId = zlpt_ParentIdArray[theDirId];
+        if (aParentId != kNoDirId) {
+            appendDirPath(aParentId, thePathBuilder);
+        }
+        thePathBuilder.append(zlpt_SegmentArray[theDirId]);
+    }
+
+    /**
+     * make a copy of the dictionary that is never changed again, directories
+     * are only ever added so the copy keeps every id valid
+     *
+     * @return ZoneLibraryPathTrie - can rebuild paths but not add them
+     */
+    public ZoneLibraryPathTrie publish() {
+        if ((zlpt_Published != null) && (zlpt_Published.zlpt_DirCount == zlpt_DirCount)) {
+            return zlpt_Published;
+        }
+
+        int[] aParentIdArray = new int[zlpt_DirCount];
+        System.arraycopy(zlpt_ParentIdArray, 0, aParentIdArray, 0, zlpt_DirCount);
+        String[] aSegmentArray = new String[zlpt_DirCount];
+        System.arraycopy(zlpt_SegmentArray, 0, aSegmentArray, 0, zlpt_DirCount);
+        zlpt_Published = new ZoneLibraryPathTrie(aParentIdArray, aSegmentArray, zlpt_DirCount);
+        return zlpt_Published;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * sorted list of library file ids used as a posting list by the library index
+ * backed by a growable primitive int array so large lists stay compact
+ */
+package zonecontrol;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryPostingList implements ZoneLibraryFileIdSet {
+
+    private int[] zlpl_IdArray = null;
+    private int zlpl_Size = 0;
+
+    public ZoneLibraryPostingList() {
+        zlpl_IdArray = new int[4];
+    }
+
+    public ZoneLibraryPostingList(int theInitialCapacity) {
+        zlpl_IdArray = new int[Math.max(theInitialCapacity, 0)];
+    }
+
+    @Override
+    public int size() {
+        return zlpl_Size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return (zlpl_Size == 0);
+    }
+
+    public int get(int theIndex) {
+        return zlpl_IdArray[theIndex];
+    }
+
+    /**
+     * add a file id, keeping the list sorted - ids are normally handed out in
+     * ascending order so this is an append in the common case
+     *
+     * @param theId int
+     */
+    public void add(int theId) {
+        if ((zlpl_Size == 0) || (zlpl_IdArray[zlpl_Size - 1] < theId)) {
+            ensureCapacity(zlpl_Size + 1);
+            zlpl_IdArray[zlpl_Size++] = theId;
+            return;
+        }
+
+        int aInsertIndex = indexOf(theId);
+        if (aInsertIndex >= 0) {
+            return; // already in list
+        }
+        aInsertIndex = -(aInsertIndex + 1);
+        ensureCapacity(zlpl_Size + 1);
+        System.arraycopy(zlpl_IdArray, aInsertIndex, zlpl_IdArray, aInsertIndex + 1, zlpl_Size - aInsertIndex);
+        zlpl_IdArray[aInsertIndex] = theId;
+        zlpl_Size++;
+    }
+
+    /**
+     * remove a file id if it is in the list
+     *
+     * @param theId int
+     * @return boolean - was the id removed?
+     */
+    public boolean remove(int theId) {
+        int aRemoveIndex = indexOf(theId);
+        if (aRemoveIndex < 0) {
+            return false;
+        }
+        System.arraycopy(zlpl_IdArray, aRemoveIndex + 1, zlpl_IdArray, aRemoveIndex, zlpl_Size - aRemoveIndex - 1);
+        zlpl_Size--;
+        return true;
+    }
+
+    @Override
+    public boolean contains(int theId) {
+        return (indexOf(theId) >= 0);
+    }
+
+    /**
+     * @return ZoneLibraryPostingList - independent copy trimmed to size
+     */
+    public ZoneLibraryPostingList copy() {
+        ZoneLibraryPostingList returnList = new ZoneLibraryPostingList(zlpl_Size);
+        System.arraycopy(zlpl_IdArray, 0, returnList.zlpl_IdArray, 0, zlpl_Size);
+        returnList.zlpl_Size = zlpl_Size;
+        return returnList;
+    }
+
+    /**
+     * binary search for the given id
+     *
+     * @param theId int
+     * @return int - index of id, or (-(insertion point) - 1) if not found
+     */
+    public int indexOf(int theId) {
+        int aLow = 0;
+        int aHigh = zlpl_Size - 1;
+        while (aLow <= aHigh) {
+            int aMid = (aLow + aHigh) >>> 1;
+            int aMidId = zlpl_IdArray[aMid];
+            if (aMidId < theId) {
+                aLow = aMid + 1;
+            } else if (aMidId > theId) {
+                aHigh = aMid - 1;
+            } else {
+                return aMid;
+            }
+        }
+        return -(aLow + 1);
+    }
+
+    /**
+     * merge two sorted posting lists keeping only ids found in both
+     *
+     * @param theFirstList ZoneLibraryPostingList
+     * @param theSecondList ZoneLibraryPostingList
+     * @return ZoneLibraryPostingList
+     */
+    public static ZoneLibraryPostingList intersect(ZoneLibraryPostingList theFirstList,
+            ZoneLibraryPostingList theSecondList) {
+        ZoneLibraryPostingList returnList = new ZoneLibraryPostingList(
+                Math.min(theFirstList.zlpl_Size, theSecondList.zlpl_Size));
+        int i = 0;
+        int j = 0;
+        while ((i < theFirstList.zlpl_Size) && (j < theSecondList.zlpl_Size)) {
+            int aFirstId = theFirstList.zlpl_IdArray[i];
+            int aSecondId = theSecondList.zlpl_IdArray[j];
+            if (aFirstId < aSecondId) {
+                i++;
+            } else if (aFirstId > aSecondId) {
+                j++;
+            } else {
+                returnList.zlpl_IdArray[returnList.zlpl_Size++] = aFirstId;
+                i++;
+                j++;
+            }
+        }
+        return returnList;
+    }
+
+    /**
+     * merge two sorted posting lists keeping every id found in either
+     *
+     * @param theFirstList ZoneLibraryPostingList
+     * @param theSecondList ZoneLibraryPostingList
+     * @return ZoneLibraryPostingList
+     */
+    public static ZoneLibraryPostingList union(ZoneLibraryPostingList theFirstList,
+            ZoneLibraryPostingList theSecondList) {
+        ZoneLibraryPostingList returnList = new ZoneLibraryPostingList(
+                theFirstList.zlpl_Size + theSecondList.zlpl_Size);
+        int i = 0;
+        int j = 0;
+        while ((i < theFirstList.zlpl_Size) || (j < theSecondList.zlpl_Size)) {
+            int aNextId;
+            if (j >= theSecondList.zlpl_Size) {
+                aNextId = theFirstList.zlpl_IdArray[i++];
+            } else if (i >= theFirstList.zlpl_Size) {
+                aNextId = theSecondList.zlpl_IdArray[j++];
+            } else if (theFirstList.zlpl_IdArray[i] < theSecondList.zlpl_IdArray[j]) {
+                aNextId = theFirstList.zlpl_IdArray[i++];
+            } else if (theFirstList.zlpl_IdArray[i] > theSecondList.zlpl_IdArray[j]) {
+                aNextId = theSecondList.zlpl_IdArray[j++];
+            } else {
+                aNextId = theFirstList.zlpl_IdArray[i++];
+                j++;
+            }
+            returnList.zlpl_IdArray[returnList.zlpl_Size++] = aNextId;
+        }
+        return returnList;
+    }
+
+    /**
+     * merge any number of posting lists at once keeping every id found in
+     * any of them, rather than merging them pair by pair
+     *
+     * @param theLists List<ZoneLibraryPostingList>
+     * @return ZoneLibraryPostingList
+     */
+    public static ZoneLibraryPostingList unionAll(List<ZoneLibraryPostingList> theLists) {
+        int aIdCount = 0;
+        for (ZoneLibraryPostingList aList : theLists) {
+            aIdCount += aList.zlpl_Size;
+        }
+        int[] aIdArray = new int[aIdCount];
+        aIdCount = 0;
+        for (ZoneLibraryPostingList aList : theLists) {
+            System.arraycopy(aList.zlpl_IdArray, 0, aIdArray, aIdCount, aList.zlpl_Size);
+            aIdCount += aList.zlpl_Size;
+        }
+        Arrays.sort(aIdArray);
+
+        ZoneLibraryPostingList returnList = new ZoneLibraryPostingList(aIdCount);
+        for (int i = 0; i < aIdCount; i++) {
+            if ((returnList.zlpl_Size == 0) || (returnList.zlpl_IdArray[returnList.zlpl_Size - 1] != aIdArray[i])) {
+                returnList.zlpl_IdArray[returnList.zlpl_Size++] = aIdArray[i];
+            }
+        }
+        return returnList;
+    }
+
+    private void ensureCapacity(int theMinCapacity) {
+        if (theMinCapacity > zlpl_IdArray.length) {
+            int aNewCapacity = Math.max(theMinCapacity, zlpl_IdArray.length + (zlpl_IdArray.length >> 1));
+            int[] aNewIdArray = new int[aNewCapacity];
+            System.arraycopy(zlpl_IdArray, 0, aNewIdArray, 0, zlpl_Size);
+            zlpl_IdArray = aNewIdArray;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * a combined query of the library index - facet filters plus filename
+ * keywords, for example "genre is Jazz and artist starts with M"
+ *
+ * values of one facet are OR-ed, facets and keywords are AND-ed and
+ * excluded values are taken out at the end
+ */
+package zonecontrol;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryQuery {
+
+    private EnumMap<LibraryFacetType, ArrayList<String>> zlq_ValueMap = null; //<facet, values a file may have>
+    private EnumMap<LibraryFacetType, ArrayList<String>> zlq_PrefixMap = null; //<facet, prefixes a value may start with>
+    private EnumMap<LibraryFacetType, ArrayList<String>> zlq_ExcludeMap = null; //<facet, values a file must not have>
+    private String[] zlq_KeywordArray = null;
+    private boolean zlq_MatchAllKeywords = true;
+
+    public ZoneLibraryQuery() {
+        zlq_ValueMap = new EnumMap<LibraryFacetType, ArrayList<String>>(LibraryFacetType.class);
+        zlq_PrefixMap = new EnumMap<LibraryFacetType, ArrayList<String>>(LibraryFacetType.class);
+        zlq_ExcludeMap = new EnumMap<LibraryFacetType, ArrayList<String>>(LibraryFacetType.class);
+    }
+
+    /**
+     * match files with exactly this facet value
+     *
+     * @param theFacetType LibraryFacetType
+     * @param theFacetValue String
+     */
+    public void addValue(LibraryFacetType theFacetType, String theFacetValue) {
+        addToMap(zlq_ValueMap, theFacetType, theFacetValue);
+    }
+
+    /**
+     * match files with a facet value starting with the prefix (case sensitive)
+     *
+     * @param theFacetType LibraryFacetType
+     * @param thePrefix String
+     */
+    public void addPrefix(LibraryFacetType theFacetType, String thePrefix) {
+        addToMap(zlq_PrefixMap, theFacetType, thePrefix);
+    }
+
+    /**
+     * leave out files with exactly this facet value
+     *
+     * @param theFacetType LibraryFacetType
+     * @param theFacetValue String
+     */
+    public void addExclude(LibraryFacetType theFacetType, String theFacetValue) {
+        addToMap(zlq_ExcludeMap, theFacetType, theFacetValue);
+    }
+
+    /**
+     * @param theKeywordArray String[] - filename keywords, null for none
+     * @param matchAllKeywords boolean - AND the keywords instead of OR-ing them
+     */
+    public void setKeywords(String[] theKeywordArray, boolean matchAllKeywords) {
+        zlq_KeywordArray = theKeywordArray;
+        zlq_MatchAllKeywords = matchAllKeywords;
+    }
+
+    public String[] getKeywords() {
+        return zlq_KeywordArray;
+    }
+
+    public boolean getMatchAllKeywords() {
+        return zlq_MatchAllKeywords;
+    }
+
+    /**
+     * @param theFacetType LibraryFacetType
+     * @return List<String> - exact values, empty if the facet has none
+     */
+    public List<String> getValues(LibraryFacetType theFacetType) {
+        return getFromMap(zlq_ValueMap, theFacetType);
+    }
+
+    /**
+     * @param theFacetType LibraryFacetType
+     * @return List<String> - value prefixes, empty if the facet has none
+     */
+    public List<String> getPrefixes(LibraryFacetType theFacetType) {
+        return getFromMap(zlq_PrefixMap, theFacetType);
+    }
+
+    /**
+     * @param theFacetType LibraryFacetType
+     * @return List<String> - excluded values, empty if the facet has none
+     */
+    public List<String> getExcludes(LibraryFacetType theFacetType) {
+        return getFromMap(zlq_ExcludeMap, theFacetType);
+    }
+
+    /**
+     * @return boolean - does the query filter on any facet?
+     */
+    public boolean hasFacetFilters() {
+        return (!(zlq_ValueMap.isEmpty() && zlq_PrefixMap.isEmpty() && zlq_ExcludeMap.isEmpty()));
+    }
+
+    private static void addToMap(EnumMap<LibraryFacetType, ArrayList<String>> theMap,
+            LibraryFacetType theFacetType, String theValue) {
+        if ((theValue == null) || theValue.equals("")) {
+            return;
+        }
+        ArrayList<String> aValueList = theMap.get(theFacetType);
+        if (aValueList == null) {
+            aValueList = new ArrayList<String>();
+            theMap.put(theFacetType, aValueList);
+        }
+        aValueList.add(theValue);
+    }
+
+    private static List<String> getFromMap(EnumMap<LibraryFacetType, ArrayList<String>> theMap,
+            LibraryFacetType theFacetType) {
+        ArrayList<String> aValueList = theMap.get(theFacetType);
+        if (aValueList == null) {
+            return new ArrayList<String>();
+        }
+        return aValueList;
+    }
+}
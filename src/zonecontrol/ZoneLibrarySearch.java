@@ -0,0 +1,379 @@
+/*
+ * ranked, typo tolerant search over one generation of the library index -
+ * every keyword is expanded to the indexed terms it matches exactly, as a
+ * prefix or within a small edit distance (candidates come from a trigram
+ * index of the terms), and files are scored by how many keywords they match
+ * and in which fields (title, artist, album, genre or filename)
+ *
+ * tag matches go through the tokens of the facet values to the value
+ * bitmaps, so the tags cost nothing per file on top of the facets
+ */
+package zonecontrol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibrarySearch {
+
+    private static final float kFileNameWeight = 1.0f;
+    private static final float kTitleWeight = 3.0f;
+    private static final float kArtistWeight = 2.5f;
+    private static final float kAlbumWeight = 2.0f;
+    private static final float kGenreWeight = 1.0f;
+    private static final float kKeywordMatchBonus = 4.0f; // above any single field score, so more matched keywords win
+    private static final float kExactQuality = 1.0f;
+    private static final float kOneTypoQuality = 0.6f;
+    private static final float kTwoTypoQuality = 0.4f;
+    private static final int kMaxPrefixTerms = 64; // prefix expansions per keyword
+    private static final int kMinTypoLength = 4; // shorter keywords have to match exactly or as a prefix
+    private static final int kTwoTypoLength = 8; // keywords this long may have two typos
+    private final ZoneLibrarySortedDictionary<ZoneLibraryPostingList> zlse_TokenDictionary; //<filename token, file ids>
+    private final ZoneLibraryFacet[] zlse_FacetArray; // title, artist, album, genre
+    private final float[] zlse_FacetWeightArray;
+    private final int zlse_FileIdLimit;
+    private final String[] zlse_TermArray; // every distinct filename and tag token, sorted
+    private final HashMap<String, ZoneLibraryPostingList> zlse_TrigramMap; //<trigram, term ids>
+
+    /**
+     * build the term and trigram index of a generation, the dictionary and
+     * the facets must be published ones
+     *
+     * @param theTokenDictionary ZoneLibrarySortedDictionary<ZoneLibraryPostingList>
+     * @param theTitleFacet ZoneLibraryFacet
+     * @param theArtistFacet ZoneLibraryFacet
+     * @param theAlbumFacet ZoneLibraryFacet
+     * @param theGenreFacet ZoneLibraryFacet
+     * @param theFileIdLimit int - one past the highest file id
+     */
+    protected ZoneLibrarySearch(ZoneLibrarySortedDictionary<ZoneLibraryPostingList> theTokenDictionary,
+            ZoneLibraryFacet theTitleFacet, ZoneLibraryFacet theArtistFacet, ZoneLibraryFacet theAlbumFacet,
+            ZoneLibraryFacet theGenreFacet, int theFileIdLimit) {
+        zlse_TokenDictionary = theTokenDictionary;
+        zlse_FacetArray = new ZoneLibraryFacet[]{theTitleFacet, theArtistFacet, theAlbumFacet, theGenreFacet};
+        zlse_FacetWeightArray = new float[]{kTitleWeight, kArtistWeight, kAlbumWeight, kGenreWeight};
+        zlse_FileIdLimit = theFileIdLimit;
+
+        ArrayList<String> aTermList = mergeTerms(new ArrayList<String>(), theTokenDictionary);
+        for (ZoneLibraryFacet aFacet : zlse_FacetArray) {
+            aTermList = mergeTerms(aTermList, aFacet.getValueTokenDictionary());
+        }
+        zlse_TermArray = aTermList.toArray(new String[aTermList.size()]);
+
+        zlse_TrigramMap = new HashMap<String, ZoneLibraryPostingList>();
+        for (int aTermId = 0; aTermId < zlse_TermArray.length; aTermId++) {
+            for (String aTrigram : getTrigrams(zlse_TermArray[aTermId])) {
+                ZoneLibraryPostingList aTermIdList = zlse_TrigramMap.get(aTrigram);
+                if (aTermIdList == null) {
+                    aTermIdList = new ZoneLibraryPostingList();
+                    zlse_TrigramMap.put(aTrigram, aTermIdList);
+                }
+                aTermIdList.add(aTermId);
+            }
+        }
+    }
+
+    /**
+     * @return int - number of distinct terms that keywords are matched against
+     */
+    public int getTermCount() {
+        return zlse_TermArray.length;
+    }
+
+    /**
+     * rank the files matching any of the keywords
+     *
+     * @param theKeywordStrArray String[]
+     * @param theFilterBitmap ZoneLibraryBitmap - only rank these files, null for every file
+     * @param theStartIndexInt int
+     * @param theEndIndexInt int
+     * @return int[] - file ids from best to worst match, for the given range of ranks
+     */
+    public int[] search(String[] theKeywordStrArray, ZoneLibraryBitmap theFilterBitmap,
+            int theStartIndexInt, int theEndIndexInt) {
+        HashSet<String> aKeywordTokenSet = new HashSet<String>();
+        for (String aKeyword : theKeywordStrArray) {
+            aKeywordTokenSet.addAll(ZoneLibraryIndex.tokenizeString(aKeyword));
+        }
+        if (aKeywordTokenSet.isEmpty() || (theEndIndexInt < theStartIndexInt)) {
+            return new int[0];
+        }
+
+        float[] aScoreArray = new float[zlse_FileIdLimit];
+        float[] aKeywordScoreArray = new float[zlse_FileIdLimit];
+        IdList aScoredIdList = new IdList();
+        IdList aKeywordIdList = new IdList();
+        for (String aKeywordToken : aKeywordTokenSet) {
+            HashMap<String, Float> aTermQualityMap = getMatchingTerms(aKeywordToken);
+            for (String aTerm : aTermQualityMap.keySet()) {
+                float aQuality = aTermQualityMap.get(aTerm);
+                scoreList(zlse_TokenDictionary.get(aTerm), aQuality * kFileNameWeight,
+                        theFilterBitmap, aKeywordScoreArray, aKeywordIdList);
+                for (int f = 0; f < zlse_FacetArray.length; f++) {
+                    ZoneLibraryPostingList aValueIndexList = zlse_FacetArray[f].getValueTokenDictionary().get(aTerm);
+                    if (aValueIndexList == null) {
+                        continue;
+                    }
+                    ZoneLibrarySortedDictionary<ZoneLibraryBitmap> aValueDictionary = zlse_FacetArray[f].getDictionary();
+                    for (int i = 0; i < aValueIndexList.size(); i++) {
+                        scoreBitmap(aValueDictionary.getList(aValueIndexList.get(i)), aQuality * zlse_FacetWeightArray[f],
+                                theFilterBitmap, aKeywordScoreArray, aKeywordIdList);
+                    }
+                }
+            }
+
+            // a file scores its best field match once per keyword
+            for (int i = 0; i < aKeywordIdList.il_Size; i++) {
+                int aFileId = aKeywordIdList.il_IdArray[i];
+                if (aScoreArray[aFileId] == 0) {
+                    aScoredIdList.add(aFileId);
+                }
+                aScoreArray[aFileId] += kKeywordMatchBonus + aKeywordScoreArray[aFileId];
+                aKeywordScoreArray[aFileId] = 0;
+            }
+            aKeywordIdList.il_Size = 0;
+        }
+
+        return getTopRanked(aScoreArray, aScoredIdList, theStartIndexInt, theEndIndexInt);
+    }
+
+    /**
+     * @param theKeywordToken String
+     * @return HashMap<String - indexed term, Float - match quality>
+     */
+    private HashMap<String, Float> getMatchingTerms(String theKeywordToken) {
+        HashMap<String, Float> returnTermQualityMap = new HashMap<String, Float>();
+
+        int aPrefixStart = lowerBound(theKeywordToken);
+        int aPrefixEnd = Math.min(lowerBound(theKeywordToken + Character.MAX_VALUE), aPrefixStart + kMaxPrefixTerms);
+        for (int i = aPrefixStart; i < aPrefixEnd; i++) {
+            String aTerm = zlse_TermArray[i];
+            if (aTerm.length() == theKeywordToken.length()) {
+                returnTermQualityMap.put(aTerm, kExactQuality);
+            } else { // the more of the term the keyword covers, the better
+                returnTermQualityMap.put(aTerm, 0.5f + ((0.3f * theKeywordToken.length()) / aTerm.length()));
+            }
+        }
+
+        if (theKeywordToken.length() < kMinTypoLength) {
+            return returnTermQualityMap;
+        }
+        int aMaxDistance = (theKeywordToken.length() >= kTwoTypoLength) ? 2 : 1;
+
+        // count shared trigrams, terms within the edit distance share at least this many
+        HashSet<String> aTrigramSet = getTrigrams(theKeywordToken);
+        int aMinSharedCount = Math.max(1, aTrigramSet.size() - (3 * aMaxDistance));
+        int[] aSharedCountArray = new int[zlse_TermArray.length];
+        for (String aTrigram : aTrigramSet) {
+            ZoneLibraryPostingList aTermIdList = zlse_TrigramMap.get(aTrigram);
+            if (aTermIdList == null) {
+                continue;
+            }
+            for (int i = 0; i < aTermIdList.size(); i++) {
+                int aTermId = aTermIdList.get(i);
+                aSharedCountArray[aTermId]++;
+                if (aSharedCountArray[aTermId] == aMinSharedCount) {
+                    String aTerm = zlse_TermArray[aTermId];
+                    if ((Math.abs(aTerm.length() - theKeywordToken.length()) <= aMaxDistance)
+                            && (!returnTermQualityMap.containsKey(aTerm))) {
+                        int aDistance = getEditDistance(theKeywordToken, aTerm, aMaxDistance);
+                        if (aDistance <= aMaxDistance) { // past it the distance is only known to be larger
+                            returnTermQualityMap.put(aTerm, (aDistance == 1) ? kOneTypoQuality : kTwoTypoQuality);
+                        }
+                    }
+                }
+            }
+        }
+        return returnTermQualityMap;
+    }
+
+    /**
+     * keep the best score of each file in the given posting list
+     */
+    private static void scoreList(ZoneLibraryPostingList theFileIdList, float theScore,
+            ZoneLibraryBitmap theFilterBitmap, float[] theScoreArray, IdList theScoredIdList) {
+        if (theFileIdList == null) {
+            return;
+        }
+        for (int i = 0; i < theFileIdList.size(); i++) {
+            int aFileId = theFileIdList.get(i);
+            if ((aFileId >= theScoreArray.length)
+                    || ((theFilterBitmap != null) && (!theFilterBitmap.contains(aFileId)))) {
+                continue;
+            }
+            if (theScoreArray[aFileId] < theScore) {
+                if (theScoreArray[aFileId] == 0) {
+                    theScoredIdList.add(aFileId);
+                }
+                theScoreArray[aFileId] = theScore;
+            }
+        }
+    }
+
+    /**
+     * keep the best score of each file in the given bitmap
+     */
+    private static void scoreBitmap(ZoneLibraryBitmap theFileIdBitmap, float theScore,
+            ZoneLibraryBitmap theFilterBitmap, float[] theScoreArray, IdList theScoredIdList) {
+        for (int aFileId : theFileIdBitmap.toIdArray()) {
+            if ((aFileId >= theScoreArray.length)
+                    || ((theFilterBitmap != null) && (!theFilterBitmap.contains(aFileId)))) {
+                continue;
+            }
+            if (theScoreArray[aFileId] < theScore) {
+                if (theScoreArray[aFileId] == 0) {
+                    theScoredIdList.add(aFileId);
+                }
+                theScoreArray[aFileId] = theScore;
+            }
+        }
+    }
+
+    /**
+     * select the best files with a heap bounded to the end of the wanted
+     * range rather than sorting every scored file
+     */
+    private static int[] getTopRanked(float[] theScoreArray, IdList theScoredIdList,
+            int theStartIndexInt, int theEndIndexInt) {
+        int aHeapSize = theEndIndexInt + 1;
+        PriorityQueue<Long> aHeap = new PriorityQueue<Long>(Math.min(aHeapSize, 1024));
+        for (int i = 0; i < theScoredIdList.il_Size; i++) {
+            int aFileId = theScoredIdList.il_IdArray[i];
+            // positive float bits order like the floats, equal scores rank the lower file id first
+            long aRankKey = (((long) Float.floatToIntBits(theScoreArray[aFileId])) << 32)
+                    | (Integer.MAX_VALUE - aFileId);
+            if (aHeap.size() < aHeapSize) {
+                aHeap.add(aRankKey);
+            } else if (aHeap.peek() < aRankKey) {
+                aHeap.poll();
+                aHeap.add(aRankKey);
+            }
+        }
+
+        int aResultCount = Math.max(0, aHeap.size() - theStartIndexInt);
+        int[] returnFileIdArray = new int[aResultCount];
+        for (int i = aHeap.size() - 1; i >= 0; i--) {
+            long aRankKey = aHeap.poll();
+            if (i >= theStartIndexInt) {
+                returnFileIdArray[i - theStartIndexInt] = Integer.MAX_VALUE - ((int) aRankKey);
+            }
+        }
+        return returnFileIdArray;
+    }
+
+    /**
+     * optimal string alignment distance (a swap of two neighbouring
+     * characters is one edit), given up once it is certain to exceed the
+     * maximum
+     *
+     * @return int - the distance, or theMaxDistance + 1 if it is larger
+     */
+    protected static int getEditDistance(String theFirstStr, String theSecondStr, int theMaxDistance) {
+        int aFirstLength = theFirstStr.length();
+        int aSecondLength = theSecondStr.length();
+        int[] aTwoRowsAgo = new int[aSecondLength + 1];
+        int[] aLastRow = new int[aSecondLength + 1];
+        int[] aRow = new int[aSecondLength + 1];
+        for (int j = 0; j <= aSecondLength; j++) {
+            aLastRow[j] = j;
+        }
+        for (int i = 1; i <= aFirstLength; i++) {
+            aRow[0] = i;
+            int aRowMin = i;
+            for (int j = 1; j <= aSecondLength; j++) {
+                int aCost = (theFirstStr.charAt(i - 1) == theSecondStr.charAt(j - 1)) ? 0 : 1;
+                int aDistance = Math.min(Math.min(aLastRow[j] + 1, aRow[j - 1] + 1), aLastRow[j - 1] + aCost);
+                if ((i > 1) && (j > 1) && (theFirstStr.charAt(i - 1) == theSecondStr.charAt(j - 2))
+                        && (theFirstStr.charAt(i - 2) == theSecondStr.charAt(j - 1))) {
+                    aDistance = Math.min(aDistance, aTwoRowsAgo[j - 2] + 1);
+                }
+                aRow[j] = aDistance;
+                aRowMin = Math.min(aRowMin, aDistance);
+            }
+            if (aRowMin > theMaxDistance) {
+                return (theMaxDistance + 1);
+            }
+            int[] aSpareRow = aTwoRowsAgo;
+            aTwoRowsAgo = aLastRow;
+            aLastRow = aRow;
+            aRow = aSpareRow;
+        }
+        return Math.min(aLastRow[aSecondLength], theMaxDistance + 1);
+    }
+
+    /**
+     * @return HashSet<String> - trigrams of the term padded with a start and an end marker
+     */
+    private static HashSet<String> getTrigrams(String theTerm) {
+        HashSet<String> returnTrigramSet = new HashSet<String>();
+        String aPaddedTerm = "^" + theTerm + "$";
+        for (int i = 0; i <= (aPaddedTerm.length() - 3); i++) {
+            returnTrigramSet.add(aPaddedTerm.substring(i, i + 3));
+        }
+        return returnTrigramSet;
+    }
+
+    /**
+     * merge the keys of a dictionary into a sorted list of distinct terms
+     */
+    private static ArrayList<String> mergeTerms(ArrayList<String> theTermList,
+            ZoneLibrarySortedDictionary<ZoneLibraryPostingList> theDictionary) {
+        ArrayList<String> returnTermList = new ArrayList<String>(theTermList.size() + theDictionary.size());
+        int i = 0;
+        int j = 0;
+        while ((i < theTermList.size()) || (j < theDictionary.size())) {
+            if (j >= theDictionary.size()) {
+                returnTermList.add(theTermList.get(i++));
+            } else if (i >= theTermList.size()) {
+                returnTermList.add(theDictionary.getKey(j++));
+            } else {
+                int aCompare = theTermList.get(i).compareTo(theDictionary.getKey(j));
+                if (aCompare < 0) {
+                    returnTermList.add(theTermList.get(i++));
+                } else if (aCompare > 0) {
+                    returnTermList.add(theDictionary.getKey(j++));
+                } else {
+                    returnTermList.add(theTermList.get(i++));
+                    j++;
+                }
+            }
+        }
+        return returnTermList;
+    }
+
+    private int lowerBound(String theKey) {
+        int aLow = 0;
+        int aHigh = zlse_TermArray.length;
+        while (aLow < aHigh) {
+            int aMid = (aLow + aHigh) >>> 1;
+            if (zlse_TermArray[aMid].compareTo(theKey) < 0) {
+                aLow = aMid + 1;
+            } else {
+                aHigh = aMid;
+            }
+        }
+        return aLow;
+    }
+
+    /**
+     * growable list of file ids in the order they were scored
+     */
+    private static class IdList {
+
+        private int[] il_IdArray = new int[64];
+        private int il_Size = 0;
+
+        protected void add(int theId) {
+            if (il_Size == il_IdArray.length) {
+                int[] aIdArray = new int[il_Size * 2];
+                System.arraycopy(il_IdArray, 0, aIdArray, 0, il_Size);
+                il_IdArray = aIdArray;
+            }
+            il_IdArray[il_Size++] = theId;
+        }
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * compact binary snapshot of the library index so that a freshly started
+ * zone can search its library before the first network crawl is done
+ *
+ * layout (big endian, strings are varint length prefixed UTF-8):
+ *   int magic, int version, int file count, varint string table count,
+ *   string table, varint path dictionary count, per path dictionary entry:
+ *   varint parent entry + 1 (0 for a root) and path segment, then per file:
+ *   filename, varint path dictionary entry + 1, varlong modified,
+ *   varlong size, title ref, album ref, varint artist count + refs, varint
+ *   genre count + refs, then int directory count and per directory: path,
+ *   varlong modified, varint child directory count + paths, varint child
+ *   file count + names, and a trailing int magic (refs are varint string
+ *   table index + 1, 0 for none)
+ */
+package zonecontrol;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibrarySnapshot {
+
+    public static final int kSnapshotMagicInt = 0x4D5A4C49; // "MZLI"
+    public static final int kSnapshotVersionInt = 3;
+    private File zls_SnapshotFile = null;
+    private boolean debugEventsOn = false;
+
+    public ZoneLibrarySnapshot(File theSnapshotFile, boolean theDebugIsOn) {
+        zls_SnapshotFile = theSnapshotFile;
+        debugEventsOn = theDebugIsOn;
+    }
+
+    public File getSnapshotFile() {
+        return zls_SnapshotFile;
+    }
+
+    /**
+     * @return File - the previous snapshot while a new one replaces it
+     */
+    private File getBackupFile() {
+        return new File(zls_SnapshotFile.getPath() + ".bak");
+    }
+
+    /**
+     * write every live file record of the index to the snapshot file, going
+     * through a temporary file so a crash never leaves a half written snapshot
+     *
+     * @param theIndex ZoneLibraryIndex
+     * @return boolean - was the snapshot written?
+     */
+    public boolean write(ZoneLibraryIndex theIndex) {
+        ArrayList<ZoneLibraryFileRecord> aFileRecordList = new ArrayList<ZoneLibraryFileRecord>();
+        for (ZoneLibraryFileRecord aFileRecord : theIndex.zli_FileRecordList) {
+            if (aFileRecord != null) {
+                aFileRecordList.add(aFileRecord);
+            }
+        }
+
+        // facet values repeat across many files, so store each one once
+        HashMap<String, Integer> aStringTableMap = new HashMap<String, Integer>();
+        ArrayList<String> aStringTableList = new ArrayList<String>();
+        for (ZoneLibraryFileRecord aFileRecord : aFileRecordList) {
+            addToStringTable(aFileRecord.getTitle(), aStringTableMap, aStringTableList);
+            addToStringTable(aFileRecord.getAlbum(), aStringTableMap, aStringTableList);
+            for (String aArtist : aFileRecord.getArtistList()) {
+                addToStringTable(aArtist, aStringTableMap, aStringTableList);
+            }
+            for (String aGenre : aFileRecord.getGenreList()) {
+                addToStringTable(aGenre, aStringTableMap, aStringTableList);
+            }
+        }
+
+        File aParentDir = zls_SnapshotFile.getAbsoluteFile().getParentFile();
+        if ((aParentDir != null) && (!aParentDir.exists())) {
+            aParentDir.mkdirs();
+        }
+        File aTempFile = new File(zls_SnapshotFile.getPath() + ".tmp");
+        DataOutputStream aDataOutputStream = null;
+        try {
+            aDataOutputStream = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(aTempFile), 65536));
+            aDataOutputStream.writeInt(kSnapshotMagicInt);
+            aDataOutputStream.writeInt(kSnapshotVersionInt);
+            aDataOutputStream.writeInt(aFileRecordList.size());
+            writeVarInt(aDataOutputStream, aStringTableList.size());
+            for (String aTableString : aStringTableList) {
+                writeString(aDataOutputStream, aTableString);
+            }
+
+            // parents always come before their children in the dictionary
+            ZoneLibraryPathTrie aPathTrie = theIndex.zli_PathTrie;
+            writeVarInt(aDataOutputStream, aPathTrie.getDirCount());
+            for (int i = 0; i < aPathTrie.getDirCount(); i++) {
+                writeVarInt(aDataOutputStream, aPathTrie.getParentId(i) + 1);
+                writeString(aDataOutputStream, aPathTrie.getSegment(i));
+            }
+
+            for (ZoneLibraryFileRecord aFileRecord : aFileRecordList) {
+                writeString(aDataOutputStream, aFileRecord.getFileName());
+                writeVarInt(aDataOutputStream, aFileRecord.getDirId() + 1);
+                writeVarLong(aDataOutputStream, aFileRecord.getLastModified());
+                writeVarLong(aDataOutputStream, aFileRecord.getSize());
+                writeStringRef(aDataOutputStream, aFileRecord.getTitle(), aStringTableMap);
+                writeStringRef(aDataOutputStream, aFileRecord.getAlbum(), aStringTableMap);
+                writeVarInt(aDataOutputStream, aFileRecord.getArtistList().size());
+                for (String aArtist : aFileRecord.getArtistList()) {
+                    writeStringRef(aDataOutputStream, aArtist, aStringTableMap);
+                }
+                writeVarInt(aDataOutputStream, aFileRecord.getGenreList().size());
+                for (String aGenre : aFileRecord.getGenreList()) {
+                    writeStringRef(aDataOutputStream, aGenre, aStringTableMap);
+                }
+            }
+
+            aDataOutputStream.writeInt(theIndex.zli_DirectoryMap.size());
+            for (ZoneLibraryDirectoryRecord aDirRecord : theIndex.zli_DirectoryMap.values()) {
+                writeString(aDataOutputStream, aDirRecord.getPath());
+                writeVarLong(aDataOutputStream, aDirRecord.getLastModified());
+                writeVarInt(aDataOutputStream, aDirRecord.getChildDirPathList().size());
+                for (String aChildDirPath : aDirRecord.getChildDirPathList()) {
+                    writeString(aDataOutputStream, aChildDirPath);
+                }
+                writeVarInt(aDataOutputStream, aDirRecord.getChildFileNameList().size());
+                for (String aChildFileName : aDirRecord.getChildFileNameList()) {
+                    writeString(aDataOutputStream, aChildFileName);
+                }
+            }
+            aDataOutputStream.writeInt(kSnapshotMagicInt);
+            aDataOutputStream.close();
+            aDataOutputStream = null;
+        } catch (IOException ex) {
+            System.err.println("ZLS write - " + ex);
+            aTempFile.delete();
+            return false;
+        } finally {
+            if (aDataOutputStream != null) {
+                try {
+                    aDataOutputStream.close();
+                } catch (IOException ex) {
+                    System.err.println(ex);
+                }
+            }
+        }
+
+        // the old snapshot is set aside rather than deleted, so there is
+        // always one to load should the zone stop between the renames
+        File aBackupFile = getBackupFile();
+        aBackupFile.delete();
+        if (zls_SnapshotFile.exists() && (!zls_SnapshotFile.renameTo(aBackupFile))) {
+            System.err.println("ZLS write - unable to replace " + zls_SnapshotFile);
+            aTempFile.delete();
+            return false;
+        }
+        if (!aTempFile.renameTo(zls_SnapshotFile)) {
+            System.err.println("ZLS write - unable to rename " + aTempFile);
+            aBackupFile.renameTo(zls_SnapshotFile);
+            return false;
+        }
+        aBackupFile.delete();
+
+        if (debugEventsOn) {
+            System.out.println("ZLS write - wrote " + aFileRecordList.size()
+                    + " files to " + zls_SnapshotFile);
+        }
+        return true;
+    }
+
+    /**
+     * read the snapshot file and replay every file record into the index
+     *
+     * @param theIndex ZoneLibraryIndex
+     * @return int - number of files loaded, -1 if there is no usable snapshot
+     */
+    public int load(ZoneLibraryIndex theIndex) {
+        return load(theIndex, false);
+    }
+
+    /**
+     * read the snapshot file and replay every file record into the index,
+     * an import replaces what the index has on the same files and
+     * marks them seen in the current build, as a crawl finding them would -
+     * the whole snapshot is read and checked before any of it goes into the
+     * index, so a corrupt one leaves the index as it was
+     *
+     * @param theIndex ZoneLibraryIndex
+     * @param theIsImport boolean - is the snapshot of another zone?
+     * @return int - number of files loaded, -1 if there is no usable snapshot
+     */
+    public int load(ZoneLibraryIndex theIndex, boolean theIsImport) {
+        File aSnapshotFile = zls_SnapshotFile;
+        if (!aSnapshotFile.isFile()) {
+            aSnapshotFile = getBackupFile(); // the zone stopped while writing
+            if (!aSnapshotFile.isFile()) {
+                return -1;
+            }
+        }
+
+        int[] aParentIdArray;
+        String[] aSegmentArray;
+        FileEntry[] aFileEntryArray;
+        ZoneLibraryDirectoryRecord[] aDirRecordArray;
+        FileInputStream aFileInputStream = null;
+        try {
+            // read into the heap rather than mapped, a mapping would keep
+            // the file open on Windows so it could not be replaced or deleted
+            aFileInputStream = new FileInputStream(aSnapshotFile);
+            FileChannel aFileChannel = aFileInputStream.getChannel();
+            if (aFileChannel.size() > Integer.MAX_VALUE) {
+                System.err.println("ZLS load - " + aSnapshotFile + " is too large");
+                return -1;
+            }
+            ByteBuffer aByteBuffer = ByteBuffer.allocate((int) aFileChannel.size());
+            while (aByteBuffer.hasRemaining()) {
+                if (aFileChannel.read(aByteBuffer) < 0) {
+                    break; // shorter than it was, caught as truncated
+                }
+            }
+            aByteBuffer.flip();
+
+            if ((aByteBuffer.getInt() != kSnapshotMagicInt)
+                    || (aByteBuffer.getInt() != kSnapshotVersionInt)) {
+                System.err.println("ZLS load - " + aSnapshotFile + " is not a current snapshot");
+                return -1;
+            }
+            aFileEntryArray = new FileEntry[readCount(aByteBuffer.getInt(), aByteBuffer)];
+            byte[] aScratchBytes = new byte[1024];
+            String[] aStringTable = new String[readCount(aByteBuffer)];
+            for (int i = 0; i < aStringTable.length; i++) {
+                aStringTable[i] = readString(aByteBuffer, aScratchBytes);
+            }
+            aParentIdArray = new int[readCount(aByteBuffer)];
+            aSegmentArray = new String[aParentIdArray.length];
+            for (int i = 0; i < aParentIdArray.length; i++) {
+                aParentIdArray[i] = readVarInt(aByteBuffer) - 1;
+                if (aParentIdArray[i] >= i) { // parents come first
+                    throw new IndexOutOfBoundsException();
+                }
+                aSegmentArray[i] = readString(aByteBuffer, aScratchBytes);
+            }
+
+            for (int i = 0; i < aFileEntryArray.length; i++) {
+                FileEntry aFileEntry = new FileEntry();
+                aFileEntry.zlsf_FileName = readString(aByteBuffer, aScratchBytes);
+                aFileEntry.zlsf_DirId = readVarInt(aByteBuffer) - 1;
+                if (aFileEntry.zlsf_DirId >= aParentIdArray.length) {
+                    throw new IndexOutOfBoundsException();
+                }
+                aFileEntry.zlsf_LastModified = readVarLong(aByteBuffer);
+                aFileEntry.zlsf_Size = readVarLong(aByteBuffer);
+                aFileEntry.zlsf_Title = readStringRef(aByteBuffer, aStringTable);
+                aFileEntry.zlsf_Album = readStringRef(aByteBuffer, aStringTable);
+                int aArtistCount = readCount(aByteBuffer);
+                aFileEntry.zlsf_ArtistList = new ArrayList<String>(aArtistCount);
+                for (int j = 0; j < aArtistCount; j++) {
+                    aFileEntry.zlsf_ArtistList.add(readStringRef(aByteBuffer, aStringTable));
+                }
+                int aGenreCount = readCount(aByteBuffer);
+                aFileEntry.zlsf_GenreList = new ArrayList<String>(aGenreCount);
+                for (int j = 0; j < aGenreCount; j++) {
+                    aFileEntry.zlsf_GenreList.add(readStringRef(aByteBuffer, aStringTable));
+                }
+                aFileEntryArray[i] = aFileEntry;
+            }
+
+            aDirRecordArray = new ZoneLibraryDirectoryRecord[readCount(aByteBuffer.getInt(), aByteBuffer)];
+            for (int i = 0; i < aDirRecordArray.length; i++) {
+                ZoneLibraryDirectoryRecord aDirRecord = new ZoneLibraryDirectoryRecord(
+                        readString(aByteBuffer, aScratchBytes), readVarLong(aByteBuffer));
+                int aChildDirCount = readCount(aByteBuffer);
+                for (int j = 0; j < aChildDirCount; j++) {
+                    aDirRecord.addChildDirPath(readString(aByteBuffer, aScratchBytes));
+                }
+                int aChildFileCount = readCount(aByteBuffer);
+                for (int j = 0; j < aChildFileCount; j++) {
+                    aDirRecord.addChildFileName(readString(aByteBuffer, aScratchBytes));
+                }
+                aDirRecordArray[i] = aDirRecord;
+            }
+
+            if (aByteBuffer.getInt() != kSnapshotMagicInt) {
+                System.err.println("ZLS load - " + aSnapshotFile + " is corrupt");
+                return -1;
+            }
+        } catch (IOException ex) {
+            System.err.println("ZLS load - " + ex);
+            return -1;
+        } catch (BufferUnderflowException ex) {
+            System.err.println("ZLS load - " + aSnapshotFile + " is truncated");
+            return -1;
+        } catch (IndexOutOfBoundsException ex) { // a reference past its table
+            System.err.println("ZLS load - " + aSnapshotFile + " is corrupt");
+            return -1;
+        } finally {
+            if (aFileInputStream != null) {
+                try {
+                    aFileInputStream.close();
+                } catch (IOException ex) {
+                    System.err.println(ex);
+                }
+            }
+        }
+
+        synchronized (theIndex) {
+            int[] aDirIdArray = new int[aParentIdArray.length]; //<snapshot dir id, index dir id>
+            for (int i = 0; i < aDirIdArray.length; i++) {
+                aDirIdArray[i] = theIndex.loadDirSegment(
+                        (aParentIdArray[i] < 0) ? ZoneLibraryPathTrie.kNoDirId : aDirIdArray[aParentIdArray[i]],
+                        aSegmentArray[i]);
+            }
+            for (FileEntry aFileEntry : aFileEntryArray) {
+                int aDirId = (aFileEntry.zlsf_DirId < 0) ? ZoneLibraryPathTrie.kNoDirId : aDirIdArray[aFileEntry.zlsf_DirId];
+                if (theIsImport) {
+                    theIndex.importFileRecord(aFileEntry.zlsf_FileName, aDirId, aFileEntry.zlsf_Title,
+                            aFileEntry.zlsf_Album, aFileEntry.zlsf_ArtistList, aFileEntry.zlsf_GenreList,
+                            aFileEntry.zlsf_LastModified, aFileEntry.zlsf_Size);
+                } else {
+                    theIndex.loadFileRecord(aFileEntry.zlsf_FileName, aDirId, aFileEntry.zlsf_Title,
+                            aFileEntry.zlsf_Album, aFileEntry.zlsf_ArtistList, aFileEntry.zlsf_GenreList,
+                            aFileEntry.zlsf_LastModified, aFileEntry.zlsf_Size);
+                }
+            }
+            for (ZoneLibraryDirectoryRecord aDirRecord : aDirRecordArray) {
+                if (theIsImport) {
+                    theIndex.putDirectoryRecord(aDirRecord);
+                } else {
+                    theIndex.loadDirectoryRecord(aDirRecord);
+                }
+            }
+        }
+
+        if (debugEventsOn) {
+            System.out.println("ZLS load - loaded " + aFileEntryArray.length + " files from " + aSnapshotFile);
+        }
+        return aFileEntryArray.length;
+    }
+
+    private void addToStringTable(String theString, HashMap<String, Integer> theStringTableMap,
+            ArrayList<String> theStringTableList) {
+        if ((theString != null) && (!theStringTableMap.containsKey(theString))) {
+            theStringTableMap.put(theString, theStringTableList.size());
+            theStringTableList.add(theString);
+        }
+    }
+
+    private void writeStringRef(DataOutputStream theDataOutputStream, String theString,
+            HashMap<String, Integer> theStringTableMap) throws IOException {
+        if (theString == null) {
+            writeVarInt(theDataOutputStream, 0);
+        } else {
+            writeVarInt(theDataOutputStream, theStringTableMap.get(theString) + 1);
+        }
+    }
+
+    private String readStringRef(ByteBuffer theByteBuffer, String[] theStringTable) {
+        int aStringRef = readVarInt(theByteBuffer);
+        if (aStringRef == 0) {
+            return null;
+        }
+        return theStringTable[aStringRef - 1];
+    }
+
+    private void writeString(DataOutputStream theDataOutputStream, String theString) throws IOException {
+        byte[] aStringBytes = theString.getBytes("UTF-8");
+        writeVarInt(theDataOutputStream, aStringBytes.length);
+        theDataOutputStream.write(aStringBytes);
+    }
+
+    private String readString(ByteBuffer theByteBuffer, byte[] theScratchBytes)
+            throws UnsupportedEncodingException {
+        int aLength = readCount(theByteBuffer);
+        byte[] aStringBytes = theScratchBytes;
+        if (aLength > aStringBytes.length) {
+            aStringBytes = new byte[aLength];
+        }
+        theByteBuffer.get(aStringBytes, 0, aLength);
+        return new String(aStringBytes, 0, aLength, "UTF-8");
+    }
+
+    /**
+     * read the number of entries or bytes that follow, every one takes at
+     * least a byte, so a corrupt count is caught before it is allocated
+     */
+    private int readCount(ByteBuffer theByteBuffer) {
+        return readCount(readVarInt(theByteBuffer), theByteBuffer);
+    }
+
+    private int readCount(int theCount, ByteBuffer theByteBuffer) {
+        if ((theCount < 0) || (theCount > theByteBuffer.remaining())) {
+            throw new BufferUnderflowException();
+        }
+        return theCount;
+    }
+
+    private void writeVarInt(DataOutputStream theDataOutputStream, int theValue) throws IOException {
+        while ((theValue & ~0x7F) != 0) {
+            theDataOutputStream.write((theValue & 0x7F) | 0x80);
+            theValue >>>= 7;
+        }
+        theDataOutputStream.write(theValue);
+    }
+
+    private void writeVarLong(DataOutputStream theDataOutputStream, long theValue) throws IOException {
+        while ((theValue & ~0x7FL) != 0) {
+            theDataOutputStream.write((int) ((theValue & 0x7F) | 0x80));
+            theValue >>>= 7;
+        }
+        theDataOutputStream.write((int) theValue);
+    }
+
+    private long readVarLong(ByteBuffer theByteBuffer) {
+        long aValue = 0;
+        int aShift = 0;
+        byte aByte;
+        do {
+            aByte = theByteBuffer.get();
+            aValue |= ((long) (aByte & 0x7F)) << aShift;
+            aShift += 7;
+        } while ((aByte & 0x80) != 0);
+        return aValue;
+    }
+
+    private int readVarInt(ByteBuffer theByteBuffer) {
+        int aValue = 0;
+        int aShift = 0;
+        byte aByte;
+        do {
+            aByte = theByteBuffer.get();
+            aValue |= (aByte & 0x7F) << aShift;
+            aShift += 7;
+        } while ((aByte & 0x80) != 0);
+        return aValue;
+    }
+
+    /**
+     * a file record as read from the snapshot, held until the whole snapshot
+     * has been checked
+     */
+    private static class FileEntry {
+
+        private String zlsf_FileName = null;
+        private int zlsf_DirId = -1; // snapshot dir id, -1 for none
+        private long zlsf_LastModified = 0;
+        private long zlsf_Size = 0;
+        private String zlsf_Title = null;
+        private String zlsf_Album = null;
+        private List<String> zlsf_ArtistList = null;
+        private List<String> zlsf_GenreList = null;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * immutable sorted dictionary of string keys to file id sets (token posting
+ * lists or facet bitmaps), kept as two parallel arrays so a published
+ * generation costs two references per key rather than a tree entry, while
+ * still allowing key and prefix lookups by binary search
+ */
+package zonecontrol;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibrarySortedDictionary<T extends ZoneLibraryFileIdSet> {
+
+    private final String[] zlsd_KeyArray;
+    private final Object[] zlsd_ListArray; // a generic array can not be created
+    private final SortedMap<String, Integer> zlsd_CountMap;
+
+    /**
+     * the dictionary takes the id sets of the map as they are, they must not
+     * be changed afterwards
+     *
+     * @param theListMap SortedMap<String, T>
+     */
+    public ZoneLibrarySortedDictionary(SortedMap<String, T> theListMap) {
+        zlsd_KeyArray = new String[theListMap.size()];
+        zlsd_ListArray = new Object[theListMap.size()];
+        int i = 0;
+        for (Map.Entry<String, T> aListEntry : theListMap.entrySet()) {
+            zlsd_KeyArray[i] = aListEntry.getKey();
+            zlsd_ListArray[i] = aListEntry.getValue();
+            i++;
+        }
+        zlsd_CountMap = new CountMap(0, zlsd_KeyArray.length);
+    }
+
+    public int size() {
+        return zlsd_KeyArray.length;
+    }
+
+    public String getKey(int theIndex) {
+        return zlsd_KeyArray[theIndex];
+    }
+
+    @SuppressWarnings("unchecked")
+    public T getList(int theIndex) {
+        return (T) zlsd_ListArray[theIndex];
+    }
+
+    /**
+     * @param theKey String
+     * @return T - null if the key is not in the dictionary
+     */
+    public T get(String theKey) {
+        int aIndex = lowerBound(theKey);
+        if ((aIndex < zlsd_KeyArray.length) && zlsd_KeyArray[aIndex].equals(theKey)) {
+            return getList(aIndex);
+        }
+        return null;
+    }
+
+    /**
+     * @param theKey String
+     * @return int - index of the first key that is not less than the given key
+     */
+    public int lowerBound(String theKey) {
+        int aLow = 0;
+        int aHigh = zlsd_KeyArray.length;
+        while (aLow < aHigh) {
+            int aMid = (aLow + aHigh) >>> 1;
+            if (zlsd_KeyArray[aMid].compareTo(theKey) < 0) {
+                aLow = aMid + 1;
+            } else {
+                aHigh = aMid;
+            }
+        }
+        return aLow;
+    }
+
+    /**
+     * @param thePrefix String
+     * @return int - index one past the last key starting with the prefix
+     */
+    public int prefixEnd(String thePrefix) {
+        return lowerBound(thePrefix + Character.MAX_VALUE);
+    }
+
+    /**
+     * @return SortedMap<String - key, Integer - id set size> - read-only view
+     */
+    public SortedMap<String, Integer> getCountMap() {
+        return zlsd_CountMap;
+    }
+
+    /**
+     * read-only sorted view of the keys and the size of their id sets
+     * between two indexes of the dictionary
+     */
+    private class CountMap extends AbstractMap<String, Integer> implements SortedMap<String, Integer> {
+
+        private final int cm_From;
+        private final int cm_To;
+
+        protected CountMap(int theFrom, int theTo) {
+            cm_From = theFrom;
+            cm_To = Math.max(theFrom, theTo);
+        }
+
+        @Override
+        public Comparator<? super String> comparator() {
+            return null;
+        }
+
+        @Override
+        public SortedMap<String, Integer> subMap(String theFromKey, String theToKey) {
+            return new CountMap(clamp(lowerBound(theFromKey)), clamp(lowerBound(theToKey)));
+        }
+
+        @Override
+        public SortedMap<String, Integer> headMap(String theToKey) {
+            return new CountMap(cm_From, clamp(lowerBound(theToKey)));
+        }
+
+        @Override
+        public SortedMap<String, Integer> tailMap(String theFromKey) {
+            return new CountMap(clamp(lowerBound(theFromKey)), cm_To);
+        }
+
+        @Override
+        public String firstKey() {
+            if (cm_From == cm_To) {
+                throw new NoSuchElementException();
+            }
+            return zlsd_KeyArray[cm_From];
+        }
+
+        @Override
+        public String lastKey() {
+            if (cm_From == cm_To) {
+                throw new NoSuchElementException();
+            }
+            return zlsd_KeyArray[cm_To - 1];
+        }
+
+        @Override
+        public int size() {
+            return (cm_To - cm_From);
+        }
+
+        @Override
+        public boolean containsKey(Object theKey) {
+            return (get(theKey) != null);
+        }
+
+        @Override
+        public Integer get(Object theKey) {
+            if (!(theKey instanceof String)) {
+                return null;
+            }
+            int aIndex = lowerBound((String) theKey);
+            if ((aIndex >= cm_From) && (aIndex < cm_To) && zlsd_KeyArray[aIndex].equals(theKey)) {
+                return getList(aIndex).size();
+            }
+            return null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, Integer>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Integer>>() {
+
+                @Override
+                public int size() {
+                    return (cm_To - cm_From);
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, Integer>> iterator() {
+                    return new Iterator<Map.Entry<String, Integer>>() {
+
+                        private int it_Next = cm_From;
+
+                        @Override
+                        public boolean hasNext() {
+                            return (it_Next < cm_To);
+                        }
+
+                        @Override
+                        public Map.Entry<String, Integer> next() {
+                            if (it_Next >= cm_To) {
+                                throw new NoSuchElementException();
+                            }
+                            CountEntry returnEntry = new CountEntry(zlsd_KeyArray[it_Next],
+                                    getList(it_Next).size());
+                            it_Next++;
+                            return returnEntry;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+
+        private int clamp(int theIndex) {
+            return Math.min(Math.max(theIndex, cm_From), cm_To);
+        }
+    }
+
+    /**
+     * a key and the size of its id set
+     */
+    private static class CountEntry implements Map.Entry<String, Integer> {
+
+        private final String ce_Key;
+        private final Integer ce_Count;
+
+        protected CountEntry(String theKey, int theCount) {
+            ce_Key = theKey;
+            ce_Count = theCount;
+        }
+
+        @Override
+        public String getKey() {
+            return ce_Key;
+        }
+
+        @Override
+        public Integer getValue() {
+            return ce_Count;
+        }
+
+        @Override
+        public Integer setValue(Integer theValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object theObject) {
+            if (!(theObject instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> aEntry = (Map.Entry<?, ?>) theObject;
+            return ce_Key.equals(aEntry.getKey()) && ce_Count.equals(aEntry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return (ce_Key.hashCode() ^ ce_Count.hashCode());
+        }
+    }
+}
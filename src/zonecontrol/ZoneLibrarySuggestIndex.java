@@ -0,0 +1,251 @@
+/*
+ * prefix completions over the titles, artists and albums of one generation
+ * of the library index, for suggesting while the user is still typing
+ *
+ * the values stay in the facet dictionaries, the index only keeps them in
+ * case insensitive order as one int per value plus a max tree of their file
+ * counts, so the most used completions of a prefix are found without
+ * walking every value starting with it
+ */
+package zonecontrol;
+
+import java.util.ArrayList;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibrarySuggestIndex {
+
+    private static final int kSlotShift = 28; // entry = facet slot above, value index below
+    private static final int kValueIndexMask = (1 << kSlotShift) - 1;
+    private static final LibraryFacetType[] kFacetTypeArray = new LibraryFacetType[]{
+        LibraryFacetType.title, LibraryFacetType.artist, LibraryFacetType.album};
+    private final ZoneLibrarySortedDictionary<?>[] zlsi_DictionaryArray; // title, artist, album
+    private final int[] zlsi_EntryArray; // every value, case insensitive order
+    private final int[] zlsi_WeightArray; // file count of each entry
+    private final int zlsi_TreeSize; // leaves of the max tree, a power of two
+    private final int[] zlsi_BestArray; // max tree, position of the heaviest entry below each node, -1 for none
+
+    /**
+     * build the suggestion index of a generation, the facets must be
+     * published ones
+     *
+     * @param theTitleFacet ZoneLibraryFacet
+     * @param theArtistFacet ZoneLibraryFacet
+     * @param theAlbumFacet ZoneLibraryFacet
+     */
+    protected ZoneLibrarySuggestIndex(ZoneLibraryFacet theTitleFacet, ZoneLibraryFacet theArtistFacet,
+            ZoneLibraryFacet theAlbumFacet) {
+        zlsi_DictionaryArray = new ZoneLibrarySortedDictionary<?>[]{theTitleFacet.getDictionary(),
+                    theArtistFacet.getDictionary(), theAlbumFacet.getDictionary()};
+
+        int aEntryCount = 0;
+        for (ZoneLibrarySortedDictionary<?> aDictionary : zlsi_DictionaryArray) {
+            aEntryCount += aDictionary.size();
+        }
+        int[] aEntryArray = new int[aEntryCount];
+        int i = 0;
+        for (int aSlot = 0; aSlot < zlsi_DictionaryArray.length; aSlot++) {
+            for (int aValueIndex = 0; aValueIndex < zlsi_DictionaryArray[aSlot].size(); aValueIndex++) {
+                aEntryArray[i++] = (aSlot << kSlotShift) | aValueIndex;
+            }
+        }
+        zlsi_EntryArray = aEntryArray.clone();
+        mergeSort(aEntryArray, zlsi_EntryArray, 0, aEntryCount);
+
+        zlsi_WeightArray = new int[aEntryCount];
+        for (i = 0; i < aEntryCount; i++) {
+            int aEntry = zlsi_EntryArray[i];
+            zlsi_WeightArray[i] = zlsi_DictionaryArray[aEntry >>> kSlotShift].getList(aEntry & kValueIndexMask).size();
+        }
+
+        int aTreeSize = 1;
+        while (aTreeSize < aEntryCount) {
+            aTreeSize <<= 1;
+        }
+        zlsi_TreeSize = aTreeSize;
+        zlsi_BestArray = new int[2 * aTreeSize];
+        for (i = 0; i < aTreeSize; i++) {
+            zlsi_BestArray[aTreeSize + i] = (i < aEntryCount) ? i : -1;
+        }
+        for (i = aTreeSize - 1; i > 0; i--) {
+            zlsi_BestArray[i] = heavier(zlsi_BestArray[2 * i], zlsi_BestArray[2 * i + 1]);
+        }
+    }
+
+    /**
+     * the most used values starting with the prefix, ignoring case - a value
+     * that is both a title and an album is suggested once for each, as
+     * picking it filters a different facet
+     *
+     * @param thePrefix String
+     * @param theCount int - maximum number of suggestions
+     * @return ArrayList<Suggestion> - most files first
+     */
+    public ArrayList<Suggestion> getSuggestions(String thePrefix, int theCount) {
+        ArrayList<Suggestion> returnSuggestionList = new ArrayList<Suggestion>();
+        int aStart = prefixBound(thePrefix, false);
+        int aEnd = prefixBound(thePrefix, true);
+
+        // every range holds the entries not suggested yet, take the heaviest
+        // entry of the heaviest range and split that range around it
+        ArrayList<int[]> aRangeList = new ArrayList<int[]>(); // {start, end, position of the heaviest}
+        if (aStart < aEnd) {
+            aRangeList.add(new int[]{aStart, aEnd, getBest(aStart, aEnd)});
+        }
+        while ((returnSuggestionList.size() < theCount) && (!aRangeList.isEmpty())) {
+            int aBestRangeIndex = 0;
+            for (int r = 1; r < aRangeList.size(); r++) {
+                if (heavier(aRangeList.get(r)[2], aRangeList.get(aBestRangeIndex)[2]) != aRangeList.get(aBestRangeIndex)[2]) {
+                    aBestRangeIndex = r;
+                }
+            }
+            int[] aRange = aRangeList.remove(aBestRangeIndex);
+            int aPosition = aRange[2];
+            returnSuggestionList.add(new Suggestion(kFacetTypeArray[zlsi_EntryArray[aPosition] >>> kSlotShift],
+                    getValue(aPosition), zlsi_WeightArray[aPosition]));
+            if (aRange[0] < aPosition) {
+                aRangeList.add(new int[]{aRange[0], aPosition, getBest(aRange[0], aPosition)});
+            }
+            if (aPosition + 1 < aRange[1]) {
+                aRangeList.add(new int[]{aPosition + 1, aRange[1], getBest(aPosition + 1, aRange[1])});
+            }
+        }
+        return returnSuggestionList;
+    }
+
+    public int size() {
+        return zlsi_EntryArray.length;
+    }
+
+    private String getValue(int thePosition) {
+        return getEntryValue(zlsi_EntryArray[thePosition]);
+    }
+
+    private String getEntryValue(int theEntry) {
+        return zlsi_DictionaryArray[theEntry >>> kSlotShift].getKey(theEntry & kValueIndexMask);
+    }
+
+    /**
+     * @param thePrefix String
+     * @param isEnd boolean - find the end of the prefix range instead of its start
+     * @return int - position of the first entry starting with the prefix, or
+     * of the first entry after them
+     */
+    private int prefixBound(String thePrefix, boolean isEnd) {
+        int aLow = 0;
+        int aHigh = zlsi_EntryArray.length;
+        while (aLow < aHigh) {
+            int aMiddle = (aLow + aHigh) >>> 1;
+            String aValue = getValue(aMiddle);
+            int aCompare = aValue.regionMatches(true, 0, thePrefix, 0, thePrefix.length())
+                    ? 0 : aValue.compareToIgnoreCase(thePrefix);
+            if ((aCompare < 0) || (isEnd && (aCompare == 0))) {
+                aLow = aMiddle + 1;
+            } else {
+                aHigh = aMiddle;
+            }
+        }
+        return aLow;
+    }
+
+    /**
+     * @param theStart int
+     * @param theEnd int - exclusive
+     * @return int - position of the heaviest entry in the range
+     */
+    private int getBest(int theStart, int theEnd) {
+        int returnPosition = -1;
+        int aLow = theStart + zlsi_TreeSize;
+        int aHigh = theEnd + zlsi_TreeSize;
+        while (aLow < aHigh) {
+            if ((aLow & 1) == 1) {
+                returnPosition = heavier(returnPosition, zlsi_BestArray[aLow++]);
+            }
+            if ((aHigh & 1) == 1) {
+                returnPosition = heavier(returnPosition, zlsi_BestArray[--aHigh]);
+            }
+            aLow >>= 1;
+            aHigh >>= 1;
+        }
+        return returnPosition;
+    }
+
+    /**
+     * @param thePosition int - -1 for none
+     * @param theOtherPosition int - -1 for none
+     * @return int - the position with more files, the earlier one on a tie
+     */
+    private int heavier(int thePosition, int theOtherPosition) {
+        if (thePosition < 0) {
+            return theOtherPosition;
+        }
+        if (theOtherPosition < 0) {
+            return thePosition;
+        }
+        int aWeight = zlsi_WeightArray[thePosition];
+        int aOtherWeight = zlsi_WeightArray[theOtherPosition];
+        if ((aOtherWeight > aWeight) || ((aOtherWeight == aWeight) && (theOtherPosition < thePosition))) {
+            return theOtherPosition;
+        }
+        return thePosition;
+    }
+
+    /**
+     * sort the entries of the source range into the destination range by
+     * their values, ignoring case - both ranges start out with the same
+     * entries and the source range is used as scratch space
+     */
+    private void mergeSort(int[] theSourceArray, int[] theDestArray, int theStart, int theEnd) {
+        if (theEnd - theStart < 2) {
+            if (theStart < theEnd) {
+                theDestArray[theStart] = theSourceArray[theStart];
+            }
+            return;
+        }
+        int aMiddle = (theStart + theEnd) >>> 1;
+        mergeSort(theDestArray, theSourceArray, theStart, aMiddle);
+        mergeSort(theDestArray, theSourceArray, aMiddle, theEnd);
+        int aLeft = theStart;
+        int aRight = aMiddle;
+        for (int i = theStart; i < theEnd; i++) {
+            if ((aRight >= theEnd) || ((aLeft < aMiddle)
+                    && (getEntryValue(theSourceArray[aLeft]).compareToIgnoreCase(getEntryValue(theSourceArray[aRight])) <= 0))) {
+                theDestArray[i] = theSourceArray[aLeft++];
+            } else {
+                theDestArray[i] = theSourceArray[aRight++];
+            }
+        }
+    }
+
+    /**
+     * a value of a facet to complete to
+     */
+    public static class Suggestion {
+
+        private final LibraryFacetType zlss_FacetType;
+        private final String zlss_Value;
+        private final int zlss_FileCount;
+
+        protected Suggestion(LibraryFacetType theFacetType, String theValue, int theFileCount) {
+            zlss_FacetType = theFacetType;
+            zlss_Value = theValue;
+            zlss_FileCount = theFileCount;
+        }
+
+        public LibraryFacetType getFacetType() {
+            return zlss_FacetType;
+        }
+
+        public String getValue() {
+            return zlss_Value;
+        }
+
+        /**
+         * @return int - number of files with the value in the facet
+         */
+        public int getFileCount() {
+            return zlss_FileCount;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Date;
 
 /**
@@ -17,6 +18,8 @@ import java.util.Date;
 public class ZoneMulticastClient {
 
     private MulticastSocket clientSocket = null;
+    private InetAddress zmc_GroupAddress = null; // resolved on the first send
+    private DatagramPacket zmc_MessagePacket = null; // reused for every binary message
 
     public ZoneMulticastClient() {
         try {
@@ -43,12 +46,8 @@ public class ZoneMulticastClient {
      */
     public boolean sendNetworkCommand(final String theNetworkCommand,
             boolean printNetworkCommandToTerminal) {
-        final InetAddress groupAddress;
-        try {
-            groupAddress = InetAddress.getByName(
-                    ZoneConstants.getInstance().getGroupAddressStr());
-        } catch (UnknownHostException ex) {
-        	System.err.println(ex);
+        final InetAddress groupAddress = getGroupAddress();
+        if (groupAddress == null) {
             return false;
         }
 
@@ -71,6 +70,57 @@ public class ZoneMulticastClient {
         return true;
     }
 
+    /**
+     * send a binary message to the currently connected multicast group
+     * @param theMessageBuffer ByteBuffer - the message from its position up to its limit
+     * @param printNetworkCommandToTerminal boolean
+     * @return boolean - was the message sent?
+     */
+    public synchronized boolean sendMessage(ByteBuffer theMessageBuffer,
+            boolean printNetworkCommandToTerminal) {
+        if (zmc_MessagePacket == null) {
+            final InetAddress groupAddress = getGroupAddress();
+            if (groupAddress == null) {
+                return false;
+            }
+            zmc_MessagePacket = new DatagramPacket(new byte[0], 0, groupAddress,
+                    ZoneConstants.getInstance().getGroupPortInt());
+        }
+
+        zmc_MessagePacket.setData(theMessageBuffer.array(),
+                theMessageBuffer.arrayOffset() + theMessageBuffer.position(), theMessageBuffer.remaining());
+        try {
+            clientSocket.send(zmc_MessagePacket);
+        } catch (IOException ex) {
+            System.err.println(ex);
+            return false;
+        }
+
+        if (printNetworkCommandToTerminal) {
+            ZoneWireMessage aMessage = new ZoneWireMessage();
+            aMessage.decode(theMessageBuffer);
+            System.out.println(new Date().toString()
+                    + " - sent:\n" + aMessage.toString());
+        }
+
+        return true;
+    }
+
+    /**
+     * @return InetAddress - of the multicast group, null if it cannot be resolved
+     */
+    private synchronized InetAddress getGroupAddress() {
+        if (zmc_GroupAddress == null) {
+            try {
+                zmc_GroupAddress = InetAddress.getByName(
+                        ZoneConstants.getInstance().getGroupAddressStr());
+            } catch (UnknownHostException ex) {
+                System.err.println(ex);
+            }
+        }
+        return zmc_GroupAddress;
+    }
+
     /**
      * close up the socket and free up the memory reference
      * @return boolean - did the client close?
@@ -7,6 +7,10 @@
  *
  * this class is largely based off of
  * http://www.roseindia.net/java/example/java/net/udp/UDPMulticastServer.shtml
+ *
+ * the receive thread only copies each datagram into a pooled slot and hands
+ * it to a worker thread, so a burst of pings is taken off the socket as fast
+ * as it arrives and processed in batches afterwards
  */
 package zonecontrol;
 
@@ -14,36 +18,60 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.MulticastSocket;
+import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
 
 /**
- * 
+ *
  * @author Jason Zerbe
  */
 public class ZoneMulticastServer {
 
 	protected Thread serverThread = null;
+	protected Thread workerThread = null;
 	protected ZoneThread myZoneThread = null;
-	protected MulticastSocket serverSocket = null;
+	protected volatile MulticastSocket serverSocket = null; // the receive loop keeps its own reference
 	protected boolean printNetworkCommandToTerminal = false;
+	private static final int kReceiveBufferBytes = 256 * 1024; // socket buffer for bursts
+	private static final int kSlotBytes = 1500; // an Ethernet frame, larger datagrams get a slot of their own
+	private static final int kQueueCapacity = 1024; // datagrams waiting for the worker
+	private static final int kBatchCount = 64; // datagrams the worker takes at once
+	private static final int kReceiveRetryMillis = 100; // pause after a failed receive, doubled while it keeps failing
+	private static final int kMaxReceiveRetryMillis = 5000;
+	private final ArrayBlockingQueue<Datagram> zms_ReadyQueue = new ArrayBlockingQueue<Datagram>(
+			kQueueCapacity);
+	private final ArrayBlockingQueue<Datagram> zms_FreeQueue = new ArrayBlockingQueue<Datagram>(
+			kQueueCapacity);
+	private volatile long zms_DroppedCount = 0; // datagrams dropped while the queue was full
+	private volatile boolean zms_isStopped = false; // set before the socket is closed
 
 	public ZoneMulticastServer(boolean printNetworkCommandToTerminal) {
 		this.printNetworkCommandToTerminal = printNetworkCommandToTerminal;
 	}
 
 	public void startServer() {
+		zms_isStopped = false;
 		myZoneThread = new ZoneThread();
 	}
 
 	public void stopServer() {
 		System.out.print("ZMS socket and thread stopping ...");
 
-		serverSocket.close();
+		zms_isStopped = true;
+		MulticastSocket aSocket = serverSocket;
+		if (aSocket != null) { // else the receive thread sees the flag before it listens
+			aSocket.close();
+		}
 
 		serverThread.interrupt();
+		workerThread.interrupt();
 		try {
 			serverThread.join(3000);
+			workerThread.join(3000);
 		} catch (InterruptedException ex) {
 			System.err.println(ex);
 		}
@@ -52,12 +80,38 @@ public class ZoneMulticastServer {
 
 		serverSocket = null;
 		serverThread = null;
+		workerThread = null;
+	}
+
+	/**
+	 * @return long - datagrams dropped because the worker fell behind
+	 */
+	public long getDroppedCount() {
+		return zms_DroppedCount;
+	}
+
+	/**
+	 * a received datagram, slots are reused once processed
+	 */
+	private static class Datagram {
+
+		private final byte[] zmsd_Bytes;
+		private final ByteBuffer zmsd_Buffer; // wraps zmsd_Bytes
+		private int zmsd_Length = 0;
+		private long zmsd_ReceiveNanos = 0; // taken right off the socket, for clock exchanges
+
+		private Datagram(int theByteCount) {
+			zmsd_Bytes = new byte[theByteCount];
+			zmsd_Buffer = ByteBuffer.wrap(zmsd_Bytes);
+		}
 	}
 
 	protected class ZoneThread implements Runnable {
 
 		public ZoneThread() {
 			System.out.println("ZMS thread starting ...");
+			workerThread = new Thread(new WorkerThread());
+			workerThread.start();
 			serverThread = new Thread(this);
 			serverThread.start();
 			System.out.println("ZMS thread started");
@@ -65,20 +119,33 @@ public class ZoneMulticastServer {
 
 		@Override
 		public void run() {
+			final MulticastSocket aSocket;
 			try {
-				serverSocket = new MulticastSocket(ZoneConstants.getInstance()
+				aSocket = new MulticastSocket(ZoneConstants.getInstance()
 						.getGroupPortInt());
 			} catch (IOException ex) {
 				System.err.println(ex);
+				return;
+			}
+			serverSocket = aSocket;
+			if (zms_isStopped) { // stopServer came first and had no socket to close
+				aSocket.close();
+				return;
 			}
 
 			try {
-				serverSocket.setTimeToLive(ZoneConstants.getInstance()
+				aSocket.setTimeToLive(ZoneConstants.getInstance()
 						.getGroupTTLInt());
 			} catch (IOException ex) {
 				System.err.println(ex);
 			}
 
+			try {
+				aSocket.setReceiveBufferSize(kReceiveBufferBytes);
+			} catch (SocketException ex) { // keep the default size
+				System.err.println(ex);
+			}
+
 			InetAddress groupAddress = null;
 			try {
 				groupAddress = InetAddress.getByName(ZoneConstants
@@ -89,8 +156,11 @@ public class ZoneMulticastServer {
 
 			boolean serverHasJoinedGroup = false;
 			while (!serverHasJoinedGroup) {
+				if (zms_isStopped) {
+					return;
+				}
 				try {
-					serverSocket.joinGroup(groupAddress);
+					aSocket.joinGroup(groupAddress);
 				} catch (IOException ex) { // unable to join multicast group
 					System.err.println(ex);
 
@@ -107,31 +177,116 @@ public class ZoneMulticastServer {
 
 			System.out.println("ZMS started and listening to group");
 
-			while (!serverSocket.isClosed()) {
+			// one buffer for every datagram, copied to a slot for the worker
+			final byte[] buffer = new byte[ZoneConstants.getInstance()
+					.getGroupMaxByte()];
+			final DatagramPacket packet = new DatagramPacket(buffer,
+					buffer.length);
+			int aRetryPauseMillis = kReceiveRetryMillis;
+			while ((!zms_isStopped) && (!aSocket.isClosed())) {
 				// receive request from client
-				final byte[] buffer = new byte[ZoneConstants.getInstance()
-						.getGroupMaxByte()];
-				final DatagramPacket packet = new DatagramPacket(buffer,
-						buffer.length, groupAddress, ZoneConstants
-								.getInstance().getGroupPortInt());
+				packet.setLength(buffer.length); // shrunk to the last datagram
 				try {
-					serverSocket.receive(packet);
+					aSocket.receive(packet);
 				} catch (IOException ex) {
+					if (zms_isStopped || aSocket.isClosed()) {
+						break; // stopServer
+					}
 					System.err.println(ex);
+
+					try { // a socket that keeps failing must not spin the CPU
+						Thread.sleep(aRetryPauseMillis);
+					} catch (InterruptedException ex1) {
+						System.err.println(ex1);
+					}
+					aRetryPauseMillis = Math.min(aRetryPauseMillis * 2,
+							kMaxReceiveRetryMillis);
+					continue;
+				}
+				aRetryPauseMillis = kReceiveRetryMillis;
+
+				final long aReceiveNanos = System.nanoTime();
+				final int aLength = packet.getLength();
+				Datagram aDatagram = null;
+				if (aLength <= kSlotBytes) {
+					aDatagram = zms_FreeQueue.poll();
+				}
+				if (aDatagram == null) { // the pool fills up to the queue size
+					aDatagram = new Datagram(Math.max(aLength, kSlotBytes));
+				}
+				System.arraycopy(buffer, 0, aDatagram.zmsd_Bytes, 0, aLength);
+				aDatagram.zmsd_Length = aLength;
+				aDatagram.zmsd_ReceiveNanos = aReceiveNanos;
+				if (!zms_ReadyQueue.offer(aDatagram)) {
+					zms_DroppedCount++; // only this thread writes it
+				}
+			}
+		}
+	}
+
+	/**
+	 * processes the received datagrams in batches, off the receive thread
+	 */
+	protected class WorkerThread implements Runnable {
+
+		private final ArrayList<Datagram> zmsw_BatchList = new ArrayList<Datagram>(
+				kBatchCount);
+		private final ZoneWireMessage zmsw_Message = new ZoneWireMessage();
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					zmsw_BatchList.add(zms_ReadyQueue.take());
+				} catch (InterruptedException ex) {
+					return; // server stopped
+				}
+				zms_ReadyQueue.drainTo(zmsw_BatchList, kBatchCount - 1);
+				for (int i = 0; i < zmsw_BatchList.size(); i++) {
+					Datagram aDatagram = zmsw_BatchList.get(i);
+					try {
+						process(aDatagram);
+					} catch (RuntimeException ex) { // keep the worker alive
+						System.err.println(ex);
+					}
+					if (aDatagram.zmsd_Bytes.length == kSlotBytes) {
+						zms_FreeQueue.offer(aDatagram);
+					}
 				}
-				final String theNetworkCommand = new String(buffer).trim()
-						.toLowerCase();
+				zmsw_BatchList.clear();
+			}
+		}
 
-				// notify via the console of datagram
+		private void process(Datagram theDatagram) {
+			if (ZoneWireMessage.isWireMessage(theDatagram.zmsd_Bytes,
+					theDatagram.zmsd_Length)) {
+				theDatagram.zmsd_Buffer.clear();
+				theDatagram.zmsd_Buffer.limit(theDatagram.zmsd_Length);
+				if (!zmsw_Message.decode(theDatagram.zmsd_Buffer)) {
+					return; // cut short or not ours
+				}
+				zmsw_Message.setReceiveNanos(theDatagram.zmsd_ReceiveNanos);
 				if (printNetworkCommandToTerminal) {
-					System.out.println(new Date().toString() + " - recieved:\n"
-							+ theNetworkCommand);
+					System.out.println(new Date().toString()
+							+ " - recieved:\n" + zmsw_Message.toString());
 				}
+				ZoneServerLogic.getInstance().processNetworkMessage(zmsw_Message);
+				return;
+			}
 
-				// process said request
-				ZoneServerLogic.getInstance().processNetworkCommand(
-						theNetworkCommand);
+			// text command of a zone that predates the binary format
+			final String theNetworkCommand = new String(theDatagram.zmsd_Bytes,
+					0, theDatagram.zmsd_Length).trim().toLowerCase();
+
+			// notify via the console of datagram
+			if (printNetworkCommandToTerminal) {
+				System.out.println(new Date().toString() + " - recieved:\n"
+						+ theNetworkCommand);
 			}
+
+			// process said request
+			ZoneServerLogic.getInstance().processNetworkCommand(
+					theNetworkCommand);
 		}
 	}
 }
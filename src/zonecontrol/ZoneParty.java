@@ -0,0 +1,298 @@
+/*
+ * party mode, zones playing the same media in step
+ *
+ * the zones agree on their clocks with an NTP style exchange over the
+ * multicast group - a request carries the sender clock t0, the answer the
+ * clock when the request came in t1 and when the answer went out t2, and the
+ * sender reads t3 once the answer comes in, so the other clock is ahead by
+ * ((t1 - t0) + (t2 - t3)) / 2 with a round trip of (t3 - t0) - (t2 - t1) -
+ * of the last few exchanges the one with the shortest round trip is trusted
+ *
+ * the leader asks every member to prepare the media, which makes them
+ * measure their offset to the leader clock and load the media paused, and a
+ * moment later tells them the time on its own clock to start at - both
+ * messages carry an id of the party, so a party with the same media as the
+ * last one is told apart from a repeated message
+ *
+ * the party work of a zone is done in order on a single thread, so a start
+ * waits for the prepare before it
+ *
+ * the clock is System.nanoTime in microseconds, so it never jumps with the
+ * wall clock, only the offsets between zones are ever compared
+ */
+package zonecontrol;
+
+import audio.MediaPlayerImpl;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneParty {
+
+    private static ZoneParty zp_SingleInstance = null;
+    private static final int kSampleCount = 8; // clock exchanges kept per zone
+    private static final int kExchangeCount = 8; // clock requests sent on prepare
+    private static final int kExchangeIntervalMillis = 25;
+    private static final int kPrepareMillis = 2000; // for the members to measure and buffer
+    private static final long kStartLeadMicros = 300 * 1000L; // start time ahead of the start message
+    private static final int kRepeatCount = 2; // party messages are sent twice, the group may lose one
+    private static final long kSpinNanos = 2 * 1000 * 1000L; // waited for without sleeping
+    private final HashMap<String, PeerClock> zp_PeerClockMap = new HashMap<String, PeerClock>(); //<UUID, clock samples>
+    private long zp_PartyId = System.currentTimeMillis(); // of the parties led, starts at the clock so a restarted zone counts on above
+    private String zp_PreparedKeyStr = null; // leader and party id of the last prepare
+    private String zp_StartedKeyStr = null; // leader and party id of the last start
+    private final ExecutorService zp_ExecutorService;
+
+    protected ZoneParty() {
+        zp_ExecutorService = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable theRunnable) {
+                Thread returnThread = new Thread(theRunnable, "ZP party");
+                returnThread.setDaemon(true); // never keeps the zone from shutting down
+                return returnThread;
+            }
+        });
+    }
+
+    public static synchronized ZoneParty getInstance() {
+        if (zp_SingleInstance == null) {
+            zp_SingleInstance = new ZoneParty();
+        }
+        return zp_SingleInstance;
+    }
+
+    /**
+     * @return long - the clock every party time is read on, in microseconds
+     */
+    public static long getClockMicros() {
+        return System.nanoTime() / 1000;
+    }
+
+    /**
+     * lead a party, the members and this zone start the media together once
+     * they prepared it, returns right away
+     * @param theMemberUUIDList List<String> - the other zones
+     * @param theMediaUrlStr String
+     */
+    public void startParty(final List<String> theMemberUUIDList, final String theMediaUrlStr) {
+        final ZoneServerLogic aServerLogic = ZoneServerLogic.getInstance();
+        final String aLeaderUUID = aServerLogic.getUUID();
+        final String aPartyIdStr;
+        synchronized (this) {
+            aPartyIdStr = String.valueOf(++zp_PartyId);
+        }
+        for (int i = 0; i < kRepeatCount; i++) {
+            for (String aMemberUUID : theMemberUUIDList) {
+                aServerLogic.sendZoneMessage(aMemberUUID, ZoneWireMessage.kTypePartyPrepare,
+                        aLeaderUUID, aPartyIdStr, theMediaUrlStr);
+            }
+        }
+
+        zp_ExecutorService.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                long aPreparedMillis = System.currentTimeMillis() + kPrepareMillis;
+                MediaPlayerImpl.getInstance().prepareMediaUrl(theMediaUrlStr);
+                try {
+                    Thread.sleep(Math.max(0, aPreparedMillis - System.currentTimeMillis()));
+                } catch (InterruptedException ex) {
+                    return;
+                }
+
+                long aStartMicros = getClockMicros() + kStartLeadMicros;
+                for (int i = 0; i < kRepeatCount; i++) {
+                    for (String aMemberUUID : theMemberUUIDList) {
+                        aServerLogic.sendZoneMessage(aMemberUUID, ZoneWireMessage.kTypePartyStart,
+                                aLeaderUUID, aPartyIdStr, theMediaUrlStr, String.valueOf(aStartMicros));
+                    }
+                }
+                startAt(aStartMicros * 1000);
+            }
+        });
+    }
+
+    /**
+     * @param theZoneUUID String
+     * @return Long - microseconds the clock of the zone is ahead of this one,
+     * null if never measured
+     */
+    public synchronized Long getOffsetMicros(String theZoneUUID) {
+        PeerClock aPeerClock = zp_PeerClockMap.get(theZoneUUID);
+        if ((aPeerClock == null) || (aPeerClock.pc_Count == 0)) {
+            return null;
+        }
+        return Long.valueOf(aPeerClock.getBestOffsetMicros());
+    }
+
+    /**
+     * the clock and party messages for this zone, called by ZoneServerLogic
+     * @param theMessage ZoneWireMessage
+     */
+    void processMessage(ZoneWireMessage theMessage) {
+        try {
+            switch (theMessage.getType()) {
+                case ZoneWireMessage.kTypeClockRequest:
+                    if (theMessage.getFieldCount() >= 2) {
+                        ZoneServerLogic.getInstance().sendZoneMessage(theMessage.getFieldStr(0),
+                                ZoneWireMessage.kTypeClockResponse, ZoneServerLogic.getInstance().getUUID(),
+                                theMessage.getFieldStr(1), String.valueOf(theMessage.getReceiveNanos() / 1000),
+                                String.valueOf(getClockMicros()));
+                    }
+                    break;
+                case ZoneWireMessage.kTypeClockResponse:
+                    if (theMessage.getFieldCount() >= 4) {
+                        addSample(theMessage.getFieldStr(0), Long.parseLong(theMessage.getFieldStr(1)),
+                                Long.parseLong(theMessage.getFieldStr(2)), Long.parseLong(theMessage.getFieldStr(3)),
+                                theMessage.getReceiveNanos() / 1000);
+                    }
+                    break;
+                case ZoneWireMessage.kTypePartyPrepare:
+                    if (theMessage.getFieldCount() >= 3) {
+                        prepare(theMessage.getFieldStr(0), theMessage.getFieldStr(1), theMessage.getFieldStr(2));
+                    }
+                    break;
+                case ZoneWireMessage.kTypePartyStart:
+                    if (theMessage.getFieldCount() >= 4) {
+                        start(theMessage.getFieldStr(0), theMessage.getFieldStr(1), theMessage.getFieldStr(2),
+                                Long.parseLong(theMessage.getFieldStr(3)));
+                    }
+                    break;
+                default:
+            }
+        } catch (NumberFormatException ex) {
+            System.err.println("ZP " + ex);
+        }
+    }
+
+    private synchronized void addSample(String theZoneUUID, long theT0, long theT1, long theT2, long theT3) {
+        PeerClock aPeerClock = zp_PeerClockMap.get(theZoneUUID);
+        if (aPeerClock == null) {
+            aPeerClock = new PeerClock();
+            zp_PeerClockMap.put(theZoneUUID, aPeerClock);
+        }
+        aPeerClock.add(((theT1 - theT0) + (theT2 - theT3)) / 2, (theT3 - theT0) - (theT2 - theT1));
+    }
+
+    /**
+     * measure the offset to the leader clock and load the media paused
+     */
+    private void prepare(final String theLeaderUUID, String thePartyIdStr, final String theMediaUrlStr) {
+        synchronized (this) {
+            String aPartyKeyStr = theLeaderUUID + "\n" + thePartyIdStr;
+            if (aPartyKeyStr.equals(zp_PreparedKeyStr)) {
+                return; // the repeated message
+            }
+            zp_PreparedKeyStr = aPartyKeyStr;
+        }
+        zp_ExecutorService.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                ZoneServerLogic aServerLogic = ZoneServerLogic.getInstance();
+                for (int i = 0; i < kExchangeCount; i++) { // answers come in on the multicast worker
+                    aServerLogic.sendZoneMessage(theLeaderUUID, ZoneWireMessage.kTypeClockRequest,
+                            aServerLogic.getUUID(), String.valueOf(getClockMicros()));
+                    try {
+                        Thread.sleep(kExchangeIntervalMillis);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                MediaPlayerImpl.getInstance().prepareMediaUrl(theMediaUrlStr);
+            }
+        });
+    }
+
+    /**
+     * start the prepared media at the leader time, on this clock, once the
+     * prepare before it is done - if both prepare messages were lost the
+     * media is loaded first and starts late
+     */
+    private void start(final String theLeaderUUID, String thePartyIdStr, final String theMediaUrlStr,
+            final long theStartMicros) {
+        final boolean isPrepared;
+        synchronized (this) {
+            String aPartyKeyStr = theLeaderUUID + "\n" + thePartyIdStr;
+            if (aPartyKeyStr.equals(zp_StartedKeyStr)) {
+                return; // the repeated message
+            }
+            zp_StartedKeyStr = aPartyKeyStr;
+            isPrepared = aPartyKeyStr.equals(zp_PreparedKeyStr);
+            zp_PreparedKeyStr = aPartyKeyStr; // a prepare coming in late is ignored
+        }
+        zp_ExecutorService.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                if (!isPrepared) {
+                    System.err.println("ZP start without prepare from " + theLeaderUUID + ", loading now");
+                    MediaPlayerImpl.getInstance().prepareMediaUrl(theMediaUrlStr);
+                }
+                Long aOffsetMicros = getOffsetMicros(theLeaderUUID);
+                if (aOffsetMicros == null) {
+                    System.err.println("ZP no clock offset to " + theLeaderUUID + ", starting right away");
+                }
+                startAt((aOffsetMicros == null) ? System.nanoTime()
+                        : (theStartMicros - aOffsetMicros.longValue()) * 1000);
+            }
+        });
+    }
+
+    /**
+     * start the prepared media once System.nanoTime reaches the time, sleeping
+     * most of the way and spinning the last few milliseconds
+     */
+    private static void startAt(long theStartNanos) {
+        long aRemainingNanos;
+        while ((aRemainingNanos = theStartNanos - System.nanoTime()) > kSpinNanos) {
+            try {
+                Thread.sleep((aRemainingNanos - kSpinNanos) / (1000 * 1000) + 1);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+        while (theStartNanos - System.nanoTime() > 0) {
+            Thread.yield();
+        }
+        MediaPlayerImpl.getInstance().startPrepared();
+    }
+
+    /**
+     * the last clock exchanges with one zone
+     */
+    private static class PeerClock {
+
+        private final long[] pc_OffsetArray = new long[kSampleCount];
+        private final long[] pc_DelayArray = new long[kSampleCount];
+        private int pc_Count = 0;
+        private int pc_Next = 0; // oldest sample, replaced next
+
+        private void add(long theOffsetMicros, long theDelayMicros) {
+            pc_OffsetArray[pc_Next] = theOffsetMicros;
+            pc_DelayArray[pc_Next] = theDelayMicros;
+            pc_Next = (pc_Next + 1) % kSampleCount;
+            pc_Count = Math.min(pc_Count + 1, kSampleCount);
+        }
+
+        /**
+         * @return long - offset of the exchange with the shortest round trip,
+         * the one least skewed by queueing on the way
+         */
+        private long getBestOffsetMicros() {
+            int aBestIndex = 0;
+            for (int i = 1; i < pc_Count; i++) {
+                if (pc_DelayArray[i] < pc_DelayArray[aBestIndex]) {
+                    aBestIndex = i;
+                }
+            }
+            return pc_OffsetArray[aBestIndex];
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * playlist commands for another zone, collected so they can be sent together
+ * in as few datagrams as fit - see ZoneServerLogic.sendPlaylistBatch
+ *
+ * on the wire every command is one field, a letter for the operation followed
+ * by its argument
+ */
+package zonecontrol;
+
+import audio.MediaPlayerIFace;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZonePlaylistBatch {
+
+    private static final char kAddChar = 'a';
+    private static final char kClearChar = 'c';
+    private static final char kPlayIndexChar = 'i';
+    private static final char kNextChar = 'n';
+    private static final char kPreviousChar = 'p';
+    private static final char kShuffleChar = 's';
+    private final ArrayList<String> zpb_CommandList = new ArrayList<String>();
+
+    public ZonePlaylistBatch() {
+    }
+
+    public ZonePlaylistBatch addMediaUrl(String theMediaUrlStr) {
+        zpb_CommandList.add(kAddChar + theMediaUrlStr);
+        return this;
+    }
+
+    public ZonePlaylistBatch clearPlaylist() {
+        zpb_CommandList.add(String.valueOf(kClearChar));
+        return this;
+    }
+
+    public ZonePlaylistBatch playIndex(int theIndex) {
+        zpb_CommandList.add(kPlayIndexChar + String.valueOf(theIndex));
+        return this;
+    }
+
+    public ZonePlaylistBatch next() {
+        zpb_CommandList.add(String.valueOf(kNextChar));
+        return this;
+    }
+
+    public ZonePlaylistBatch previous() {
+        zpb_CommandList.add(String.valueOf(kPreviousChar));
+        return this;
+    }
+
+    public ZonePlaylistBatch shufflePlayList() {
+        zpb_CommandList.add(String.valueOf(kShuffleChar));
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return zpb_CommandList.isEmpty();
+    }
+
+    /**
+     * @return List<String> - the commands as they are put on the wire, in order
+     */
+    List<String> getCommandList() {
+        return zpb_CommandList;
+    }
+
+    /**
+     * carry out a command received from another zone
+     * @param theCommandStr String - as put on the wire
+     * @param theMediaPlayer MediaPlayerIFace
+     * @return boolean - was it a command of this version?
+     */
+    static boolean apply(String theCommandStr, MediaPlayerIFace theMediaPlayer) {
+        if ((theCommandStr == null) || (theCommandStr.length() == 0)) {
+            return false;
+        }
+        String aArgumentStr = theCommandStr.substring(1);
+        switch (theCommandStr.charAt(0)) {
+            case kAddChar:
+                if (aArgumentStr.length() == 0) {
+                    return false;
+                }
+                theMediaPlayer.addMediaUrl(aArgumentStr);
+                return true;
+            case kClearChar:
+                theMediaPlayer.clearPlaylist();
+                return true;
+            case kPlayIndexChar:
+                try {
+                    theMediaPlayer.playIndex(Integer.parseInt(aArgumentStr));
+                } catch (NumberFormatException ex) {
+                    return false;
+                }
+                return true;
+            case kNextChar:
+                theMediaPlayer.next();
+                return true;
+            case kPreviousChar:
+                theMediaPlayer.previous();
+                return true;
+            case kShuffleChar:
+                theMediaPlayer.shufflePlayList();
+                return true;
+            default: //an operation of a newer version
+                return false;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * the other zone controllers heard from on the multicast group, safe to read
+ * from the servlets while the multicast worker writes and the timer sweeps
+ *
+ * every record is stamped with System.nanoTime when it is stored, so expiry
+ * does not move with the wall clock, and is put on a timing wheel at the tick
+ * it expires on - a sweep only visits the records of the ticks that passed
+ * instead of every zone
+ */
+package zonecontrol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneRegistry {
+
+    private static final long kTickNanos = 1000L * 1000 * 1000; // one second
+    private static final int kWheelSlotCount = 64; // ticks, longer than the hard expiry
+    private final long zr_RefreshNanos;
+    private final long zr_ExpireNanos;
+    private final ConcurrentHashMap<String, Record> zr_RecordMap = new ConcurrentHashMap<String, Record>(); //<UUID, record>
+    private final ConcurrentLinkedQueue<Record>[] zr_WheelArray; // records by the tick they expire on
+    private long zr_SweptTick; // ticks up to here were swept, only the sweeping thread uses it
+
+    /**
+     * @param theRefreshSeconds int - a record is only replaced once it is
+     * older than this
+     * @param theExpireSeconds int - a record is dropped once it is older than
+     * this, at most kWheelSlotCount - 1 seconds
+     */
+    public ZoneRegistry(int theRefreshSeconds, int theExpireSeconds) {
+        this(theRefreshSeconds, theExpireSeconds, System.nanoTime());
+    }
+
+    /**
+     * @param theNowNanos long - System.nanoTime, tests pass a clock of their
+     * own here and to put and sweep
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ZoneRegistry(int theRefreshSeconds, int theExpireSeconds, long theNowNanos) {
+        if (theExpireSeconds >= kWheelSlotCount) {
+            throw new IllegalArgumentException("expiry of " + theExpireSeconds + " seconds does not fit the wheel");
+        }
+        zr_RefreshNanos = theRefreshSeconds * kTickNanos;
+        zr_ExpireNanos = theExpireSeconds * kTickNanos;
+        zr_WheelArray = new ConcurrentLinkedQueue[kWheelSlotCount];
+        for (int i = 0; i < kWheelSlotCount; i++) {
+            zr_WheelArray[i] = new ConcurrentLinkedQueue<Record>();
+        }
+        zr_SweptTick = getTick(theNowNanos);
+    }
+
+    /**
+     * store what a zone said about itself, unless it already did so lately
+     * @param theZoneUUID String
+     * @param theZoneName String
+     * @param theDashBoardUrlStr String
+     */
+    public void put(String theZoneUUID, String theZoneName, String theDashBoardUrlStr) {
+        put(theZoneUUID, theZoneName, theDashBoardUrlStr, System.nanoTime());
+    }
+
+    void put(String theZoneUUID, String theZoneName, String theDashBoardUrlStr, long theNowNanos) {
+        Record aRecord = zr_RecordMap.get(theZoneUUID);
+        if ((aRecord != null) && (theNowNanos - aRecord.zrr_StampNanos < zr_RefreshNanos)) {
+            return;
+        }
+        Record aNewRecord = new Record(theZoneUUID, theZoneName, theDashBoardUrlStr, theNowNanos);
+        boolean isStored;
+        if (aRecord == null) {
+            isStored = (zr_RecordMap.putIfAbsent(theZoneUUID, aNewRecord) == null);
+        } else {
+            isStored = zr_RecordMap.replace(theZoneUUID, aRecord, aNewRecord);
+        }
+        if (isStored) { // else another thread stored the zone just now
+            schedule(aNewRecord);
+        }
+    }
+
+    /**
+     * @param theZoneUUID String
+     * @return Record - null if the zone was not heard from lately
+     */
+    public Record get(String theZoneUUID) {
+        return zr_RecordMap.get(theZoneUUID);
+    }
+
+    /**
+     * @return Collection<Record> - the zones heard from lately, a view that
+     * can be iterated while zones come and go
+     */
+    public Collection<Record> getRecords() {
+        return zr_RecordMap.values();
+    }
+
+    public int size() {
+        return zr_RecordMap.size();
+    }
+
+    /**
+     * drop the zones whose records expired since the last sweep, called by a
+     * single thread about once a tick
+     */
+    public void sweep() {
+        sweep(System.nanoTime());
+    }
+
+    void sweep(long theNowNanos) {
+        long aNowTick = getTick(theNowNanos);
+        if (aNowTick - zr_SweptTick > kWheelSlotCount) {
+            zr_SweptTick = aNowTick - kWheelSlotCount; // every slot is visited once
+        }
+        ArrayList<Record> aLaterRecordList = null;
+        while (zr_SweptTick < aNowTick) {
+            zr_SweptTick++;
+            ConcurrentLinkedQueue<Record> aSlotQueue = zr_WheelArray[getSlot(zr_SweptTick)];
+            Record aRecord;
+            while ((aRecord = aSlotQueue.poll()) != null) {
+                if (zr_RecordMap.get(aRecord.zrr_ZoneUUID) != aRecord) {
+                    continue; // replaced by a newer record, which is on the wheel itself
+                }
+                if (theNowNanos - aRecord.zrr_StampNanos >= zr_ExpireNanos) {
+                    zr_RecordMap.remove(aRecord.zrr_ZoneUUID, aRecord);
+                } else { // expires on a later tick than the slot was visited for
+                    if (aLaterRecordList == null) {
+                        aLaterRecordList = new ArrayList<Record>();
+                    }
+                    aLaterRecordList.add(aRecord);
+                }
+            }
+        }
+        if (aLaterRecordList != null) {
+            for (Record aRecord : aLaterRecordList) {
+                schedule(aRecord);
+            }
+        }
+    }
+
+    private void schedule(Record theRecord) {
+        long aExpireTick = getTick(theRecord.zrr_StampNanos + zr_ExpireNanos) + 1;
+        zr_WheelArray[getSlot(aExpireTick)].add(theRecord);
+    }
+
+    /**
+     * @return long - the tick the time falls in, rounded down also for a
+     * negative nanoTime, so every tick is a second long
+     */
+    private static long getTick(long theNanos) {
+        long returnTick = theNanos / kTickNanos;
+        return ((theNanos % kTickNanos) < 0) ? (returnTick - 1) : returnTick;
+    }
+
+    private static int getSlot(long theTick) {
+        int returnSlot = (int) (theTick % kWheelSlotCount);
+        return (returnSlot < 0) ? (returnSlot + kWheelSlotCount) : returnSlot; // nanoTime may be negative
+    }
+
+    /**
+     * what a zone said about itself, never changed once stored
+     */
+    public static class Record {
+
+        private final String zrr_ZoneUUID;
+        private final String zrr_ZoneName;
+        private final String zrr_DashBoardUrlStr;
+        private final long zrr_StampNanos;
+
+        private Record(String theZoneUUID, String theZoneName, String theDashBoardUrlStr, long theStampNanos) {
+            zrr_ZoneUUID = theZoneUUID;
+            zrr_ZoneName = theZoneName;
+            zrr_DashBoardUrlStr = theDashBoardUrlStr;
+            zrr_StampNanos = theStampNanos;
+        }
+
+        public String getZoneUUID() {
+            return zrr_ZoneUUID;
+        }
+
+        public String getZoneName() {
+            return zrr_ZoneName;
+        }
+
+        public String getDashBoardUrlStr() {
+            return zrr_DashBoardUrlStr;
+        }
+    }
+}
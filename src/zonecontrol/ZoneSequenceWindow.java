@@ -0,0 +1,55 @@
+/*
+ * the sequence numbers seen from every sender, so a datagram the group
+ * delivered twice, or that came over both the group and the command channel,
+ * is carried out only once
+ *
+ * per sender the highest sequence is kept with a bit for each of the 64 below
+ * it, as IPsec does against replays - a sequence further below than that is
+ * from a sender that restarted and counts from lower now
+ */
+package zonecontrol;
+
+import java.util.HashMap;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneSequenceWindow {
+
+    public static final int kWindowSize = 64; // sequences below the highest still told apart
+    private final HashMap<String, long[]> zsw_WindowMap = new HashMap<String, long[]>(); //<sender UUID, {highest sequence, bits of the 64 below}>
+
+    public ZoneSequenceWindow() {
+    }
+
+    /**
+     * @param theSenderUUID String
+     * @param theSequence long
+     * @return boolean - was the sequence not seen before? it is marked seen
+     */
+    public synchronized boolean isNew(String theSenderUUID, long theSequence) {
+        long[] aWindowArray = zsw_WindowMap.get(theSenderUUID);
+        if (aWindowArray == null) {
+            zsw_WindowMap.put(theSenderUUID, new long[]{theSequence, 1L});
+            return true;
+        }
+        if (theSequence > aWindowArray[0]) {
+            long aShift = theSequence - aWindowArray[0];
+            aWindowArray[1] = (aShift >= kWindowSize) ? 1L : ((aWindowArray[1] << aShift) | 1L);
+            aWindowArray[0] = theSequence;
+            return true;
+        }
+        long aBehind = aWindowArray[0] - theSequence;
+        if (aBehind >= kWindowSize) { // the sender restarted, count from here
+            aWindowArray[0] = theSequence;
+            aWindowArray[1] = 1L;
+            return true;
+        }
+        long aSequenceBit = 1L << aBehind;
+        if ((aWindowArray[1] & aSequenceBit) != 0) {
+            return false;
+        }
+        aWindowArray[1] |= aSequenceBit;
+        return true;
+    }
+}
@@ -9,15 +9,19 @@ package zonecontrol;
 
 import audio.MediaPlayerImpl;
 import contrib.JettyWebServer;
+import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.prefs.Preferences;
 import musiczones.MusicZones;
 import netutil.IpAddressType;
@@ -35,15 +39,22 @@ public class ZoneServerLogic {
     protected ZoneMulticastClient zsl_MulticastClient = null;
     private Preferences zsl_Preferences = null;
     public static final String kNodeUUIDKeyStr = "NodeUUID";
-    protected HashMap<String, String> zsl_ZoneInfoMap = null; //<UUID, Zone Name>
-    protected HashMap<String, Calendar> zsl_ZoneExpireMap = null; //<UUID, expire Calendar>
-    protected HashMap<String, String> zsl_ZoneDashBoardMap = null; //<UUID, dashboard url>
+    protected ZoneRegistry zsl_ZoneRegistry = null; //the other zones heard from lately
     protected Timer zsl_Timer = null;
     private boolean zsl_isPingScheduled = false;
     protected final int allNodesPingInterval = 25; //number of seconds between existence notify
     protected final int allNodesExpireInterval = 15; //seconds before node record allowed to be overwritten
     protected final int allNodesHardExpire = 40; //seconds before node is considered offline
+    protected final int allNodesSweepInterval = 1; //seconds between dropping offline nodes
     protected boolean printNetworkCommandToTerminal = false;
+    private final byte[] zsl_ZoneIdBytes = new byte[ZoneWireMessage.kIdByteCount]; //zsl_ZoneUUID for binary messages
+    private boolean zsl_HasZoneIdBytes = false; //false if the UUID is not hex digits, text commands only then
+    private final ByteBuffer zsl_MessageBuffer = ByteBuffer.allocate(
+            ZoneConstants.getInstance().getGroupMaxByte()); //reused for every binary message sent
+    private volatile long zsl_TextZoneSeenMillis = 0; //last time a zone was heard that only speaks text commands
+    private final ConcurrentHashMap<String, Long> zsl_BinaryZoneMap = new ConcurrentHashMap<String, Long>(); //<UUID, last millis a binary message came from it>
+    private long zsl_PlaylistSequence = System.currentTimeMillis(); //of the playlist datagrams sent, starts at the clock so a restarted zone counts on above
+    private final ZoneSequenceWindow zsl_PlaylistSequenceWindow = new ZoneSequenceWindow(); //of the playlist datagrams received
 
     protected ZoneServerLogic() {
         zsl_ZoneName = "zone controller ";
@@ -58,10 +69,9 @@ public class ZoneServerLogic {
             zsl_ZoneUUID = generateZoneUUID();
             zsl_Preferences.put(kNodeUUIDKeyStr, zsl_ZoneUUID);
         }
+        zsl_HasZoneIdBytes = ZoneWireMessage.getIdBytes(zsl_ZoneUUID, zsl_ZoneIdBytes);
 
-        zsl_ZoneInfoMap = new HashMap<String, String>();
-        zsl_ZoneExpireMap = new HashMap<String, Calendar>();
-        zsl_ZoneDashBoardMap = new HashMap<String, String>();
+        zsl_ZoneRegistry = new ZoneRegistry(allNodesExpireInterval, allNodesHardExpire);
         zsl_MulticastClient = new ZoneMulticastClient();
         System.out.println("ZSL started");
 
@@ -88,7 +98,7 @@ public class ZoneServerLogic {
     public void addPingSchedule() {
     	if (!zsl_isPingScheduled) {
     		zsl_Timer.schedule(new AllNodesPingTimerTask(), 0, allNodesPingInterval * 1000);
-            zsl_Timer.schedule(new RemoveHardExpiredNodesTimerTask(), 0, allNodesHardExpire * 1000);
+            zsl_Timer.schedule(new RemoveHardExpiredNodesTimerTask(), 0, allNodesSweepInterval * 1000);
             zsl_isPingScheduled = true;
             System.out.println("ZSL timed events added");
     	}
@@ -114,6 +124,9 @@ public class ZoneServerLogic {
     public void setZoneName(String theZoneName) {
         zsl_ZoneName = theZoneName;
         zsl_ZoneUUID = generateZoneUUID();
+        synchronized (zsl_MessageBuffer) {
+            zsl_HasZoneIdBytes = ZoneWireMessage.getIdBytes(zsl_ZoneUUID, zsl_ZoneIdBytes);
+        }
     }
 
     /**
@@ -134,7 +147,7 @@ public class ZoneServerLogic {
             } else if (theNetworkCommandArray.length == 2) {
                 String[] firstLineArray = theNetworkCommandArray[0].split("=");
                 String[] secondLineArray = theNetworkCommandArray[1].split("=");
-                if (firstLineArray[0].equals("zone")) {
+                if (firstLineArray[0].equals("zone") && (!isBinaryZone(firstLineArray[1]))) {
                     if (firstLineArray[1].equals(zsl_ZoneUUID)
                             && secondLineArray[0].equals("mediaurl")
                             && (!"".equals(secondLineArray[1]))) { //play an audio URL
@@ -146,23 +159,81 @@ public class ZoneServerLogic {
                 String[] secondLineArray = theNetworkCommandArray[1].split("=");
                 String[] thirdLineArray = theNetworkCommandArray[2].split("=");
                 if ((!firstLineArray[1].equals(zsl_ZoneUUID))
+                        && (!isBinaryZone(firstLineArray[1])) //the text copy a newer zone sends along
                         && secondLineArray[0].equals("name")
                         && thirdLineArray[0].equals("dashboard")) { //store Zone info
-                    if ((!zsl_ZoneInfoMap.containsKey(firstLineArray[1]))
-                            || isExpiredZone(firstLineArray[1], allNodesExpireInterval)) {
-                        zsl_ZoneInfoMap.put(firstLineArray[1], secondLineArray[1]);
+                    zsl_TextZoneSeenMillis = System.currentTimeMillis();
+                    zsl_ZoneRegistry.put(firstLineArray[1], secondLineArray[1], thirdLineArray[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * counterpart of processNetworkCommand for the binary messages, the
+     * message is only valid during the call
+     * @param theMessage ZoneWireMessage
+     */
+    public void processNetworkMessage(ZoneWireMessage theMessage) {
+        switch (theMessage.getType()) {
+            case ZoneWireMessage.kTypeZoneQuery:
+                doZoneUUIDResponse();
+                break;
+            case ZoneWireMessage.kTypeZoneInfo:
+                if ((theMessage.getFieldCount() >= 2) && (!isZoneId(theMessage))) {
+                    zsl_BinaryZoneMap.put(theMessage.getIdStr(), System.currentTimeMillis());
+                    zsl_ZoneRegistry.put(theMessage.getIdStr(), theMessage.getFieldStr(0), theMessage.getFieldStr(1));
+                }
+                break;
+            case ZoneWireMessage.kTypeMediaUrl:
+                if ((theMessage.getFieldCount() >= 1) && isZoneId(theMessage)) {
+                    zsl_BinaryZoneMap.put(zsl_ZoneUUID, System.currentTimeMillis()); //sent by this zone, with a text copy while old zones are around
+                    String aMediaUrlStr = theMessage.getFieldStr(0);
+                    if (!"".equals(aMediaUrlStr)) { //play an audio URL
+                        MediaPlayerImpl.getInstance().addMediaUrl(aMediaUrlStr);
                     }
-                    if ((!zsl_ZoneDashBoardMap.containsKey(firstLineArray[1]))
-                            || isExpiredZone(firstLineArray[1], allNodesExpireInterval)) {
-                        zsl_ZoneDashBoardMap.put(firstLineArray[1], thirdLineArray[1]);
+                }
+                break;
+            case ZoneWireMessage.kTypePlaylist:
+                if ((theMessage.getFieldCount() >= 2) && isZoneId(theMessage)) {
+                    long aSequence;
+                    try {
+                        aSequence = Long.parseLong(theMessage.getFieldStr(1));
+                    } catch (NumberFormatException ex) {
+                        break;
                     }
-                    if ((!zsl_ZoneExpireMap.containsKey(firstLineArray[1]))
-                            || isExpiredZone(firstLineArray[1], allNodesExpireInterval)) {
-                        Calendar theCurrentCalendar = new GregorianCalendar();
-                        zsl_ZoneExpireMap.put(firstLineArray[1], theCurrentCalendar);
+                    if (zsl_PlaylistSequenceWindow.isNew(theMessage.getFieldStr(0), aSequence)) {
+                        for (int i = 2; i < theMessage.getFieldCount(); i++) {
+                            ZonePlaylistBatch.apply(theMessage.getFieldStr(i), MediaPlayerImpl.getInstance());
+                        }
                     }
                 }
-            }
+                break;
+            case ZoneWireMessage.kTypeClockRequest:
+            case ZoneWireMessage.kTypeClockResponse:
+            case ZoneWireMessage.kTypePartyPrepare:
+            case ZoneWireMessage.kTypePartyStart:
+                if (isZoneId(theMessage)) {
+                    ZoneParty.getInstance().processMessage(theMessage);
+                }
+                break;
+            case ZoneWireMessage.kTypeIndexerLease:
+                if ((theMessage.getFieldCount() >= 3) && (!isZoneId(theMessage))) {
+                    ZoneLibraryFederation.getInstance().processLease(theMessage.getIdStr(), theMessage.getFieldStr(0),
+                            theMessage.getFieldStr(1), theMessage.getFieldStr(2));
+                }
+                break;
+            default: //a type of a newer version, not for us
+        }
+    }
+
+    /**
+     * @param theMessage ZoneWireMessage
+     * @return boolean - is the message from or for this zone?
+     */
+    public boolean isZoneId(ZoneWireMessage theMessage) {
+        synchronized (zsl_MessageBuffer) {
+            return zsl_HasZoneIdBytes && theMessage.isId(zsl_ZoneIdBytes);
         }
     }
 
@@ -172,34 +243,117 @@ public class ZoneServerLogic {
      * @param theMediaUrlStr String
      */
     public void sendAddMediaUrlStr(String theMediaUrlStr) {
+        if (sendMessage(ZoneWireMessage.kTypeMediaUrl, zsl_ZoneIdBytes, theMediaUrlStr) && (!isTextZoneSeen())) {
+            return;
+        }
         String theMediaUrlPacketStr = "zone=" + zsl_ZoneUUID + "\n"
                 + "mediaurl=" + theMediaUrlStr + "\n";
         zsl_MulticastClient.sendNetworkCommand(theMediaUrlPacketStr, printNetworkCommandToTerminal);
     }
 
     /**
-     * returns HashMap<String, String> that contains the current Zone Controller
-     * information of said Zone Controllers that are connected to the multicast
-     * group
-     *
-     * TODO: perform a deep copy so that unsuspecting people won't screw up internal references
-     *
-     * @return HashMap<String, String>
+     * send playlist commands to another zone and have them carried out there
+     * in order, over the reliable command channel to its dashboard if the
+     * zone is known, else over the multicast group
+     * @param theZoneUUID String - the zone to send them to
+     * @param theBatch ZonePlaylistBatch
+     * @return boolean - were the commands sent or queued for sending?
+     */
+    public boolean sendPlaylistBatch(String theZoneUUID, ZonePlaylistBatch theBatch) {
+        byte[] aMessageBytes = getPlaylistMessageBytes(theZoneUUID, theBatch);
+        if (aMessageBytes == null) {
+            return false;
+        }
+        ZoneRegistry.Record aZoneRecord = zsl_ZoneRegistry.get(theZoneUUID);
+        if ((aZoneRecord != null) && (aZoneRecord.getDashBoardUrlStr() != null)) {
+            ZoneCommandChannel.getInstance().send(aZoneRecord.getDashBoardUrlStr(), aMessageBytes);
+            return true;
+        }
+        return sendMessages(aMessageBytes);
+    }
+
+    /**
+     * pack playlist commands into messages that each fit an Ethernet frame,
+     * every message with a sequence number of its own so a message sent
+     * again is carried out only once
+     * @param theZoneUUID String
+     * @param theBatch ZonePlaylistBatch
+     * @return byte[] - the messages one after another, null if they cannot
+     * be made
+     */
+    private byte[] getPlaylistMessageBytes(String theZoneUUID, ZonePlaylistBatch theBatch) {
+        byte[] aZoneIdBytes = new byte[ZoneWireMessage.kIdByteCount];
+        if (!ZoneWireMessage.getIdBytes(theZoneUUID, aZoneIdBytes)) {
+            return null;
+        }
+        List<String> aCommandList = theBatch.getCommandList();
+        ByteArrayOutputStream aMessageStream = new ByteArrayOutputStream();
+        synchronized (zsl_MessageBuffer) {
+            if (!zsl_HasZoneIdBytes) {
+                return null;
+            }
+            int i = 0;
+            while (i < aCommandList.size()) {
+                try {
+                    ZoneWireMessage.begin(zsl_MessageBuffer, ZoneWireMessage.kTypePlaylist, aZoneIdBytes);
+                    ZoneWireMessage.putField(zsl_MessageBuffer, zsl_ZoneUUID);
+                    ZoneWireMessage.putField(zsl_MessageBuffer, String.valueOf(++zsl_PlaylistSequence));
+                    do { //a command too long for a frame goes in a message of its own
+                        ZoneWireMessage.putField(zsl_MessageBuffer, aCommandList.get(i++));
+                    } while ((i < aCommandList.size())
+                            && (ZoneWireMessage.getFieldCount(zsl_MessageBuffer) < ZoneWireMessage.kMaxFieldCount)
+                            && (zsl_MessageBuffer.position() + ZoneWireMessage.getFieldByteCount(aCommandList.get(i))
+                            <= ZoneWireMessage.kFrameByteCount));
+                } catch (BufferOverflowException ex) {
+                    System.err.println(ex);
+                    return null;
+                }
+                aMessageStream.write(zsl_MessageBuffer.array(), 0, zsl_MessageBuffer.position());
+            }
+        }
+        return aMessageStream.toByteArray();
+    }
+
+    /**
+     * send messages made for the command channel to the multicast group
+     * instead, one datagram each
+     * @param theMessageBytes byte[] - messages one after another
+     * @return boolean - were all of them sent?
      */
-    public HashMap<String, String> getNodeInfoMap() {
-        return zsl_ZoneInfoMap;
+    boolean sendMessages(byte[] theMessageBytes) {
+        ByteBuffer aMessageBuffer = ByteBuffer.wrap(theMessageBytes);
+        ZoneWireMessage aMessage = new ZoneWireMessage();
+        int aOffset = 0;
+        while (aOffset < theMessageBytes.length) {
+            aMessageBuffer.limit(theMessageBytes.length).position(aOffset);
+            if (!aMessage.decode(aMessageBuffer)) {
+                return false;
+            }
+            aMessageBuffer.limit(aOffset + aMessage.getLength());
+            if (!zsl_MulticastClient.sendMessage(aMessageBuffer, printNetworkCommandToTerminal)) {
+                return false;
+            }
+            aOffset += aMessage.getLength();
+        }
+        return true;
     }
 
     /**
-     * returns HashMap<String, String> that contains the web DashBoard LAN
-     * addresses for the various Zone Controllers
-     *
-     * TODO: perform a deep copy so that unsuspecting people won't screw up internal references
-     *
-     * @return HashMap<String, String>
+     * returns the Zone Controllers that are connected to the multicast group,
+     * safe to iterate while zones come and go
+     * @return ZoneRegistry
      */
-    public HashMap<String, String> getNodeDashBoardMap() {
-        return zsl_ZoneDashBoardMap;
+    public ZoneRegistry getZoneRegistry() {
+        return zsl_ZoneRegistry;
+    }
+
+    /**
+     * @return String - the URL the other zones reach the dashboard of this
+     * zone at
+     */
+    public String getDashBoardUrlStr() {
+        return "http://" + Layer3Info.getInstance().getValidIPAddress(IpAddressType.IPv4)
+                + ":" + String.valueOf(JettyWebServer.getInstance().getServerPortInt());
     }
 
     /**
@@ -207,9 +361,10 @@ public class ZoneServerLogic {
      * all relevant identifiers
      */
     private void doZoneUUIDResponse() {
-        String aZoneDashBoardStr = "http://"
-                + Layer3Info.getInstance().getValidIPAddress(IpAddressType.IPv4)
-                + ":" + String.valueOf(JettyWebServer.getInstance().getServerPortInt());
+        String aZoneDashBoardStr = getDashBoardUrlStr();
+        if (sendMessage(ZoneWireMessage.kTypeZoneInfo, zsl_ZoneIdBytes, zsl_ZoneName, aZoneDashBoardStr) && (!isTextZoneSeen())) {
+            return;
+        }
         String theResponseStr = "zone=" + zsl_ZoneUUID + "\n"
                 + "name=" + zsl_ZoneName + "\n"
                 + "dashboard=" + aZoneDashBoardStr + "\n";
@@ -217,20 +372,76 @@ public class ZoneServerLogic {
     }
 
     /**
-     * check if the given zone (via UUID) is past the expiration time (TTL) passed in
-     * @param theZoneUUID String
-     * @param timeLapseInSecondsInt integer
-     * @return boolean - is the node record past expiration?
+     * send a binary message from this zone to the multicast group
+     * @param theType byte - one of the ZoneWireMessage types
+     * @param theFieldStrs String... - the fields in order
+     * @return boolean - was the message sent?
+     */
+    boolean sendOwnMessage(byte theType, String... theFieldStrs) {
+        return sendMessage(theType, zsl_ZoneIdBytes, theFieldStrs);
+    }
+
+    /**
+     * send a binary message for another zone to the multicast group
+     * @param theZoneUUID String - the zone the message is for
+     * @param theType byte - one of the ZoneWireMessage types
+     * @param theFieldStrs String... - the fields in order
+     * @return boolean - was the message sent?
      */
-    private boolean isExpiredZone(String theZoneUUID, int timeLapseInSecondsInt) {
-        Calendar theCurrentCalendar = new GregorianCalendar();
-        theCurrentCalendar.setTimeInMillis(theCurrentCalendar.getTimeInMillis() - (timeLapseInSecondsInt * 1000));
-        if (zsl_ZoneExpireMap.containsKey(theZoneUUID)) {
-            if (zsl_ZoneExpireMap.get(theZoneUUID).before(theCurrentCalendar)) {
-                return true;
+    boolean sendZoneMessage(String theZoneUUID, byte theType, String... theFieldStrs) {
+        byte[] aZoneIdBytes = new byte[ZoneWireMessage.kIdByteCount];
+        if (!ZoneWireMessage.getIdBytes(theZoneUUID, aZoneIdBytes)) {
+            return false;
+        }
+        return sendMessage(theType, aZoneIdBytes, theFieldStrs);
+    }
+
+    /**
+     * send a binary message to the multicast group
+     * @param theType byte - one of the ZoneWireMessage types
+     * @param theIdBytes byte[] - UUID of the zone the message is from or for
+     * @param theFieldStrs String... - the fields in order
+     * @return boolean - was the message sent? if not a text command has to do
+     */
+    private boolean sendMessage(byte theType, byte[] theIdBytes, String... theFieldStrs) {
+        synchronized (zsl_MessageBuffer) {
+            if (!zsl_HasZoneIdBytes) {
+                return false;
+            }
+            try {
+                ZoneWireMessage.begin(zsl_MessageBuffer, theType, theIdBytes);
+                for (String aFieldStr : theFieldStrs) {
+                    ZoneWireMessage.putField(zsl_MessageBuffer, aFieldStr);
+                }
+            } catch (BufferOverflowException ex) {
+                System.err.println(ex);
+                return false;
             }
+            zsl_MessageBuffer.flip();
+            return zsl_MulticastClient.sendMessage(zsl_MessageBuffer, printNetworkCommandToTerminal);
         }
-        return false;
+    }
+
+    /**
+     * zones of older versions only understand text commands, so those are
+     * sent as well for as long as such a zone is around
+     * @return boolean - was a text only zone heard from lately?
+     */
+    private boolean isTextZoneSeen() {
+        return (System.currentTimeMillis() - zsl_TextZoneSeenMillis) < (allNodesHardExpire * 1000L);
+    }
+
+    /**
+     * a zone that sends binary messages sends text commands only as copies
+     * for the older zones, which are dropped so nothing is done twice and
+     * newer zones do not keep each other sending text
+     * @param theZoneUUID String
+     * @return boolean - was a binary message heard from the zone lately?
+     */
+    private boolean isBinaryZone(String theZoneUUID) {
+        Long aHeardMillis = zsl_BinaryZoneMap.get(theZoneUUID);
+        return (aHeardMillis != null)
+                && ((System.currentTimeMillis() - aHeardMillis) < (allNodesHardExpire * 1000L));
     }
 
     /**
@@ -277,11 +488,11 @@ public class ZoneServerLogic {
 
         @Override
         public void run() {
-            for (String aNodeUUID : zsl_ZoneExpireMap.keySet()) {
-                if (isExpiredZone(aNodeUUID, allNodesHardExpire)) {
-                    zsl_ZoneInfoMap.remove(aNodeUUID);
-                    zsl_ZoneDashBoardMap.remove(aNodeUUID);
-                    zsl_ZoneExpireMap.remove(aNodeUUID);
+            zsl_ZoneRegistry.sweep();
+            long aNowMillis = System.currentTimeMillis();
+            for (Map.Entry<String, Long> aEntry : zsl_BinaryZoneMap.entrySet()) {
+                if ((aNowMillis - aEntry.getValue()) >= (allNodesHardExpire * 1000L)) {
+                    zsl_BinaryZoneMap.remove(aEntry.getKey(), aEntry.getValue());
                 }
             }
         }
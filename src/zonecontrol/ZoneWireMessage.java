@@ -0,0 +1,332 @@
+/*
+ * versioned binary format of the datagrams sent to the multicast group
+ *
+ * a message is a signature, the format version, the message type, the 20
+ * bytes of the SHA-1 zone UUID, the number of fields and then every field as
+ * an unsigned 16 bit length followed by that many bytes of UTF-8
+ *
+ * the signature is the magic byte, three newlines and the magic byte again -
+ * the magic byte is never the first byte of a text command, so zones still
+ * sending the older "key=value" lines can be told apart by the first byte,
+ * and a zone that only knows those lines trims the datagram and splits it
+ * into at least four lines, which it ignores, whatever newlines the rest of
+ * the message holds
+ *
+ * one instance is reused for every received datagram, decoding only records
+ * where the fields are and Strings are made only when a field is asked for
+ */
+package zonecontrol;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneWireMessage {
+
+    public static final byte kMagicByte = (byte) 0xD7; // not ASCII, a text command never starts with it
+    public static final byte kVersion = 2; // 1 had no newlines in the signature
+    private static final byte[] kSignatureBytes = {kMagicByte, '\n', '\n', '\n', kMagicByte};
+    public static final int kIdByteCount = 20; // a SHA-1 zone UUID
+    public static final byte kTypeZoneQuery = 1; // every zone answers with its info
+    public static final byte kTypeZoneInfo = 2; // fields: name, dashboard
+    public static final byte kTypeMediaUrl = 3; // fields: media url, for the zone of the UUID
+    public static final byte kTypePlaylist = 4; // fields: sender UUID, sequence number, ZonePlaylistBatch commands, for the zone of the UUID
+    public static final byte kTypeClockRequest = 5; // fields: sender UUID, sender clock, for the zone of the UUID
+    public static final byte kTypeClockResponse = 6; // fields: sender UUID, the three clock readings of ZoneParty, for the zone of the UUID
+    public static final byte kTypePartyPrepare = 7; // fields: leader UUID, party id, media url, for the zone of the UUID
+    public static final byte kTypePartyStart = 8; // fields: leader UUID, party id, media url, start time on the leader clock, for the zone of the UUID
+    public static final byte kTypeIndexerLease = 9; // fields: name, dashboard, holder, standby or withdrawn
+    public static final int kFrameByteCount = 1472; // UDP payload of an Ethernet frame, batches are split to fit
+    public static final int kMaxFieldCount = 255; // as many as the count byte can tell
+    private static final int kVersionOffset = 5; // after the signature
+    private static final int kFieldCountOffset = kVersionOffset + 2 + kIdByteCount;
+    private static final char[] kHexCharArray = "0123456789abcdef".toCharArray();
+    private ByteBuffer zwm_Buffer = null; // the datagram decoded last
+    private int zwm_Version = 0;
+    private int zwm_Type = 0;
+    private final byte[] zwm_IdBytes = new byte[kIdByteCount];
+    private int zwm_FieldCount = 0;
+    private int zwm_Length = 0; // bytes of the message decoded last
+    private long zwm_ReceiveNanos = 0; // System.nanoTime when the datagram came in
+    private final int[] zwm_FieldOffsetArray = new int[kMaxFieldCount];
+    private final int[] zwm_FieldLengthArray = new int[kMaxFieldCount];
+
+    public ZoneWireMessage() {
+    }
+
+    /**
+     * @param theBytes byte[] - a received datagram
+     * @param theLength int - of the datagram
+     * @return boolean - is it a binary message rather than a text command?
+     */
+    public static boolean isWireMessage(byte[] theBytes, int theLength) {
+        if (theLength < kSignatureBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < kSignatureBytes.length; i++) {
+            if (theBytes[i] != kSignatureBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * start a message, the fields follow with putField
+     * @param theBuffer ByteBuffer - cleared and written from the start
+     * @param theType byte
+     * @param theIdBytes byte[] - zone UUID, kIdByteCount bytes
+     */
+    public static void begin(ByteBuffer theBuffer, byte theType, byte[] theIdBytes) {
+        theBuffer.clear();
+        theBuffer.put(kSignatureBytes).put(kVersion).put(theType);
+        theBuffer.put(theIdBytes, 0, kIdByteCount);
+        theBuffer.put((byte) 0); // field count, counted up by putField
+    }
+
+    /**
+     * append a field to the message begun in the buffer, encoded as UTF-8
+     * straight into the buffer
+     * @param theBuffer ByteBuffer
+     * @param theFieldStr String
+     * @throws java.nio.BufferOverflowException if the field does not fit
+     */
+    public static void putField(ByteBuffer theBuffer, String theFieldStr) {
+        int aFieldCount = theBuffer.get(kFieldCountOffset) & 0xFF;
+        if (aFieldCount == kMaxFieldCount) {
+            throw new IllegalStateException("more than " + kMaxFieldCount + " fields");
+        }
+        int aLengthOffset = theBuffer.position();
+        theBuffer.putShort((short) 0); // length, written once the field is
+        for (int i = 0; i < theFieldStr.length(); i++) {
+            char aChar = theFieldStr.charAt(i);
+            if (aChar < 0x80) {
+                theBuffer.put((byte) aChar);
+            } else if (aChar < 0x800) {
+                theBuffer.put((byte) (0xC0 | (aChar >> 6)));
+                theBuffer.put((byte) (0x80 | (aChar & 0x3F)));
+            } else if (Character.isHighSurrogate(aChar) && (i + 1 < theFieldStr.length())
+                    && Character.isLowSurrogate(theFieldStr.charAt(i + 1))) {
+                int aCodePoint = Character.toCodePoint(aChar, theFieldStr.charAt(++i));
+                theBuffer.put((byte) (0xF0 | (aCodePoint >> 18)));
+                theBuffer.put((byte) (0x80 | ((aCodePoint >> 12) & 0x3F)));
+                theBuffer.put((byte) (0x80 | ((aCodePoint >> 6) & 0x3F)));
+                theBuffer.put((byte) (0x80 | (aCodePoint & 0x3F)));
+            } else if (Character.isHighSurrogate(aChar) || Character.isLowSurrogate(aChar)) {
+                theBuffer.put((byte) '?'); // half of a pair cannot be encoded
+            } else {
+                theBuffer.put((byte) (0xE0 | (aChar >> 12)));
+                theBuffer.put((byte) (0x80 | ((aChar >> 6) & 0x3F)));
+                theBuffer.put((byte) (0x80 | (aChar & 0x3F)));
+            }
+        }
+        int aFieldLength = theBuffer.position() - aLengthOffset - 2;
+        if (aFieldLength > 0xFFFF) {
+            throw new IllegalStateException("field of " + aFieldLength + " bytes");
+        }
+        theBuffer.putShort(aLengthOffset, (short) aFieldLength);
+        theBuffer.put(kFieldCountOffset, (byte) (aFieldCount + 1));
+    }
+
+    /**
+     * @param theFieldStr String
+     * @return int - bytes putField takes for the field, length included
+     */
+    public static int getFieldByteCount(String theFieldStr) {
+        int returnByteCount = 2;
+        for (int i = 0; i < theFieldStr.length(); i++) {
+            char aChar = theFieldStr.charAt(i);
+            if (aChar < 0x80) {
+                returnByteCount += 1;
+            } else if (aChar < 0x800) {
+                returnByteCount += 2;
+            } else if (Character.isHighSurrogate(aChar) && (i + 1 < theFieldStr.length())
+                    && Character.isLowSurrogate(theFieldStr.charAt(i + 1))) {
+                returnByteCount += 4;
+                i++;
+            } else if (Character.isHighSurrogate(aChar) || Character.isLowSurrogate(aChar)) {
+                returnByteCount += 1;
+            } else {
+                returnByteCount += 3;
+            }
+        }
+        return returnByteCount;
+    }
+
+    /**
+     * @param theBuffer ByteBuffer - with a message begun in it
+     * @return int - fields put so far
+     */
+    public static int getFieldCount(ByteBuffer theBuffer) {
+        return theBuffer.get(kFieldCountOffset) & 0xFF;
+    }
+
+    /**
+     * read a message, the buffer is referred to until the next decode so it
+     * must not be reused before the fields were read
+     * @param theBuffer ByteBuffer - from its position up to its limit
+     * @return boolean - is it a well formed message? newer versions are
+     * accepted as long as their header and fields can be read, older ones
+     * are laid out differently and are not
+     */
+    public boolean decode(ByteBuffer theBuffer) {
+        zwm_Buffer = null;
+        int aStart = theBuffer.position();
+        if (theBuffer.remaining() < kFieldCountOffset + 1) {
+            return false;
+        }
+        for (int i = 0; i < kSignatureBytes.length; i++) {
+            if (theBuffer.get(aStart + i) != kSignatureBytes[i]) {
+                return false;
+            }
+        }
+        zwm_Version = theBuffer.get(aStart + kVersionOffset) & 0xFF;
+        if (zwm_Version < kVersion) {
+            return false;
+        }
+        zwm_Type = theBuffer.get(aStart + kVersionOffset + 1) & 0xFF;
+        for (int i = 0; i < kIdByteCount; i++) {
+            zwm_IdBytes[i] = theBuffer.get(aStart + kVersionOffset + 2 + i);
+        }
+        int aFieldCount = theBuffer.get(aStart + kFieldCountOffset) & 0xFF;
+        int aOffset = aStart + kFieldCountOffset + 1;
+        zwm_FieldCount = 0;
+        for (int i = 0; i < aFieldCount; i++) {
+            if (aOffset + 2 > theBuffer.limit()) {
+                return false;
+            }
+            int aFieldLength = theBuffer.getShort(aOffset) & 0xFFFF;
+            aOffset += 2;
+            if (aOffset + aFieldLength > theBuffer.limit()) {
+                return false;
+            }
+            if (zwm_FieldCount < kMaxFieldCount) { // fields of a newer version past ours are skipped
+                zwm_FieldOffsetArray[zwm_FieldCount] = aOffset;
+                zwm_FieldLengthArray[zwm_FieldCount] = aFieldLength;
+                zwm_FieldCount++;
+            }
+            aOffset += aFieldLength;
+        }
+        zwm_Length = aOffset - aStart;
+        zwm_Buffer = theBuffer;
+        return true;
+    }
+
+    public int getVersion() {
+        return zwm_Version;
+    }
+
+    public int getType() {
+        return zwm_Type;
+    }
+
+    public int getFieldCount() {
+        return zwm_FieldCount;
+    }
+
+    /**
+     * @return long - System.nanoTime when the datagram came in, as set by the
+     * receiver
+     */
+    public long getReceiveNanos() {
+        return zwm_ReceiveNanos;
+    }
+
+    public void setReceiveNanos(long theReceiveNanos) {
+        zwm_ReceiveNanos = theReceiveNanos;
+    }
+
+    /**
+     * @return int - bytes the message took, messages sent one after another
+     * in a stream start right after each other
+     */
+    public int getLength() {
+        return zwm_Length;
+    }
+
+    /**
+     * @param theIdBytes byte[]
+     * @return boolean - is the message from or for the zone of this UUID?
+     */
+    public boolean isId(byte[] theIdBytes) {
+        for (int i = 0; i < kIdByteCount; i++) {
+            if (zwm_IdBytes[i] != theIdBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return String - the zone UUID as the hex digits used everywhere else
+     */
+    public String getIdStr() {
+        char[] aHexCharArray = new char[kIdByteCount * 2];
+        for (int i = 0; i < kIdByteCount; i++) {
+            aHexCharArray[i * 2] = kHexCharArray[(zwm_IdBytes[i] >> 4) & 0x0F];
+            aHexCharArray[i * 2 + 1] = kHexCharArray[zwm_IdBytes[i] & 0x0F];
+        }
+        return new String(aHexCharArray);
+    }
+
+    /**
+     * @param theFieldIndex int
+     * @return String - null if the message has no such field
+     */
+    public String getFieldStr(int theFieldIndex) {
+        if ((zwm_Buffer == null) || (theFieldIndex >= zwm_FieldCount)) {
+            return null;
+        }
+        int aOffset = zwm_FieldOffsetArray[theFieldIndex];
+        int aLength = zwm_FieldLengthArray[theFieldIndex];
+        byte[] aBytes;
+        if (zwm_Buffer.hasArray()) {
+            aBytes = zwm_Buffer.array();
+            aOffset += zwm_Buffer.arrayOffset();
+        } else {
+            aBytes = new byte[aLength];
+            for (int i = 0; i < aLength; i++) {
+                aBytes[i] = zwm_Buffer.get(aOffset + i);
+            }
+            aOffset = 0;
+        }
+        try {
+            return new String(aBytes, aOffset, aLength, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex.toString()); // every Java platform has UTF-8
+        }
+    }
+
+    /**
+     * @param theIdStr String - a zone UUID as hex digits
+     * @param theIdBytes byte[] - kIdByteCount bytes to fill
+     * @return boolean - was it a UUID of hex digits that fits?
+     */
+    public static boolean getIdBytes(String theIdStr, byte[] theIdBytes) {
+        if ((theIdStr == null) || (theIdStr.length() != kIdByteCount * 2)) {
+            return false;
+        }
+        for (int i = 0; i < kIdByteCount; i++) {
+            int aHighInt = Character.digit(theIdStr.charAt(i * 2), 16);
+            int aLowInt = Character.digit(theIdStr.charAt(i * 2 + 1), 16);
+            if ((aHighInt < 0) || (aLowInt < 0)) {
+                return false;
+            }
+            theIdBytes[i] = (byte) ((aHighInt << 4) | aLowInt);
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder returnStr = new StringBuilder();
+        returnStr.append("v").append(zwm_Version).append(" type=").append(zwm_Type)
+                .append(" zone=").append(getIdStr());
+        for (int i = 0; i < zwm_FieldCount; i++) {
+            returnStr.append("\n").append(getFieldStr(i));
+        }
+        return returnStr.toString();
+    }
+}
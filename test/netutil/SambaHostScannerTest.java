@@ -0,0 +1,97 @@
+/*
+ * test the parsing of the address ranges the host scan is given
+ */
+package netutil;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jason Zerbe
+ */
+public class SambaHostScannerTest {
+
+    public SambaHostScannerTest() {
+    }
+
+    /**
+     * dotted quads of four octets from 0 to 255 only
+     */
+    @Test
+    public void testParseIPv4() {
+        System.out.println("parseIPv4");
+        assertEquals(0xC0A80001L, SambaHostScanner.parseIPv4("192.168.0.1"));
+        assertEquals(0L, SambaHostScanner.parseIPv4("0.0.0.0"));
+        assertEquals(0xFFFFFFFFL, SambaHostScanner.parseIPv4(" 255.255.255.255 "));
+        assertEquals("10.0.42.7", SambaHostScanner.formatIPv4(SambaHostScanner.parseIPv4("10.0.42.7")));
+
+        assertEquals(-1, SambaHostScanner.parseIPv4("192.168.0.256")); // a scan max past the last octet
+        assertEquals(-1, SambaHostScanner.parseIPv4("192.168.0.-1"));
+        assertEquals(-1, SambaHostScanner.parseIPv4("192.168.0.+1"));
+        assertEquals(-1, SambaHostScanner.parseIPv4("192.168.0.1000"));
+        assertEquals(-1, SambaHostScanner.parseIPv4("192.168.0"));
+        assertEquals(-1, SambaHostScanner.parseIPv4("192.168.0.1.2"));
+        assertEquals(-1, SambaHostScanner.parseIPv4("192.168.0.1."));
+        assertEquals(-1, SambaHostScanner.parseIPv4("192..0.1"));
+        assertEquals(-1, SambaHostScanner.parseIPv4("a.b.c.d"));
+        assertEquals(-1, SambaHostScanner.parseIPv4(""));
+    }
+
+    /**
+     * network and broadcast addresses are left out below a /31, a single
+     * address is its own range
+     */
+    @Test
+    public void testParseCIDR() {
+        System.out.println("parseCIDR");
+        assertArrayEquals(new long[]{0xC0A80001L, 0xC0A803FEL}, SambaHostScanner.parseCIDR("192.168.1.77/22"));
+        assertArrayEquals(new long[]{0xC0A80001L, 0xC0A800FEL}, SambaHostScanner.parseCIDR("192.168.0.0/24"));
+        assertArrayEquals(new long[]{0xC0A80004L, 0xC0A80005L}, SambaHostScanner.parseCIDR("192.168.0.5/31"));
+        assertArrayEquals(new long[]{0xC0A80005L, 0xC0A80005L}, SambaHostScanner.parseCIDR("192.168.0.5/32"));
+        assertArrayEquals(new long[]{0xC0A80005L, 0xC0A80005L}, SambaHostScanner.parseCIDR("192.168.0.5"));
+        assertArrayEquals(new long[]{0x0A000001L, 0x0A00FFFEL}, SambaHostScanner.parseCIDR("10.0.3.4/16"));
+
+        assertNull(SambaHostScanner.parseCIDR(null));
+        assertNull(SambaHostScanner.parseCIDR("192.168.0.0/33"));
+        assertNull(SambaHostScanner.parseCIDR("192.168.0.0/-1"));
+        assertNull(SambaHostScanner.parseCIDR("192.168.0.0/"));
+        assertNull(SambaHostScanner.parseCIDR("192.168.0.0/x"));
+        assertNull(SambaHostScanner.parseCIDR("192.168.0.0/24/24"));
+        assertNull(SambaHostScanner.parseCIDR("192.168.0.256/24"));
+    }
+
+    /**
+     * a range that would keep the index build scanning for hours is refused,
+     * or cut short when given as addresses
+     */
+    @Test
+    public void testWideRange() {
+        System.out.println("wideRange");
+        assertNull(SambaHostScanner.parseCIDR("10.0.0.0/8"));
+        assertNull(SambaHostScanner.parseCIDR("0.0.0.0/0"));
+        assertNull(SambaHostScanner.parseCIDR("10.0.0.0/15"));
+
+        long aFirstAddr = SambaHostScanner.parseIPv4("10.0.0.1");
+        assertEquals(aFirstAddr + SambaHostScanner.kMaxScanAddrCount - 1,
+                SambaHostScanner.getLastScanAddr(aFirstAddr, SambaHostScanner.parseIPv4("10.255.255.254")));
+        long aLastAddr = SambaHostScanner.parseIPv4("10.0.0.254");
+        assertEquals(aLastAddr, SambaHostScanner.getLastScanAddr(aFirstAddr, aLastAddr));
+    }
+
+    /**
+     * an empty range is done at once without finding anything
+     */
+    @Test
+    public void testScanEmptyRange() {
+        System.out.println("scanEmptyRange");
+        SambaHostScanner instance = new SambaHostScanner(SambaHostScanner.kDefaultProbesPerSecond,
+                SambaHostScanner.kDefaultConnectTimeoutMillis, false);
+        assertEquals(0, instance.scan(2, 1, new SambaHostScanner.HostListener() {
+
+            @Override
+            public void hostFound(String theIPv4Addr) {
+                fail("no address to find " + theIPv4Addr + " at");
+            }
+        }));
+    }
+}
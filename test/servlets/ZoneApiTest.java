@@ -0,0 +1,101 @@
+/*
+ * test the entity tags of the JSON interface
+ */
+package servlets;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneApiTest {
+
+    public ZoneApiTest() {
+    }
+
+    /**
+     * @param theIfNoneMatchStr String - null for none
+     * @return HttpServletRequest - answering only getHeader
+     */
+    private static HttpServletRequest getRequest(final String theIfNoneMatchStr) {
+        return (HttpServletRequest) Proxy.newProxyInstance(ZoneApiTest.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class}, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object theProxy, Method theMethod, Object[] theArgs) {
+                if (theMethod.getName().equals("getHeader") && "If-None-Match".equals(theArgs[0])) {
+                    return theIfNoneMatchStr;
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @param theHeaderMap HashMap<String, Object> - gets the headers and
+     * the status, under "status"
+     * @return HttpServletResponse - recording only setHeader and setStatus
+     */
+    private static HttpServletResponse getResponse(final HashMap<String, Object> theHeaderMap) {
+        return (HttpServletResponse) Proxy.newProxyInstance(ZoneApiTest.class.getClassLoader(),
+                new Class<?>[]{HttpServletResponse.class}, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object theProxy, Method theMethod, Object[] theArgs) {
+                if (theMethod.getName().equals("setHeader")) {
+                    theHeaderMap.put((String) theArgs[0], theArgs[1]);
+                } else if (theMethod.getName().equals("setStatus")) {
+                    theHeaderMap.put("status", theArgs[0]);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static boolean isNotModified(String theIfNoneMatchStr, HashMap<String, Object> theHeaderMap) {
+        return ZoneApi.isNotModified(getRequest(theIfNoneMatchStr), getResponse(theHeaderMap), "g42");
+    }
+
+    /**
+     * every answer carries the tag, a client sending it back gets a 304
+     */
+    @Test
+    public void testNotModified() {
+        System.out.println("notModified");
+        HashMap<String, Object> aHeaderMap = new HashMap<String, Object>();
+        assertTrue(isNotModified("\"g42\"", aHeaderMap));
+        assertEquals("\"g42\"", aHeaderMap.get("ETag"));
+        assertEquals("no-cache", aHeaderMap.get("Cache-Control"));
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, aHeaderMap.get("status"));
+
+        assertTrue(isNotModified("W/\"g42\"", new HashMap<String, Object>())); // weak is enough
+        assertTrue(isNotModified("\"g41\", \"g42\"", new HashMap<String, Object>()));
+        assertTrue(isNotModified("*", new HashMap<String, Object>()));
+    }
+
+    /**
+     * a client without the tag, or with another one, gets the body
+     */
+    @Test
+    public void testModified() {
+        System.out.println("modified");
+        HashMap<String, Object> aHeaderMap = new HashMap<String, Object>();
+        assertFalse(isNotModified(null, aHeaderMap));
+        assertEquals("\"g42\"", aHeaderMap.get("ETag"));
+        assertNull(aHeaderMap.get("status"));
+
+        aHeaderMap.clear();
+        assertFalse(isNotModified("\"g41\"", aHeaderMap));
+        assertEquals("\"g42\"", aHeaderMap.get("ETag"));
+        assertNull(aHeaderMap.get("status"));
+        assertFalse(isNotModified("g42", new HashMap<String, Object>())); // tags are quoted
+        assertFalse(isNotModified("\"g4\"", new HashMap<String, Object>()));
+    }
+}
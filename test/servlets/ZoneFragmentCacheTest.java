@@ -0,0 +1,127 @@
+/*
+ * test the byte budget, the eviction order and the per facet invalidation of
+ * the library fragment cache
+ */
+package servlets;
+
+import java.util.EnumMap;
+import java.util.Random;
+import org.junit.Test;
+import zonecontrol.LibraryFacetType;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneFragmentCacheTest {
+
+    private static final long kMaxBytes = 4096;
+
+    public ZoneFragmentCacheTest() {
+    }
+
+    private static EnumMap<LibraryFacetType, Integer> getVersionMap(LibraryFacetType theFacetType, int theVersion) {
+        EnumMap<LibraryFacetType, Integer> returnVersionMap = new EnumMap<LibraryFacetType, Integer>(LibraryFacetType.class);
+        returnVersionMap.put(theFacetType, theVersion);
+        return returnVersionMap;
+    }
+
+    /**
+     * @return String - that deflate cannot shrink much, so it takes about
+     * its length out of the budget
+     */
+    private static String getFragment(long theSeed, int theLength) {
+        Random aRandom = new Random(theSeed);
+        StringBuilder returnFragment = new StringBuilder(theLength);
+        for (int i = 0; i < theLength; i++) {
+            returnFragment.append((char) ('!' + aRandom.nextInt(90)));
+        }
+        return returnFragment.toString();
+    }
+
+    /**
+     * a fragment comes back as it was put, only for the versions it was
+     * rendered from
+     */
+    @Test
+    public void testGetPut() {
+        System.out.println("getPut");
+        ZoneFragmentCache instance = new ZoneFragmentCache(kMaxBytes);
+        String aFragmentStr = "<li>F\u00fcr Elise</li>";
+        assertNull(instance.get("album", getVersionMap(LibraryFacetType.album, 1)));
+        instance.put("album", getVersionMap(LibraryFacetType.album, 1), aFragmentStr);
+        assertEquals(aFragmentStr, instance.get("album", getVersionMap(LibraryFacetType.album, 1)));
+        assertNull(instance.get("album", getVersionMap(LibraryFacetType.artist, 1))); // other facets
+        assertEquals(2L, (long) instance.getCounters().get("misses"));
+        assertEquals(1L, (long) instance.getCounters().get("hits"));
+    }
+
+    /**
+     * the cache stays within its budget by dropping the least recently used
+     * fragments, and a fragment too large for it is not kept at all
+     */
+    @Test
+    public void testByteBudget() {
+        System.out.println("byteBudget");
+        ZoneFragmentCache instance = new ZoneFragmentCache(kMaxBytes);
+        EnumMap<LibraryFacetType, Integer> aVersionMap = getVersionMap(LibraryFacetType.title, 1);
+        for (int i = 0; i < 4; i++) {
+            instance.put("title" + i, aVersionMap, getFragment(i, 600));
+        }
+        assertNotNull(instance.get("title0", aVersionMap)); // now the most recently used
+        for (int i = 4; i < 8; i++) {
+            instance.put("title" + i, aVersionMap, getFragment(i, 600));
+        }
+
+        assertTrue(instance.getCounters().get("bytes") <= kMaxBytes);
+        assertTrue(instance.getCounters().get("evictions") > 0);
+        assertNotNull(instance.get("title0", aVersionMap));
+        assertNull(instance.get("title1", aVersionMap));
+        assertNotNull(instance.get("title7", aVersionMap));
+
+        instance.put("huge", aVersionMap, getFragment(8, (int) kMaxBytes));
+        assertNull(instance.get("huge", aVersionMap));
+        assertNotNull(instance.get("title7", aVersionMap)); // nothing pushed out for it
+    }
+
+    /**
+     * a newer version of a facet drops the fragments rendered from that
+     * facet only
+     */
+    @Test
+    public void testFacetInvalidation() {
+        System.out.println("facetInvalidation");
+        ZoneFragmentCache instance = new ZoneFragmentCache(kMaxBytes);
+        EnumMap<LibraryFacetType, Integer> aBothVersionMap = getVersionMap(LibraryFacetType.album, 1);
+        aBothVersionMap.put(LibraryFacetType.artist, 1);
+        instance.put("album", getVersionMap(LibraryFacetType.album, 1), "albums");
+        instance.put("artist", getVersionMap(LibraryFacetType.artist, 1), "artists");
+        instance.put("both", aBothVersionMap, "albums by artist");
+
+        assertNull(instance.get("album", getVersionMap(LibraryFacetType.album, 2)));
+        assertEquals(2L, (long) instance.getCounters().get("invalidations"));
+        assertEquals("artists", instance.get("artist", getVersionMap(LibraryFacetType.artist, 1)));
+        assertEquals(1L, (long) instance.getCounters().get("fragments"));
+
+        assertNull(instance.get("album", getVersionMap(LibraryFacetType.album, 1))); // an older version is not the cached one
+        instance.put("album", getVersionMap(LibraryFacetType.album, 2), "new albums");
+        assertEquals("new albums", instance.get("album", getVersionMap(LibraryFacetType.album, 2)));
+    }
+
+    /**
+     * a fragment rendered from a version that was replaced while it was
+     * rendered is not kept
+     */
+    @Test
+    public void testNewerVersionWhileRendering() {
+        System.out.println("newerVersionWhileRendering");
+        ZoneFragmentCache instance = new ZoneFragmentCache(kMaxBytes);
+        assertNull(instance.get("genre", getVersionMap(LibraryFacetType.genre, 1))); // starts rendering
+        assertNull(instance.get("genre", getVersionMap(LibraryFacetType.genre, 2))); // a request after the next build
+        instance.put("genre", getVersionMap(LibraryFacetType.genre, 1), "old genres");
+
+        assertEquals(0L, (long) instance.getCounters().get("fragments"));
+        assertNull(instance.get("genre", getVersionMap(LibraryFacetType.genre, 1)));
+        assertNull(instance.get("genre", getVersionMap(LibraryFacetType.genre, 2)));
+    }
+}
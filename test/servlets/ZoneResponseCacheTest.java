@@ -0,0 +1,102 @@
+/*
+ * test that the response cache holds a single generation, within its byte
+ * budget
+ */
+package servlets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneResponseCacheTest {
+
+    public ZoneResponseCacheTest() {
+    }
+
+    private static ZoneResponseCache.Entry getEntry(String theKeyStr, int theLength) {
+        byte[] aBody = new byte[theLength];
+        for (int i = 0; i < theLength; i++) {
+            aBody[i] = (byte) ('a' + (i % 26));
+        }
+        return new ZoneResponseCache.Entry(theKeyStr, aBody);
+    }
+
+    /**
+     * a response is only found for the generation it was rendered from, and
+     * the first response of a newer generation empties the cache
+     */
+    @Test
+    public void testGenerationSwitch() {
+        System.out.println("generationSwitch");
+        ZoneResponseCache instance = new ZoneResponseCache(1000);
+        ZoneResponseCache.Entry aEntry = getEntry("list=Album", 10);
+        instance.put("1", "list=Album", aEntry);
+        instance.put("1", "list=Artist", getEntry("list=Artist", 10));
+        assertSame(aEntry, instance.get("1", "list=Album"));
+        assertNull(instance.get("2", "list=Album"));
+        assertEquals(2, instance.size());
+
+        instance.put("2", "list=Genre", getEntry("list=Genre", 10));
+        assertEquals(1, instance.size());
+        assertNull(instance.get("1", "list=Album"));
+        assertNull(instance.get("1", "list=Genre")); // older than what is cached
+        assertNotNull(instance.get("2", "list=Genre"));
+    }
+
+    /**
+     * the least recently used responses go first once the bodies take up
+     * more than the budget, a body too large for it is not kept
+     */
+    @Test
+    public void testByteBudget() {
+        System.out.println("byteBudget");
+        ZoneResponseCache instance = new ZoneResponseCache(1000);
+        for (int i = 0; i < 4; i++) {
+            instance.put("1", "page=" + i, getEntry("page=" + i, 240));
+        }
+        assertNotNull(instance.get("1", "page=0")); // now the most recently used
+        instance.put("1", "page=4", getEntry("page=4", 240));
+        assertEquals(4, instance.size());
+        assertNotNull(instance.get("1", "page=0"));
+        assertNull(instance.get("1", "page=1"));
+
+        instance.put("1", "page=5", getEntry("page=5", 251));
+        assertNull(instance.get("1", "page=5"));
+        assertEquals(4, instance.size());
+    }
+
+    /**
+     * the gzipped copy unzips to the body, is made once and counts against
+     * the budget
+     */
+    @Test
+    public void testGzipBody() throws IOException {
+        System.out.println("gzipBody");
+        ZoneResponseCache instance = new ZoneResponseCache(1000);
+        ZoneResponseCache.Entry aEntry = getEntry("page=0", 240);
+        instance.put("1", "page=0", aEntry);
+        byte[] aGzipBody = aEntry.getGzipBody();
+        assertSame(aGzipBody, aEntry.getGzipBody());
+
+        GZIPInputStream aGzipStream = new GZIPInputStream(new ByteArrayInputStream(aGzipBody));
+        ByteArrayOutputStream aByteStream = new ByteArrayOutputStream();
+        byte[] aBuffer = new byte[256];
+        int aReadCount;
+        while ((aReadCount = aGzipStream.read(aBuffer)) > 0) {
+            aByteStream.write(aBuffer, 0, aReadCount);
+        }
+        assertArrayEquals(aEntry.getBody(), aByteStream.toByteArray());
+
+        for (int i = 1; i < 4; i++) { // room for four bodies, not for them and the gzipped copy
+            instance.put("1", "page=" + i, getEntry("page=" + i, 240));
+        }
+        assertNull(instance.get("1", "page=0"));
+        assertEquals(3, instance.size());
+    }
+}
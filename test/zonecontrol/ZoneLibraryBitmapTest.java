@@ -0,0 +1,241 @@
+/*
+ * test the bitmap of file ids against a plain sorted set, across sparse and
+ * dense containers
+ */
+package zonecontrol;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryBitmapTest {
+
+    private static final int kContainerIdCount = 65536;
+    private static final int kMaxArrayCardinality = 4096;
+
+    public ZoneLibraryBitmapTest() {
+    }
+
+    /**
+     * ids of four containers - sparse, dense, full and sparse again past a
+     * gap in the keys
+     */
+    private static TreeSet<Integer> getIdSet(long theSeed) {
+        Random aRandom = new Random(theSeed);
+        TreeSet<Integer> returnIdSet = new TreeSet<Integer>();
+        for (int i = 0; i < 100; i++) {
+            returnIdSet.add(aRandom.nextInt(kContainerIdCount));
+        }
+        for (int i = 0; i < 20000; i++) {
+            returnIdSet.add(kContainerIdCount + aRandom.nextInt(kContainerIdCount));
+        }
+        for (int i = 0; i < kContainerIdCount; i++) {
+            if (aRandom.nextInt(4) != 0) {
+                returnIdSet.add(2 * kContainerIdCount + i);
+            }
+        }
+        for (int i = 0; i < 3000; i++) {
+            returnIdSet.add(7 * kContainerIdCount + aRandom.nextInt(kContainerIdCount));
+        }
+        return returnIdSet;
+    }
+
+    private static ZoneLibraryBitmap toBitmap(TreeSet<Integer> theIdSet) {
+        ZoneLibraryBitmap returnBitmap = new ZoneLibraryBitmap();
+        for (Integer aId : theIdSet) {
+            assertTrue(returnBitmap.add(aId));
+        }
+        return returnBitmap;
+    }
+
+    private static void assertSameIds(TreeSet<Integer> theIdSet, ZoneLibraryBitmap theBitmap) {
+        assertEquals(theIdSet.size(), theBitmap.size());
+        assertEquals(theIdSet.isEmpty(), theBitmap.isEmpty());
+        int[] aIdArray = theBitmap.toIdArray();
+        assertEquals(theIdSet.size(), aIdArray.length);
+        Iterator<Integer> aIdIterator = theIdSet.iterator();
+        int aId = theBitmap.nextId(0);
+        for (int i = 0; i < aIdArray.length; i++) {
+            int aExpectedId = aIdIterator.next();
+            assertEquals(aExpectedId, aIdArray[i]);
+            assertEquals(aExpectedId, aId);
+            assertTrue(theBitmap.contains(aExpectedId));
+            aId = theBitmap.nextId(aId + 1);
+        }
+        assertEquals(-1, aId);
+    }
+
+    /**
+     * ids come back in order from every kind of container
+     */
+    @Test
+    public void testAddContainsNextId() {
+        System.out.println("addContainsNextId");
+        TreeSet<Integer> aIdSet = getIdSet(1);
+        ZoneLibraryBitmap instance = toBitmap(aIdSet);
+        assertSameIds(aIdSet, instance);
+        assertFalse(instance.add(aIdSet.first()));
+        assertFalse(instance.contains(-1));
+        assertFalse(instance.contains(5 * kContainerIdCount));
+        assertEquals(7 * kContainerIdCount, instance.nextId(3 * kContainerIdCount) & ~0xFFFF);
+        assertEquals(-1, instance.nextId(8 * kContainerIdCount));
+        assertFalse(instance.isBitmapContainer(0));
+        assertTrue(instance.isBitmapContainer(kContainerIdCount));
+        assertTrue(instance.isBitmapContainer(2 * kContainerIdCount));
+        assertFalse(instance.isBitmapContainer(7 * kContainerIdCount));
+    }
+
+    /**
+     * and, or and andNot give the same ids as the set operations, for every
+     * pairing of array and bitmap containers
+     */
+    @Test
+    public void testAndOrAndNot() {
+        System.out.println("andOrAndNot");
+        TreeSet<Integer> aFirstIdSet = getIdSet(2);
+        TreeSet<Integer> aSecondIdSet = getIdSet(3);
+        aSecondIdSet.add(9 * kContainerIdCount); // a key only the second has
+        ZoneLibraryBitmap aFirstBitmap = toBitmap(aFirstIdSet);
+        ZoneLibraryBitmap aSecondBitmap = toBitmap(aSecondIdSet);
+        TreeSet<Integer> aSparseIdSet = new TreeSet<Integer>(); // array containers against the others' bitmaps
+        Random aRandom = new Random(4);
+        for (int i = 0; i < 500; i++) {
+            aSparseIdSet.add(aRandom.nextInt(10 * kContainerIdCount));
+        }
+        ZoneLibraryBitmap aSparseBitmap = toBitmap(aSparseIdSet);
+
+        TreeSet<Integer> aExpectedIdSet = new TreeSet<Integer>(aFirstIdSet);
+        aExpectedIdSet.retainAll(aSecondIdSet);
+        assertSameIds(aExpectedIdSet, ZoneLibraryBitmap.and(aFirstBitmap, aSecondBitmap));
+        assertSameIds(aExpectedIdSet, ZoneLibraryBitmap.and(aSecondBitmap, aFirstBitmap));
+
+        aExpectedIdSet = new TreeSet<Integer>(aFirstIdSet);
+        aExpectedIdSet.addAll(aSecondIdSet);
+        assertSameIds(aExpectedIdSet, ZoneLibraryBitmap.or(aFirstBitmap, aSecondBitmap));
+        assertSameIds(aExpectedIdSet, ZoneLibraryBitmap.or(aSecondBitmap, aFirstBitmap));
+
+        aExpectedIdSet = new TreeSet<Integer>(aFirstIdSet);
+        aExpectedIdSet.removeAll(aSecondIdSet);
+        assertSameIds(aExpectedIdSet, ZoneLibraryBitmap.andNot(aFirstBitmap, aSecondBitmap));
+        aExpectedIdSet = new TreeSet<Integer>(aSecondIdSet);
+        aExpectedIdSet.removeAll(aFirstIdSet);
+        assertSameIds(aExpectedIdSet, ZoneLibraryBitmap.andNot(aSecondBitmap, aFirstBitmap));
+
+        aExpectedIdSet = new TreeSet<Integer>(aSparseIdSet);
+        aExpectedIdSet.retainAll(aFirstIdSet);
+        assertSameIds(aExpectedIdSet, ZoneLibraryBitmap.and(aFirstBitmap, aSparseBitmap));
+        assertSameIds(aExpectedIdSet, ZoneLibraryBitmap.and(aSparseBitmap, aFirstBitmap));
+        aExpectedIdSet = new TreeSet<Integer>(aSparseIdSet);
+        aExpectedIdSet.removeAll(aFirstIdSet);
+        assertSameIds(aExpectedIdSet, ZoneLibraryBitmap.andNot(aSparseBitmap, aFirstBitmap));
+        aExpectedIdSet = new TreeSet<Integer>(aFirstIdSet);
+        aExpectedIdSet.removeAll(aSparseIdSet);
+        assertSameIds(aExpectedIdSet, ZoneLibraryBitmap.andNot(aFirstBitmap, aSparseBitmap));
+
+        aExpectedIdSet = new TreeSet<Integer>(aFirstIdSet);
+        aExpectedIdSet.addAll(aSecondIdSet);
+        aExpectedIdSet.addAll(aSparseIdSet);
+        ArrayList<ZoneLibraryBitmap> aBitmapList = new ArrayList<ZoneLibraryBitmap>();
+        aBitmapList.add(aFirstBitmap);
+        aBitmapList.add(aSecondBitmap);
+        aBitmapList.add(aSparseBitmap);
+        assertSameIds(aExpectedIdSet, ZoneLibraryBitmap.orAll(aBitmapList));
+
+        assertSameIds(aFirstIdSet, aFirstBitmap); // the operands are left as they were
+        assertSameIds(aSecondIdSet, aSecondBitmap);
+    }
+
+    /**
+     * the result of an operation uses the container that fits its own
+     * cardinality, not that of the operands
+     */
+    @Test
+    public void testOperationContainers() {
+        System.out.println("operationContainers");
+        ZoneLibraryBitmap aEvenBitmap = new ZoneLibraryBitmap();
+        ZoneLibraryBitmap aOddBitmap = new ZoneLibraryBitmap();
+        for (int i = 0; i < 3000; i++) {
+            aEvenBitmap.add(2 * i);
+            aOddBitmap.add(2 * i + 1);
+        }
+        ZoneLibraryBitmap aUnionBitmap = ZoneLibraryBitmap.or(aEvenBitmap, aOddBitmap);
+        assertEquals(6000, aUnionBitmap.size());
+        assertTrue(aUnionBitmap.isBitmapContainer(0)); // two arrays past the array limit together
+
+        ZoneLibraryBitmap aSparseBitmap = ZoneLibraryBitmap.andNot(aUnionBitmap, aOddBitmap);
+        assertEquals(3000, aSparseBitmap.size());
+        assertFalse(aSparseBitmap.isBitmapContainer(0));
+        assertTrue(ZoneLibraryBitmap.and(aUnionBitmap, aUnionBitmap).isBitmapContainer(0));
+        assertFalse(ZoneLibraryBitmap.and(aUnionBitmap, aEvenBitmap).isBitmapContainer(0));
+        assertTrue(ZoneLibraryBitmap.and(aEvenBitmap, aOddBitmap).isEmpty());
+        assertTrue(ZoneLibraryBitmap.andNot(aEvenBitmap, aEvenBitmap).isEmpty());
+    }
+
+    /**
+     * a container turns into a bitmap past the array limit and back into an
+     * array once it is that sparse again
+     */
+    @Test
+    public void testContainerSwitch() {
+        System.out.println("containerSwitch");
+        ZoneLibraryBitmap instance = new ZoneLibraryBitmap();
+        TreeSet<Integer> aIdSet = new TreeSet<Integer>();
+        int aBaseId = 3 * kContainerIdCount;
+        for (int i = 0; i < kMaxArrayCardinality; i++) {
+            instance.add(aBaseId + 16 * i);
+            aIdSet.add(aBaseId + 16 * i);
+        }
+        assertFalse(instance.isBitmapContainer(aBaseId));
+        instance.add(aBaseId + 1);
+        aIdSet.add(aBaseId + 1);
+        assertTrue(instance.isBitmapContainer(aBaseId));
+        assertSameIds(aIdSet, instance);
+
+        assertFalse(instance.remove(aBaseId + 2));
+        assertTrue(instance.isBitmapContainer(aBaseId));
+        assertTrue(instance.remove(aBaseId + 16));
+        aIdSet.remove(aBaseId + 16);
+        assertFalse(instance.isBitmapContainer(aBaseId));
+        assertSameIds(aIdSet, instance);
+
+        for (Integer aId : aIdSet) {
+            assertTrue(instance.remove(aId));
+        }
+        assertTrue(instance.isEmpty());
+        assertFalse(instance.isBitmapContainer(aBaseId));
+        assertEquals(-1, instance.nextId(0));
+        assertTrue(instance.add(aBaseId));
+        assertEquals(aBaseId, instance.nextId(0));
+    }
+
+    /**
+     * a bitmap copied or built from a posting list holds the same ids and
+     * does not change with the original
+     */
+    @Test
+    public void testCopyAndFromPostingList() {
+        System.out.println("copyAndFromPostingList");
+        TreeSet<Integer> aIdSet = getIdSet(5);
+        ZoneLibraryPostingList aPostingList = new ZoneLibraryPostingList();
+        for (Integer aId : aIdSet) {
+            aPostingList.add(aId);
+        }
+        ZoneLibraryBitmap instance = ZoneLibraryBitmap.fromPostingList(aPostingList);
+        assertSameIds(aIdSet, instance);
+
+        ZoneLibraryBitmap aCopyBitmap = instance.copy();
+        int aFirstId = aIdSet.first();
+        int aDenseId = aIdSet.ceiling(kContainerIdCount);
+        assertTrue(instance.remove(aFirstId));
+        assertTrue(instance.remove(aDenseId));
+        assertTrue(aCopyBitmap.contains(aFirstId));
+        assertTrue(aCopyBitmap.contains(aDenseId));
+        assertSameIds(aIdSet, aCopyBitmap);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * a library index filled by hand for the library tests, no network involved
+ */
+package zonecontrol;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryFixture {
+
+    public static final String kSharePathStr = "smb://host/share/";
+    private final ZoneLibraryIndex zlx_Index;
+
+    public ZoneLibraryFixture() {
+        this(new File(System.getProperty("java.io.tmpdir"), "mz-fixture-" + System.nanoTime() + ".idx"));
+    }
+
+    public ZoneLibraryFixture(File theSnapshotFile) {
+        zlx_Index = new ZoneLibraryIndex(false, theSnapshotFile);
+    }
+
+    public ZoneLibraryIndex getIndex() {
+        return zlx_Index;
+    }
+
+    /**
+     * add a file the way a snapshot replay does
+     * @param theFileName String
+     * @param theTitle String - null for none
+     * @param theArtist String - null for none
+     * @param theAlbum String - null for none
+     * @return ZoneLibraryFixture - this, to chain calls
+     */
+    public ZoneLibraryFixture addFile(String theFileName, String theTitle, String theArtist, String theAlbum) {
+        int aDirId = zlx_Index.zli_PathTrie.addFilePath(kSharePathStr + theFileName, theFileName);
+        zlx_Index.loadFileRecord(theFileName, aDirId, theTitle, theAlbum,
+                (theArtist == null) ? null : Arrays.asList(theArtist), new ArrayList<String>(), 1L, 1L);
+        return this;
+    }
+
+    /**
+     * @return ZoneLibraryGeneration - what was added so far, published
+     */
+    public ZoneLibraryGeneration publish() {
+        zlx_Index.publishGeneration();
+        return zlx_Index.getGeneration();
+    }
+}
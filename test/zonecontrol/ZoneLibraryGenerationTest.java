@@ -0,0 +1,84 @@
+/*
+ * test the keyword search over the filename tokens of a published generation
+ */
+package zonecontrol;
+
+import java.util.TreeMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibraryGenerationTest {
+
+    public ZoneLibraryGenerationTest() {
+    }
+
+    private static ZoneLibraryGeneration getGeneration() {
+        return new ZoneLibraryFixture()
+                .addFile("Thebeatles - Help.mp3", null, null, null)
+                .addFile("Beat It.mp3", null, null, null)
+                .addFile("Abbey Road - Come Together.ogg", null, null, null)
+                .publish();
+    }
+
+    /**
+     * a keyword matches the words of a filename it starts
+     */
+    @Test
+    public void testPrefixMatch() {
+        System.out.println("prefixMatch");
+        TreeMap<String, String> result = getGeneration().getFiles(new String[]{"tog"}, true, 0, 10);
+        assertEquals(1, result.size());
+        assertTrue(result.containsKey("Abbey Road - Come Together.ogg"));
+    }
+
+    /**
+     * a keyword that starts a word is still found inside of other words
+     */
+    @Test
+    public void testPrefixAndSubstring() {
+        System.out.println("prefixAndSubstring");
+        TreeMap<String, String> result = getGeneration().getFiles(new String[]{"beat"}, true, 0, 10);
+        assertEquals(2, result.size());
+        assertTrue(result.containsKey("Beat It.mp3"));
+        assertTrue(result.containsKey("Thebeatles - Help.mp3"));
+    }
+
+    /**
+     * a keyword that starts no word is found inside of words, as the scan of
+     * every filename did, and one found nowhere matches nothing
+     */
+    @Test
+    public void testMidWord() {
+        System.out.println("midWord");
+        TreeMap<String, String> result = getGeneration().getFiles(new String[]{"beatles"}, true, 0, 10);
+        assertEquals(1, result.size());
+        assertTrue(result.containsKey("Thebeatles - Help.mp3"));
+        assertTrue(getGeneration().getFiles(new String[]{"zzz"}, false, 0, 10).isEmpty());
+    }
+
+    /**
+     * all keywords intersect, any keyword unites
+     */
+    @Test
+    public void testAllOrAnyKeywords() {
+        System.out.println("allOrAnyKeywords");
+        ZoneLibraryGeneration instance = getGeneration();
+        assertEquals(1, instance.getFiles(new String[]{"help", "beatles"}, true, 0, 10).size());
+        assertEquals(0, instance.getFiles(new String[]{"help", "road"}, true, 0, 10).size());
+        assertEquals(2, instance.getFiles(new String[]{"help", "road"}, false, 0, 10).size());
+    }
+
+    /**
+     * without keywords every file matches, as far as the range goes
+     */
+    @Test
+    public void testNoKeywords() {
+        System.out.println("noKeywords");
+        ZoneLibraryGeneration instance = getGeneration();
+        assertEquals(3, instance.getFiles(null, true, 0, 10).size());
+        assertEquals(2, instance.getFiles(null, true, 0, 1).size());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * test the ranking and the typo tolerance of the search over a published
+ * generation
+ */
+package zonecontrol;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibrarySearchTest {
+
+    public ZoneLibrarySearchTest() {
+    }
+
+    private static ZoneLibraryGeneration getGeneration() {
+        return new ZoneLibraryFixture()
+                .addFile("01.mp3", "Yellow Submarine", "The Beatles", "Revolver")
+                .addFile("02.mp3", "Submarine Song", "Yellow Magic", "Orchestra")
+                .addFile("yellow.mp3", null, null, null)
+                .addFile("03.mp3", "Hello", "Adele", "Twenty Five")
+                .addFile("04.mp3", "Hallo", "Nena", "Fragezeichen")
+                .publish();
+    }
+
+    private static ArrayList<String> search(String theKeywordStr) {
+        return search(theKeywordStr, 0, 9);
+    }
+
+    private static ArrayList<String> search(String theKeywordStr, int theStartIndexInt, int theEndIndexInt) {
+        LinkedHashMap<String, String> aFileMap = getGeneration().getRankedFiles(
+                theKeywordStr.split(" "), null, theStartIndexInt, theEndIndexInt);
+        return new ArrayList<String>(aFileMap.keySet());
+    }
+
+    /**
+     * a title match ranks above an artist match, which ranks above a
+     * filename match
+     */
+    @Test
+    public void testFieldWeights() {
+        System.out.println("fieldWeights");
+        ArrayList<String> result = search("yellow");
+        assertEquals(3, result.size());
+        assertEquals("01.mp3", result.get(0));
+        assertEquals("02.mp3", result.get(1));
+        assertEquals("yellow.mp3", result.get(2));
+    }
+
+    /**
+     * a file matching more of the keywords ranks above one matching fewer in
+     * better fields
+     */
+    @Test
+    public void testMoreKeywordsWin() {
+        System.out.println("moreKeywordsWin");
+        ArrayList<String> result = search("yellow submarine");
+        assertEquals(3, result.size());
+        assertEquals("01.mp3", result.get(0));
+        assertEquals("02.mp3", result.get(1));
+        assertEquals("yellow.mp3", result.get(2));
+
+        result = search("submarine revolver");
+        assertEquals("01.mp3", result.get(0)); // two keywords against one in the title
+    }
+
+    /**
+     * only the wanted range of ranks comes back
+     */
+    @Test
+    public void testRankRange() {
+        System.out.println("rankRange");
+        ArrayList<String> result = search("yellow", 1, 1);
+        assertEquals(1, result.size());
+        assertEquals("02.mp3", result.get(0));
+        assertTrue(search("yellow", 3, 9).isEmpty());
+        assertTrue(search("yellow", 2, 1).isEmpty());
+    }
+
+    /**
+     * an exact match ranks above a typo, a keyword starting a term matches it
+     */
+    @Test
+    public void testExactBeforeTypo() {
+        System.out.println("exactBeforeTypo");
+        ArrayList<String> result = search("hello");
+        assertEquals(2, result.size());
+        assertEquals("03.mp3", result.get(0));
+        assertEquals("04.mp3", result.get(1)); // hallo, one typo
+
+        result = search("subm");
+        assertEquals(2, result.size());
+        assertEquals("01.mp3", result.get(0)); // submarine in both titles, lower file id on a tie
+    }
+
+    /**
+     * keywords of four to seven characters may have one typo, longer ones
+     * two, shorter ones none
+     */
+    @Test
+    public void testTypoCutoff() {
+        System.out.println("typoCutoff");
+        assertEquals(3, search("yelow").size());
+        assertEquals(3, search("yellwo").size()); // a swap is one typo
+        assertTrue(search("yelo").isEmpty()); // two typos in a short keyword
+        assertEquals(1, search("nen").size()); // a prefix still matches
+        assertTrue(search("nna").isEmpty()); // too short for a typo
+        assertEquals(2, search("submarxxe").size());
+        assertTrue(search("subxarxxe").isEmpty());
+    }
+
+    /**
+     * the distance stops counting past the maximum
+     */
+    @Test
+    public void testEditDistance() {
+        System.out.println("editDistance");
+        assertEquals(0, ZoneLibrarySearch.getEditDistance("song", "song", 2));
+        assertEquals(1, ZoneLibrarySearch.getEditDistance("song", "snog", 2));
+        assertEquals(1, ZoneLibrarySearch.getEditDistance("song", "songs", 2));
+        assertEquals(2, ZoneLibrarySearch.getEditDistance("song", "sign", 2));
+        assertEquals(3, ZoneLibrarySearch.getEditDistance("kitten", "sitting", 3));
+        assertEquals(2, ZoneLibrarySearch.getEditDistance("kitten", "sitting", 1));
+        assertEquals(2, ZoneLibrarySearch.getEditDistance("", "ab", 2));
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * test that a snapshot reads back what was written, and that a truncated or
+ * corrupt one is refused so the zone crawls instead
+ */
+package zonecontrol;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibrarySnapshotTest {
+
+    private File zlst_SnapshotFile = null;
+
+    public ZoneLibrarySnapshotTest() {
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        zlst_SnapshotFile = File.createTempFile("mz-snapshot-", ".idx");
+        zlst_SnapshotFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        zlst_SnapshotFile.delete();
+    }
+
+    /**
+     * @return int - number of bytes written
+     */
+    private int writeSnapshot() {
+        ZoneLibraryFixture aFixture = new ZoneLibraryFixture(zlst_SnapshotFile)
+                .addFile("Come Together.mp3", "Come Together", "The Beatles", "Abbey Road")
+                .addFile("Something.mp3", "Something", "The Beatles", "Abbey Road")
+                .addFile("F\u00fcr Elise.ogg", "F\u00fcr Elise", "Beethoven", null)
+                .addFile("untagged.wav", null, null, null);
+        ZoneLibraryDirectoryRecord aDirRecord = new ZoneLibraryDirectoryRecord(ZoneLibraryFixture.kSharePathStr, 42L);
+        aDirRecord.addChildDirPath(ZoneLibraryFixture.kSharePathStr + "empty/");
+        aDirRecord.addChildFileName("Come Together.mp3");
+        aFixture.getIndex().loadDirectoryRecord(aDirRecord);
+        assertTrue(aFixture.getIndex().zli_Snapshot.write(aFixture.getIndex()));
+        assertFalse(new File(zlst_SnapshotFile.getPath() + ".tmp").exists());
+        return (int) zlst_SnapshotFile.length();
+    }
+
+    private byte[] readSnapshotBytes() throws IOException {
+        byte[] returnBytes = new byte[(int) zlst_SnapshotFile.length()];
+        FileInputStream aFileInputStream = new FileInputStream(zlst_SnapshotFile);
+        try {
+            int aOffset = 0;
+            while (aOffset < returnBytes.length) {
+                aOffset += aFileInputStream.read(returnBytes, aOffset, returnBytes.length - aOffset);
+            }
+        } finally {
+            aFileInputStream.close();
+        }
+        return returnBytes;
+    }
+
+    private void writeSnapshotBytes(byte[] theBytes, int theLength) throws IOException {
+        FileOutputStream aFileOutputStream = new FileOutputStream(zlst_SnapshotFile);
+        try {
+            aFileOutputStream.write(theBytes, 0, theLength);
+        } finally {
+            aFileOutputStream.close();
+        }
+    }
+
+    /**
+     * files, tags, paths and directory listings come back as they were
+     */
+    @Test
+    public void testRoundTrip() {
+        System.out.println("roundTrip");
+        writeSnapshot();
+        ZoneLibraryIndex aIndex = new ZoneLibraryFixture(zlst_SnapshotFile).getIndex();
+        aIndex.loadSnapshot();
+        ZoneLibraryGeneration aGeneration = aIndex.getGeneration();
+        assertEquals(4, aGeneration.getFileCount());
+
+        ZoneLibraryFileRecord aFileRecord = aGeneration.getFileRecord("Something.mp3");
+        assertEquals("Something", aFileRecord.getTitle());
+        assertEquals("Abbey Road", aFileRecord.getAlbum());
+        assertEquals(1, aFileRecord.getArtistList().size());
+        assertEquals("The Beatles", aFileRecord.getArtistList().get(0));
+        assertEquals(ZoneLibraryFixture.kSharePathStr + "Something.mp3", aGeneration.getRawFullPath(aFileRecord));
+        assertEquals(1L, aFileRecord.getLastModified());
+        assertEquals(1L, aFileRecord.getSize());
+
+        aFileRecord = aGeneration.getFileRecord("F\u00fcr Elise.ogg");
+        assertEquals("F\u00fcr Elise", aFileRecord.getTitle());
+        assertNull(aFileRecord.getAlbum());
+        aFileRecord = aGeneration.getFileRecord("untagged.wav");
+        assertNull(aFileRecord.getTitle());
+        assertTrue(aFileRecord.getArtistList().isEmpty());
+        assertEquals(1, aGeneration.getFiles(new String[]{"elise"}, true, 0, 10).size()); // filename tokens rebuilt
+
+        ZoneLibraryDirectoryRecord aDirRecord = aIndex.zli_DirectoryMap.get(ZoneLibraryFixture.kSharePathStr);
+        assertEquals(42L, aDirRecord.getLastModified());
+        assertEquals(ZoneLibraryFixture.kSharePathStr + "empty/", aDirRecord.getChildDirPathList().get(0));
+        assertEquals("Come Together.mp3", aDirRecord.getChildFileNameList().get(0));
+    }
+
+    /**
+     * a snapshot cut short anywhere is not loaded, and the index is left
+     * unpublished for the crawl to fill
+     */
+    @Test
+    public void testTruncated() throws IOException {
+        System.out.println("truncated");
+        int aLength = writeSnapshot();
+        byte[] aSnapshotBytes = readSnapshotBytes();
+        ZoneLibraryIndex aIndex = new ZoneLibraryFixture(zlst_SnapshotFile).getIndex();
+        for (int aTruncatedLength = 0; aTruncatedLength < aLength; aTruncatedLength++) {
+            writeSnapshotBytes(aSnapshotBytes, aTruncatedLength);
+            assertEquals(-1, new ZoneLibrarySnapshot(zlst_SnapshotFile, false).load(aIndex));
+        }
+
+        writeSnapshotBytes(aSnapshotBytes, aLength / 2);
+        aIndex = new ZoneLibraryFixture(zlst_SnapshotFile).getIndex();
+        aIndex.loadSnapshot();
+        assertEquals(0, aIndex.getGeneration().getFileCount());
+    }
+
+    /**
+     * a snapshot of another version, or with bytes overwritten, is refused or
+     * read as far as it makes sense, but never throws
+     */
+    @Test
+    public void testCorrupt() throws IOException {
+        System.out.println("corrupt");
+        int aLength = writeSnapshot();
+        byte[] aSnapshotBytes = readSnapshotBytes();
+        ZoneLibraryIndex aIndex = new ZoneLibraryFixture(zlst_SnapshotFile).getIndex();
+
+        byte[] aCorruptBytes = aSnapshotBytes.clone();
+        aCorruptBytes[7]++; // the version
+        writeSnapshotBytes(aCorruptBytes, aLength);
+        assertEquals(-1, new ZoneLibrarySnapshot(zlst_SnapshotFile, false).load(aIndex));
+
+        aCorruptBytes = aSnapshotBytes.clone();
+        aCorruptBytes[aLength - 1]++; // the trailing magic
+        writeSnapshotBytes(aCorruptBytes, aLength);
+        assertEquals(-1, new ZoneLibrarySnapshot(zlst_SnapshotFile, false).load(aIndex));
+
+        for (int i = 8; i < aLength; i++) { // every count, length and reference made huge in turn
+            aCorruptBytes = aSnapshotBytes.clone();
+            aCorruptBytes[i] = (byte) 0xFF;
+            writeSnapshotBytes(aCorruptBytes, aLength);
+            int aLoadedCount = new ZoneLibrarySnapshot(zlst_SnapshotFile, false).load(aIndex);
+            assertTrue((aLoadedCount == -1) || (aLoadedCount == 4));
+        }
+
+        Random aRandom = new Random(1);
+        for (int i = 0; i < 20; i++) {
+            aCorruptBytes = aSnapshotBytes.clone();
+            for (int j = 12; j < aLength; j++) {
+                aCorruptBytes[j] = (byte) aRandom.nextInt();
+            }
+            writeSnapshotBytes(aCorruptBytes, aLength);
+            assertEquals(-1, new ZoneLibrarySnapshot(zlst_SnapshotFile, false).load(aIndex));
+        }
+    }
+
+    /**
+     * a corrupt snapshot of another zone leaves the index as it was, even
+     * when its files read fine and only the end is wrong
+     */
+    @Test
+    public void testCorruptImport() throws IOException {
+        System.out.println("corruptImport");
+        int aLength = writeSnapshot();
+        byte[] aCorruptBytes = readSnapshotBytes();
+        aCorruptBytes[aLength - 1]++; // the trailing magic
+        writeSnapshotBytes(aCorruptBytes, aLength);
+
+        ZoneLibraryIndex aIndex = new ZoneLibraryFixture(zlst_SnapshotFile)
+                .addFile("Other.mp3", "Other", "Someone", null).getIndex();
+        int aDirCount = aIndex.zli_PathTrie.getDirCount();
+        assertEquals(-1, new ZoneLibrarySnapshot(zlst_SnapshotFile, false).load(aIndex, true));
+        assertNotNull(aIndex.getBuildFileRecord("Other.mp3"));
+        assertNull(aIndex.getBuildFileRecord("Something.mp3"));
+        assertNull(aIndex.getBuildFileRecord("untagged.wav"));
+        assertEquals(aDirCount, aIndex.zli_PathTrie.getDirCount());
+        assertTrue(aIndex.zli_DirectoryMap.isEmpty());
+
+        aCorruptBytes[aLength - 1]--;
+        writeSnapshotBytes(aCorruptBytes, aLength);
+        assertEquals(4, new ZoneLibrarySnapshot(zlst_SnapshotFile, false).load(aIndex, true));
+        assertNotNull(aIndex.getBuildFileRecord("Something.mp3"));
+        assertEquals(1, aIndex.zli_DirectoryMap.size());
+    }
+
+    /**
+     * a snapshot written over another leaves no backup behind, and a backup
+     * left by a zone stopped between the renames is loaded
+     */
+    @Test
+    public void testBackup() {
+        System.out.println("backup");
+        writeSnapshot();
+        writeSnapshot();
+        File aBackupFile = new File(zlst_SnapshotFile.getPath() + ".bak");
+        assertFalse(aBackupFile.exists());
+
+        assertTrue(zlst_SnapshotFile.renameTo(aBackupFile));
+        ZoneLibraryIndex aIndex = new ZoneLibraryFixture(zlst_SnapshotFile).getIndex();
+        assertEquals(4, aIndex.zli_Snapshot.load(aIndex));
+        assertTrue(aBackupFile.delete());
+    }
+}
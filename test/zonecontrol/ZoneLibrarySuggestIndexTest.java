@@ -0,0 +1,99 @@
+/*
+ * test the completions of titles, artists and albums by prefix
+ */
+package zonecontrol;
+
+import java.util.ArrayList;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneLibrarySuggestIndexTest {
+
+    public ZoneLibrarySuggestIndexTest() {
+    }
+
+    /**
+     * files per value - Hello Kitty 4, Help! 3, Help 2 + 1, Hero 1, Hey Jude 1
+     */
+    private static ZoneLibrarySuggestIndex getSuggestIndex() {
+        return new ZoneLibraryFixture()
+                .addFile("01.mp3", "Hey Jude", "Hello Kitty", "Help!")
+                .addFile("02.mp3", "Help", "Hello Kitty", "Help!")
+                .addFile("03.mp3", "Something", "Hello Kitty", "Help!")
+                .addFile("04.mp3", "Yesterday", "Hello Kitty", "Help")
+                .addFile("05.mp3", "Help", "Hero", "Abbey Road")
+                .publish().getSuggestIndex();
+    }
+
+    private static ArrayList<String> suggest(String thePrefix, int theCount) {
+        ArrayList<String> returnValueList = new ArrayList<String>();
+        for (ZoneLibrarySuggestIndex.Suggestion aSuggestion : getSuggestIndex().getSuggestions(thePrefix, theCount)) {
+            returnValueList.add(aSuggestion.getValue());
+        }
+        return returnValueList;
+    }
+
+    /**
+     * the values with the most files come first, only as many as asked for
+     */
+    @Test
+    public void testTopCompletions() {
+        System.out.println("topCompletions");
+        ArrayList<String> result = suggest("he", 2);
+        assertEquals(2, result.size());
+        assertEquals("Hello Kitty", result.get(0));
+        assertEquals("Help!", result.get(1));
+
+        result = suggest("he", 10);
+        assertEquals(6, result.size());
+        assertEquals("Hello Kitty", result.get(0));
+        assertEquals("Help!", result.get(1));
+        assertEquals("Help", result.get(2)); // the title
+        assertEquals("Help", result.get(3)); // the album
+        assertEquals("Hero", result.get(4)); // one file each, in order of the values
+        assertEquals("Hey Jude", result.get(5));
+    }
+
+    /**
+     * the prefix ignores case and only values starting with it are suggested
+     */
+    @Test
+    public void testPrefix() {
+        System.out.println("prefix");
+        ArrayList<String> result = suggest("HELP", 10);
+        assertEquals(3, result.size());
+        assertEquals("Help!", result.get(0));
+        assertEquals("Help", result.get(1));
+        assertEquals("Help", result.get(2));
+        assertEquals(1, suggest("y", 10).size());
+        assertTrue(suggest("kitty", 10).isEmpty()); // not the start of the value
+        assertTrue(suggest("zz", 10).isEmpty());
+        assertTrue(suggest("he", 0).isEmpty());
+        assertEquals(9, suggest("", 20).size()); // every value once per facet
+    }
+
+    /**
+     * a value in two facets is suggested once for each, with the files it
+     * has in that facet
+     */
+    @Test
+    public void testValueInTwoFacets() {
+        System.out.println("valueInTwoFacets");
+        ArrayList<ZoneLibrarySuggestIndex.Suggestion> result = getSuggestIndex().getSuggestions("help", 10);
+        assertEquals(3, result.size());
+        assertEquals("Help!", result.get(0).getValue());
+        assertEquals(LibraryFacetType.album, result.get(0).getFacetType());
+        assertEquals(3, result.get(0).getFileCount());
+        assertEquals("Help", result.get(1).getValue());
+        assertEquals(LibraryFacetType.title, result.get(1).getFacetType());
+        assertEquals(2, result.get(1).getFileCount());
+        assertEquals("Help", result.get(2).getValue());
+        assertEquals(LibraryFacetType.album, result.get(2).getFacetType());
+        assertEquals(1, result.get(2).getFileCount());
+        assertEquals(LibraryFacetType.artist, getSuggestIndex().getSuggestions("hello", 1).get(0).getFacetType());
+        assertEquals(9, getSuggestIndex().size()); // Help counted as a title and as an album
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * test the expiry of zone records on the timing wheel, on a clock of our own
+ */
+package zonecontrol;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneRegistryTest {
+
+    private static final long kSecondNanos = 1000L * 1000 * 1000;
+
+    public ZoneRegistryTest() {
+    }
+
+    private static long seconds(double theSeconds) {
+        return (long) (theSeconds * kSecondNanos);
+    }
+
+    /**
+     * a record stays until it is as old as the expiry, then the sweep drops it
+     */
+    @Test
+    public void testExpiry() {
+        System.out.println("expiry");
+        ZoneRegistry instance = new ZoneRegistry(5, 10, 0);
+        instance.put("a", "zone a", "http://a/", seconds(0.5));
+        instance.sweep(seconds(10.4));
+        assertNotNull(instance.get("a"));
+        instance.sweep(seconds(12));
+        assertNull(instance.get("a"));
+        assertEquals(0, instance.size());
+    }
+
+    /**
+     * a record is only replaced once it is older than the refresh interval
+     */
+    @Test
+    public void testRefreshInterval() {
+        System.out.println("refreshInterval");
+        ZoneRegistry instance = new ZoneRegistry(5, 10, 0);
+        instance.put("a", "old name", "http://a/", seconds(1));
+        instance.put("a", "new name", "http://a/", seconds(3)); // too soon, ignored
+        assertEquals("old name", instance.get("a").getZoneName());
+        instance.sweep(seconds(12));
+        assertNull(instance.get("a")); // expired from the first put
+    }
+
+    /**
+     * the replaced record on the wheel is skipped, the new one expires on its
+     * own tick
+     */
+    @Test
+    public void testReplacedRecord() {
+        System.out.println("replacedRecord");
+        ZoneRegistry instance = new ZoneRegistry(5, 10, 0);
+        instance.put("a", "old name", "http://a/", seconds(1));
+        instance.put("a", "new name", "http://a/", seconds(7));
+        instance.sweep(seconds(12));
+        assertEquals("new name", instance.get("a").getZoneName());
+        instance.sweep(seconds(16.9));
+        assertNotNull(instance.get("a"));
+        instance.sweep(seconds(18));
+        assertNull(instance.get("a"));
+    }
+
+    /**
+     * after a gap longer than the wheel every slot is visited once, and a
+     * record found in a slot before it expires goes back on the wheel
+     */
+    @Test
+    public void testSweepAfterLongGap() {
+        System.out.println("sweepAfterLongGap");
+        ZoneRegistry instance = new ZoneRegistry(5, 10, 0);
+        instance.put("old", "old zone", "http://old/", seconds(1));
+        instance.put("new", "new zone", "http://new/", seconds(95));
+        instance.sweep(seconds(100));
+        assertNull(instance.get("old"));
+        assertNotNull(instance.get("new"));
+        instance.sweep(seconds(104.5));
+        assertNotNull(instance.get("new"));
+        instance.sweep(seconds(106));
+        assertNull(instance.get("new"));
+    }
+
+    /**
+     * System.nanoTime may be negative and cross zero
+     */
+    @Test
+    public void testNegativeClock() {
+        System.out.println("negativeClock");
+        ZoneRegistry instance = new ZoneRegistry(5, 10, seconds(-20));
+        instance.put("a", "zone a", "http://a/", seconds(-5.5));
+        instance.sweep(seconds(4));
+        assertNotNull(instance.get("a"));
+        instance.sweep(seconds(5.5));
+        assertNull(instance.get("a"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExpiryLongerThanWheel() {
+        System.out.println("expiryLongerThanWheel");
+        new ZoneRegistry(5, 64);
+    }
+}
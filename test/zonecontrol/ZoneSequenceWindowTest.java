@@ -0,0 +1,102 @@
+/*
+ * test telling apart the playlist datagrams seen before
+ */
+package zonecontrol;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneSequenceWindowTest {
+
+    public ZoneSequenceWindowTest() {
+    }
+
+    /**
+     * a sequence delivered twice is carried out once, per sender
+     */
+    @Test
+    public void testDuplicate() {
+        System.out.println("duplicate");
+        ZoneSequenceWindow instance = new ZoneSequenceWindow();
+        assertTrue(instance.isNew("a", 1000));
+        assertFalse(instance.isNew("a", 1000));
+        assertTrue(instance.isNew("b", 1000));
+        assertTrue(instance.isNew("a", 1001));
+        assertFalse(instance.isNew("a", 1001));
+        assertFalse(instance.isNew("a", 1000));
+    }
+
+    /**
+     * sequences below the highest are still new once, as far as the window
+     * reaches
+     */
+    @Test
+    public void testOutOfOrder() {
+        System.out.println("outOfOrder");
+        ZoneSequenceWindow instance = new ZoneSequenceWindow();
+        assertTrue(instance.isNew("a", 1000));
+        assertTrue(instance.isNew("a", 1005));
+        assertTrue(instance.isNew("a", 1003));
+        assertFalse(instance.isNew("a", 1003));
+        assertTrue(instance.isNew("a", 1001));
+        long aOldest = 1005 - (ZoneSequenceWindow.kWindowSize - 1);
+        assertFalse(instance.isNew("a", 1005));
+        assertTrue(instance.isNew("a", aOldest)); // the last one still inside
+        assertFalse(instance.isNew("a", aOldest));
+        assertFalse(instance.isNew("a", 1000));
+    }
+
+    /**
+     * the window slides along, a jump past its size forgets everything below
+     */
+    @Test
+    public void testJumpBeyondWindow() {
+        System.out.println("jumpBeyondWindow");
+        ZoneSequenceWindow instance = new ZoneSequenceWindow();
+        assertTrue(instance.isNew("a", 1000));
+        assertTrue(instance.isNew("a", 1002));
+        assertTrue(instance.isNew("a", 1000 + ZoneSequenceWindow.kWindowSize));
+        assertFalse(instance.isNew("a", 1002)); // slid along, still seen
+        assertTrue(instance.isNew("a", 1001)); // slid along, still unseen
+        long aHighest = 1000 + 3 * ZoneSequenceWindow.kWindowSize;
+        assertTrue(instance.isNew("a", aHighest));
+        assertFalse(instance.isNew("a", aHighest));
+        assertTrue(instance.isNew("a", aHighest - 1));
+        assertFalse(instance.isNew("a", aHighest - 1));
+    }
+
+    /**
+     * a restarted sender counting from further below than the window is
+     * taken at its word, and its repeats are caught again
+     */
+    @Test
+    public void testSenderRestart() {
+        System.out.println("senderRestart");
+        ZoneSequenceWindow instance = new ZoneSequenceWindow();
+        for (long i = 5000; i < 5100; i++) {
+            assertTrue(instance.isNew("a", i));
+        }
+        long aRestart = 5100 - 2 * ZoneSequenceWindow.kWindowSize;
+        assertTrue(instance.isNew("a", aRestart));
+        assertFalse(instance.isNew("a", aRestart));
+        assertTrue(instance.isNew("a", aRestart + 1));
+        assertFalse(instance.isNew("a", aRestart + 1));
+        assertTrue(instance.isNew("a", 5099)); // the window went with the restart
+    }
+
+    /**
+     * the window does not depend on the sign of the sequence
+     */
+    @Test
+    public void testNegativeSequence() {
+        System.out.println("negativeSequence");
+        ZoneSequenceWindow instance = new ZoneSequenceWindow();
+        assertTrue(instance.isNew("a", -3));
+        assertTrue(instance.isNew("a", 2));
+        assertTrue(instance.isNew("a", -1));
+        assertFalse(instance.isNew("a", -3));
+    }
+}
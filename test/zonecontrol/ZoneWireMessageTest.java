@@ -0,0 +1,207 @@
+/*
+ * test the binary datagram format round trip and what it refuses to read
+ */
+package zonecontrol;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Jason Zerbe
+ */
+public class ZoneWireMessageTest {
+
+    private static final String kZoneUUID = "0123456789abcdef0123456789abcdef01234567";
+
+    public ZoneWireMessageTest() {
+    }
+
+    private static byte[] getIdBytes() {
+        byte[] returnIdBytes = new byte[ZoneWireMessage.kIdByteCount];
+        assertTrue(ZoneWireMessage.getIdBytes(kZoneUUID, returnIdBytes));
+        return returnIdBytes;
+    }
+
+    private static ByteBuffer encode(byte theType, String... theFieldStrs) {
+        ByteBuffer returnBuffer = ByteBuffer.allocate(ZoneWireMessage.kFrameByteCount);
+        ZoneWireMessage.begin(returnBuffer, theType, getIdBytes());
+        for (String aFieldStr : theFieldStrs) {
+            ZoneWireMessage.putField(returnBuffer, aFieldStr);
+        }
+        returnBuffer.flip();
+        return returnBuffer;
+    }
+
+    /**
+     * header and fields come back as they were put
+     */
+    @Test
+    public void testRoundTrip() {
+        System.out.println("roundTrip");
+        ByteBuffer aBuffer = encode(ZoneWireMessage.kTypeZoneInfo, "living room", "", "http://10.0.0.2:8080");
+        assertTrue(ZoneWireMessage.isWireMessage(aBuffer.array(), aBuffer.limit()));
+        ZoneWireMessage instance = new ZoneWireMessage();
+        assertTrue(instance.decode(aBuffer));
+        assertEquals(ZoneWireMessage.kVersion, instance.getVersion());
+        assertEquals(ZoneWireMessage.kTypeZoneInfo, instance.getType());
+        assertEquals(kZoneUUID, instance.getIdStr());
+        assertTrue(instance.isId(getIdBytes()));
+        assertEquals(3, instance.getFieldCount());
+        assertEquals("living room", instance.getFieldStr(0));
+        assertEquals("", instance.getFieldStr(1));
+        assertEquals("http://10.0.0.2:8080", instance.getFieldStr(2));
+        assertNull(instance.getFieldStr(3));
+        assertEquals(aBuffer.limit(), instance.getLength());
+    }
+
+    /**
+     * the encoder writes the same bytes as the platform UTF-8 encoder, for
+     * every length of sequence, and counts them ahead the same
+     */
+    @Test
+    public void testMultibyteUtf8() throws UnsupportedEncodingException {
+        System.out.println("multibyteUtf8");
+        String[] aFieldStrArray = {"ascii", "caf\u00e9", "\u20ac \u65e5\u672c",
+            "\ud83c\udfb5 note", "\u007f\u0080\u07ff\u0800\uffff"};
+        ByteBuffer aBuffer = encode(ZoneWireMessage.kTypeMediaUrl, aFieldStrArray);
+        ZoneWireMessage instance = new ZoneWireMessage();
+        assertTrue(instance.decode(aBuffer));
+        int aOffset = aBuffer.limit();
+        for (int i = aFieldStrArray.length - 1; i >= 0; i--) {
+            byte[] aExpectedBytes = aFieldStrArray[i].getBytes("UTF-8");
+            aOffset -= aExpectedBytes.length;
+            for (int j = 0; j < aExpectedBytes.length; j++) {
+                assertEquals(aExpectedBytes[j], aBuffer.get(aOffset + j));
+            }
+            aOffset -= 2;
+            assertEquals(aExpectedBytes.length, aBuffer.getShort(aOffset) & 0xFFFF);
+            assertEquals(aExpectedBytes.length + 2, ZoneWireMessage.getFieldByteCount(aFieldStrArray[i]));
+            assertEquals(aFieldStrArray[i], instance.getFieldStr(i));
+        }
+    }
+
+    /**
+     * half of a surrogate pair cannot be encoded and goes as a question mark
+     */
+    @Test
+    public void testLoneSurrogate() {
+        System.out.println("loneSurrogate");
+        ByteBuffer aBuffer = encode(ZoneWireMessage.kTypeMediaUrl, "a\ud83cb", "\udfb5");
+        ZoneWireMessage instance = new ZoneWireMessage();
+        assertTrue(instance.decode(aBuffer));
+        assertEquals("a?b", instance.getFieldStr(0));
+        assertEquals("?", instance.getFieldStr(1));
+        assertEquals(3 + 2, ZoneWireMessage.getFieldByteCount("a\ud83cb"));
+    }
+
+    /**
+     * a field takes up to 65535 bytes, the most its unsigned 16 bit length
+     * tells
+     */
+    @Test
+    public void testFieldLengthBounds() {
+        System.out.println("fieldLengthBounds");
+        StringBuilder aFieldStr = new StringBuilder();
+        for (int i = 0; i < 0xFFFF; i++) {
+            aFieldStr.append('x');
+        }
+        ByteBuffer aBuffer = ByteBuffer.allocate(0x20000);
+        ZoneWireMessage.begin(aBuffer, ZoneWireMessage.kTypeMediaUrl, getIdBytes());
+        ZoneWireMessage.putField(aBuffer, aFieldStr.toString());
+        aBuffer.flip();
+        ZoneWireMessage instance = new ZoneWireMessage();
+        assertTrue(instance.decode(aBuffer));
+        assertEquals(aFieldStr.toString(), instance.getFieldStr(0));
+
+        aBuffer.clear();
+        ZoneWireMessage.begin(aBuffer, ZoneWireMessage.kTypeMediaUrl, getIdBytes());
+        try {
+            ZoneWireMessage.putField(aBuffer, aFieldStr.append('x').toString());
+            fail("a field of 65536 bytes was put");
+        } catch (IllegalStateException ex) {
+        }
+    }
+
+    /**
+     * a message cut short in its header or in a field is refused
+     */
+    @Test
+    public void testTruncated() {
+        System.out.println("truncated");
+        ByteBuffer aBuffer = encode(ZoneWireMessage.kTypeZoneInfo, "name", "dashboard");
+        ZoneWireMessage instance = new ZoneWireMessage();
+        for (int aLimit = aBuffer.limit() - 1; aLimit >= 0; aLimit--) {
+            aBuffer.limit(aLimit).position(0);
+            assertFalse(instance.decode(aBuffer));
+            assertNull(instance.getFieldStr(0));
+        }
+    }
+
+    /**
+     * a bad signature is not ours, an older version is laid out differently,
+     * a newer version is read as far as it goes
+     */
+    @Test
+    public void testSignatureAndVersion() {
+        System.out.println("signatureAndVersion");
+        ZoneWireMessage instance = new ZoneWireMessage();
+        for (int i = 0; i < 5; i++) {
+            ByteBuffer aBuffer = encode(ZoneWireMessage.kTypeZoneQuery);
+            aBuffer.put(i, (byte) 'z');
+            assertFalse(ZoneWireMessage.isWireMessage(aBuffer.array(), aBuffer.limit()));
+            assertFalse(instance.decode(aBuffer));
+        }
+
+        ByteBuffer aBuffer = encode(ZoneWireMessage.kTypeZoneQuery);
+        aBuffer.put(5, (byte) (ZoneWireMessage.kVersion - 1));
+        assertFalse(instance.decode(aBuffer));
+        aBuffer.put(5, (byte) 0);
+        assertFalse(instance.decode(aBuffer));
+        aBuffer.put(5, (byte) (ZoneWireMessage.kVersion + 1));
+        assertTrue(instance.decode(aBuffer));
+        assertEquals(ZoneWireMessage.kVersion + 1, instance.getVersion());
+    }
+
+    /**
+     * messages sent one after another in a stream are read one at a time
+     */
+    @Test
+    public void testStream() {
+        System.out.println("stream");
+        ByteBuffer aFirst = encode(ZoneWireMessage.kTypePlaylist, "a", "1", "cmd");
+        ByteBuffer aSecond = encode(ZoneWireMessage.kTypePlaylist, "a", "2");
+        ByteBuffer aStream = ByteBuffer.allocate(aFirst.limit() + aSecond.limit());
+        aStream.put(aFirst).put(aSecond).flip();
+        ZoneWireMessage instance = new ZoneWireMessage();
+        assertTrue(instance.decode(aStream));
+        assertEquals(3, instance.getFieldCount());
+        aStream.position(instance.getLength());
+        assertTrue(instance.decode(aStream));
+        assertEquals("2", instance.getFieldStr(1));
+        assertEquals(aSecond.limit(), instance.getLength());
+    }
+
+    /**
+     * a zone that only knows text commands trims what it receives and splits
+     * it into lines, it only acts on up to three of them
+     */
+    @Test
+    public void testIgnoredByTextZones() {
+        System.out.println("ignoredByTextZones");
+        ByteBuffer aBuffer = ByteBuffer.allocate(ZoneWireMessage.kFrameByteCount);
+        ZoneWireMessage.begin(aBuffer, ZoneWireMessage.kTypeZoneQuery, new byte[ZoneWireMessage.kIdByteCount]);
+        aBuffer.flip();
+        assertTrue(getTextLineCount(aBuffer) >= 4);
+
+        aBuffer = encode(ZoneWireMessage.kTypeZoneInfo, "zone=x", "name=y\ndashboard=z");
+        assertTrue(getTextLineCount(aBuffer) >= 4);
+    }
+
+    private static int getTextLineCount(ByteBuffer theBuffer) {
+        byte[] aBytes = new byte[theBuffer.limit()];
+        theBuffer.get(aBytes);
+        return new String(aBytes).trim().toLowerCase().split("\n").length;
+    }
+}